@@ -2,12 +2,7 @@ package org.xenei.jena.security;
 
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
-import java.lang.reflect.Proxy;
 import java.security.Principal;
-import java.util.LinkedHashSet;
-import java.util.Set;
-
-import org.apache.commons.lang.ClassUtils;
 
 public class CachedSecurityEvaluator implements InvocationHandler
 {
@@ -36,17 +31,9 @@ public class CachedSecurityEvaluator implements InvocationHandler
 	public static SecurityEvaluator getInstance(
 			final SecurityEvaluator evaluator, final Principal runAs )
 	{
-		final Set<Class<?>> ifac = new LinkedHashSet<Class<?>>();
-		if (evaluator.getClass().isInterface())
-		{
-			ifac.add(evaluator.getClass());
-		}
-		ifac.addAll(ClassUtils.getAllInterfaces(evaluator.getClass()));
-
-		return (SecurityEvaluator) Proxy.newProxyInstance(
-				SecuredItemImpl.class.getClassLoader(),
-				ifac.toArray(new Class<?>[ifac.size()]),
-				new CachedSecurityEvaluator(evaluator, runAs));
+		return (SecurityEvaluator) ProxyCache.newInstance(
+				evaluator.getClass(), null, new CachedSecurityEvaluator(
+						evaluator, runAs));
 	}
 
 	private CachedSecurityEvaluator( final SecurityEvaluator wrapped,
@@ -1,10 +1,29 @@
 package org.xenei.jena.security;
 
 import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.rdf.model.Literal;
 import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.Property;
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.rdf.model.Statement;
 
 import org.xenei.jena.security.graph.SecuredGraph;
+import org.xenei.jena.security.graph.impl.SecuredBulkUpdateHandlerImpl;
+import org.xenei.jena.security.graph.impl.SecuredGraphImpl;
+import org.xenei.jena.security.graph.impl.SecuredPrefixMappingImpl;
+import org.xenei.jena.security.graph.impl.SecuredReifierImpl;
 import org.xenei.jena.security.model.SecuredModel;
+import org.xenei.jena.security.model.impl.SecuredAltImpl;
+import org.xenei.jena.security.model.impl.SecuredBagImpl;
+import org.xenei.jena.security.model.impl.SecuredLiteralImpl;
+import org.xenei.jena.security.model.impl.SecuredModelImpl;
+import org.xenei.jena.security.model.impl.SecuredPropertyImpl;
+import org.xenei.jena.security.model.impl.SecuredRDFListImpl;
+import org.xenei.jena.security.model.impl.SecuredReifiedStatementImpl;
+import org.xenei.jena.security.model.impl.SecuredResourceImpl;
+import org.xenei.jena.security.model.impl.SecuredSeqImpl;
+import org.xenei.jena.security.model.impl.SecuredStatementImpl;
 
 public class Factory
 {
@@ -29,6 +48,52 @@ public class Factory
 				securityEvaluator, graphIRI, graph);
 	}
 
+	/**
+	 * Get an instance of SecuredGraph that answers reads for the current
+	 * principal from a materialized view of the readable triples.
+	 * 
+	 * @param securityEvaluator
+	 *            The security evaluator to use
+	 * @param graphIRI
+	 *            The IRI for the graph.
+	 * @param graph
+	 *            The graph that we are wrapping.
+	 * @param viewGraph
+	 *            The graph to hold the readable triples.
+	 * @return the SecuredGraph
+	 */
+	public static SecuredGraph getInstance(
+			final SecurityEvaluator securityEvaluator, final String graphIRI,
+			final Graph graph, final Graph viewGraph )
+	{
+
+		return org.xenei.jena.security.graph.impl.Factory.getInstance(
+				securityEvaluator, graphIRI, graph, viewGraph);
+	}
+
+	/**
+	 * Get an instance of SecuredGraph that filters reads for the current
+	 * principal with a visibility index.
+	 * 
+	 * @param securityEvaluator
+	 *            The security evaluator to use
+	 * @param graphIRI
+	 *            The IRI for the graph.
+	 * @param graph
+	 *            The graph that we are wrapping.
+	 * @param indexSize
+	 *            The number of bits in the index.
+	 * @return the SecuredGraph
+	 */
+	public static SecuredGraph getInstance(
+			final SecurityEvaluator securityEvaluator, final String graphIRI,
+			final Graph graph, final int indexSize )
+	{
+
+		return org.xenei.jena.security.graph.impl.Factory.getInstance(
+				securityEvaluator, graphIRI, graph, indexSize);
+	}
+
 	/**
 	 * Get an instance of SecuredModel
 	 * 
@@ -47,4 +112,44 @@ public class Factory
 		return org.xenei.jena.security.model.impl.SecuredModelImpl.getInstance(
 				securityEvaluator, modelURI, model);
 	}
+
+	/**
+	 * Resolve the proxy constructors for the classes of the standard Jena
+	 * in-memory implementation so that the first items secured at run time do
+	 * not pay for the interface reflection.
+	 * 
+	 * @see ProxyCache
+	 */
+	public static void prewarm()
+	{
+		final Model model = ModelFactory.createDefaultModel();
+		final Graph graph = model.getGraph();
+		ProxyCache.prewarm(graph.getClass(), SecuredGraphImpl.class);
+		ProxyCache.prewarm(graph.getBulkUpdateHandler().getClass(),
+				SecuredBulkUpdateHandlerImpl.class);
+		ProxyCache.prewarm(graph.getPrefixMapping().getClass(),
+				SecuredPrefixMappingImpl.class);
+		ProxyCache.prewarm(graph.getReifier().getClass(),
+				SecuredReifierImpl.class);
+
+		ProxyCache.prewarm(model.getClass(), SecuredModelImpl.class);
+		final Resource r = model.createResource("http://example.com/r");
+		final Property p = model.createProperty("http://example.com/p");
+		final Literal l = model.createLiteral("l");
+		final Statement s = model.createStatement(r, p, l);
+		ProxyCache.prewarm(r.getClass(), SecuredResourceImpl.class);
+		ProxyCache.prewarm(model.createResource().getClass(),
+				SecuredResourceImpl.class);
+		ProxyCache.prewarm(p.getClass(), SecuredPropertyImpl.class);
+		ProxyCache.prewarm(l.getClass(), SecuredLiteralImpl.class);
+		ProxyCache.prewarm(s.getClass(), SecuredStatementImpl.class);
+		ProxyCache.prewarm(model.createReifiedStatement(s).getClass(),
+				SecuredReifiedStatementImpl.class);
+		ProxyCache.prewarm(model.createAlt().getClass(), SecuredAltImpl.class);
+		ProxyCache.prewarm(model.createBag().getClass(), SecuredBagImpl.class);
+		ProxyCache.prewarm(model.createSeq().getClass(), SecuredSeqImpl.class);
+		ProxyCache.prewarm(model.createList().getClass(),
+				SecuredRDFListImpl.class);
+		model.close();
+	}
 }
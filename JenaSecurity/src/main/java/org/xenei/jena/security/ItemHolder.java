@@ -18,12 +18,6 @@
 
 package org.xenei.jena.security;
 
-import java.lang.reflect.Proxy;
-import java.util.LinkedHashSet;
-import java.util.Set;
-
-import org.apache.commons.lang.ClassUtils;
-
 /**
  * A class that holds the original item and the secured version of it.
  * 
@@ -87,6 +81,21 @@ public class ItemHolder<Base, Secured extends SecuredItem>
 		return securedItem;
 	}
 
+	/**
+	 * Saves the secured implementation itself as the securedItem and returns
+	 * it. No proxy is created so the secured item only implements the secured
+	 * interfaces of the implementation.
+	 *
+	 * @param securedItem
+	 *            The secured implementation that checks the base item.
+	 * @return The secured implementation.
+	 */
+	public final Secured setSecuredItem( final Secured securedItem )
+	{
+		this.securedItem = securedItem;
+		return securedItem;
+	}
+
 	/**
 	 * Creates the proxy, saves it as the securedItem and returns it.
 	 * 
@@ -97,21 +106,8 @@ public class ItemHolder<Base, Secured extends SecuredItem>
 	@SuppressWarnings( "unchecked" )
 	public final Secured setSecuredItem( final SecuredItemInvoker handler )
 	{
-		final Set<Class<?>> ifac = new LinkedHashSet<Class<?>>();
-		if (baseItem.getClass().isInterface())
-		{
-			ifac.add(baseItem.getClass());
-		}
-		ifac.addAll(ClassUtils.getAllInterfaces(baseItem.getClass()));
-		if (handler.securedItem.getClass().isInterface())
-		{
-			ifac.add(handler.securedItem.getClass());
-		}
-		ifac.addAll(ClassUtils.getAllInterfaces(handler.securedItem.getClass()));
-
-		securedItem = (Secured) Proxy.newProxyInstance(
-				SecuredItemImpl.class.getClassLoader(),
-				ifac.toArray(new Class<?>[ifac.size()]), handler);
+		securedItem = (Secured) ProxyCache.newInstance(baseItem.getClass(),
+				handler.securedItem.getClass(), handler);
 		return securedItem;
 	}
 
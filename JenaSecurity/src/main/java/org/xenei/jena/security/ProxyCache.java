@@ -0,0 +1,243 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.jena.security;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.lang.ClassUtils;
+
+/**
+ * A cache of the proxy constructors used to secure items.
+ * <p>
+ * The proxy for a base class and a secured implementation class implements
+ * all the interfaces of both. Resolving the interfaces and the proxy class is
+ * done once per pair of classes, after which creating a proxy is a single
+ * constructor call.
+ * </p>
+ * <p>
+ * The pairs used by the standard Jena implementations can be resolved at
+ * startup with Factory.prewarm().
+ * </p>
+ * <p>
+ * The cache holds strong references to the classes and to the proxy classes.
+ * When this library is shared by applications that are redeployed, for
+ * example in a servlet container, each application must call clear() when it
+ * is stopped, otherwise the cache keeps its class loader in memory.
+ * </p>
+ */
+public final class ProxyCache
+{
+	/**
+	 * The key of a cached constructor.
+	 */
+	private static final class Key
+	{
+		private final Class<?> baseClass;
+		private final Class<?> securedClass;
+
+		private Key( final Class<?> baseClass, final Class<?> securedClass )
+		{
+			this.baseClass = baseClass;
+			this.securedClass = securedClass;
+		}
+
+		@Override
+		public boolean equals( final Object o )
+		{
+			if (o instanceof Key)
+			{
+				final Key k = (Key) o;
+				return (baseClass == k.baseClass)
+						&& (securedClass == k.securedClass);
+			}
+			return false;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return (31 * baseClass.hashCode())
+					+ (securedClass == null ? 0 : securedClass.hashCode());
+		}
+	}
+
+	private static final ConcurrentMap<Key, Constructor<?>> CONSTRUCTORS = new ConcurrentHashMap<Key, Constructor<?>>();
+
+	private static void addInterfaces( final Set<Class<?>> ifac,
+			final Class<?> clazz )
+	{
+		if (clazz.isInterface())
+		{
+			ifac.add(clazz);
+		}
+		// commons-lang returns a raw list of Class objects.
+		for (final Object o : ClassUtils.getAllInterfaces(clazz))
+		{
+			ifac.add((Class<?>) o);
+		}
+	}
+
+	/**
+	 * Remove all the cached constructors. This releases the classes held by
+	 * the cache and should be called when an application that secured its own
+	 * classes is undeployed.
+	 */
+	public static void clear()
+	{
+		ProxyCache.CONSTRUCTORS.clear();
+	}
+
+	private static Constructor<?> createConstructor( final Class<?> baseClass,
+			final Class<?> securedClass )
+	{
+		final Set<Class<?>> ifac = new LinkedHashSet<Class<?>>();
+		ProxyCache.addInterfaces(ifac, baseClass);
+		if (securedClass != null)
+		{
+			ProxyCache.addInterfaces(ifac, securedClass);
+		}
+		try
+		{
+			final Constructor<?> retval = Proxy.getProxyClass(
+					SecuredItemImpl.class.getClassLoader(),
+					ifac.toArray(new Class<?>[ifac.size()])).getConstructor(
+					InvocationHandler.class);
+			// the proxy class is not public if any of the interfaces is not.
+			retval.setAccessible(true);
+			return retval;
+		}
+		catch (final NoSuchMethodException e)
+		{
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Get the proxy constructor for a pair of classes.
+	 *
+	 * @param baseClass
+	 *            The class of the base item.
+	 * @param securedClass
+	 *            The class of the secured implementation, may be null.
+	 * @return the constructor that takes the InvocationHandler.
+	 */
+	public static Constructor<?> getConstructor( final Class<?> baseClass,
+			final Class<?> securedClass )
+	{
+		final Key key = new Key(ProxyCache.named(baseClass),
+				ProxyCache.named(securedClass));
+		Constructor<?> retval = ProxyCache.CONSTRUCTORS.get(key);
+		if (retval == null)
+		{
+			retval = ProxyCache.createConstructor(key.baseClass,
+					key.securedClass);
+			final Constructor<?> other = ProxyCache.CONSTRUCTORS.putIfAbsent(
+					key, retval);
+			if (other != null)
+			{
+				retval = other;
+			}
+		}
+		return retval;
+	}
+
+	/**
+	 * An anonymous class that extends a class does not add interfaces so it
+	 * shares the constructor of the class it extends, the proxy implements
+	 * the same interfaces either way. This keeps one entry for all the
+	 * anonymous subclasses of a class and does not hold the anonymous classes.
+	 * An anonymous class that implements an interface is keyed on itself.
+	 */
+	private static Class<?> named( final Class<?> clazz )
+	{
+		Class<?> retval = clazz;
+		while ((retval != null) && retval.isAnonymousClass()
+				&& (retval.getInterfaces().length == 0))
+		{
+			retval = retval.getSuperclass();
+		}
+		return retval;
+	}
+
+	/**
+	 * Create a proxy for a pair of classes.
+	 *
+	 * @param baseClass
+	 *            The class of the base item.
+	 * @param securedClass
+	 *            The class of the secured implementation, may be null.
+	 * @param handler
+	 *            The handler for the proxy.
+	 * @return the proxy.
+	 */
+	public static Object newInstance( final Class<?> baseClass,
+			final Class<?> securedClass, final InvocationHandler handler )
+	{
+		try
+		{
+			return ProxyCache.getConstructor(baseClass, securedClass)
+					.newInstance(handler);
+		}
+		catch (final InstantiationException e)
+		{
+			throw new RuntimeException(e);
+		}
+		catch (final IllegalAccessException e)
+		{
+			throw new RuntimeException(e);
+		}
+		catch (final InvocationTargetException e)
+		{
+			throw new RuntimeException(e.getTargetException());
+		}
+	}
+
+	/**
+	 * Resolve the proxy constructor for a pair of classes so that the first
+	 * item secured does not pay for it.
+	 *
+	 * @param baseClass
+	 *            The class of the base item.
+	 * @param securedClass
+	 *            The class of the secured implementation, may be null.
+	 */
+	public static void prewarm( final Class<?> baseClass,
+			final Class<?> securedClass )
+	{
+		ProxyCache.getConstructor(baseClass, securedClass);
+	}
+
+	/**
+	 * @return the number of cached constructors.
+	 */
+	public static int size()
+	{
+		return ProxyCache.CONSTRUCTORS.size();
+	}
+
+	private ProxyCache()
+	{
+	}
+}
@@ -0,0 +1,196 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.jena.security;
+
+import java.security.Principal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.collections.map.LRUMap;
+
+/**
+ * A security evaluator that reports a fixed principal and remembers the
+ * decisions of the evaluator it wraps.
+ * <p>
+ * This performs the same function as the CachedSecurityEvaluator without
+ * creating a proxy or calling the wrapped evaluator reflectively. It is
+ * intended to be created once for a long lived object, such as a listener,
+ * that evaluates permissions on behalf of the principal that created it.
+ * </p>
+ * <p>
+ * Decisions are kept in a bounded least recently used cache for the life of
+ * the instance. If the permissions of the principal change
+ * <code>clearCache()</code> must be called.
+ * </p>
+ */
+public class RunAsSecurityEvaluator implements SecurityEvaluator
+{
+	private final SecurityEvaluator wrapped;
+	private final Principal runAs;
+	// the decisions keyed by method name and arguments.
+	private final Map<List<Object>, Boolean> cache;
+
+	/**
+	 * Constructor. The cache holds the larger of SecuredItemImpl.MAX_CACHE
+	 * and 100 decisions.
+	 *
+	 * @param wrapped
+	 *            The evaluator to make the decisions.
+	 * @param runAs
+	 *            The principal to report.
+	 */
+	public RunAsSecurityEvaluator( final SecurityEvaluator wrapped,
+			final Principal runAs )
+	{
+		this(wrapped, runAs, Math.max(SecuredItemImpl.MAX_CACHE, 100));
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param wrapped
+	 *            The evaluator to make the decisions.
+	 * @param runAs
+	 *            The principal to report.
+	 * @param cacheSize
+	 *            The number of decisions to remember.
+	 */
+	@SuppressWarnings( "unchecked" )
+	public RunAsSecurityEvaluator( final SecurityEvaluator wrapped,
+			final Principal runAs, final int cacheSize )
+	{
+		if (wrapped == null)
+		{
+			throw new IllegalArgumentException(
+					"Security evaluator may not be null");
+		}
+		// do not stack caches.
+		this.wrapped = (wrapped instanceof RunAsSecurityEvaluator) ? ((RunAsSecurityEvaluator) wrapped)
+				.getWrapped() : wrapped;
+		this.runAs = runAs;
+		this.cache = Collections.synchronizedMap(new LRUMap(
+				cacheSize));
+	}
+
+	/**
+	 * Forget all cached decisions.
+	 */
+	public void clearCache()
+	{
+		cache.clear();
+	}
+
+	private boolean cached( final List<Object> key, final Boolean value )
+	{
+		cache.put(key, value);
+		return value;
+	}
+
+	@Override
+	public boolean evaluate( final Action action, final SecNode graphIRI )
+	{
+		final List<Object> key = Arrays.<Object> asList("evaluate", action,
+				graphIRI);
+		final Boolean retval = cache.get(key);
+		return retval != null ? retval : cached(key,
+				wrapped.evaluate(action, graphIRI));
+	}
+
+	@Override
+	public boolean evaluate( final Action action, final SecNode graphIRI,
+			final SecTriple triple )
+	{
+		final List<Object> key = Arrays.<Object> asList("evaluate", action,
+				graphIRI, triple);
+		final Boolean retval = cache.get(key);
+		return retval != null ? retval : cached(key,
+				wrapped.evaluate(action, graphIRI, triple));
+	}
+
+	@Override
+	public boolean evaluate( final Set<Action> action, final SecNode graphIRI )
+	{
+		final List<Object> key = Arrays.<Object> asList("evaluate",
+				new HashSet<Action>(action), graphIRI);
+		final Boolean retval = cache.get(key);
+		return retval != null ? retval : cached(key,
+				wrapped.evaluate(action, graphIRI));
+	}
+
+	@Override
+	public boolean evaluate( final Set<Action> action, final SecNode graphIRI,
+			final SecTriple triple )
+	{
+		final List<Object> key = Arrays.<Object> asList("evaluate",
+				new HashSet<Action>(action), graphIRI, triple);
+		final Boolean retval = cache.get(key);
+		return retval != null ? retval : cached(key,
+				wrapped.evaluate(action, graphIRI, triple));
+	}
+
+	@Override
+	public boolean evaluateAny( final Set<Action> action,
+			final SecNode graphIRI )
+	{
+		final List<Object> key = Arrays.<Object> asList("evaluateAny",
+				new HashSet<Action>(action), graphIRI);
+		final Boolean retval = cache.get(key);
+		return retval != null ? retval : cached(key,
+				wrapped.evaluateAny(action, graphIRI));
+	}
+
+	@Override
+	public boolean evaluateAny( final Set<Action> action,
+			final SecNode graphIRI, final SecTriple triple )
+	{
+		final List<Object> key = Arrays.<Object> asList("evaluateAny",
+				new HashSet<Action>(action), graphIRI, triple);
+		final Boolean retval = cache.get(key);
+		return retval != null ? retval : cached(key,
+				wrapped.evaluateAny(action, graphIRI, triple));
+	}
+
+	@Override
+	public boolean evaluateUpdate( final SecNode graphIRI,
+			final SecTriple from, final SecTriple to )
+	{
+		final List<Object> key = Arrays.<Object> asList("evaluateUpdate",
+				graphIRI, from, to);
+		final Boolean retval = cache.get(key);
+		return retval != null ? retval : cached(key,
+				wrapped.evaluateUpdate(graphIRI, from, to));
+	}
+
+	@Override
+	public Principal getPrincipal()
+	{
+		return runAs;
+	}
+
+	/**
+	 * @return the evaluator that makes the decisions.
+	 */
+	public SecurityEvaluator getWrapped()
+	{
+		return wrapped;
+	}
+}
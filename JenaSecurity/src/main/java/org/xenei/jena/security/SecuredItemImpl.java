@@ -17,11 +17,14 @@
  */
 package org.xenei.jena.security;
 
+import com.hp.hpl.jena.rdf.model.AnonId;
 import com.hp.hpl.jena.rdf.model.Statement;
 import com.hp.hpl.jena.util.iterator.ExtendedIterator;
 import com.hp.hpl.jena.vocabulary.RDF;
 
+import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Proxy;
+import java.util.Collection;
 
 import org.apache.commons.collections.map.LRUMap;
 import org.apache.commons.lang.StringUtils;
@@ -30,6 +33,7 @@ import org.xenei.jena.security.SecurityEvaluator.Action;
 import org.xenei.jena.security.SecurityEvaluator.SecNode;
 import org.xenei.jena.security.SecurityEvaluator.SecNode.Type;
 import org.xenei.jena.security.SecurityEvaluator.SecTriple;
+import org.xenei.jena.security.utils.PermTripleBatch;
 
 public abstract class SecuredItemImpl implements SecuredItem
 {
@@ -118,6 +122,14 @@ public abstract class SecuredItemImpl implements SecuredItem
 		}
 	}
 
+	/**
+	 * A blank node that stands for a node that is yet to be created. It is
+	 * converted to SecNode.FUTURE so that checks on new nodes can be made
+	 * with jena triples, for example in a PermTripleBatch.
+	 */
+	public static final com.hp.hpl.jena.graph.Node FUTURE = com.hp.hpl.jena.graph.Node
+			.createAnon(new AnonId("urn:x-jena-security:future"));
+
 	public static int MAX_CACHE = 100;
 	public static final ThreadLocal<LRUMap> CACHE = new ThreadLocal<LRUMap>();
 
@@ -129,6 +141,10 @@ public abstract class SecuredItemImpl implements SecuredItem
 		{
 			return SecNode.ANY;
 		}
+		if (SecuredItemImpl.FUTURE.equals(jenaNode))
+		{
+			return SecNode.FUTURE;
+		}
 		if (jenaNode.isLiteral())
 		{
 			return new SecNode(Type.Literal, jenaNode.getLiteral().toString());
@@ -174,6 +190,32 @@ public abstract class SecuredItemImpl implements SecuredItem
 		}
 	}
 
+	/**
+	 * Get the implementation behind a secured item.
+	 * 
+	 * @param securedItem
+	 *            The secured item, an implementation or a proxy to one.
+	 * @return the implementation or null if it can not be determined.
+	 */
+	static SecuredItemImpl getImpl( final SecuredItem securedItem )
+	{
+		if (securedItem instanceof SecuredItemImpl)
+		{
+			return (SecuredItemImpl) securedItem;
+		}
+		if (Proxy.isProxyClass(securedItem.getClass()))
+		{
+			final InvocationHandler handler = Proxy
+					.getInvocationHandler(securedItem);
+			if ((handler instanceof SecuredItemInvoker)
+					&& (((SecuredItemInvoker) handler).securedItem instanceof SecuredItemImpl))
+			{
+				return (SecuredItemImpl) ((SecuredItemInvoker) handler).securedItem;
+			}
+		}
+		return null;
+	}
+
 	public static void incrementUse()
 	{
 		final Integer i = SecuredItemImpl.COUNT.get();
@@ -202,18 +244,30 @@ public abstract class SecuredItemImpl implements SecuredItem
 		{
 			throw new IllegalArgumentException("Secured item may not be null");
 		}
-		if (securedItem.getSecurityEvaluator() == null)
-		{
-			throw new IllegalArgumentException(
-					"Security evaluator in secured item may not be null");
-		}
 		if (holder == null)
 		{
 			throw new IllegalArgumentException("ItemHolder may not be null");
 		}
-		this.securityEvaluator = securedItem.getSecurityEvaluator();
-		this.modelNode = new SecurityEvaluator.SecNode(
-				SecurityEvaluator.SecNode.Type.URI, securedItem.getModelIRI());
+		// share the context of the implementation rather than asking the
+		// proxy for it and building a new model node for every item.
+		final SecuredItemImpl context = SecuredItemImpl.getImpl(securedItem);
+		if (context != null)
+		{
+			this.securityEvaluator = context.securityEvaluator;
+			this.modelNode = context.modelNode;
+		}
+		else
+		{
+			if (securedItem.getSecurityEvaluator() == null)
+			{
+				throw new IllegalArgumentException(
+						"Security evaluator in secured item may not be null");
+			}
+			this.securityEvaluator = securedItem.getSecurityEvaluator();
+			this.modelNode = new SecurityEvaluator.SecNode(
+					SecurityEvaluator.SecNode.Type.URI,
+					securedItem.getModelIRI());
+		}
 		this.itemHolder = holder;
 	}
 
@@ -511,6 +565,30 @@ public abstract class SecuredItemImpl implements SecuredItem
 		}
 	}
 
+	/**
+	 * check that all the triples can be created in the securedModel. The
+	 * triples are evaluated as a single batch.
+	 * 
+	 * @param triples
+	 *            The triples to check.
+	 * @throws AccessDeniedException
+	 *             on failure
+	 */
+	protected void checkCreateTriples(
+			final Collection<com.hp.hpl.jena.graph.Triple> triples )
+	{
+		if (!triples.isEmpty() && !canCreate(SecTriple.ANY))
+		{
+			final com.hp.hpl.jena.graph.Triple t = new PermTripleBatch(
+					Action.Create, this).findDenied(triples);
+			if (t != null)
+			{
+				throw new AccessDeniedException(modelNode, SecuredItemImpl
+						.convert(t).toString(), Action.Create);
+			}
+		}
+	}
+
 	/**
 	 * check that delete on the securedModel is allowed,
 	 * 
@@ -588,6 +666,30 @@ public abstract class SecuredItemImpl implements SecuredItem
 		}
 	}
 
+	/**
+	 * check that all the triples can be deleted in the securedModel. The
+	 * triples are evaluated as a single batch.
+	 * 
+	 * @param triples
+	 *            The triples to check.
+	 * @throws AccessDeniedException
+	 *             on failure
+	 */
+	protected void checkDeleteTriples(
+			final Collection<com.hp.hpl.jena.graph.Triple> triples )
+	{
+		if (!triples.isEmpty() && !canDelete(SecTriple.ANY))
+		{
+			final com.hp.hpl.jena.graph.Triple t = new PermTripleBatch(
+					Action.Delete, this).findDenied(triples);
+			if (t != null)
+			{
+				throw new AccessDeniedException(modelNode, SecuredItemImpl
+						.convert(t).toString(), Action.Delete);
+			}
+		}
+	}
+
 	/**
 	 * check that read on the securedModel is allowed,
 	 * 
@@ -128,6 +128,9 @@ public interface SecuredGraph extends Graph
 	public GraphStatisticsHandler getStatisticsHandler()
 			throws AccessDeniedException;
 
+	@Override
+	public SecuredTransactionHandler getTransactionHandler();
+
 	/**
 	 * @graphSec Read
 	 * @throws AccessDeniedException
@@ -137,7 +140,8 @@ public interface SecuredGraph extends Graph
 
 	/**
 	 * @graphSec Read
-	 * @tripleSec Read
+	 * @tripleSec Read all compared triples. Triples that can not be read will
+	 *            not be compared.
 	 * @throws AccessDeniedException
 	 */
 	@Override
@@ -3,30 +3,44 @@ package org.xenei.jena.security.graph;
 import com.hp.hpl.jena.graph.Graph;
 import com.hp.hpl.jena.graph.GraphEventManager;
 import com.hp.hpl.jena.graph.GraphListener;
+import com.hp.hpl.jena.graph.Node;
 import com.hp.hpl.jena.graph.Triple;
 import com.hp.hpl.jena.util.iterator.ExtendedIterator;
-import com.hp.hpl.jena.util.iterator.NiceIterator;
+import com.hp.hpl.jena.util.iterator.Filter;
 import com.hp.hpl.jena.util.iterator.WrappedIterator;
 
-import java.security.Principal;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
-import org.xenei.jena.security.CachedSecurityEvaluator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xenei.jena.security.RunAsSecurityEvaluator;
+import org.xenei.jena.security.SecuredItem;
 import org.xenei.jena.security.SecuredItemImpl;
 import org.xenei.jena.security.SecurityEvaluator;
 import org.xenei.jena.security.SecurityEvaluator.Action;
 import org.xenei.jena.security.graph.impl.SecuredGraphImpl;
+import org.xenei.jena.security.utils.AsyncDelivery;
 import org.xenei.jena.security.utils.CollectionGraph;
+import org.xenei.jena.security.utils.FilteredGraph;
+import org.xenei.jena.security.utils.PermTripleBatch;
 import org.xenei.jena.security.utils.PermTripleFilter;
+import org.xenei.jena.security.utils.ReplayBuffer;
 
 /**
  * Since we sit between the graph and other items we have  to determine when the message is 
@@ -37,7 +51,11 @@ public class SecuredGraphEventManager implements GraphEventManager
 	private class SecuredGraphListener implements GraphListener
 	{
 		private final GraphListener wrapped;
-		private final Principal runAs;
+		// the evaluator bound to the principal that registered the listener
+		private final RunAsSecurityEvaluator evaluator;
+		// the evaluator for the last graph with a different security
+		// evaluator.
+		private volatile RunAsSecurityEvaluator other;
 
 		SecuredGraphListener( final GraphListener wrapped )
 		{
@@ -47,7 +65,48 @@ public class SecuredGraphEventManager implements GraphEventManager
 						"Wrapped listener may not be null");
 			}
 			this.wrapped = wrapped;
-			this.runAs = securedGraph.getSecurityEvaluator().getPrincipal();
+			this.evaluator = new RunAsSecurityEvaluator(
+					securedGraph.getSecurityEvaluator(), securedGraph
+							.getSecurityEvaluator().getPrincipal());
+		}
+
+		/**
+		 * Get the evaluator for the principal that registered the listener.
+		 * The listener's evaluator is used unless the graph has a different
+		 * security evaluator, in which case the evaluator for the last such
+		 * graph is reused. Decisions are kept until the next notification.
+		 */
+		private SecurityEvaluator getEvaluator( final SecuredGraph sg )
+		{
+			final SecurityEvaluator se = sg.getSecurityEvaluator();
+			RunAsSecurityEvaluator retval = evaluator;
+			if ((se != evaluator.getWrapped()) && (se != evaluator))
+			{
+				retval = other;
+				if ((retval == null)
+						|| ((se != retval.getWrapped()) && (se != retval)))
+				{
+					retval = new RunAsSecurityEvaluator(se,
+							evaluator.getPrincipal());
+					other = retval;
+				}
+			}
+			return retval;
+		}
+
+		/**
+		 * Forget the decisions of the previous notification so that a change
+		 * to the permissions of the principal applies from this one. Called
+		 * once at the start of each notification.
+		 */
+		private void newNotification()
+		{
+			evaluator.clearCache();
+			final RunAsSecurityEvaluator o = other;
+			if (o != null)
+			{
+				o.clearCache();
+			}
 		}
 
 		private Triple[] getArray( final Graph g, final Triple[] triples,
@@ -57,8 +116,7 @@ public class SecuredGraphEventManager implements GraphEventManager
 			if (g instanceof SecuredGraphImpl)
 			{
 				final SecuredGraphImpl sg = (SecuredGraphImpl) g;
-				final SecurityEvaluator evaluator = CachedSecurityEvaluator
-						.getInstance(sg.getSecurityEvaluator(), runAs);
+				final SecurityEvaluator evaluator = getEvaluator(sg);
 				if (evaluator.evaluateAny(perms, sg.getModelNode()))
 				{
 					if (!evaluator.evaluateAny(perms, sg.getModelNode(),
@@ -85,6 +143,7 @@ public class SecuredGraphEventManager implements GraphEventManager
 		@Override
 		public void notifyAddArray( final Graph g, final Triple[] triples )
 		{
+			newNotification();
 			final Triple[] added = getArray(g, triples,
 					SecuredGraphEventManager.ADD);
 
@@ -97,12 +156,12 @@ public class SecuredGraphEventManager implements GraphEventManager
 		@Override
 		public void notifyAddGraph( final Graph g, final Graph added )
 		{
+			newNotification();
 			Graph addGraph = added;
 			if (g instanceof SecuredGraph)
 			{
 				final SecuredGraph sg = (SecuredGraph) g;
-				final SecurityEvaluator evaluator = CachedSecurityEvaluator
-						.getInstance(sg.getSecurityEvaluator(), runAs);
+				final SecurityEvaluator evaluator = getEvaluator(sg);
 				if (evaluator.evaluateAny(SecuredGraphEventManager.ADD,
 						sg.getModelNode()))
 				{
@@ -110,11 +169,11 @@ public class SecuredGraphEventManager implements GraphEventManager
 							sg.getModelNode(),
 							SecuredItemImpl.convert(Triple.ANY)))
 					{
-						final List<Triple> lst = added.find(Triple.ANY)
-								.toList();
-						addGraph = new CollectionGraph(Arrays.asList(getArray(
-								g, lst.toArray(new Triple[lst.size()]),
-								SecuredGraphEventManager.ADD)));
+						// a lazily filtered view, nothing is copied.
+						addGraph = (g instanceof SecuredItem) ? new FilteredGraph(
+								added, new PermTripleFilter(
+										SecuredGraphEventManager.ADD,
+										(SecuredItem) g, evaluator)) : added;
 					}
 					else
 					{
@@ -124,10 +183,10 @@ public class SecuredGraphEventManager implements GraphEventManager
 				else
 				{
 					addGraph = new CollectionGraph(
-							Collections.<Triple> emptyList());
+							Collections.<Triple> emptyList(), true);
 				}
 			}
-			if (addGraph.size() > 0)
+			if (!addGraph.isEmpty())
 			{
 				wrapped.notifyAddGraph(g, addGraph);
 
@@ -137,12 +196,12 @@ public class SecuredGraphEventManager implements GraphEventManager
 		@Override
 		public void notifyAddIterator( final Graph g, final Iterator<Triple> it )
 		{
+			newNotification();
 
 			if (g instanceof SecuredGraphImpl)
 			{
 				final SecuredGraphImpl sg = (SecuredGraphImpl) g;
-				final SecurityEvaluator evaluator = CachedSecurityEvaluator
-						.getInstance(sg.getSecurityEvaluator(), runAs);
+				final SecurityEvaluator evaluator = getEvaluator(sg);
 				// only report if we can write to the graph
 				if (evaluator.evaluateAny(SecuredGraphEventManager.ADD,
 						sg.getModelNode()))
@@ -169,12 +228,12 @@ public class SecuredGraphEventManager implements GraphEventManager
 		@Override
 		public void notifyAddList( final Graph g, final List<Triple> triples )
 		{
+			newNotification();
 			List<Triple> list = triples;
 			if (g instanceof SecuredGraphImpl)
 			{
 				final SecuredGraphImpl sg = (SecuredGraphImpl) g;
-				final SecurityEvaluator evaluator = CachedSecurityEvaluator
-						.getInstance(sg.getSecurityEvaluator(), runAs);
+				final SecurityEvaluator evaluator = getEvaluator(sg);
 				if (evaluator.evaluateAny(SecuredGraphEventManager.ADD,
 						sg.getModelNode()))
 				{
@@ -182,8 +241,8 @@ public class SecuredGraphEventManager implements GraphEventManager
 							sg.getModelNode(),
 							SecuredItemImpl.convert(Triple.ANY)))
 					{
-						list = wrapPermIterator(sg, triples.iterator(),
-								SecuredGraphEventManager.ADD).toList();
+						list = new PermTripleBatch(SecuredGraphEventManager.ADD,
+								sg, evaluator).filter(triples);
 					}
 					else
 					{
@@ -206,12 +265,12 @@ public class SecuredGraphEventManager implements GraphEventManager
 		@Override
 		public void notifyAddTriple( final Graph g, final Triple t )
 		{
+			newNotification();
 			boolean notify = false;
 			if (g instanceof SecuredGraph)
 			{
 				final SecuredGraph sg = (SecuredGraph) g;
-				final SecurityEvaluator evaluator = CachedSecurityEvaluator
-						.getInstance(sg.getSecurityEvaluator(), runAs);
+				final SecurityEvaluator evaluator = getEvaluator(sg);
 				notify = evaluator.evaluateAny(SecuredGraphEventManager.ADD,
 						sg.getModelNode());
 				if (notify)
@@ -234,12 +293,12 @@ public class SecuredGraphEventManager implements GraphEventManager
 		@Override
 		public void notifyDeleteArray( final Graph g, final Triple[] triples )
 		{
+			newNotification();
 			Triple[] deleted = triples;
 			if (g instanceof SecuredGraphImpl)
 			{
 				final SecuredGraphImpl sg = (SecuredGraphImpl) g;
-				final SecurityEvaluator evaluator = CachedSecurityEvaluator
-						.getInstance(sg.getSecurityEvaluator(), runAs);
+				final SecurityEvaluator evaluator = getEvaluator(sg);
 				if (evaluator.evaluateAny(SecuredGraphEventManager.DELETE,
 						sg.getModelNode()))
 				{
@@ -272,11 +331,11 @@ public class SecuredGraphEventManager implements GraphEventManager
 		@Override
 		public void notifyDeleteGraph( final Graph g, final Graph removed )
 		{
+			newNotification();
 			if (g instanceof SecuredGraphImpl)
 			{
 				final SecuredGraphImpl sg = (SecuredGraphImpl) g;
-				final SecurityEvaluator evaluator = CachedSecurityEvaluator
-						.getInstance(sg.getSecurityEvaluator(), runAs);
+				final SecurityEvaluator evaluator = getEvaluator(sg);
 				if (evaluator.evaluateAny(SecuredGraphEventManager.DELETE,
 						sg.getModelNode()))
 				{
@@ -285,14 +344,9 @@ public class SecuredGraphEventManager implements GraphEventManager
 							sg.getModelNode(),
 							SecuredItemImpl.convert(Triple.ANY)))
 					{
-						g2 = new CollectionGraph(
-								removed.find(Triple.ANY)
-										.filterKeep(
-												new PermTripleFilter(
-														SecuredGraphEventManager.DELETE,
-														sg, evaluator))
-										.toList());
-
+						// a lazily filtered view, nothing is copied.
+						g2 = new FilteredGraph(removed, new PermTripleFilter(
+								SecuredGraphEventManager.DELETE, sg, evaluator));
 					}
 					wrapped.notifyDeleteGraph(g, g2);
 				}
@@ -311,12 +365,12 @@ public class SecuredGraphEventManager implements GraphEventManager
 		public void notifyDeleteIterator( final Graph g,
 				final Iterator<Triple> it )
 		{
+			newNotification();
 			Iterator<Triple> iter = it;
 			if (g instanceof SecuredGraphImpl)
 			{
 				final SecuredGraphImpl sg = (SecuredGraphImpl) g;
-				final SecurityEvaluator evaluator = CachedSecurityEvaluator
-						.getInstance(sg.getSecurityEvaluator(), runAs);
+				final SecurityEvaluator evaluator = getEvaluator(sg);
 				if (evaluator.evaluateAny(SecuredGraphEventManager.DELETE,
 						sg.getModelNode()))
 				{
@@ -348,12 +402,12 @@ public class SecuredGraphEventManager implements GraphEventManager
 		@Override
 		public void notifyDeleteList( final Graph g, final List<Triple> triples )
 		{
+			newNotification();
 			List<Triple> list = triples;
 			if (g instanceof SecuredGraphImpl)
 			{
 				final SecuredGraphImpl sg = (SecuredGraphImpl) g;
-				final SecurityEvaluator evaluator = CachedSecurityEvaluator
-						.getInstance(sg.getSecurityEvaluator(), runAs);
+				final SecurityEvaluator evaluator = getEvaluator(sg);
 				if (evaluator.evaluateAny(SecuredGraphEventManager.DELETE,
 						sg.getModelNode()))
 				{
@@ -361,12 +415,9 @@ public class SecuredGraphEventManager implements GraphEventManager
 							sg.getModelNode(),
 							SecuredItemImpl.convert(Triple.ANY)))
 					{
-						list = WrappedIterator
-								.create(triples.iterator())
-								.filterKeep(
-										new PermTripleFilter(
-												SecuredGraphEventManager.DELETE,
-												sg, evaluator)).toList();
+						list = new PermTripleBatch(
+								SecuredGraphEventManager.DELETE, sg, evaluator)
+								.filter(triples);
 					}
 					// else use the default list as all can bee seen
 				}
@@ -385,12 +436,12 @@ public class SecuredGraphEventManager implements GraphEventManager
 		@Override
 		public void notifyDeleteTriple( final Graph g, final Triple t )
 		{
+			newNotification();
 			boolean notify = false;
 			if (g instanceof SecuredGraph)
 			{
 				final SecuredGraph sg = (SecuredGraph) g;
-				final SecurityEvaluator evaluator = CachedSecurityEvaluator
-						.getInstance(sg.getSecurityEvaluator(), runAs);
+				final SecurityEvaluator evaluator = getEvaluator(sg);
 				notify = evaluator.evaluateAny(SecuredGraphEventManager.DELETE,
 						sg.getModelNode());
 				if (notify)
@@ -420,8 +471,7 @@ public class SecuredGraphEventManager implements GraphEventManager
 				final SecuredGraphImpl sg, final Iterator<Triple> it,
 				final Set<Action> perms )
 		{
-			final SecurityEvaluator evaluator = CachedSecurityEvaluator
-					.getInstance(sg.getSecurityEvaluator(), runAs);
+			final SecurityEvaluator evaluator = getEvaluator(sg);
 			if (!evaluator.evaluateAny(perms, sg.getModelNode(),
 					SecuredItemImpl.convert(Triple.ANY)))
 			{
@@ -434,10 +484,271 @@ public class SecuredGraphEventManager implements GraphEventManager
 
 	}
 
+	/**
+	 * A listener that is only notified of the triples that match a pattern.
+	 */
+	private static class PatternListener extends Filter<Triple>
+	{
+		private final Triple pattern;
+		private final GraphListener listener;
+
+		PatternListener( final Triple pattern, final GraphListener listener )
+		{
+			this.pattern = pattern;
+			this.listener = listener;
+		}
+
+		@Override
+		public boolean accept( final Triple t )
+		{
+			return pattern.matches(t);
+		}
+	}
+
+	/**
+	 * An immutable index of the pattern listeners. Listeners with a concrete
+	 * predicate are indexed by predicate, the rest with a concrete subject by
+	 * subject. Only listeners with neither are tested against every triple.
+	 */
+	private static class PatternIndex
+	{
+		private final Map<Node, PatternListener[]> byPredicate;
+		private final Map<Node, PatternListener[]> bySubject;
+		private final PatternListener[] other;
+		private final PatternListener[] all;
+
+		PatternIndex( final Collection<PatternListener> listeners )
+		{
+			final Map<Node, List<PatternListener>> pred = new HashMap<Node, List<PatternListener>>();
+			final Map<Node, List<PatternListener>> subj = new HashMap<Node, List<PatternListener>>();
+			final List<PatternListener> rest = new ArrayList<PatternListener>();
+			for (final PatternListener pl : listeners)
+			{
+				if (pl.pattern.getPredicate().isConcrete())
+				{
+					PatternIndex.add(pred, pl.pattern.getPredicate(), pl);
+				}
+				else if (pl.pattern.getSubject().isConcrete())
+				{
+					PatternIndex.add(subj, pl.pattern.getSubject(), pl);
+				}
+				else
+				{
+					rest.add(pl);
+				}
+			}
+			byPredicate = PatternIndex.toArrays(pred);
+			bySubject = PatternIndex.toArrays(subj);
+			other = rest.toArray(new PatternListener[rest.size()]);
+			all = listeners.toArray(new PatternListener[listeners.size()]);
+		}
+
+		private static void add( final Map<Node, List<PatternListener>> map,
+				final Node key, final PatternListener pl )
+		{
+			List<PatternListener> lst = map.get(key);
+			if (lst == null)
+			{
+				lst = new ArrayList<PatternListener>();
+				map.put(key, lst);
+			}
+			lst.add(pl);
+		}
+
+		private static Map<Node, PatternListener[]> toArrays(
+				final Map<Node, List<PatternListener>> map )
+		{
+			final Map<Node, PatternListener[]> retval = new HashMap<Node, PatternListener[]>();
+			for (final Map.Entry<Node, List<PatternListener>> e : map
+					.entrySet())
+			{
+				retval.put(e.getKey(), e.getValue().toArray(
+						new PatternListener[e.getValue().size()]));
+			}
+			return retval;
+		}
+
+		/**
+		 * Group the triples of a graph by the listeners they match. Each
+		 * indexed group of listeners only reads the triples found with its
+		 * key.
+		 */
+		Map<PatternListener, List<Triple>> group( final Graph changes )
+		{
+			final Map<PatternListener, List<Triple>> retval = new LinkedHashMap<PatternListener, List<Triple>>();
+			for (final Map.Entry<Node, PatternListener[]> e : byPredicate
+					.entrySet())
+			{
+				PatternIndex.group(
+						changes.find(Node.ANY, e.getKey(), Node.ANY),
+						e.getValue(), retval);
+			}
+			for (final Map.Entry<Node, PatternListener[]> e : bySubject
+					.entrySet())
+			{
+				PatternIndex.group(
+						changes.find(e.getKey(), Node.ANY, Node.ANY),
+						e.getValue(), retval);
+			}
+			for (final PatternListener pl : other)
+			{
+				PatternIndex.group(changes.find(pl.pattern),
+						new PatternListener[] { pl }, retval);
+			}
+			return retval;
+		}
+
+		private static void group( final ExtendedIterator<Triple> iter,
+				final PatternListener[] candidates,
+				final Map<PatternListener, List<Triple>> groups )
+		{
+			try
+			{
+				while (iter.hasNext())
+				{
+					final Triple t = iter.next();
+					for (final PatternListener pl : candidates)
+					{
+						if (pl.accept(t))
+						{
+							PatternIndex.add(groups, pl, t);
+						}
+					}
+				}
+			}
+			finally
+			{
+				iter.close();
+			}
+		}
+
+		/**
+		 * Group the triples by the listeners they match.
+		 */
+		Map<PatternListener, List<Triple>> group( final Iterable<Triple> triples )
+		{
+			return group(triples.iterator());
+		}
+
+		/**
+		 * Group the triples by the listeners they match.
+		 */
+		Map<PatternListener, List<Triple>> group( final Iterator<Triple> triples )
+		{
+			final Map<PatternListener, List<Triple>> retval = new LinkedHashMap<PatternListener, List<Triple>>();
+			while (triples.hasNext())
+			{
+				final Triple t = triples.next();
+				for (final PatternListener pl : match(t))
+				{
+					PatternIndex.add(retval, pl, t);
+				}
+			}
+			return retval;
+		}
+
+		private static void add( final Map<PatternListener, List<Triple>> groups,
+				final PatternListener pl, final Triple t )
+		{
+			List<Triple> lst = groups.get(pl);
+			if (lst == null)
+			{
+				lst = new ArrayList<Triple>();
+				groups.put(pl, lst);
+			}
+			lst.add(t);
+		}
+
+		/**
+		 * Get the listeners whose pattern matches the triple.
+		 */
+		List<PatternListener> match( final Triple t )
+		{
+			List<PatternListener> retval = null;
+			retval = PatternIndex.match(byPredicate.get(t.getPredicate()), t,
+					retval);
+			retval = PatternIndex.match(bySubject.get(t.getSubject()), t,
+					retval);
+			retval = PatternIndex.match(other, t, retval);
+			if (retval == null)
+			{
+				return Collections.emptyList();
+			}
+			return retval;
+		}
+
+		private static List<PatternListener> match(
+				final PatternListener[] candidates, final Triple t,
+				List<PatternListener> found )
+		{
+			if (candidates != null)
+			{
+				for (final PatternListener pl : candidates)
+				{
+					if (pl.accept(t))
+					{
+						if (found == null)
+						{
+							found = new ArrayList<PatternListener>();
+						}
+						found.add(pl);
+					}
+				}
+			}
+			return found;
+		}
+	}
+
+	/**
+	 * The default maximum time, in milliseconds, that a notification is
+	 * buffered before it is delivered.
+	 */
+	public static final long DEFAULT_FLUSH_DELAY = 100;
+
+	private static final Logger LOG = LoggerFactory
+			.getLogger(SecuredGraphEventManager.class);
+
+	// delivers the batches that are not filled in time.
+	private static final ScheduledExecutorService FLUSH_TIMER = Executors
+			.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread( final Runnable r )
+				{
+					final Thread t = new Thread(r, "SecuredGraphEventFlush");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+
 	// the security evaluator in use
 	private final SecuredGraph securedGraph;
 	private final Graph baseGraph;
-	private final Map<GraphListener, Stack<SecuredGraphListener>> listenerMap = new HashMap<GraphListener, Stack<SecuredGraphListener>>();
+	// the registered listeners, guarded by this.
+	private final Map<GraphListener, Stack<GraphListener>> listenerMap = new HashMap<GraphListener, Stack<GraphListener>>();
+	// immutable snapshot of the listenerMap contents used for dispatch.
+	private volatile GraphListener[] listeners = new GraphListener[0];
+	// the pattern listeners, guarded by this.
+	private final Map<GraphListener, Stack<PatternListener>> patternMap = new HashMap<GraphListener, Stack<PatternListener>>();
+	// immutable index of the patternMap contents used for dispatch.
+	private volatile PatternIndex patterns = new PatternIndex(
+			Collections.<PatternListener> emptyList());
+	// the asynchronous delivery for new listeners, null for synchronous.
+	private volatile AsyncDelivery asyncDelivery;
+	// the number of triple notifications to buffer, 0 if not batching.
+	private volatile int batchSize;
+	// the maximum time in milliseconds that a notification is buffered.
+	private volatile long flushDelay = SecuredGraphEventManager.DEFAULT_FLUSH_DELAY;
+	// held from taking a batch until it is delivered, acquired before the
+	// batchLock.
+	private final Object deliveryLock = new Object();
+	// guards batch, batchAdd and scheduledFlush.
+	private final Object batchLock = new Object();
+	// the buffered triple notifications.
+	private List<Triple> batch = new ArrayList<Triple>();
+	// true if the buffered triples were added, false if deleted.
+	private boolean batchAdd;
+	// the timed delivery of the buffered notifications, null if none.
+	private ScheduledFuture<?> scheduledFlush;
 	private static Set<Action> DELETE;
 
 	private static Set<Action> ADD;
@@ -458,29 +769,272 @@ public class SecuredGraphEventManager implements GraphEventManager
 		manager.register(this);
 	}
 
-	private synchronized Collection<SecuredGraphListener> getListenerCollection()
+	/**
+	 * Get the current listeners. The array is replaced, never modified, when
+	 * listeners are registered or unregistered so it may be iterated without
+	 * locking.
+	 * 
+	 * @return the listeners.
+	 */
+	private GraphListener[] getListeners()
 	{
-		ExtendedIterator<SecuredGraphListener> retval = NiceIterator
-				.emptyIterator();
-		for (final Collection<SecuredGraphListener> coll : listenerMap.values())
+		return listeners;
+	}
+
+	/**
+	 * Get the asynchronous delivery used for newly registered listeners.
+	 * 
+	 * @return the delivery or null if notifications are delivered on the
+	 *         notifying thread.
+	 */
+	public AsyncDelivery getAsyncDelivery()
+	{
+		return asyncDelivery;
+	}
+
+	/**
+	 * Set the asynchronous delivery for listeners registered after this call.
+	 * With asynchronous delivery the permission filtering and the
+	 * notification of each listener are performed by a worker for that
+	 * listener instead of the thread that changed the graph.
+	 * 
+	 * @param asyncDelivery
+	 *            The delivery to use, or null for synchronous delivery.
+	 */
+	public void setAsyncDelivery( final AsyncDelivery asyncDelivery )
+	{
+		this.asyncDelivery = asyncDelivery;
+	}
+
+	/**
+	 * Buffer a triple notification. Switching between additions and
+	 * deletions delivers the buffered notifications first so that listeners
+	 * see the changes in order. The first notification in an empty batch
+	 * schedules its delivery after the flush delay. A notification that only
+	 * joins the batch does not wait for a delivery in progress.
+	 * 
+	 * @param add
+	 *            true if the triple was added, false if deleted.
+	 * @param t
+	 *            the triple.
+	 */
+	private void buffer( final boolean add, final Triple t )
+	{
+		synchronized (batchLock)
+		{
+			if ((batch.isEmpty() || (batchAdd == add))
+					&& ((batch.size() + 1) < batchSize))
+			{
+				if (batch.isEmpty())
+				{
+					scheduleFlush();
+				}
+				batchAdd = add;
+				batch.add(t);
+				return;
+			}
+		}
+		synchronized (deliveryLock)
+		{
+			final boolean previousAdd;
+			final List<Triple> previous;
+			List<Triple> full = null;
+			synchronized (batchLock)
+			{
+				previousAdd = batchAdd;
+				previous = (batchAdd != add) ? takeBatch() : null;
+				if (batch.isEmpty())
+				{
+					scheduleFlush();
+				}
+				batchAdd = add;
+				batch.add(t);
+				if (batch.size() >= batchSize)
+				{
+					full = takeBatch();
+				}
+			}
+			deliver(previousAdd, previous);
+			deliver(add, full);
+		}
+	}
+
+	/**
+	 * Deliver a batch to the listeners. Must be called while holding the
+	 * deliveryLock and not the batchLock.
+	 * 
+	 * @param add
+	 *            true if the triples were added, false if deleted.
+	 * @param pending
+	 *            the triples, may be null.
+	 */
+	private void deliver( final boolean add, final List<Triple> pending )
+	{
+		if (pending == null)
+		{
+			return;
+		}
+		for (final GraphListener sgl : getListeners())
 		{
-			retval = retval.andThen(coll.iterator());
+			if (add)
+			{
+				sgl.notifyAddList(securedGraph, pending);
+			}
+			else
+			{
+				sgl.notifyDeleteList(securedGraph, pending);
+			}
+		}
+		notifyPatterns(add, baseGraph, pending, false);
+	}
+
+	/**
+	 * Deliver the buffered triple notifications to the listeners as a single
+	 * <code>notifyAddList</code> or <code>notifyDeleteList</code>. Called
+	 * when the batch is full, when any other notification arrives, when a
+	 * transaction on the secured graph is committed or aborted, and by a
+	 * timer when the flush delay has passed since the first buffered
+	 * notification. The listeners are notified without holding the lock on
+	 * the batch, so writers can buffer new notifications during a delivery.
+	 * Taking and delivering a batch is serialized so that a batch taken
+	 * later is never delivered before one taken earlier. A listener must not
+	 * wait for another thread that changes the graph.
+	 */
+	public void flush()
+	{
+		synchronized (deliveryLock)
+		{
+			final boolean add;
+			final List<Triple> pending;
+			synchronized (batchLock)
+			{
+				add = batchAdd;
+				pending = takeBatch();
+			}
+			deliver(add, pending);
+		}
+	}
+
+	/**
+	 * Schedule the delivery of the batch after the flush delay. Must be
+	 * called while holding the batchLock.
+	 */
+	private void scheduleFlush()
+	{
+		scheduledFlush = SecuredGraphEventManager.FLUSH_TIMER.schedule(
+				new Runnable() {
+					@Override
+					public void run()
+					{
+						try
+						{
+							flush();
+						}
+						catch (final RuntimeException e)
+						{
+							SecuredGraphEventManager.LOG.error(
+									"Error delivering batched notifications",
+									e);
+						}
+					}
+				}, flushDelay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Remove the buffered notifications and cancel their scheduled
+	 * delivery. Must be called while holding the batchLock.
+	 * 
+	 * @return the buffered triples or null if there are none.
+	 */
+	private List<Triple> takeBatch()
+	{
+		if (scheduledFlush != null)
+		{
+			scheduledFlush.cancel(false);
+			scheduledFlush = null;
+		}
+		if (batch.isEmpty())
+		{
+			return null;
+		}
+		final List<Triple> retval = Collections.unmodifiableList(batch);
+		batch = new ArrayList<Triple>();
+		return retval;
+	}
+
+	/**
+	 * @return the maximum time, in milliseconds, that a notification is
+	 *         buffered before it is delivered.
+	 */
+	public long getFlushDelay()
+	{
+		return flushDelay;
+	}
+
+	/**
+	 * Set the maximum time that a notification is buffered before it is
+	 * delivered. When the delay has passed the batch is delivered by a timer
+	 * thread, so that the last changes are not held until the next
+	 * notification arrives.
+	 * 
+	 * @param flushDelay
+	 *            the delay in milliseconds, at least 1.
+	 */
+	public void setFlushDelay( final long flushDelay )
+	{
+		if (flushDelay < 1)
+		{
+			throw new IllegalArgumentException(
+					"Flush delay must be at least 1");
+		}
+		this.flushDelay = flushDelay;
+	}
+
+	/**
+	 * @return the number of triple notifications buffered before they are
+	 *         delivered, 0 if notifications are not batched.
+	 */
+	public int getBatchSize()
+	{
+		return batchSize;
+	}
+
+	/**
+	 * Set the number of single triple notifications from the base graph to
+	 * buffer before delivering them to the listeners as a list. The
+	 * permissions for the list are evaluated in bulk. A batch that is not
+	 * filled is delivered after the flush delay.
+	 * 
+	 * @param batchSize
+	 *            the number of notifications to buffer, 0 to deliver each
+	 *            notification as it arrives.
+	 */
+	public void setBatchSize( final int batchSize )
+	{
+		if (batchSize < 0)
+		{
+			throw new IllegalArgumentException("Batch size may not be negative");
+		}
+		this.batchSize = batchSize;
+		if (batchSize == 0)
+		{
+			flush();
 		}
-		return retval.toList();
 	}
 
 	@Override
 	public boolean listening()
 	{
-		return !listenerMap.isEmpty();
+		return (listeners.length > 0) || (patterns.all.length > 0);
 	}
 
 	@Override
 	public void notifyAddArray( final Graph g, final Triple[] triples )
 	{
+		flush();
 		final boolean wrap = baseGraph.equals(g);
 
-		for (final SecuredGraphListener sgl : getListenerCollection())
+		for (final GraphListener sgl : getListeners())
 		{
 			if (wrap)
 			{
@@ -491,14 +1045,16 @@ public class SecuredGraphEventManager implements GraphEventManager
 				sgl.notifyAddArray(g, triples);
 			}
 		}
+		notifyPatterns(true, g, Arrays.asList(triples), true);
 	}
 
 	@Override
 	public void notifyAddGraph( final Graph g, final Graph added )
 	{
+		flush();
 		final boolean wrap = baseGraph.equals(g);
 
-		for (final SecuredGraphListener sgl : getListenerCollection())
+		for (final GraphListener sgl : getListeners())
 		{
 			if (wrap)
 			{
@@ -509,21 +1065,54 @@ public class SecuredGraphEventManager implements GraphEventManager
 				sgl.notifyAddGraph(g, added);
 			}
 		}
+		notifyPatterns(true, g, added);
 	}
 
 	@Override
 	public void notifyAddIterator( final Graph g, final Iterator<Triple> it )
 	{
-		notifyAddIterator(g, WrappedIterator.create(it).toList());
-		baseGraph.equals(g);
+		flush();
+		final boolean wrap = baseGraph.equals(g);
+		final GraphListener[] lst = getListeners();
+		final PatternIndex idx = patterns;
+		// the pattern listeners share one pass through the index.
+		final int consumers = lst.length + (idx.all.length > 0 ? 1 : 0);
+		if (consumers == 0)
+		{
+			return;
+		}
+		// stream to a single consumer, replay only if there are several.
+		final ReplayBuffer<Triple> replay = new ReplayBuffer<Triple>(it,
+				consumers);
+		for (final GraphListener sgl : lst)
+		{
+			if (wrap)
+			{
+				sgl.notifyAddIterator(securedGraph, replay.iterator());
+			}
+			else
+			{
+				sgl.notifyAddIterator(g, replay.iterator());
+			}
+		}
+		if (idx.all.length > 0)
+		{
+			for (final Map.Entry<PatternListener, List<Triple>> e : idx.group(
+					replay.iterator()).entrySet())
+			{
+				e.getKey().listener.notifyAddIterator(wrap ? securedGraph : g,
+						e.getValue().iterator());
+			}
+		}
 	}
 
 	@Override
 	public void notifyAddIterator( final Graph g, final List<Triple> triples )
 	{
+		flush();
 		final boolean wrap = baseGraph.equals(g);
 
-		for (final SecuredGraphListener sgl : getListenerCollection())
+		for (final GraphListener sgl : getListeners())
 		{
 			if (wrap)
 			{
@@ -534,14 +1123,21 @@ public class SecuredGraphEventManager implements GraphEventManager
 				sgl.notifyAddIterator(g, triples.iterator());
 			}
 		}
+		for (final Map.Entry<PatternListener, List<Triple>> e : patterns
+				.group(triples).entrySet())
+		{
+			e.getKey().listener.notifyAddIterator(wrap ? securedGraph : g, e
+					.getValue().iterator());
+		}
 	}
 
 	@Override
 	public void notifyAddList( final Graph g, final List<Triple> triples )
 	{
+		flush();
 		final boolean wrap = baseGraph.equals(g);
 
-		for (final SecuredGraphListener sgl : getListenerCollection())
+		for (final GraphListener sgl : getListeners())
 		{
 			if (wrap)
 			{
@@ -552,14 +1148,21 @@ public class SecuredGraphEventManager implements GraphEventManager
 				sgl.notifyAddList(g, triples);
 			}
 		}
+		notifyPatterns(true, g, triples, false);
 	}
 
 	@Override
 	public void notifyAddTriple( final Graph g, final Triple t )
 	{
 		final boolean wrap = baseGraph.equals(g);
+		if (wrap && (batchSize > 0))
+		{
+			buffer(true, t);
+			return;
+		}
+		flush();
 
-		for (final SecuredGraphListener sgl : getListenerCollection())
+		for (final GraphListener sgl : getListeners())
 		{
 			if (wrap)
 			{
@@ -570,14 +1173,16 @@ public class SecuredGraphEventManager implements GraphEventManager
 				sgl.notifyAddTriple(g, t);
 			}
 		}
+		notifyPatterns(true, g, t);
 	}
 
 	@Override
 	public void notifyDeleteArray( final Graph g, final Triple[] triples )
 	{
+		flush();
 		final boolean wrap = baseGraph.equals(g);
 
-		for (final SecuredGraphListener sgl : getListenerCollection())
+		for (final GraphListener sgl : getListeners())
 		{
 			if (wrap)
 			{
@@ -588,14 +1193,16 @@ public class SecuredGraphEventManager implements GraphEventManager
 				sgl.notifyDeleteArray(g, triples);
 			}
 		}
+		notifyPatterns(false, g, Arrays.asList(triples), true);
 	}
 
 	@Override
 	public void notifyDeleteGraph( final Graph g, final Graph removed )
 	{
+		flush();
 		final boolean wrap = baseGraph.equals(g);
 
-		for (final SecuredGraphListener sgl : getListenerCollection())
+		for (final GraphListener sgl : getListeners())
 		{
 			if (wrap)
 			{
@@ -606,20 +1213,54 @@ public class SecuredGraphEventManager implements GraphEventManager
 				sgl.notifyDeleteGraph(g, removed);
 			}
 		}
+		notifyPatterns(false, g, removed);
 	}
 
 	@Override
 	public void notifyDeleteIterator( final Graph g, final Iterator<Triple> it )
 	{
-		notifyDeleteIterator(g, WrappedIterator.create(it).toList());
+		flush();
+		final boolean wrap = baseGraph.equals(g);
+		final GraphListener[] lst = getListeners();
+		final PatternIndex idx = patterns;
+		// the pattern listeners share one pass through the index.
+		final int consumers = lst.length + (idx.all.length > 0 ? 1 : 0);
+		if (consumers == 0)
+		{
+			return;
+		}
+		// stream to a single consumer, replay only if there are several.
+		final ReplayBuffer<Triple> replay = new ReplayBuffer<Triple>(it,
+				consumers);
+		for (final GraphListener sgl : lst)
+		{
+			if (wrap)
+			{
+				sgl.notifyDeleteIterator(securedGraph, replay.iterator());
+			}
+			else
+			{
+				sgl.notifyDeleteIterator(g, replay.iterator());
+			}
+		}
+		if (idx.all.length > 0)
+		{
+			for (final Map.Entry<PatternListener, List<Triple>> e : idx.group(
+					replay.iterator()).entrySet())
+			{
+				e.getKey().listener.notifyDeleteIterator(wrap ? securedGraph : g,
+						e.getValue().iterator());
+			}
+		}
 	}
 
 	@Override
 	public void notifyDeleteIterator( final Graph g, final List<Triple> triples )
 	{
+		flush();
 		final boolean wrap = baseGraph.equals(g);
 
-		for (final SecuredGraphListener sgl : getListenerCollection())
+		for (final GraphListener sgl : getListeners())
 		{
 			if (wrap)
 			{
@@ -630,14 +1271,21 @@ public class SecuredGraphEventManager implements GraphEventManager
 				sgl.notifyDeleteIterator(g, triples.iterator());
 			}
 		}
+		for (final Map.Entry<PatternListener, List<Triple>> e : patterns
+				.group(triples).entrySet())
+		{
+			e.getKey().listener.notifyDeleteIterator(wrap ? securedGraph : g, e
+					.getValue().iterator());
+		}
 	}
 
 	@Override
 	public void notifyDeleteList( final Graph g, final List<Triple> L )
 	{
+		flush();
 		final boolean wrap = baseGraph.equals(g);
 
-		for (final SecuredGraphListener sgl : getListenerCollection())
+		for (final GraphListener sgl : getListeners())
 		{
 			if (wrap)
 			{
@@ -648,14 +1296,21 @@ public class SecuredGraphEventManager implements GraphEventManager
 				sgl.notifyDeleteList(g, L);
 			}
 		}
+		notifyPatterns(false, g, L, false);
 	}
 
 	@Override
 	public void notifyDeleteTriple( final Graph g, final Triple t )
 	{
 		final boolean wrap = baseGraph.equals(g);
+		if (wrap && (batchSize > 0))
+		{
+			buffer(false, t);
+			return;
+		}
+		flush();
 
-		for (final SecuredGraphListener sgl : getListenerCollection())
+		for (final GraphListener sgl : getListeners())
 		{
 			if (wrap)
 			{
@@ -666,6 +1321,7 @@ public class SecuredGraphEventManager implements GraphEventManager
 				sgl.notifyDeleteTriple(g, t);
 			}
 		}
+		notifyPatterns(false, g, t);
 	}
 
 	@Override
@@ -676,10 +1332,10 @@ public class SecuredGraphEventManager implements GraphEventManager
 			baseGraph.getEventManager().notifyEvent( baseGraph, value);
 		}
 		else {
-		
+			flush();
 			final boolean wrap = baseGraph.equals(source);
 
-			for (final SecuredGraphListener sgl : getListenerCollection())
+			for (final GraphListener sgl : getListeners())
 			{
 				if (wrap)
 				{
@@ -690,27 +1346,184 @@ public class SecuredGraphEventManager implements GraphEventManager
 					sgl.notifyEvent(source, value);
 				}
 			}
+			for (final PatternListener pl : patterns.all)
+			{
+				pl.listener.notifyEvent(wrap ? securedGraph : source, value);
+			}
+		}
+	}
+
+	/**
+	 * Notify the pattern listeners that match a graph of changes.
+	 */
+	private void notifyPatterns( final boolean add, final Graph g,
+			final Graph changes )
+	{
+		final PatternIndex idx = patterns;
+		if (idx.all.length == 0)
+		{
+			return;
+		}
+		final Graph source = baseGraph.equals(g) ? securedGraph : g;
+		for (final Map.Entry<PatternListener, List<Triple>> e : idx.group(
+				changes).entrySet())
+		{
+			final Graph matched = new CollectionGraph(e.getValue(), true);
+			if (add)
+			{
+				e.getKey().listener.notifyAddGraph(source, matched);
+			}
+			else
+			{
+				e.getKey().listener.notifyDeleteGraph(source, matched);
+			}
+		}
+	}
+
+	/**
+	 * Notify each matching pattern listener of the triples that match its
+	 * pattern.
+	 */
+	private void notifyPatterns( final boolean add, final Graph g,
+			final List<Triple> triples, final boolean asArray )
+	{
+		final PatternIndex idx = patterns;
+		if (idx.all.length == 0)
+		{
+			return;
+		}
+		final Graph source = baseGraph.equals(g) ? securedGraph : g;
+		for (final Map.Entry<PatternListener, List<Triple>> e : idx.group(
+				triples).entrySet())
+		{
+			final GraphListener listener = e.getKey().listener;
+			final List<Triple> matched = e.getValue();
+			if (asArray)
+			{
+				final Triple[] arry = matched
+						.toArray(new Triple[matched.size()]);
+				if (add)
+				{
+					listener.notifyAddArray(source, arry);
+				}
+				else
+				{
+					listener.notifyDeleteArray(source, arry);
+				}
+			}
+			else if (add)
+			{
+				listener.notifyAddList(source, matched);
+			}
+			else
+			{
+				listener.notifyDeleteList(source, matched);
+			}
+		}
+	}
+
+	/**
+	 * Notify the pattern listeners that match the triple.
+	 */
+	private void notifyPatterns( final boolean add, final Graph g,
+			final Triple t )
+	{
+		final Graph source = baseGraph.equals(g) ? securedGraph : g;
+		for (final PatternListener pl : patterns.match(t))
+		{
+			if (add)
+			{
+				pl.listener.notifyAddTriple(source, t);
+			}
+			else
+			{
+				pl.listener.notifyDeleteTriple(source, t);
+			}
 		}
 	}
 
 	@Override
 	public synchronized GraphEventManager register( final GraphListener listener )
 	{
-		Stack<SecuredGraphListener> sgl = listenerMap.get(listener);
+		Stack<GraphListener> sgl = listenerMap.get(listener);
 		if (sgl == null)
 		{
-			sgl = new Stack<SecuredGraphListener>();
+			sgl = new Stack<GraphListener>();
 		}
-		sgl.push(new SecuredGraphListener(listener));
+		sgl.push(secure(listener));
 		listenerMap.put(listener, sgl);
+		updateListeners();
+		return this;
+	}
+
+	/**
+	 * Register a listener that is only notified of changes to the triples
+	 * that match the predicate. Equivalent to registering the pattern
+	 * (ANY, predicate, ANY).
+	 * 
+	 * @param listener
+	 *            The listener to register.
+	 * @param predicate
+	 *            The predicate of interest.
+	 * @return this event manager.
+	 */
+	public GraphEventManager register( final GraphListener listener,
+			final Node predicate )
+	{
+		return register(listener, new Triple(Node.ANY, predicate, Node.ANY));
+	}
+
+	/**
+	 * Register a listener that is only notified of changes to the triples
+	 * that match the pattern. Triples are routed to the listener through an
+	 * index on the pattern predicate or subject before any permissions are
+	 * evaluated. Events that are not about specific triples are delivered to
+	 * all listeners.
+	 * 
+	 * @param listener
+	 *            The listener to register.
+	 * @param pattern
+	 *            The pattern to match, Node.ANY matches any node.
+	 * @return this event manager.
+	 */
+	public synchronized GraphEventManager register(
+			final GraphListener listener, final Triple pattern )
+	{
+		if (pattern == null)
+		{
+			throw new IllegalArgumentException("Pattern may not be null");
+		}
+		Stack<PatternListener> pls = patternMap.get(listener);
+		if (pls == null)
+		{
+			pls = new Stack<PatternListener>();
+		}
+		pls.push(new PatternListener(pattern, secure(listener)));
+		patternMap.put(listener, pls);
+		updatePatterns();
 		return this;
 	}
 
+	/**
+	 * Wrap the listener so that it is only notified of the changes the
+	 * current principal may see.
+	 */
+	private GraphListener secure( final GraphListener listener )
+	{
+		final AsyncDelivery async = asyncDelivery;
+		if (async == null)
+		{
+			return new SecuredGraphListener(listener);
+		}
+		return async.wrap(GraphListener.class, new SecuredGraphListener(
+				listener));
+	}
+
 	@Override
 	public synchronized GraphEventManager unregister(
 			final GraphListener listener )
 	{
-		final Stack<SecuredGraphListener> sgl = listenerMap.get(listener);
+		final Stack<GraphListener> sgl = listenerMap.get(listener);
 		if (sgl != null)
 		{
 			if (sgl.size() == 1)
@@ -719,11 +1532,53 @@ public class SecuredGraphEventManager implements GraphEventManager
 			}
 			else
 			{
-				sgl.pop();
 				listenerMap.put(listener, sgl);
 			}
+			AsyncDelivery.shutdown(sgl.pop());
+			updateListeners();
+		}
+		else
+		{
+			final Stack<PatternListener> pls = patternMap.get(listener);
+			if (pls != null)
+			{
+				if (pls.size() == 1)
+				{
+					patternMap.remove(listener);
+				}
+				AsyncDelivery.shutdown(pls.pop().listener);
+				updatePatterns();
+			}
 		}
 		return this;
 	}
 
+	/**
+	 * Rebuild the listener snapshot from the listenerMap. Must be called
+	 * while holding the lock on this.
+	 */
+	private void updateListeners()
+	{
+		final List<GraphListener> lst = new ArrayList<GraphListener>();
+		for (final Collection<GraphListener> coll : listenerMap.values())
+		{
+			lst.addAll(coll);
+		}
+		listeners = lst.toArray(new GraphListener[lst.size()]);
+	}
+
+	/**
+	 * Rebuild the pattern index from the patternMap. Must be called while
+	 * holding the lock on this.
+	 */
+	private void updatePatterns()
+	{
+		final List<PatternListener> lst = new ArrayList<PatternListener>();
+		for (final Collection<PatternListener> coll : patternMap.values())
+		{
+			lst.addAll(coll);
+		}
+		patterns = new PatternIndex(lst);
+	}
+
 }
@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.jena.security.graph;
+
+import com.hp.hpl.jena.graph.TransactionHandler;
+import com.hp.hpl.jena.shared.Command;
+
+import org.xenei.jena.security.AccessDeniedException;
+
+/**
+ * The interface for secured TransactionHandler instances.
+ * <p>
+ * By default the permissions for each change to a SecuredGraph are checked
+ * when the change is made. When deferred checking is enabled, triples added
+ * to or deleted from the SecuredGraph between <code>begin()</code> and
+ * <code>commit()</code> are held by the transaction. At
+ * <code>commit()</code> their permissions are checked as a single batch and,
+ * if all are permitted, they are written to the base graph and the base
+ * transaction is committed. If any change is not permitted nothing is
+ * written, the base transaction is aborted and an AccessDeniedException is
+ * thrown.
+ * </p>
+ * <p>
+ * Held changes are not visible to listeners or to other threads before
+ * commit. The thread that made them sees them through the
+ * <code>find()</code> and <code>contains()</code> methods of the
+ * SecuredGraph, but not through <code>size()</code> or
+ * <code>isEmpty()</code>. Changes made through other objects, such as the
+ * model or the bulk update handler, are checked and written immediately.
+ * </p>
+ * <p>
+ * Deferred checking requires that the base graph supports transactions.
+ * Deferred transactions do not nest.
+ * </p>
+ */
+public interface SecuredTransactionHandler extends TransactionHandler
+{
+	/**
+	 * Abort the transaction and discard any changes that have not been
+	 * checked.
+	 */
+	@Override
+	public void abort();
+
+	/**
+	 * Start a transaction. If deferred checking is enabled changes made by
+	 * this thread are held until the transaction completes.
+	 * 
+	 * @throws IllegalStateException
+	 *             if a deferred transaction is already active on this
+	 *             thread.
+	 */
+	@Override
+	public void begin();
+
+	/**
+	 * @graphSec Update (if deferred)
+	 * @tripleSec Create for added triples, Delete for deleted triples (if
+	 *            deferred)
+	 * @throws AccessDeniedException
+	 *             if a held change is not permitted. Nothing has been
+	 *             written and the base transaction has been aborted.
+	 */
+	@Override
+	public void commit() throws AccessDeniedException;
+
+	/**
+	 * @graphSec Update (if deferred)
+	 * @tripleSec Create for added triples, Delete for deleted triples (if
+	 *            deferred)
+	 * @throws AccessDeniedException
+	 *             if a held change is not permitted. Nothing has been
+	 *             written and the base transaction has been aborted.
+	 */
+	@Override
+	public Object executeInTransaction( Command c )
+			throws AccessDeniedException;
+
+	/**
+	 * @return true if permission checks are deferred to commit.
+	 */
+	public boolean isDeferred();
+
+	/**
+	 * Set whether permission checks for changes made inside a transaction
+	 * are deferred to commit. Takes effect for transactions started after the
+	 * call.
+	 * 
+	 * @param deferred
+	 *            true to defer the checks.
+	 * @throws UnsupportedOperationException
+	 *             if deferred is true and the base graph does not support
+	 *             transactions.
+	 */
+	public void setDeferred( boolean deferred );
+}
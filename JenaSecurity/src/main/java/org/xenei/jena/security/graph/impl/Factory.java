@@ -157,4 +157,77 @@ public class Factory
 				checker));
 	}
 
+	/**
+	 * Create an instance of the SecuredGraph that answers reads from a
+	 * materialized view.
+	 * <p>
+	 * The view graph is filled with the triples from the base graph that the
+	 * principal returned by the security evaluator may read, and is kept
+	 * current by listening to the base graph events. While the current
+	 * principal is the one the view was built for reads are plain lookups in
+	 * the view; for any other principal reads are evaluated as usual.
+	 * </p>
+	 * 
+	 * @param securityEvaluator
+	 *            The security evaluator to use
+	 * @param graphIRI
+	 *            The IRI for the graph.
+	 * @param graph
+	 *            The graph that we are wrapping.
+	 * @param viewGraph
+	 *            The graph to hold the view, for example a memory or TDB
+	 *            graph. Any triples in it are removed.
+	 * @return
+	 */
+	public static SecuredGraph getInstance(
+			final SecurityEvaluator securityEvaluator, final String graphIRI,
+			final Graph graph, final Graph viewGraph )
+	{
+
+		final ItemHolder<Graph, SecuredGraphImpl> holder = new ItemHolder<Graph, SecuredGraphImpl>(
+				graph);
+		final SecuredGraphImpl checker = new SecuredGraphImpl(
+				securityEvaluator, graphIRI, holder) {
+		};
+		checker.setView(new MaterializedView(checker, graph, viewGraph));
+		return holder.setSecuredItem(new SecuredItemInvoker(graph.getClass(),
+				checker));
+	}
+
+	/**
+	 * Create an instance of the SecuredGraph that filters reads with a
+	 * visibility index.
+	 * <p>
+	 * The index records, for the principal returned by the security
+	 * evaluator, which triples may not be read so that the remaining triples
+	 * are returned without calling the security evaluator. For any other
+	 * principal reads are evaluated as usual.
+	 * </p>
+	 * 
+	 * @param securityEvaluator
+	 *            The security evaluator to use
+	 * @param graphIRI
+	 *            The IRI for the graph.
+	 * @param graph
+	 *            The graph that we are wrapping.
+	 * @param indexSize
+	 *            The number of bits in the index. Larger indexes have fewer
+	 *            collisions and so fewer evaluations.
+	 * @return
+	 */
+	public static SecuredGraph getInstance(
+			final SecurityEvaluator securityEvaluator, final String graphIRI,
+			final Graph graph, final int indexSize )
+	{
+
+		final ItemHolder<Graph, SecuredGraphImpl> holder = new ItemHolder<Graph, SecuredGraphImpl>(
+				graph);
+		final SecuredGraphImpl checker = new SecuredGraphImpl(
+				securityEvaluator, graphIRI, holder) {
+		};
+		checker.setIndex(new VisibilityIndex(checker, graph, indexSize));
+		return holder.setSecuredItem(new SecuredItemInvoker(graph.getClass(),
+				checker));
+	}
+
 }
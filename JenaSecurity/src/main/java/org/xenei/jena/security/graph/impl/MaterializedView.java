@@ -0,0 +1,276 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.jena.security.graph.impl;
+
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.GraphEvents;
+import com.hp.hpl.jena.graph.GraphListener;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+
+import java.security.Principal;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.xenei.jena.security.CachedSecurityEvaluator;
+import org.xenei.jena.security.SecuredItem;
+import org.xenei.jena.security.SecurityEvaluator.Action;
+import org.xenei.jena.security.utils.PermTripleFilter;
+
+/**
+ * A materialized view of the triples in a base graph that a single principal
+ * may read.
+ * <p>
+ * The view is populated when it is created and is then kept current by
+ * listening to the event manager of the base graph. Only the triples in each
+ * change are evaluated so reads against the view require no calls to the
+ * security evaluator.
+ * </p>
+ * <p>
+ * The view assumes that the permissions of the principal do not change while
+ * the view is in use. If they do, <code>rebuild()</code> must be called.
+ * </p>
+ */
+class MaterializedView implements GraphListener
+{
+	// the principal the view was built for
+	private final Principal principal;
+	// the graph we are a view of
+	private final Graph baseGraph;
+	// the graph that holds the readable triples
+	private final Graph view;
+	// the filter that determines which triples are readable.
+	private final PermTripleFilter filter;
+
+	/**
+	 * Constructor.
+	 *
+	 * The view is built for the principal returned by the security evaluator
+	 * of the secured item at the time of construction.
+	 *
+	 * @param securedItem
+	 *            The secured item that provides the security context.
+	 * @param baseGraph
+	 *            The graph that is being viewed.
+	 * @param view
+	 *            The graph to store the readable triples in. Any triples
+	 *            already in the graph are removed.
+	 */
+	MaterializedView( final SecuredItem securedItem, final Graph baseGraph,
+			final Graph view )
+	{
+		if (view == null)
+		{
+			throw new IllegalArgumentException("View graph may not be null");
+		}
+		if (view == baseGraph)
+		{
+			throw new IllegalArgumentException(
+					"View graph may not be the base graph");
+		}
+		this.principal = securedItem.getSecurityEvaluator().getPrincipal();
+		this.baseGraph = baseGraph;
+		this.view = view;
+		this.filter = new PermTripleFilter(Action.Read, securedItem,
+				CachedSecurityEvaluator.getInstance(
+						securedItem.getSecurityEvaluator(), principal));
+		// register first so that no change is missed while we populate.
+		baseGraph.getEventManager().register(this);
+		rebuild();
+	}
+
+	private void add( final Iterator<Triple> iter )
+	{
+		while (iter.hasNext())
+		{
+			add(iter.next());
+		}
+	}
+
+	private void add( final Triple t )
+	{
+		if (filter.accept(t))
+		{
+			view.add(t);
+		}
+	}
+
+	/**
+	 * Stop tracking the base graph. The view graph is not closed.
+	 */
+	public void close()
+	{
+		baseGraph.getEventManager().unregister(this);
+	}
+
+	private void delete( final Iterator<Triple> iter )
+	{
+		while (iter.hasNext())
+		{
+			view.delete(iter.next());
+		}
+	}
+
+	/**
+	 * Get the graph that holds the readable triples.
+	 *
+	 * @return the view graph.
+	 */
+	public Graph getGraph()
+	{
+		return view;
+	}
+
+	/**
+	 * Get the principal the view was built for.
+	 *
+	 * @return The principal, may be null.
+	 */
+	public Principal getPrincipal()
+	{
+		return principal;
+	}
+
+	/**
+	 * Return true if the view was built for the principal.
+	 *
+	 * @param other
+	 *            The principal to check
+	 * @return true if the view may answer reads for the principal.
+	 */
+	public boolean isViewFor( final Principal other )
+	{
+		return MaterializedView.samePrincipal(principal, other);
+	}
+
+	/**
+	 * Return true if the principals are the same. Principals are the same if
+	 * they are both null or are equal objects. Distinct principals that
+	 * share a name are not the same.
+	 * 
+	 * @param p1
+	 *            The first principal, may be null.
+	 * @param p2
+	 *            The second principal, may be null.
+	 * @return true if the principals are the same.
+	 */
+	static boolean samePrincipal( final Principal p1, final Principal p2 )
+	{
+		if ((p1 == null) || (p2 == null))
+		{
+			return p1 == p2;
+		}
+		return p1.equals(p2);
+	}
+
+	@Override
+	public void notifyAddArray( final Graph g, final Triple[] triples )
+	{
+		add(Arrays.asList(triples).iterator());
+	}
+
+	@Override
+	public void notifyAddGraph( final Graph g, final Graph added )
+	{
+		add(added.find(Triple.ANY));
+	}
+
+	@Override
+	public void notifyAddIterator( final Graph g, final Iterator<Triple> it )
+	{
+		add(it);
+	}
+
+	@Override
+	public void notifyAddList( final Graph g, final List<Triple> triples )
+	{
+		add(triples.iterator());
+	}
+
+	@Override
+	public void notifyAddTriple( final Graph g, final Triple t )
+	{
+		add(t);
+	}
+
+	@Override
+	public void notifyDeleteArray( final Graph g, final Triple[] triples )
+	{
+		delete(Arrays.asList(triples).iterator());
+	}
+
+	@Override
+	public void notifyDeleteGraph( final Graph g, final Graph removed )
+	{
+		delete(removed.find(Triple.ANY));
+	}
+
+	@Override
+	public void notifyDeleteIterator( final Graph g, final Iterator<Triple> it )
+	{
+		delete(it);
+	}
+
+	@Override
+	public void notifyDeleteList( final Graph g, final List<Triple> triples )
+	{
+		delete(triples.iterator());
+	}
+
+	@Override
+	public void notifyDeleteTriple( final Graph g, final Triple t )
+	{
+		view.delete(t);
+	}
+
+	@Override
+	public void notifyEvent( final Graph source, final Object value )
+	{
+		if (GraphEvents.removeAll.equals(value))
+		{
+			view.getBulkUpdateHandler().removeAll();
+		}
+		else if ((value instanceof GraphEvents)
+				&& (((GraphEvents) value).getContent() instanceof Triple))
+		{
+			// bulk remove by pattern.
+			final Triple t = ((GraphEvents) value).getTriple();
+			view.getBulkUpdateHandler().remove(t.getSubject(),
+					t.getPredicate(), t.getObject());
+		}
+	}
+
+	/**
+	 * Discard the contents of the view and evaluate every triple in the base
+	 * graph again.
+	 */
+	public void rebuild()
+	{
+		view.getBulkUpdateHandler().removeAll();
+		final ExtendedIterator<Triple> iter = baseGraph.find(Triple.ANY);
+		try
+		{
+			add(iter);
+		}
+		finally
+		{
+			iter.close();
+		}
+	}
+}
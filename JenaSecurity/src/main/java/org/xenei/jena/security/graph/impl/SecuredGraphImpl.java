@@ -20,14 +20,19 @@ package org.xenei.jena.security.graph.impl;
 import com.hp.hpl.jena.graph.Graph;
 import com.hp.hpl.jena.graph.GraphStatisticsHandler;
 import com.hp.hpl.jena.graph.Node;
-import com.hp.hpl.jena.graph.TransactionHandler;
 import com.hp.hpl.jena.graph.Triple;
 import com.hp.hpl.jena.graph.TripleMatch;
+import com.hp.hpl.jena.graph.impl.GraphMatcher;
 import com.hp.hpl.jena.graph.query.QueryHandler;
 import com.hp.hpl.jena.shared.AddDeniedException;
 import com.hp.hpl.jena.shared.DeleteDeniedException;
 import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+import com.hp.hpl.jena.util.iterator.Filter;
+import com.hp.hpl.jena.util.iterator.WrappedIterator;
 
+import java.util.Collection;
+
+import org.xenei.jena.security.AccessDeniedException;
 import org.xenei.jena.security.ItemHolder;
 import org.xenei.jena.security.SecuredItem;
 import org.xenei.jena.security.SecuredItemImpl;
@@ -39,6 +44,7 @@ import org.xenei.jena.security.graph.SecuredGraph;
 import org.xenei.jena.security.graph.SecuredGraphEventManager;
 import org.xenei.jena.security.graph.SecuredPrefixMapping;
 import org.xenei.jena.security.graph.SecuredReifier;
+import org.xenei.jena.security.graph.SecuredTransactionHandler;
 import org.xenei.jena.security.utils.PermTripleFilter;
 
 /**
@@ -46,6 +52,64 @@ import org.xenei.jena.security.utils.PermTripleFilter;
  */
 public class SecuredGraphImpl extends SecuredItemImpl implements SecuredGraph
 {
+	/**
+	 * Count and order independent hash of a set of triples in which all
+	 * blank nodes hash alike.
+	 */
+	private static class IsomorphismHash
+	{
+		private static final int BLANK = 0x5bd1e995;
+		private long hash;
+		private int count;
+		private boolean hasBlank;
+
+		/**
+		 * Add a triple to the hash.
+		 * 
+		 * @param t
+		 *            The triple to add.
+		 * @return true if the triple contains a blank node.
+		 */
+		boolean add( final Triple t )
+		{
+			final boolean blank = t.getSubject().isBlank()
+					|| t.getObject().isBlank();
+			hasBlank |= blank;
+			count++;
+			long h = ((hash(t.getSubject()) * 31L) + hash(t.getPredicate()))
+					* 31L + hash(t.getObject());
+			// mix the bits so that the sum does not cancel similar triples.
+			h ^= h >>> 33;
+			h *= 0xff51afd7ed558ccdL;
+			h ^= h >>> 33;
+			hash += h;
+			return blank;
+		}
+
+		@Override
+		public boolean equals( final Object o )
+		{
+			if (o instanceof IsomorphismHash)
+			{
+				final IsomorphismHash other = (IsomorphismHash) o;
+				return (count == other.count) && (hash == other.hash)
+						&& (hasBlank == other.hasBlank);
+			}
+			return false;
+		}
+
+		private int hash( final Node n )
+		{
+			return n.isBlank() ? BLANK : n.hashCode();
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return (int) (hash ^ (hash >>> 32));
+		}
+	}
+
 	// the reifier for this secured graph.
 	private SecuredReifier reifier;
 	// the prefixMapping for this graph.
@@ -55,6 +119,14 @@ public class SecuredGraphImpl extends SecuredItemImpl implements SecuredGraph
 
 	private final SecuredGraphEventManager eventManager;
 
+	private final SecuredTransactionHandlerImpl transactionHandler;
+
+	// the materialized view of readable triples, may be null.
+	private volatile MaterializedView view;
+
+	// the index of triples that may not be read, may be null.
+	private volatile VisibilityIndex index;
+
 	/**
 	 * Constructor
 	 * 
@@ -72,6 +144,8 @@ public class SecuredGraphImpl extends SecuredItemImpl implements SecuredGraph
 		this.holder = holder;
 		this.eventManager = new SecuredGraphEventManager(this,
 				holder.getBaseItem(), holder.getBaseItem().getEventManager());
+		this.transactionHandler = new SecuredTransactionHandlerImpl(this,
+				holder.getBaseItem().getTransactionHandler());
 	}
 
 	SecuredGraphImpl( final SecurityEvaluator securityEvaluator,
@@ -82,19 +156,34 @@ public class SecuredGraphImpl extends SecuredItemImpl implements SecuredGraph
 		this.holder = holder;
 		this.eventManager = new SecuredGraphEventManager(this,
 				holder.getBaseItem(), holder.getBaseItem().getEventManager());
+		this.transactionHandler = new SecuredTransactionHandlerImpl(this,
+				holder.getBaseItem().getTransactionHandler());
 	}
 
 	@Override
 	public void add( final Triple t ) throws AddDeniedException
 	{
-		checkUpdate();
-		checkCreate(t);
-		holder.getBaseItem().add(t);
+		if (!transactionHandler.deferAdd(t))
+		{
+			checkUpdate();
+			checkCreate(t);
+			holder.getBaseItem().add(t);
+		}
 	}
 
 	@Override
 	public void close()
 	{
+		final MaterializedView v = view;
+		if (v != null)
+		{
+			v.close();
+		}
+		final VisibilityIndex idx = index;
+		if (idx != null)
+		{
+			idx.close();
+		}
 		holder.getBaseItem().close();
 	}
 
@@ -108,7 +197,25 @@ public class SecuredGraphImpl extends SecuredItemImpl implements SecuredGraph
 	public boolean contains( final Triple t )
 	{
 		checkRead();
-		if (canRead(t))
+		final ExtendedIterator<Triple> pending = findPending(t);
+		if (pending != null)
+		{
+			try
+			{
+				return pending.hasNext();
+			}
+			finally
+			{
+				pending.close();
+			}
+		}
+		final MaterializedView v = getView();
+		if (v != null)
+		{
+			return v.getGraph().contains(t);
+		}
+		final VisibilityIndex idx = getIndex();
+		if (((idx != null) && idx.isReadable(t)) || canRead(t))
 		{
 			return holder.getBaseItem().contains(t);
 		}
@@ -131,6 +238,34 @@ public class SecuredGraphImpl extends SecuredItemImpl implements SecuredGraph
 
 	}
 
+	/**
+	 * Check the changes held by a deferred transaction and write them to the
+	 * base graph.
+	 * 
+	 * @param added
+	 *            The triples that were added.
+	 * @param deleted
+	 *            The triples that were deleted.
+	 * @throws AccessDeniedException
+	 *             if any change is not permitted. Nothing has been written.
+	 */
+	void applyChanges( final Collection<Triple> added,
+			final Collection<Triple> deleted )
+	{
+		checkUpdate();
+		checkCreateTriples(added);
+		checkDeleteTriples(deleted);
+		final Graph base = holder.getBaseItem();
+		for (final Triple t : deleted)
+		{
+			base.delete(t);
+		}
+		for (final Triple t : added)
+		{
+			base.add(t);
+		}
+	}
+
 	private synchronized void createPrefixMapping()
 	{
 		if (prefixMapping == null)
@@ -152,9 +287,12 @@ public class SecuredGraphImpl extends SecuredItemImpl implements SecuredGraph
 	@Override
 	public void delete( final Triple t ) throws DeleteDeniedException
 	{
-		checkUpdate();
-		checkDelete(t);
-		holder.getBaseItem().delete(t);
+		if (!transactionHandler.deferDelete(t))
+		{
+			checkUpdate();
+			checkDelete(t);
+			holder.getBaseItem().delete(t);
+		}
 	}
 
 	@Override
@@ -173,10 +311,21 @@ public class SecuredGraphImpl extends SecuredItemImpl implements SecuredGraph
 			final Node o )
 	{
 		checkRead();
+		final ExtendedIterator<Triple> pending = findPending(Triple
+				.createMatch(s, p, o));
+		if (pending != null)
+		{
+			return pending;
+		}
+		final MaterializedView v = getView();
+		if (v != null)
+		{
+			return WrappedIterator.createNoRemove(v.getGraph().find(s, p, o));
+		}
 		ExtendedIterator<Triple> retval = holder.getBaseItem().find(s, p, o);
 		if (!canRead(Triple.ANY))
 		{
-			retval = retval.filterKeep(new PermTripleFilter(Action.Read, this));
+			retval = retval.filterKeep(getReadFilter());
 		}
 		return retval;
 	}
@@ -185,10 +334,37 @@ public class SecuredGraphImpl extends SecuredItemImpl implements SecuredGraph
 	public ExtendedIterator<Triple> find( final TripleMatch m )
 	{
 		checkRead();
+		final ExtendedIterator<Triple> pending = findPending(m);
+		if (pending != null)
+		{
+			return pending;
+		}
+		final MaterializedView v = getView();
+		if (v != null)
+		{
+			return WrappedIterator.createNoRemove(v.getGraph().find(m));
+		}
 		ExtendedIterator<Triple> retval = holder.getBaseItem().find(m);
 		if (!canRead(Triple.ANY))
 		{
-			retval = retval.filterKeep(new PermTripleFilter(Action.Read, this));
+			retval = retval.filterKeep(getReadFilter());
+		}
+		return retval;
+	}
+
+	/**
+	 * Find the readable matching triples including the changes held by a
+	 * deferred transaction on this thread.
+	 * 
+	 * @return the triples, or null if this thread holds no changes.
+	 */
+	private ExtendedIterator<Triple> findPending( final TripleMatch m )
+	{
+		ExtendedIterator<Triple> retval = transactionHandler.find(
+				holder.getBaseItem(), m);
+		if ((retval != null) && !canRead(Triple.ANY))
+		{
+			retval = retval.filterKeep(getReadFilter());
 		}
 		return retval;
 	}
@@ -242,9 +418,54 @@ public class SecuredGraphImpl extends SecuredItemImpl implements SecuredGraph
 	}
 
 	@Override
-	public TransactionHandler getTransactionHandler()
+	public SecuredTransactionHandler getTransactionHandler()
+	{
+		return transactionHandler;
+	}
+
+	/**
+	 * Get the visibility index if one exists and it was built for the current
+	 * principal.
+	 * 
+	 * @return the index or null if reads must be evaluated.
+	 */
+	private VisibilityIndex getIndex()
+	{
+		final VisibilityIndex idx = index;
+		if ((idx != null) && idx.isIndexFor(getSecurityEvaluator().getPrincipal()))
+		{
+			return idx;
+		}
+		return null;
+	}
+
+	/**
+	 * Get the filter that removes the triples the current principal may not
+	 * read.
+	 * 
+	 * @return the read filter.
+	 */
+	private Filter<Triple> getReadFilter()
+	{
+		final VisibilityIndex idx = getIndex();
+		return idx == null ? new PermTripleFilter(Action.Read, this) : idx
+				.getFilter();
+	}
+
+	/**
+	 * Get the materialized view if one exists and it was built for the
+	 * current principal.
+	 * 
+	 * @return the view or null if reads must be evaluated.
+	 */
+	private MaterializedView getView()
 	{
-		return holder.getBaseItem().getTransactionHandler();
+		final MaterializedView v = view;
+		if ((v != null) && v.isViewFor(getSecurityEvaluator().getPrincipal()))
+		{
+			return v;
+		}
+		return null;
 	}
 
 	@Override
@@ -260,24 +481,76 @@ public class SecuredGraphImpl extends SecuredItemImpl implements SecuredGraph
 		return holder.getBaseItem().isEmpty();
 	}
 
+	/**
+	 * Isomorphism between the triples the current principal may read and the
+	 * graph.
+	 * <p>
+	 * The readable triples are copied into a memory graph in one filtered
+	 * scan of the base graph, and the other graph is scanned once. Both scans
+	 * compute a count and an order independent hash in which all blank nodes
+	 * are hashed alike, and the triples of the other graph that contain no
+	 * blank nodes are checked against the copy. If neither graph has blank
+	 * nodes that is enough to decide; otherwise the blank nodes are matched
+	 * over the copy, so the base graph and the security evaluator are not
+	 * used again.
+	 * </p>
+	 */
 	@Override
 	public boolean isIsomorphicWith( final Graph g )
 	{
 		checkRead();
-		if (g.size() != holder.getBaseItem().size())
+		if (canRead(Triple.ANY))
 		{
-			return false;
+			return holder.getBaseItem().isIsomorphicWith(g);
+		}
+		final MaterializedView v = getView();
+		if (v != null)
+		{
+			return v.getGraph().isIsomorphicWith(g);
 		}
-		final Triple t = new Triple(Node.ANY, Node.ANY, Node.ANY);
-		if (!canRead(t))
+		final Graph readable = com.hp.hpl.jena.graph.Factory.createGraphMem();
+		final IsomorphismHash mine = new IsomorphismHash();
+		ExtendedIterator<Triple> iter = holder.getBaseItem().find(Triple.ANY)
+				.filterKeep(getReadFilter());
+		try
 		{
-			final ExtendedIterator<Triple> iter = g.find(t);
 			while (iter.hasNext())
 			{
-				checkRead(iter.next());
+				final Triple t = iter.next();
+				mine.add(t);
+				readable.add(t);
 			}
 		}
-		return holder.getBaseItem().isIsomorphicWith(g);
+		finally
+		{
+			iter.close();
+		}
+		final IsomorphismHash theirs = new IsomorphismHash();
+		iter = g.find(Triple.ANY);
+		try
+		{
+			while (iter.hasNext())
+			{
+				final Triple t = iter.next();
+				if (!theirs.add(t) && !readable.contains(t))
+				{
+					return false;
+				}
+				if (theirs.count > mine.count)
+				{
+					return false;
+				}
+			}
+		}
+		finally
+		{
+			iter.close();
+		}
+		if (!mine.equals(theirs))
+		{
+			return false;
+		}
+		return !mine.hasBlank || GraphMatcher.equals(readable, g);
 	}
 
 	@Override
@@ -287,6 +560,40 @@ public class SecuredGraphImpl extends SecuredItemImpl implements SecuredGraph
 		return holder.getBaseItem().queryHandler();
 	}
 
+	/**
+	 * Set the visibility index used to filter reads for the principal it was
+	 * built for.
+	 * 
+	 * @param index
+	 *            The index, may be null to remove the current index.
+	 */
+	void setIndex( final VisibilityIndex index )
+	{
+		final VisibilityIndex old = this.index;
+		this.index = index;
+		if ((old != null) && (old != index))
+		{
+			old.close();
+		}
+	}
+
+	/**
+	 * Set the materialized view that answers reads for the principal it was
+	 * built for.
+	 * 
+	 * @param view
+	 *            The view, may be null to remove the current view.
+	 */
+	void setView( final MaterializedView view )
+	{
+		final MaterializedView old = this.view;
+		this.view = view;
+		if ((old != null) && (old != view))
+		{
+			old.close();
+		}
+	}
+
 	@Override
 	public int size()
 	{
@@ -0,0 +1,265 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.jena.security.graph.impl;
+
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.TransactionHandler;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.graph.TripleMatch;
+import com.hp.hpl.jena.shared.Command;
+import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+import com.hp.hpl.jena.util.iterator.Filter;
+import com.hp.hpl.jena.util.iterator.WrappedIterator;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.xenei.jena.security.AccessDeniedException;
+import org.xenei.jena.security.SecuredItemImpl;
+import org.xenei.jena.security.graph.SecuredTransactionHandler;
+
+/**
+ * Implementation of SecuredTransactionHandler.
+ * 
+ * The changes of a deferred transaction are held per thread and are only
+ * written to the base graph when they have been checked at commit.
+ */
+public class SecuredTransactionHandlerImpl implements
+		SecuredTransactionHandler
+{
+	/**
+	 * The net changes held by a deferred transaction. A triple is in at most
+	 * one of the sets.
+	 */
+	private static class Changes
+	{
+		private final Set<Triple> added = new LinkedHashSet<Triple>();
+		private final Set<Triple> deleted = new LinkedHashSet<Triple>();
+	}
+
+	// the graph that the changes are made to.
+	private final SecuredGraphImpl graph;
+	// the base transaction handler
+	private final TransactionHandler handler;
+	// the changes made by the current thread, null if not recording.
+	private final ThreadLocal<Changes> changes = new ThreadLocal<Changes>();
+	// true if checks are deferred to commit.
+	private volatile boolean deferred;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param graph
+	 *            The secured graph that the changes are made to.
+	 * @param handler
+	 *            The transaction handler from the base graph.
+	 */
+	SecuredTransactionHandlerImpl( final SecuredGraphImpl graph,
+			final TransactionHandler handler )
+	{
+		this.graph = graph;
+		this.handler = handler;
+	}
+
+	@Override
+	public void abort()
+	{
+		changes.remove();
+		try
+		{
+			handler.abort();
+		}
+		finally
+		{
+			graph.getEventManager().flush();
+		}
+	}
+
+	@Override
+	public void begin()
+	{
+		if (changes.get() != null)
+		{
+			throw new IllegalStateException(
+					"A deferred transaction is already active on this thread");
+		}
+		handler.begin();
+		if (deferred)
+		{
+			changes.set(new Changes());
+		}
+	}
+
+	@Override
+	public void commit()
+	{
+		final Changes c = changes.get();
+		changes.remove();
+		try
+		{
+			if ((c != null) && !(c.added.isEmpty() && c.deleted.isEmpty()))
+			{
+				SecuredItemImpl.incrementUse();
+				try
+				{
+					graph.applyChanges(c.added, c.deleted);
+				}
+				catch (final RuntimeException e)
+				{
+					// a denied or failed check or write must not leave the
+					// base transaction open.
+					handler.abort();
+					throw e;
+				}
+				finally
+				{
+					SecuredItemImpl.decrementUse();
+				}
+			}
+			handler.commit();
+		}
+		finally
+		{
+			// deliver any batched notifications for the transaction.
+			graph.getEventManager().flush();
+		}
+	}
+
+	/**
+	 * Hold an added triple if a deferred transaction is active on this
+	 * thread.
+	 * 
+	 * @param t
+	 *            The triple being added.
+	 * @return true if the triple is held until commit.
+	 */
+	boolean deferAdd( final Triple t )
+	{
+		final Changes c = changes.get();
+		if (c == null)
+		{
+			return false;
+		}
+		c.deleted.remove(t);
+		c.added.add(t);
+		return true;
+	}
+
+	/**
+	 * Hold a deleted triple if a deferred transaction is active on this
+	 * thread.
+	 * 
+	 * @param t
+	 *            The triple being deleted.
+	 * @return true if the triple is held until commit.
+	 */
+	boolean deferDelete( final Triple t )
+	{
+		final Changes c = changes.get();
+		if (c == null)
+		{
+			return false;
+		}
+		c.added.remove(t);
+		c.deleted.add(t);
+		return true;
+	}
+
+	/**
+	 * Find the matching triples as this thread sees them: the base graph
+	 * with the changes held by its deferred transaction applied. Permissions
+	 * are not checked.
+	 * 
+	 * @param base
+	 *            The base graph.
+	 * @param m
+	 *            The match.
+	 * @return the matching triples, or null if this thread holds no
+	 *         changes.
+	 */
+	ExtendedIterator<Triple> find( final Graph base, final TripleMatch m )
+	{
+		final Changes c = changes.get();
+		if ((c == null) || (c.added.isEmpty() && c.deleted.isEmpty()))
+		{
+			return null;
+		}
+		final Set<Triple> changed = new HashSet<Triple>(c.added);
+		changed.addAll(c.deleted);
+		final Triple pattern = m.asTriple();
+		final List<Triple> added = new ArrayList<Triple>();
+		for (final Triple t : c.added)
+		{
+			if (pattern.matches(t))
+			{
+				added.add(t);
+			}
+		}
+		return base.find(m).filterDrop(new Filter<Triple>() {
+			@Override
+			public boolean accept( final Triple t )
+			{
+				return changed.contains(t);
+			}
+		}).andThen(WrappedIterator.createNoRemove(added.iterator()));
+	}
+
+	@Override
+	public Object executeInTransaction( final Command c )
+	{
+		begin();
+		final Object result;
+		try
+		{
+			result = c.execute();
+		}
+		catch (final RuntimeException e)
+		{
+			abort();
+			throw e;
+		}
+		commit();
+		return result;
+	}
+
+	@Override
+	public boolean isDeferred()
+	{
+		return deferred;
+	}
+
+	@Override
+	public void setDeferred( final boolean deferred )
+	{
+		if (deferred && !handler.transactionsSupported())
+		{
+			throw new UnsupportedOperationException(
+					"Base graph does not support transactions");
+		}
+		this.deferred = deferred;
+	}
+
+	@Override
+	public boolean transactionsSupported()
+	{
+		return handler.transactionsSupported();
+	}
+}
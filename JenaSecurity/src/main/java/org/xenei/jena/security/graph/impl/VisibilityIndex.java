@@ -0,0 +1,467 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.jena.security.graph.impl;
+
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.GraphListener;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+import com.hp.hpl.jena.util.iterator.Filter;
+
+import java.security.Principal;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.xenei.jena.security.CachedSecurityEvaluator;
+import org.xenei.jena.security.SecuredItem;
+import org.xenei.jena.security.SecurityEvaluator.Action;
+import org.xenei.jena.security.utils.PermTripleFilter;
+
+/**
+ * A bitmap index of the triples in a base graph that a single principal may
+ * read.
+ * <p>
+ * Each triple is hashed to a bit position. A bit is set when at least one
+ * readable triple hashes to that position and no triple that may not be read
+ * does. A triple whose bit is set is therefore readable without calling the
+ * security evaluator, any other triple is evaluated as usual. The index fails
+ * closed: a position that no indexed triple hashes to is clear, so a triple
+ * that reaches the base data without passing through the base graph event
+ * manager is evaluated unless it collides with an indexed readable triple.
+ * </p>
+ * <p>
+ * The index is built by <code>rebuild()</code>, which may be run off the
+ * request path as the current index stays in use until the new one is
+ * complete. Additions to the base graph are patched into the index through
+ * its event manager. Deletions leave their bits as they are, so the index
+ * should be rebuilt from time to time when <code>getDensity()</code> grows.
+ * Changes that bypass the base graph event manager and changes to the
+ * permissions of the principal require a rebuild. As with the base graph,
+ * concurrent readers and writers must be coordinated by the caller.
+ * </p>
+ * <p>
+ * The published bitmap is split into segments. A segment is never modified
+ * once published; an addition that changes a bit publishes a copy of that
+ * segment only, so filters and readers read the bitmap without locking and
+ * an addition costs at most one segment copy per changed segment.
+ * </p>
+ */
+class VisibilityIndex implements GraphListener
+{
+	/**
+	 * A bitmap stored as segments that are replaced, not modified, once the
+	 * bitmap is published.
+	 */
+	private static class Bitmap
+	{
+		// the number of bits in a segment is 1 << SEGMENT_SHIFT.
+		private static final int SEGMENT_SHIFT = 16;
+		private static final int SEGMENT_MASK = (1 << Bitmap.SEGMENT_SHIFT) - 1;
+
+		// null entries have no bits set.
+		private final AtomicReferenceArray<long[]> segments;
+
+		Bitmap( final int mask )
+		{
+			segments = new AtomicReferenceArray<long[]>(
+					(mask >>> Bitmap.SEGMENT_SHIFT) + 1);
+		}
+
+		boolean get( final int pos )
+		{
+			final long[] segment = segments.get(pos >>> Bitmap.SEGMENT_SHIFT);
+			return (segment != null)
+					&& ((segment[(pos & Bitmap.SEGMENT_MASK) >>> 6] & (1L << pos)) != 0);
+		}
+
+		/**
+		 * Set and clear bits. Must be called while holding the index lock.
+		 * 
+		 * @param set
+		 *            the positions to set.
+		 * @param clear
+		 *            the positions to clear.
+		 * @param copy
+		 *            true if the bitmap is published, changed segments are
+		 *            then copied once and replaced.
+		 */
+		void update( final BitSet set, final BitSet clear, final boolean copy )
+		{
+			final Map<Integer, long[]> changed = new HashMap<Integer, long[]>();
+			for (int pos = set.nextSetBit(0); pos >= 0; pos = set
+					.nextSetBit(pos + 1))
+			{
+				if (!get(pos))
+				{
+					writable(changed, pos, copy)[(pos & Bitmap.SEGMENT_MASK) >>> 6] |= 1L << pos;
+				}
+			}
+			for (int pos = clear.nextSetBit(0); pos >= 0; pos = clear
+					.nextSetBit(pos + 1))
+			{
+				if (get(pos))
+				{
+					writable(changed, pos, copy)[(pos & Bitmap.SEGMENT_MASK) >>> 6] &= ~(1L << pos);
+				}
+			}
+			for (final Map.Entry<Integer, long[]> e : changed.entrySet())
+			{
+				segments.set(e.getKey(), e.getValue());
+			}
+		}
+
+		private long[] writable( final Map<Integer, long[]> changed,
+				final int pos, final boolean copy )
+		{
+			final Integer idx = pos >>> Bitmap.SEGMENT_SHIFT;
+			long[] retval = changed.get(idx);
+			if (retval == null)
+			{
+				final long[] segment = segments.get(idx);
+				if (segment == null)
+				{
+					retval = new long[1 << (Bitmap.SEGMENT_SHIFT - 6)];
+				}
+				else
+				{
+					retval = copy ? segment.clone() : segment;
+				}
+				changed.put(idx, retval);
+			}
+			return retval;
+		}
+	}
+
+	/**
+	 * The filter that accepts triples that the principal may read.
+	 */
+	private class IndexFilter extends Filter<Triple>
+	{
+		@Override
+		public boolean accept( final Triple t )
+		{
+			// use the latest published index so that triples added while the
+			// filter is in use are checked.
+			final Bitmap bits = allowed;
+			return ((bits != null) && bits.get(position(t)))
+					|| filter.accept(t);
+		}
+	}
+
+	// an empty set of positions, never modified.
+	private static final BitSet NONE = new BitSet();
+
+	// the principal the index was built for
+	private final Principal principal;
+	// the graph we are an index of
+	private final Graph baseGraph;
+	// the filter that determines which triples are readable.
+	private final PermTripleFilter filter;
+	// the mask for bit positions
+	private final int mask;
+	// the bits for the triples that may be read, null until built.
+	private volatile Bitmap allowed;
+	// the bits for the triples that may not be read. Guarded by this.
+	private BitSet denied;
+	// the index being built, null if no rebuild is running. Guarded by this.
+	private Bitmap buildingAllowed;
+	private BitSet buildingDenied;
+
+	/**
+	 * Constructor.
+	 *
+	 * The index is built for the principal returned by the security evaluator
+	 * of the secured item at the time of construction.
+	 *
+	 * @param securedItem
+	 *            The secured item that provides the security context.
+	 * @param baseGraph
+	 *            The graph that is being indexed.
+	 * @param size
+	 *            The number of bits in the index. Rounded up to a power of 2.
+	 */
+	VisibilityIndex( final SecuredItem securedItem, final Graph baseGraph,
+			final int size )
+	{
+		if ((size < 1) || (size > (1 << 30)))
+		{
+			throw new IllegalArgumentException(
+					"Size must be between 1 and 2^30");
+		}
+		this.principal = securedItem.getSecurityEvaluator().getPrincipal();
+		this.baseGraph = baseGraph;
+		this.filter = new PermTripleFilter(Action.Read, securedItem,
+				CachedSecurityEvaluator.getInstance(
+						securedItem.getSecurityEvaluator(), principal));
+		this.mask = Math.max(1, Integer.highestOneBit(size - 1) << 1) - 1;
+		// register first so that no change is missed while we populate.
+		baseGraph.getEventManager().register(this);
+		rebuild();
+	}
+
+	private void add( final Iterator<Triple> iter )
+	{
+		final BitSet readable = new BitSet();
+		final BitSet unreadable = new BitSet();
+		while (iter.hasNext())
+		{
+			final Triple t = iter.next();
+			(filter.accept(t) ? readable : unreadable).set(position(t));
+		}
+		add(readable, unreadable);
+	}
+
+	/**
+	 * Record the positions of added triples in the published index and the
+	 * index being built.
+	 */
+	private synchronized void add( final BitSet readable,
+			final BitSet unreadable )
+	{
+		if (allowed != null)
+		{
+			update(allowed, denied, readable, unreadable, true);
+		}
+		if (buildingAllowed != null)
+		{
+			update(buildingAllowed, buildingDenied, readable, unreadable, false);
+		}
+	}
+
+	private void add( final Triple t )
+	{
+		final BitSet bits = new BitSet();
+		bits.set(position(t));
+		if (filter.accept(t))
+		{
+			add(bits, new BitSet());
+		}
+		else
+		{
+			add(new BitSet(), bits);
+		}
+	}
+
+	/**
+	 * Stop tracking the base graph.
+	 */
+	public void close()
+	{
+		baseGraph.getEventManager().unregister(this);
+	}
+
+	/**
+	 * Get the fraction of positions that hold a triple that may not be read.
+	 * The higher the density the more triples have to be evaluated.
+	 *
+	 * @return the density between 0 and 1.
+	 */
+	public synchronized double getDensity()
+	{
+		return denied == null ? 1.0 : (double) denied.cardinality()
+				/ (mask + 1);
+	}
+
+	/**
+	 * Get a filter that accepts the triples the principal may read. The
+	 * filter uses the latest index each time it is called.
+	 *
+	 * @return the filter.
+	 */
+	public Filter<Triple> getFilter()
+	{
+		return new IndexFilter();
+	}
+
+	/**
+	 * Return true if the index was built for the principal.
+	 *
+	 * @param other
+	 *            The principal to check
+	 * @return true if the index may be used for the principal.
+	 */
+	public boolean isIndexFor( final Principal other )
+	{
+		return MaterializedView.samePrincipal(principal, other);
+	}
+
+	/**
+	 * Return true if the triple is readable without asking the security
+	 * evaluator.
+	 *
+	 * @param t
+	 *            The triple to check.
+	 * @return true if the triple is known to be readable.
+	 */
+	public boolean isReadable( final Triple t )
+	{
+		final Bitmap bits = allowed;
+		return (bits != null) && t.isConcrete() && bits.get(position(t));
+	}
+
+	@Override
+	public void notifyAddArray( final Graph g, final Triple[] triples )
+	{
+		add(Arrays.asList(triples).iterator());
+	}
+
+	@Override
+	public void notifyAddGraph( final Graph g, final Graph added )
+	{
+		add(added.find(Triple.ANY));
+	}
+
+	@Override
+	public void notifyAddIterator( final Graph g, final Iterator<Triple> it )
+	{
+		add(it);
+	}
+
+	@Override
+	public void notifyAddList( final Graph g, final List<Triple> triples )
+	{
+		add(triples.iterator());
+	}
+
+	@Override
+	public void notifyAddTriple( final Graph g, final Triple t )
+	{
+		add(t);
+	}
+
+	@Override
+	public void notifyDeleteArray( final Graph g, final Triple[] triples )
+	{
+		// deleted triples leave their bits set until the next rebuild.
+	}
+
+	@Override
+	public void notifyDeleteGraph( final Graph g, final Graph removed )
+	{
+		// deleted triples leave their bits set until the next rebuild.
+	}
+
+	@Override
+	public void notifyDeleteIterator( final Graph g, final Iterator<Triple> it )
+	{
+		// deleted triples leave their bits set until the next rebuild.
+	}
+
+	@Override
+	public void notifyDeleteList( final Graph g, final List<Triple> triples )
+	{
+		// deleted triples leave their bits set until the next rebuild.
+	}
+
+	@Override
+	public void notifyDeleteTriple( final Graph g, final Triple t )
+	{
+		// deleted triples leave their bits set until the next rebuild.
+	}
+
+	@Override
+	public void notifyEvent( final Graph source, final Object value )
+	{
+		// removals leave their bits set until the next rebuild.
+	}
+
+	private int position( final Triple t )
+	{
+		final int h = t.hashCode();
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	/**
+	 * Build a new index from every triple in the base graph. The current
+	 * index remains in use until the new one is complete. Additions made
+	 * while the rebuild runs are recorded in both.
+	 */
+	public void rebuild()
+	{
+		synchronized (this)
+		{
+			if (buildingAllowed != null)
+			{
+				throw new IllegalStateException("Rebuild already running");
+			}
+			buildingAllowed = new Bitmap(mask);
+			buildingDenied = new BitSet(mask + 1);
+		}
+		try
+		{
+			final ExtendedIterator<Triple> iter = baseGraph.find(Triple.ANY);
+			try
+			{
+				while (iter.hasNext())
+				{
+					final Triple t = iter.next();
+					final BitSet bits = new BitSet();
+					bits.set(position(t));
+					final boolean readable = filter.accept(t);
+					synchronized (this)
+					{
+						update(buildingAllowed, buildingDenied,
+								readable ? bits : VisibilityIndex.NONE,
+								readable ? VisibilityIndex.NONE : bits, false);
+					}
+				}
+			}
+			finally
+			{
+				iter.close();
+			}
+			synchronized (this)
+			{
+				// publish and stop recording additions in one step so the
+				// published index is only changed by copying segments.
+				allowed = buildingAllowed;
+				denied = buildingDenied;
+				buildingAllowed = null;
+				buildingDenied = null;
+			}
+		}
+		finally
+		{
+			synchronized (this)
+			{
+				buildingAllowed = null;
+				buildingDenied = null;
+			}
+		}
+	}
+
+	/**
+	 * Record readable and unreadable positions. A position is allowed only
+	 * while no unreadable triple has been recorded for it. Must be called
+	 * while holding the lock.
+	 */
+	private static void update( final Bitmap allowedBits,
+			final BitSet deniedBits, final BitSet readable,
+			final BitSet unreadable, final boolean copy )
+	{
+		deniedBits.or(unreadable);
+		final BitSet set = (BitSet) readable.clone();
+		set.andNot(deniedBits);
+		allowedBits.update(set, unreadable, copy);
+	}
+}
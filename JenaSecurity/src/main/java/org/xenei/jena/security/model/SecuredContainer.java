@@ -4,6 +4,7 @@ import com.hp.hpl.jena.rdf.model.Container;
 import com.hp.hpl.jena.rdf.model.RDFNode;
 import com.hp.hpl.jena.rdf.model.Statement;
 
+import java.util.Collection;
 import java.util.Set;
 
 import org.xenei.jena.security.AccessDeniedException;
@@ -92,6 +93,18 @@ public interface SecuredContainer extends Container, SecuredResource
 	public SecuredContainer add( final String o, final String l )
 			throws AccessDeniedException;
 
+	/**
+	 * Add the nodes to the end of the container in order. The member triples
+	 * are checked as one batch before any are added and are added through
+	 * the bulk update handler of the graph.
+	 * 
+	 * @graphSec Update
+	 * @tripleSec Create SecTriple( this, RDF.li, o ) for each node;
+	 * @throws AccessDeniedException
+	 */
+	public SecuredContainer addAll( Collection<? extends RDFNode> nodes )
+			throws AccessDeniedException;
+
 	/**
 	 * @graphSec Read
 	 * @tripleSec Read SecTriple( this, RDF.li, o );
@@ -165,6 +178,12 @@ public interface SecuredContainer extends Container, SecuredResource
 	public boolean contains( final String o, final String l )
 			throws AccessDeniedException;
 
+	/**
+	 * @return true if add(), contains() and size() use an index of the
+	 *         members.
+	 */
+	public boolean isIndexed();
+
 	/**
 	 * @graphSec Read
 	 * @tripleSec Read on each triple ( this, rdf:li_? node ) returned by
@@ -193,6 +212,36 @@ public interface SecuredContainer extends Container, SecuredResource
 	public SecuredContainer remove( final Statement s )
 			throws AccessDeniedException;
 
+	/**
+	 * Remove every member that holds one of the nodes. As with
+	 * remove(Statement) the gaps are filled with the last members so the
+	 * ordinals stay contiguous. The removed and moved members are checked as
+	 * one batch before anything is written.
+	 * 
+	 * @graphSec Update
+	 * @tripleSec Delete SecTriple( this, RDF.li, o ) for each member holding
+	 *            one of the nodes and each member moved into a gap;
+	 * @tripleSec Create SecTriple( this, RDF.li, o ) for each member at its
+	 *            new ordinal;
+	 * @throws AccessDeniedException
+	 */
+	public SecuredContainer removeAll( Collection<? extends RDFNode> nodes )
+			throws AccessDeniedException;
+
+	/**
+	 * Turn the index of the members on or off.
+	 * 
+	 * When on, the members are read once and the index is kept up to date
+	 * from the model change events so that add() does not count the members,
+	 * contains() only checks the statements that hold the value and the Seq
+	 * lookups by value do not scan the properties. Intended for large
+	 * containers. Turn the index off to release it.
+	 * 
+	 * @param indexed
+	 *            true to use the index.
+	 */
+	public void setIndexed( final boolean indexed );
+
 	/**
 	 * @graphSec Read
 	 * @throws AccessDeniedException
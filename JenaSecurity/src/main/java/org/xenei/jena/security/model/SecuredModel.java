@@ -51,6 +51,7 @@ import org.xenei.jena.security.model.impl.SecuredNodeIterator;
 import org.xenei.jena.security.model.impl.SecuredRSIterator;
 import org.xenei.jena.security.model.impl.SecuredResIterator;
 import org.xenei.jena.security.model.impl.SecuredStatementIterator;
+import org.xenei.jena.security.utils.AsyncDelivery;
 
 /**
  * The interface for secured Model instances.
@@ -251,11 +252,25 @@ public interface SecuredModel extends Model, SecuredPrefixMapping// ,
 	public SecuredStatement asStatement( final Triple t )
 			throws AccessDeniedException;
 
+	/**
+	 * Start a transaction through the SecuredTransactionHandler of the
+	 * secured graph.
+	 * 
+	 * @see org.xenei.jena.security.graph.SecuredTransactionHandler#begin()
+	 */
 	@Override
 	public SecuredModel begin();
 
+	/**
+	 * Commit the transaction through the SecuredTransactionHandler of the
+	 * secured graph.
+	 * 
+	 * @throws AccessDeniedException
+	 *             if checks are deferred and a held change is not permitted.
+	 * @see org.xenei.jena.security.graph.SecuredTransactionHandler#commit()
+	 */
 	@Override
-	public SecuredModel commit();
+	public SecuredModel commit() throws AccessDeniedException;
 
 	/**
 	 * @graphSec Read
@@ -748,6 +763,11 @@ public interface SecuredModel extends Model, SecuredPrefixMapping// ,
 			final String typeURI );
 
 	/**
+	 * If triple level read is restricted the returned model is a read only
+	 * view over this model and the other model. Permissions are evaluated as
+	 * its statements are accessed and it reflects later changes to both
+	 * models.
+	 * 
 	 * @graphSec Read
 	 * @tripleSec Read for every triple contributed to the difference.
 	 * @throws AccessDeniedException
@@ -909,6 +929,10 @@ public interface SecuredModel extends Model, SecuredPrefixMapping// ,
 	public SecuredSeq getSeq( final String uri ) throws AccessDeniedException;
 
 	/**
+	 * If triple level read is restricted the returned model is a read only
+	 * view over this model and the other model. Permissions are evaluated as
+	 * its statements are accessed and it reflects later changes to both
+	 * models.
 	 * 
 	 * @graphSec Read
 	 * @tripleSec Read on all triples contributed to the new securedModel.
@@ -1299,6 +1323,8 @@ public interface SecuredModel extends Model, SecuredPrefixMapping// ,
 	public SecuredModel query( final Selector s ) throws AccessDeniedException;
 
 	/**
+	 * The triples are checked and added in batches. If the parse fails the
+	 * batches already added are kept and the rest are not added.
 	 * 
 	 * @graphSec Update
 	 * @throws AccessDeniedException
@@ -1308,6 +1334,8 @@ public interface SecuredModel extends Model, SecuredPrefixMapping// ,
 			throws AccessDeniedException;
 
 	/**
+	 * The triples are checked and added in batches. If the parse fails the
+	 * batches already added are kept and the rest are not added.
 	 * 
 	 * @graphSec Update
 	 * @throws AccessDeniedException
@@ -1317,6 +1345,8 @@ public interface SecuredModel extends Model, SecuredPrefixMapping// ,
 			final String lang ) throws AccessDeniedException;
 
 	/**
+	 * The triples are checked and added in batches. If the parse fails the
+	 * batches already added are kept and the rest are not added.
 	 * 
 	 * @graphSec Update
 	 * @throws AccessDeniedException
@@ -1326,6 +1356,8 @@ public interface SecuredModel extends Model, SecuredPrefixMapping// ,
 			throws AccessDeniedException;
 
 	/**
+	 * The triples are checked and added in batches. If the parse fails the
+	 * batches already added are kept and the rest are not added.
 	 * 
 	 * @graphSec Update
 	 * @throws AccessDeniedException
@@ -1335,6 +1367,8 @@ public interface SecuredModel extends Model, SecuredPrefixMapping// ,
 			final String lang ) throws AccessDeniedException;
 
 	/**
+	 * The triples are checked and added in batches. If the parse fails the
+	 * batches already added are kept and the rest are not added.
 	 * 
 	 * @graphSec Update
 	 * @throws AccessDeniedException
@@ -1343,6 +1377,8 @@ public interface SecuredModel extends Model, SecuredPrefixMapping// ,
 	public SecuredModel read( final String url ) throws AccessDeniedException;
 
 	/**
+	 * The triples are checked and added in batches. If the parse fails the
+	 * batches already added are kept and the rest are not added.
 	 * 
 	 * @graphSec Update
 	 * @throws AccessDeniedException
@@ -1352,6 +1388,8 @@ public interface SecuredModel extends Model, SecuredPrefixMapping// ,
 			throws AccessDeniedException;
 
 	/**
+	 * The triples are checked and added in batches. If the parse fails the
+	 * batches already added are kept and the rest are not added.
 	 * 
 	 * @graphSec Update
 	 * @throws AccessDeniedException
@@ -1363,6 +1401,10 @@ public interface SecuredModel extends Model, SecuredPrefixMapping// ,
 	/**
 	 * 
 	 * Listener will be filtered to only report events that the user can see.
+	 * Statements and models are always delivered as secured items. An
+	 * exception thrown by one listener does not stop delivery to the other
+	 * listeners; the first such exception is rethrown once all have been
+	 * notified and any later ones are logged.
 	 * 
 	 * @graphSec Read
 	 * @throws AccessDeniedException
@@ -1492,6 +1534,51 @@ public interface SecuredModel extends Model, SecuredPrefixMapping// ,
 	public void removeReification( final ReifiedStatement rs )
 			throws AccessDeniedException;
 
+	/**
+	 * Set whether the statements, nodes and resources returned by the
+	 * iterators of this model are proxies or the secured implementations
+	 * themselves.
+	 * <p>
+	 * The implementations are cheaper to create when listing many items, but
+	 * they only implement the secured interfaces (e.g. SecuredStatement) and
+	 * not any other interfaces of the base implementation class, and their
+	 * method calls do not share the per call permission cache of the proxies.
+	 * The permission checks are otherwise the same.
+	 * </p>
+	 * 
+	 * @param flyweightResults
+	 *            true to return the implementations, false (the default) to
+	 *            return proxies.
+	 */
+	public void setFlyweightResults( final boolean flyweightResults );
+
+	/**
+	 * @return true if the iterators return secured implementations rather
+	 *         than proxies.
+	 * @see #setFlyweightResults(boolean)
+	 */
+	public boolean isFlyweightResults();
+
+	/**
+	 * Set the asynchronous delivery for listeners registered after this call.
+	 * The permission filtering and the notification of each listener are then
+	 * performed by a worker for that listener as the principal that
+	 * registered it.
+	 * 
+	 * @param asyncDelivery
+	 *            The delivery to use, or null for synchronous delivery.
+	 */
+	public void setAsyncDelivery( final AsyncDelivery asyncDelivery );
+
+	/**
+	 * Get the asynchronous delivery used for listeners registered with this
+	 * model.
+	 * 
+	 * @return the delivery or null if notifications are delivered on the
+	 *         notifying thread.
+	 */
+	public AsyncDelivery getAsyncDelivery();
+
 	/**
 	 * 
 	 * @graphSec Update
@@ -1527,6 +1614,10 @@ public interface SecuredModel extends Model, SecuredPrefixMapping// ,
 	public long size() throws AccessDeniedException;
 
 	/**
+	 * If triple level read is restricted the returned model is a read only
+	 * view over this model and the other model. Permissions are evaluated as
+	 * its statements are accessed and it reflects later changes to both
+	 * models.
 	 * 
 	 * @graphSec Read
 	 * @tripleSec Read on all statements contributed to the union.
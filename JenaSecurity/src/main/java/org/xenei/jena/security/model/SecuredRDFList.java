@@ -216,6 +216,14 @@ public interface SecuredRDFList extends RDFList, SecuredResource
 			throws AccessDeniedException, EmptyListException,
 			ListIndexException, InvalidListException;
 
+	/**
+	 * Discard the cached index of readable cells so that it is rebuilt with
+	 * the current permissions on the next access. Call this when the
+	 * permissions of the principal change. Does nothing if the list is not
+	 * indexed.
+	 */
+	public void invalidateIndex();
+
 	/**
 	 * @graphSec Read
 	 * @throws AccessDeniedException
@@ -223,6 +231,12 @@ public interface SecuredRDFList extends RDFList, SecuredResource
 	@Override
 	public boolean isEmpty() throws AccessDeniedException;
 
+	/**
+	 * @return true if get(), indexOf() and size() use a cached index of the
+	 *         readable cells.
+	 */
+	public boolean isIndexed();
+
 	/**
 	 * @graphSec Read
 	 * @throws AccessDeniedException
@@ -370,6 +384,26 @@ public interface SecuredRDFList extends RDFList, SecuredResource
 	public SecuredRDFNode setHead( final RDFNode value )
 			throws AccessDeniedException;
 
+	/**
+	 * Turn the cached index of readable cells on or off.
+	 * 
+	 * When on, the list is walked and evaluated once and get(), indexOf() and
+	 * size() are answered from the index until an rdf:first or rdf:rest
+	 * statement in the model changes. Intended for long lists that are
+	 * accessed by position.
+	 * 
+	 * The index caches the readable cells for each principal and is not
+	 * refreshed when permissions change; call invalidateIndex() when they do.
+	 * The index listens to the base model; the caller must turn the index off
+	 * when it is no longer needed to stop listening and release the cells.
+	 * An index that is not turned off is released when this list is garbage
+	 * collected.
+	 * 
+	 * @param indexed
+	 *            true to use the index.
+	 */
+	public void setIndexed( final boolean indexed );
+
 	/**
 	 * @graphSec Update
 	 * @throws AccessDeniedException
@@ -84,7 +84,9 @@ public interface SecuredSeq extends Seq, SecuredContainer
 
 	/**
 	 * @graphSec Update
-	 * @tripleSec Create SecTriple( this, RDF.li(1), o )
+	 * @tripleSec Create SecTriple( this, RDF.li(index), o )
+	 * @tripleSec Delete and Create for each member after index as it is moved
+	 *            up one place
 	 */
 	@Override
 	public SecuredSeq add( final int index, final RDFNode o )
@@ -296,8 +298,9 @@ public interface SecuredSeq extends Seq, SecuredContainer
 
 	/**
 	 * @graphSec Update
-	 * @tripleSec Delete SecTriple( this, RDF.li(1), o )
-	 * @tripleSec Update Triples after index
+	 * @tripleSec Delete SecTriple( this, RDF.li(index), o )
+	 * @tripleSec Delete and Create for each member after index as it is moved
+	 *            down one place
 	 */
 	@Override
 	public SecuredSeq remove( final int index ) throws AccessDeniedException;
@@ -17,6 +17,7 @@
  */
 package org.xenei.jena.security.model.impl;
 
+import com.hp.hpl.jena.graph.Graph;
 import com.hp.hpl.jena.graph.Node;
 import com.hp.hpl.jena.graph.Triple;
 import com.hp.hpl.jena.rdf.model.Container;
@@ -33,7 +34,8 @@ import com.hp.hpl.jena.util.iterator.Map1;
 import com.hp.hpl.jena.util.iterator.WrappedIterator;
 import com.hp.hpl.jena.vocabulary.RDF;
 
-import java.util.Comparator;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -45,10 +47,13 @@ import java.util.Vector;
 
 import org.xenei.jena.security.ItemHolder;
 import org.xenei.jena.security.SecuredItemInvoker;
+import org.xenei.jena.security.SecurityEvaluator;
 import org.xenei.jena.security.SecurityEvaluator.Action;
 import org.xenei.jena.security.model.SecuredContainer;
 import org.xenei.jena.security.model.SecuredModel;
 import org.xenei.jena.security.utils.ContainerFilter;
+import org.xenei.jena.security.utils.ContainerIndex;
+import org.xenei.jena.security.utils.ContainerOrdinalIterator;
 import org.xenei.jena.security.utils.PermStatementFilter;
 
 /**
@@ -57,9 +62,6 @@ import org.xenei.jena.security.utils.PermStatementFilter;
 public class SecuredContainerImpl extends SecuredResourceImpl implements
 		SecuredContainer
 {
-	// private ModelChangedListener listener;
-	// private List<Integer> indexes = new ArrayList<Integer>();
-
 	/**
 	 * Get a SecuredResource.
 	 * 
@@ -113,6 +115,9 @@ public class SecuredContainerImpl extends SecuredResourceImpl implements
 	// the item holder that contains this SecuredContainer.
 	private final ItemHolder<? extends Container, ? extends SecuredContainer> holder;
 
+	// the index of the members, null if not indexed.
+	private volatile ContainerIndex index;
+
 	/**
 	 * Constructor
 	 * 
@@ -129,8 +134,6 @@ public class SecuredContainerImpl extends SecuredResourceImpl implements
 	{
 		super(securedModel, holder);
 		this.holder = holder;
-		// listener=new ChangeListener();
-		// holder.getBaseItem().getModel().register(listener);
 	}
 
 	protected RDFNode asObject( Object o )
@@ -138,6 +141,28 @@ public class SecuredContainerImpl extends SecuredResourceImpl implements
 		 return o instanceof RDFNode ? (RDFNode) o : ResourceFactory.createTypedLiteral( o ); 
     }
 	
+	// the deprecated BulkUpdateHandler.add(List) adds the members as one
+	// update with one event, Graph has no replacement in this Jena version.
+	@SuppressWarnings( "deprecation" )
+	@Override
+	public SecuredContainer addAll( final Collection<? extends RDFNode> nodes )
+	{
+		checkUpdate();
+		final Container base = holder.getBaseItem();
+		final ContainerIndex idx = index;
+		// the base container adds at size()+1
+		int pos = (idx == null ? base.size() : idx.size()) + 1;
+		final List<Triple> triples = new ArrayList<Triple>(nodes.size());
+		for (final RDFNode n : nodes)
+		{
+			triples.add(new Triple(base.asNode(), RDF.li(pos++).asNode(), n
+					.asNode()));
+		}
+		checkCreateTriples(triples);
+		base.getModel().getGraph().getBulkUpdateHandler().add(triples);
+		return holder.getSecuredItem();
+	}
+
 	protected RDFNode asLiteral( String o, String l )
 	{
 		return holder.getBaseItem().getModel().createLiteral(o, l);
@@ -183,6 +208,17 @@ public class SecuredContainerImpl extends SecuredResourceImpl implements
 	public SecuredContainer add( final RDFNode o )
 	{
 		checkUpdate();
+		final ContainerIndex idx = index;
+		if (idx != null)
+		{
+			// the base container adds at size()+1 but counts the members to
+			// find it.
+			final int pos = idx.size() + 1;
+			checkAdd(pos, o.asNode());
+			holder.getBaseItem().getModel()
+					.add(holder.getBaseItem(), RDF.li(pos), o);
+			return holder.getSecuredItem();
+		}
 		final int pos = holder.getBaseItem().size();
 		checkAdd(pos, o.asNode());
 		holder.getBaseItem().add(o);
@@ -251,6 +287,20 @@ public class SecuredContainerImpl extends SecuredResourceImpl implements
 	@Override
 	public boolean contains( final RDFNode o )
 	{
+		final ContainerIndex idx = index;
+		if (idx != null)
+		{
+			checkRead();
+			for (final int ordinal : idx.getOrdinals(o.asNode()))
+			{
+				if (canRead(new Triple(holder.getBaseItem().asNode(), RDF.li(
+						ordinal).asNode(), o.asNode())))
+				{
+					return true;
+				}
+			}
+			return false;
+		}
 		// iterator check reads
 		final SecuredNodeIterator<RDFNode> iter = iterator();
 		while (iter.hasNext())
@@ -277,6 +327,11 @@ public class SecuredContainerImpl extends SecuredResourceImpl implements
 
 	protected int getAddIndex()
 	{
+		final ContainerIndex idx = index;
+		if (idx != null)
+		{
+			return idx.getMaxOrdinal() + 1;
+		}
 		int pos = -1;
 		final ExtendedIterator<Statement> iter = holder.getBaseItem()
 				.listProperties();
@@ -294,6 +349,14 @@ public class SecuredContainerImpl extends SecuredResourceImpl implements
 		return pos + 1;
 	}
 
+	/**
+	 * @return the index of the members or null if not indexed.
+	 */
+	protected ContainerIndex getContainerIndex()
+	{
+		return index;
+	}
+
 	protected static int getIndex( final Property p )
 	{
 		if (p.getNameSpace().equals(RDF.getURI())
@@ -339,6 +402,12 @@ public class SecuredContainerImpl extends SecuredResourceImpl implements
 		return holder.getBaseItem().isBag();
 	}
 
+	@Override
+	public boolean isIndexed()
+	{
+		return index != null;
+	}
+
 	@Override
 	public boolean isSeq()
 	{
@@ -348,22 +417,11 @@ public class SecuredContainerImpl extends SecuredResourceImpl implements
 	@Override
 	public SecuredNodeIterator<RDFNode> iterator()
 	{
-		// listProperties calls checkRead();
-        SecuredStatementIterator iter = listProperties(); 
-        try {
-	        SortedSet<Statement> result = new TreeSet<Statement>( new ContainerComparator() );
-	        while (iter.hasNext()) {
-	        	Statement stmt = iter.next();
-	        	if (stmt.getPredicate().getOrdinal() > 0)
-	        	{
-	        		result.add( stmt );
-	        	}
-	        }
-	        return new SecuredNodeIterator<RDFNode>(getModel(), new StatementRemovingIterator(result.iterator()).mapWith( new NodeMap() ) );
-        }
-        finally {
-        	iter.close();
-        }
+		checkRead();
+		final ExtendedIterator<Statement> iter = getOrdinalIterator(SecurityEvaluator.Util
+				.asSet(new Action[] { Action.Read }));
+		return new SecuredNodeIterator<RDFNode>(getModel(),
+				new StatementRemovingIterator(iter).mapWith(new NodeMap()));
 	}
 
 	@Override
@@ -372,17 +430,24 @@ public class SecuredContainerImpl extends SecuredResourceImpl implements
 		checkRead();
 		final Set<Action> permsCopy = new HashSet<Action>(perms);
 		permsCopy.add(Action.Read);
-		final ExtendedIterator<RDFNode> ni = getStatementIterator(perms)
-				.mapWith(new Map1<Statement, RDFNode>() {
-
-					@Override
-					public RDFNode map1( final Statement o )
-					{
-						return o.getObject();
-					}
-				});
-		return new SecuredNodeIterator<RDFNode>(getModel(), ni);
+		return new SecuredNodeIterator<RDFNode>(getModel(),
+				new StatementRemovingIterator(getOrdinalIterator(permsCopy))
+						.mapWith(new NodeMap()));
+	}
 
+	/**
+	 * Get the member statements in ordinal order. Members are read and
+	 * evaluated in blocks as the iterator is consumed.
+	 *
+	 * @param perms
+	 *            The permissions the user must have on the member triple.
+	 * @return the base member statements the user has the permissions for.
+	 */
+	protected ExtendedIterator<Statement> getOrdinalIterator(
+			final Set<Action> perms )
+	{
+		return new ContainerOrdinalIterator(holder.getBaseItem(), this, perms,
+				index);
 	}
 
 	@Override
@@ -394,153 +459,130 @@ public class SecuredContainerImpl extends SecuredResourceImpl implements
 		return holder.getSecuredItem();
 	}
 
+	// the deprecated BulkUpdateHandler delete(List) and add(List) write the
+	// removal and the renumbering as two updates rather than one per member.
+	@SuppressWarnings( "deprecation" )
+	@Override
+	public SecuredContainer removeAll( final Collection<? extends RDFNode> nodes )
+	{
+		checkUpdate();
+		final Container base = holder.getBaseItem();
+		final Node container = base.asNode();
+		final Set<Node> values = new HashSet<Node>();
+		for (final RDFNode n : nodes)
+		{
+			values.add(n.asNode());
+		}
+		// the ordinals to remove and their triples.
+		final SortedSet<Integer> gaps = new TreeSet<Integer>();
+		final List<Triple> removed = new ArrayList<Triple>();
+		final ContainerIndex idx = index;
+		if (idx != null)
+		{
+			for (final Node value : values)
+			{
+				for (final int ordinal : idx.getOrdinals(value))
+				{
+					gaps.add(ordinal);
+					removed.add(new Triple(container, RDF.li(ordinal).asNode(),
+							value));
+				}
+			}
+		}
+		else
+		{
+			final StmtIterator iter = base.listProperties();
+			try
+			{
+				while (iter.hasNext())
+				{
+					final Statement s = iter.next();
+					final int ordinal = s.getPredicate().getOrdinal();
+					if ((ordinal > 0) && values.contains(s.getObject().asNode()))
+					{
+						gaps.add(ordinal);
+						removed.add(s.asTriple());
+					}
+				}
+			}
+			finally
+			{
+				iter.close();
+			}
+		}
+		if (removed.isEmpty())
+		{
+			return holder.getSecuredItem();
+		}
+		final Graph graph = base.getModel().getGraph();
+		int last = idx == null ? base.size() : idx.size();
+
+		// fill the gaps with the last members as Container.remove() does.
+		final List<Triple> moveFrom = new ArrayList<Triple>();
+		final List<Triple> moveTo = new ArrayList<Triple>();
+		for (final int gap : gaps)
+		{
+			while ((last > gap) && gaps.contains(last))
+			{
+				last--;
+			}
+			if (last <= gap)
+			{
+				break;
+			}
+			final ExtendedIterator<Triple> iter = graph.find(container, RDF
+					.li(last).asNode(), Node.ANY);
+			try
+			{
+				if (iter.hasNext())
+				{
+					final Triple t = iter.next();
+					moveFrom.add(t);
+					moveTo.add(new Triple(container, RDF.li(gap).asNode(), t
+							.getObject()));
+				}
+			}
+			finally
+			{
+				iter.close();
+			}
+			last--;
+		}
+		// check every change before anything is written.
+		final List<Triple> deleted = new ArrayList<Triple>(removed);
+		deleted.addAll(moveFrom);
+		checkDeleteTriples(deleted);
+		checkCreateTriples(moveTo);
+		graph.getBulkUpdateHandler().delete(deleted);
+		graph.getBulkUpdateHandler().add(moveTo);
+		return holder.getSecuredItem();
+	}
+
+	@Override
+	public synchronized void setIndexed( final boolean indexed )
+	{
+		if (indexed && (index == null))
+		{
+			index = new ContainerIndex(holder.getBaseItem());
+		}
+		else if (!indexed && (index != null))
+		{
+			index.close();
+			index = null;
+		}
+	}
+
 	@Override
 	public int size()
 	{
 		checkRead();
+		final ContainerIndex idx = index;
+		if (idx != null)
+		{
+			return idx.size();
+		}
 		return holder.getBaseItem().size();
 	}
-	/*
-	 * private synchronized void resetIndexes()
-	 * {
-	 * indexes.clear();
-	 * }
-	 */
-	/**
-	 * find the position of i in the array
-	 * 
-	 * @param i
-	 * @return the position or x<0 if not found.
-	 */
-	/*
-	 * protected int mapValue( int i )
-	 * {
-	 * rebuildIndex();
-	 * return Collections.binarySearch( indexes, i );
-	 * }
-	 * 
-	 * // return the value at position i
-	 * protected int unmapValue( int i )
-	 * {
-	 * return indexes.get(i);
-	 * }
-	 * 
-	 * 
-	 * private synchronized void rebuildIndex()
-	 * {
-	 * if (indexes.isEmpty())
-	 * {
-	 * ExtendedIterator<Statement> iter = getStatementIterator( Action.Read );
-	 * try {
-	 * while (iter.hasNext())
-	 * {
-	 * indexes.add( getIndex( iter.next().getPredicate() ) );
-	 * }
-	 * }
-	 * finally {
-	 * iter.close();
-	 * }
-	 * Collections.sort(indexes);
-	 * }
-	 * }
-	 * 
-	 * private class ChangeListener implements ModelChangedListener
-	 * {
-	 * 
-	 * private void checkStatement( Statement s )
-	 * {
-	 * if (indexes != null && s.getSubject().equals( holder.getBaseItem()))
-	 * {
-	 * resetIndexes();
-	 * }
-	 * }
-	 * 
-	 * private void checkStatements( Iterator<Statement> iter )
-	 * {
-	 * while( indexes != null && iter.hasNext())
-	 * {
-	 * checkStatement( iter.next() );
-	 * }
-	 * }
-	 * 
-	 * @Override
-	 * public void addedStatement( Statement s )
-	 * {
-	 * checkStatement( s );
-	 * }
-	 * 
-	 * @Override
-	 * public void addedStatements( Statement[] statements )
-	 * {
-	 * checkStatements( Arrays.asList(statements).iterator() );
-	 * }
-	 * 
-	 * @Override
-	 * public void addedStatements( List<Statement> statements )
-	 * {
-	 * checkStatements( statements.iterator() );
-	 * }
-	 * 
-	 * @Override
-	 * public void addedStatements( StmtIterator statements )
-	 * {
-	 * try {
-	 * checkStatements( statements );
-	 * }
-	 * finally {
-	 * statements.close();
-	 * }
-	 * }
-	 * 
-	 * @Override
-	 * public void addedStatements( Model baseModel )
-	 * {
-	 * addedStatements( baseModel.listStatements() );
-	 * }
-	 * 
-	 * @Override
-	 * public void removedStatement( Statement s )
-	 * {
-	 * checkStatement( s );
-	 * }
-	 * 
-	 * @Override
-	 * public void removedStatements( Statement[] statements )
-	 * {
-	 * checkStatements( Arrays.asList(statements).iterator() );
-	 * }
-	 * 
-	 * @Override
-	 * public void removedStatements( List<Statement> statements )
-	 * {
-	 * checkStatements( statements.iterator() );
-	 * }
-	 * 
-	 * @Override
-	 * public void removedStatements( StmtIterator statements )
-	 * {
-	 * try {
-	 * checkStatements( statements );
-	 * }
-	 * finally {
-	 * statements.close();
-	 * }
-	 * }
-	 * 
-	 * @Override
-	 * public void removedStatements( Model baseModel )
-	 * {
-	 * removedStatements( baseModel.listStatements() );
-	 * }
-	 * 
-	 * @Override
-	 * public void notifyEvent( Model baseModel, Object event )
-	 * {
-	 * // do nothing
-	 * }
-	 * 
-	 * }
-	 */
 	
 	static class NodeMap implements Map1<Statement,RDFNode>
 	{
@@ -553,22 +595,15 @@ public class SecuredContainerImpl extends SecuredResourceImpl implements
 		
 	}
 	
-	static class ContainerComparator implements Comparator<Statement>
-	{
-
-		@Override
-		public int compare( Statement arg0, Statement arg1 )
-		{
-			return Integer.valueOf(arg0.getPredicate().getOrdinal()).compareTo( arg1.getPredicate().getOrdinal());
-		}
-		
-	}
-	
-	static class StatementRemovingIterator extends WrappedIterator<Statement>
+	/**
+	 * Removes the last returned base statement through the secured container
+	 * so that the update and delete permissions are checked.
+	 */
+	class StatementRemovingIterator extends WrappedIterator<Statement>
 	{
 		private Statement stmt;
-		
-		public StatementRemovingIterator( Iterator<? extends Statement> base )
+
+		public StatementRemovingIterator( final Iterator<? extends Statement> base )
 		{
 			super(base);
 		}
@@ -583,10 +618,12 @@ public class SecuredContainerImpl extends SecuredResourceImpl implements
 		@Override
 		public void remove()
 		{
-			stmt.remove();
-			super.remove();
+			if (stmt == null)
+			{
+				throw new IllegalStateException();
+			}
+			SecuredContainerImpl.this.remove(stmt);
+			stmt = null;
 		}
-		
-		
 	}
 }
@@ -47,6 +47,28 @@ public class SecuredLiteralImpl extends SecuredRDFNodeImpl implements
 	 */
 	public static SecuredLiteral getInstance( final SecuredModel securedModel,
 			final Literal literal )
+	{
+		return SecuredLiteralImpl.getInstance(securedModel, literal, false);
+	}
+
+	/**
+	 * Get a SecuredLiteral that is not a proxy. Used for iterator results
+	 * where the cost of a proxy per item is not wanted.
+	 * 
+	 * @param securedModel
+	 *            the secured item that provides the security context.
+	 * @param literal
+	 *            The literal to secure.
+	 * @return the SecuredLiteral implementation.
+	 */
+	static SecuredLiteral getFlyweight( final SecuredModel securedModel,
+			final Literal literal )
+	{
+		return SecuredLiteralImpl.getInstance(securedModel, literal, true);
+	}
+
+	private static SecuredLiteral getInstance( final SecuredModel securedModel,
+			final Literal literal, final boolean flyweight )
 	{
 		if (securedModel == null)
 		{
@@ -79,6 +101,10 @@ public class SecuredLiteralImpl extends SecuredRDFNodeImpl implements
 				return (SecuredLiteral) goodLiteral;
 			}
 		}
+		if (flyweight)
+		{
+			return holder.setSecuredItem(checker);
+		}
 		return holder.setSecuredItem(new SecuredItemInvoker(literal.getClass(),
 				checker));
 	}
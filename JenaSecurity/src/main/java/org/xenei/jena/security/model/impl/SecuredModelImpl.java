@@ -18,9 +18,12 @@
 package org.xenei.jena.security.model.impl;
 
 import com.hp.hpl.jena.datatypes.RDFDatatype;
+import com.hp.hpl.jena.graph.Graph;
 import com.hp.hpl.jena.graph.Node;
 import com.hp.hpl.jena.graph.Reifier;
 import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.graph.compose.Difference;
+import com.hp.hpl.jena.graph.compose.Intersection;
 import com.hp.hpl.jena.graph.query.QueryHandler;
 import com.hp.hpl.jena.rdf.model.AnonId;
 import com.hp.hpl.jena.rdf.model.Literal;
@@ -44,6 +47,7 @@ import com.hp.hpl.jena.rdf.model.Statement;
 import com.hp.hpl.jena.rdf.model.StmtIterator;
 import com.hp.hpl.jena.rdf.model.impl.RDFReaderFImpl;
 import com.hp.hpl.jena.rdf.model.impl.RDFWriterFImpl;
+import com.hp.hpl.jena.rdf.model.impl.StmtIteratorImpl;
 import com.hp.hpl.jena.shared.Command;
 import com.hp.hpl.jena.shared.JenaException;
 import com.hp.hpl.jena.shared.Lock;
@@ -52,6 +56,8 @@ import com.hp.hpl.jena.shared.PropertyNotFoundException;
 import com.hp.hpl.jena.shared.ReificationStyle;
 import com.hp.hpl.jena.shared.WrappedIOException;
 import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+import com.hp.hpl.jena.util.iterator.Filter;
+import com.hp.hpl.jena.util.iterator.Map1;
 import com.hp.hpl.jena.util.iterator.WrappedIterator;
 import com.hp.hpl.jena.vocabulary.RDF;
 
@@ -61,16 +67,24 @@ import java.io.OutputStream;
 import java.io.Reader;
 import java.io.Writer;
 import java.net.URL;
+import java.security.Principal;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.xenei.jena.security.AccessDeniedException;
 import org.xenei.jena.security.ItemHolder;
+import org.xenei.jena.security.RunAsSecurityEvaluator;
 import org.xenei.jena.security.SecuredItem;
 import org.xenei.jena.security.SecuredItemImpl;
 import org.xenei.jena.security.SecuredItemInvoker;
@@ -88,112 +102,292 @@ import org.xenei.jena.security.model.SecuredRDFNode;
 import org.xenei.jena.security.model.SecuredResource;
 import org.xenei.jena.security.model.SecuredSeq;
 import org.xenei.jena.security.model.SecuredStatement;
+import org.xenei.jena.security.utils.AsyncDelivery;
 import org.xenei.jena.security.utils.CollectionGraph;
+import org.xenei.jena.security.utils.FilteredGraph;
+import org.xenei.jena.security.utils.PermTripleBatch;
+import org.xenei.jena.security.utils.ReplayBuffer;
+import org.xenei.jena.security.utils.SecuredGraphSink;
+import org.xenei.jena.security.utils.SecuredStreamWriter;
+import org.xenei.jena.security.utils.StreamingUnion;
 
 /**
  * Implementation of SecuredModel to be used by a SecuredItemInvoker proxy.
  */
 public class SecuredModelImpl extends SecuredItemImpl implements SecuredModel
 {
-	// a class that implements ModelChangedListener
+	/**
+	 * Delivers model changes to the listeners registered by one principal.
+	 * 
+	 * A single instance is registered with the base model for each principal
+	 * (and asynchronous delivery), so each change is filtered once no matter
+	 * how many listeners the principal has registered.
+	 */
 	private class SecuredModelChangedListener implements ModelChangedListener
 	{
-		private final ModelChangedListener wrapped;
+		// the key in the dispatchers map.
+		private final List<Object> key;
+		// the evaluator bound to the principal that registered the listeners,
+		// its decisions are kept for one notification.
+		private final RunAsSecurityEvaluator evaluator;
+		// the object registered with the base model, this or a wrapper.
+		private ModelChangedListener registered;
+		// the listeners, replaced not modified. Guarded by dispatchers.
+		private volatile ModelChangedListener[] targets = new ModelChangedListener[0];
+
+		private SecuredModelChangedListener( final List<Object> key,
+				final Principal principal )
+		{
+			this.key = key;
+			this.evaluator = new RunAsSecurityEvaluator(
+					getSecurityEvaluator(), principal);
+		}
 
-		private SecuredModelChangedListener( final ModelChangedListener wrapped )
+		private void add( final ModelChangedListener listener )
 		{
-			this.wrapped = wrapped;
+			final List<ModelChangedListener> lst = new ArrayList<ModelChangedListener>(
+					Arrays.asList(targets));
+			lst.add(listener);
+			targets = lst.toArray(new ModelChangedListener[lst.size()]);
+		}
+
+		/**
+		 * Record a listener that failed so that the remaining listeners still
+		 * receive the notification. The first exception is returned to be
+		 * rethrown once all listeners have been notified, later ones are
+		 * logged.
+		 */
+		private RuntimeException failed( final ModelChangedListener listener,
+				final RuntimeException e, final RuntimeException first )
+		{
+			if (first == null)
+			{
+				return e;
+			}
+			SecuredModelImpl.LOG.error(
+					String.format("Error notifying %s", listener), e);
+			return first;
+		}
+
+		/**
+		 * Filter the statements in bulk.
+		 */
+		private List<Statement> filter( final List<Statement> statements )
+		{
+			final List<Triple> triples = new ArrayList<Triple>(
+					statements.size());
+			for (final Statement s : statements)
+			{
+				triples.add(s.asTriple());
+			}
+			final Set<Triple> readable = new HashSet<Triple>(
+					new PermTripleBatch(Action.Read, SecuredModelImpl.this,
+							evaluator).filter(triples));
+			final List<Statement> retval = new ArrayList<Statement>(
+					readable.size());
+			for (final Statement s : statements)
+			{
+				if (readable.contains(s.asTriple()))
+				{
+					retval.add(secure(s));
+				}
+			}
+			return retval;
+		}
+
+		/**
+		 * Forget the decisions of the previous notification so that a change
+		 * to the permissions of the principal applies from this one.
+		 */
+		private void newNotification()
+		{
+			evaluator.clearCache();
+		}
+
+		private boolean readable( final Triple t )
+		{
+			return evaluator.evaluate(Action.Read, getModelNode(),
+					SecuredItemImpl.convert(t));
+		}
+
+		/**
+		 * @return true if there are no listeners left.
+		 */
+		private boolean remove( final ModelChangedListener listener )
+		{
+			final List<ModelChangedListener> lst = new ArrayList<ModelChangedListener>(
+					Arrays.asList(targets));
+			lst.remove(listener);
+			targets = lst.toArray(new ModelChangedListener[lst.size()]);
+			return lst.isEmpty();
+		}
+
+		private ReplayBuffer<Statement> replay( final StmtIterator statements,
+				final int consumers )
+		{
+			if (readable(Triple.ANY))
+			{
+				return new ReplayBuffer<Statement>(statements.mapWith(
+						new Map1<Statement, Statement>() {
+							@Override
+							public Statement map1( final Statement o )
+							{
+								return secure(o);
+							}
+						}), consumers);
+			}
+			return new ReplayBuffer<Statement>(new SecuredStatementIterator(
+					holder.getSecuredItem(), statements, evaluator), consumers);
+		}
+
+		/**
+		 * Listeners always receive secured statements.
+		 */
+		private Statement secure( final Statement s )
+		{
+			return SecuredStatementImpl.getInstance(holder.getSecuredItem(), s);
+		}
+
+		/**
+		 * @return the readable statements as secured statements.
+		 */
+		private List<Statement> secure( final List<Statement> statements )
+		{
+			if (!readable(Triple.ANY))
+			{
+				return filter(statements);
+			}
+			final List<Statement> retval = new ArrayList<Statement>(
+					statements.size());
+			for (final Statement s : statements)
+			{
+				retval.add(secure(s));
+			}
+			return retval;
 		}
 
 		@Override
 		public void addedStatement( final Statement s )
 		{
-			if (canRead(s.asTriple()))
+			newNotification();
+			if (readable(s.asTriple()))
 			{
-				wrapped.addedStatement(s);
+				final Statement stmt = secure(s);
+				RuntimeException error = null;
+				for (final ModelChangedListener l : targets)
+				{
+					try
+					{
+						l.addedStatement(stmt);
+					}
+					catch (final RuntimeException e)
+					{
+						error = failed(l, e, error);
+					}
+				}
+				if (error != null)
+				{
+					throw error;
+				}
 			}
 		}
 
 		@Override
 		public void addedStatements( final List<Statement> statements )
 		{
-			if (canRead(Triple.ANY))
+			newNotification();
+			final List<Statement> lst = secure(statements);
+			RuntimeException error = null;
+			for (final ModelChangedListener l : targets)
 			{
-				wrapped.addedStatements(statements);
-			}
-			else
-			{
-				final SecuredStatementIterator iter = new SecuredStatementIterator(
-						holder.getSecuredItem(),
-						WrappedIterator.create(statements.iterator()));
 				try
 				{
-					wrapped.addedStatements(iter.toList());
+					l.addedStatements(lst);
 				}
-				finally
+				catch (final RuntimeException e)
 				{
-					iter.close();
+					error = failed(l, e, error);
 				}
 			}
+			if (error != null)
+			{
+				throw error;
+			}
 		}
 
 		@Override
 		public void addedStatements( final Model m )
 		{
-			if (canRead(Triple.ANY))
+			newNotification();
+			final Model model = SecuredModelImpl.getInstance(
+					holder.getSecuredItem(), m);
+			RuntimeException error = null;
+			for (final ModelChangedListener l : targets)
 			{
-				wrapped.addedStatements(m);
+				try
+				{
+					l.addedStatements(model);
+				}
+				catch (final RuntimeException e)
+				{
+					error = failed(l, e, error);
+				}
 			}
-			else
+			if (error != null)
 			{
-				wrapped.addedStatements(SecuredModelImpl.getInstance(
-						holder.getSecuredItem(), m));
+				throw error;
 			}
 		}
 
 		@Override
 		public void addedStatements( final Statement[] statements )
 		{
-			if (canRead(Triple.ANY))
-			{
-				wrapped.addedStatements(statements);
-			}
-			else
+			newNotification();
+			final List<Statement> lst = secure(Arrays.asList(statements));
+			final Statement[] arry = lst.toArray(new Statement[lst.size()]);
+			RuntimeException error = null;
+			for (final ModelChangedListener l : targets)
 			{
-				final SecuredStatementIterator iter = new SecuredStatementIterator(
-						holder.getSecuredItem(), WrappedIterator.create(Arrays
-								.asList(statements).iterator()));
 				try
 				{
-					final List<Statement> stmts = iter.toList();
-					wrapped.addedStatements(stmts.toArray(new Statement[stmts
-							.size()]));
+					l.addedStatements(arry);
 				}
-				finally
+				catch (final RuntimeException e)
 				{
-					iter.close();
+					error = failed(l, e, error);
 				}
 			}
+			if (error != null)
+			{
+				throw error;
+			}
 		}
 
 		@Override
 		public void addedStatements( final StmtIterator statements )
 		{
-			if (canRead(Triple.ANY))
+			newNotification();
+			final ModelChangedListener[] lst = targets;
+			if (lst.length > 0)
 			{
-				wrapped.addedStatements(statements);
-			}
-			else
-			{
-				final SecuredStatementIterator iter = new SecuredStatementIterator(
-						holder.getSecuredItem(), statements);
-				try
+				final ReplayBuffer<Statement> replay = replay(statements,
+						lst.length);
+				RuntimeException error = null;
+				for (final ModelChangedListener l : lst)
 				{
-					wrapped.addedStatements(iter);
+					try
+					{
+						l.addedStatements(new StmtIteratorImpl(replay
+								.iterator()));
+					}
+					catch (final RuntimeException e)
+					{
+						error = failed(l, e, error);
+					}
 				}
-				finally
+				if (error != null)
 				{
-					iter.close();
+					throw error;
 				}
 			}
 		}
@@ -201,104 +395,153 @@ public class SecuredModelImpl extends SecuredItemImpl implements SecuredModel
 		@Override
 		public void notifyEvent( final Model m, final Object event )
 		{
-			wrapped.notifyEvent(m, event);
+			RuntimeException error = null;
+			for (final ModelChangedListener l : targets)
+			{
+				try
+				{
+					l.notifyEvent(m, event);
+				}
+				catch (final RuntimeException e)
+				{
+					error = failed(l, e, error);
+				}
+			}
+			if (error != null)
+			{
+				throw error;
+			}
 		}
 
 		@Override
 		public void removedStatement( final Statement s )
 		{
-			if (canRead(s.asTriple()))
+			newNotification();
+			if (readable(s.asTriple()))
 			{
-				wrapped.removedStatement(s);
+				final Statement stmt = secure(s);
+				RuntimeException error = null;
+				for (final ModelChangedListener l : targets)
+				{
+					try
+					{
+						l.removedStatement(stmt);
+					}
+					catch (final RuntimeException e)
+					{
+						error = failed(l, e, error);
+					}
+				}
+				if (error != null)
+				{
+					throw error;
+				}
 			}
 		}
 
 		@Override
 		public void removedStatements( final List<Statement> statements )
 		{
-
-			if (canRead(Triple.ANY))
+			newNotification();
+			final List<Statement> lst = secure(statements);
+			RuntimeException error = null;
+			for (final ModelChangedListener l : targets)
 			{
-				wrapped.removedStatements(statements);
-			}
-			else
-			{
-				final SecuredStatementIterator iter = new SecuredStatementIterator(
-						holder.getSecuredItem(),
-						WrappedIterator.create(statements.iterator()));
 				try
 				{
-					wrapped.removedStatements(iter.toList());
+					l.removedStatements(lst);
 				}
-				finally
+				catch (final RuntimeException e)
 				{
-					iter.close();
+					error = failed(l, e, error);
 				}
 			}
+			if (error != null)
+			{
+				throw error;
+			}
 		}
 
 		@Override
 		public void removedStatements( final Model m )
 		{
-			if (canRead(Triple.ANY))
+			newNotification();
+			final Model model = SecuredModelImpl.getInstance(
+					holder.getSecuredItem(), m);
+			RuntimeException error = null;
+			for (final ModelChangedListener l : targets)
 			{
-				wrapped.removedStatements(m);
+				try
+				{
+					l.removedStatements(model);
+				}
+				catch (final RuntimeException e)
+				{
+					error = failed(l, e, error);
+				}
 			}
-			else
+			if (error != null)
 			{
-				wrapped.removedStatements(SecuredModelImpl.getInstance(
-						holder.getSecuredItem(), m));
+				throw error;
 			}
 		}
 
 		@Override
 		public void removedStatements( final Statement[] statements )
 		{
-			if (canRead(Triple.ANY))
-			{
-				wrapped.removedStatements(statements);
-			}
-			else
+			newNotification();
+			final List<Statement> lst = secure(Arrays.asList(statements));
+			final Statement[] arry = lst.toArray(new Statement[lst.size()]);
+			RuntimeException error = null;
+			for (final ModelChangedListener l : targets)
 			{
-				final SecuredStatementIterator iter = new SecuredStatementIterator(
-						holder.getSecuredItem(), WrappedIterator.create(Arrays
-								.asList(statements).iterator()));
 				try
 				{
-					final List<Statement> stmts = iter.toList();
-					wrapped.removedStatements(stmts.toArray(new Statement[stmts
-							.size()]));
+					l.removedStatements(arry);
 				}
-				finally
+				catch (final RuntimeException e)
 				{
-					iter.close();
+					error = failed(l, e, error);
 				}
 			}
+			if (error != null)
+			{
+				throw error;
+			}
 		}
 
 		@Override
 		public void removedStatements( final StmtIterator statements )
 		{
-			if (canRead(Triple.ANY))
-			{
-				wrapped.removedStatements(statements);
-			}
-			else
+			newNotification();
+			final ModelChangedListener[] lst = targets;
+			if (lst.length > 0)
 			{
-				final SecuredStatementIterator iter = new SecuredStatementIterator(
-						holder.getSecuredItem(), statements);
-				try
+				final ReplayBuffer<Statement> replay = replay(statements,
+						lst.length);
+				RuntimeException error = null;
+				for (final ModelChangedListener l : lst)
 				{
-					wrapped.removedStatements(iter);
+					try
+					{
+						l.removedStatements(new StmtIteratorImpl(replay
+								.iterator()));
+					}
+					catch (final RuntimeException e)
+					{
+						error = failed(l, e, error);
+					}
 				}
-				finally
+				if (error != null)
 				{
-					iter.close();
+					throw error;
 				}
 			}
 		}
 	}
 
+	private static final Logger LOG = LoggerFactory
+			.getLogger(SecuredModelImpl.class);
 	private static final RDFReaderF readerFactory = new RDFReaderFImpl();
 	private static final RDFWriterF writerFactory = new RDFWriterFImpl();
 
@@ -358,8 +601,15 @@ public class SecuredModelImpl extends SecuredItemImpl implements SecuredModel
 	// The secured graph that this securedModel contains.
 	private final SecuredGraph graph;
 
-	//
-	Map<ModelChangedListener, SecuredModelChangedListener> listeners = new HashMap<ModelChangedListener, SecuredModelChangedListener>();
+	// the registered listeners and the dispatcher that delivers to them.
+	private final ConcurrentMap<ModelChangedListener, SecuredModelChangedListener> listeners = new ConcurrentHashMap<ModelChangedListener, SecuredModelChangedListener>();
+	// the dispatchers by principal and asynchronous delivery. Also
+	// guards changes to the listeners.
+	private final Map<List<Object>, SecuredModelChangedListener> dispatchers = new HashMap<List<Object>, SecuredModelChangedListener>();
+	// the asynchronous delivery for new listeners, null for synchronous.
+	private volatile AsyncDelivery asyncDelivery;
+	// true if the iterators return implementations rather than proxies.
+	private volatile boolean flyweightResults;
 
 	/**
 	 * Constructor.
@@ -389,7 +639,7 @@ public class SecuredModelImpl extends SecuredItemImpl implements SecuredModel
 	@Override
 	public SecuredModel abort()
 	{
-		holder.getBaseItem().abort();
+		graph.getTransactionHandler().abort();
 		return holder.getSecuredItem();
 	}
 
@@ -514,7 +764,7 @@ public class SecuredModelImpl extends SecuredItemImpl implements SecuredModel
 					lst.add(s.asTriple());
 				}
 				final Model m = ModelFactory
-						.createModelForGraph(new CollectionGraph(lst));
+						.createModelForGraph(new CollectionGraph(lst, true));
 				holder.getBaseItem().add(m.listStatements());
 			}
 			finally
@@ -627,7 +877,7 @@ public class SecuredModelImpl extends SecuredItemImpl implements SecuredModel
 	@Override
 	public SecuredModel begin()
 	{
-		holder.getBaseItem().begin();
+		graph.getTransactionHandler().begin();
 		return holder.getSecuredItem();
 	}
 
@@ -664,7 +914,7 @@ public class SecuredModelImpl extends SecuredItemImpl implements SecuredModel
 	@Override
 	public SecuredModel commit()
 	{
-		holder.getBaseItem().commit();
+		graph.getTransactionHandler().commit();
 		return holder.getSecuredItem();
 	}
 
@@ -941,9 +1191,15 @@ public class SecuredModelImpl extends SecuredItemImpl implements SecuredModel
 				holder.getBaseItem().createBag(uri));
 	}
 
-	private Model createCopy()
+	/**
+	 * A read only view of the readable statements. Permissions are evaluated
+	 * when the view is accessed.
+	 * 
+	 * @return the read only graph.
+	 */
+	private Graph createView()
 	{
-		return ModelFactory.createDefaultModel().add(holder.getSecuredItem());
+		return new FilteredGraph(graph, Filter.<Triple> any());
 	}
 
 	@Override
@@ -1362,7 +1618,8 @@ public class SecuredModelImpl extends SecuredItemImpl implements SecuredModel
 		}
 		else
 		{
-			return createCopy().difference(model);
+			return ModelFactory.createModelForGraph(new Difference(createView(),
+					model.getGraph()));
 		}
 	}
 
@@ -1383,7 +1640,7 @@ public class SecuredModelImpl extends SecuredItemImpl implements SecuredModel
 	@Override
 	public Object executeInTransaction( final Command cmd )
 	{
-		return holder.getBaseItem().executeInTransaction(cmd);
+		return graph.getTransactionHandler().executeInTransaction(cmd);
 	}
 
 	@Override
@@ -1434,6 +1691,12 @@ public class SecuredModelImpl extends SecuredItemImpl implements SecuredModel
 		}
 	}
 
+	@Override
+	public AsyncDelivery getAsyncDelivery()
+	{
+		return asyncDelivery;
+	}
+
 	@Override
 	public SecuredBag getBag( final Resource r )
 	{
@@ -1669,13 +1932,14 @@ public class SecuredModelImpl extends SecuredItemImpl implements SecuredModel
 	public Model intersection( final Model model )
 	{
 		checkRead();
-		if (!canRead(Triple.ANY))
+		if (canRead(Triple.ANY))
 		{
 			return holder.getBaseItem().intersection(model);
 		}
 		else
 		{
-			return createCopy().intersection(model);
+			return ModelFactory.createModelForGraph(new Intersection(
+					createView(), model.getGraph()));
 		}
 	}
 
@@ -1692,37 +1956,18 @@ public class SecuredModelImpl extends SecuredItemImpl implements SecuredModel
 		return holder.getBaseItem().isEmpty();
 	}
 
+	@Override
+	public boolean isFlyweightResults()
+	{
+		return flyweightResults;
+	}
+
 	@Override
 	public boolean isIsomorphicWith( final Model g )
 	{
 		checkRead();
-		final boolean retval = holder.getBaseItem().isIsomorphicWith(g);
-		if (retval && !canRead(Triple.ANY))
-		{
-			// in this case we have to check all the items in the graph to see
-			// if the user can read
-			// them all.
-			final ExtendedIterator<Statement> stmtIter = holder.getBaseItem()
-					.listStatements();
-			try
-			{
-				while (stmtIter.hasNext())
-				{
-					if (!canRead(stmtIter.next().asTriple()))
-					{
-						return false;
-					}
-				}
-			}
-			finally
-			{
-				if (stmtIter != null)
-				{
-					stmtIter.close();
-				}
-			}
-		}
-		return retval;
+		// the secured graph compares only the readable statements.
+		return graph.isIsomorphicWith(g.getGraph());
 	}
 
 	@Override
@@ -2041,7 +2286,18 @@ public class SecuredModelImpl extends SecuredItemImpl implements SecuredModel
 		checkUpdate();
 		try
 		{
-			SecuredModelImpl.readerFactory.getReader().read(holder.getSecuredItem(), in, base);
+			final SecuredGraphSink sink = new SecuredGraphSink(graph,
+					holder.getBaseItem().getGraph());
+			try
+			{
+				SecuredModelImpl.readerFactory.getReader().read(
+						sink.asModel(), in, base);
+				sink.close();
+			}
+			finally
+			{
+				sink.discard();
+			}
 			return holder.getSecuredItem();
 		}
 		catch (final JenaException e)
@@ -2062,7 +2318,18 @@ public class SecuredModelImpl extends SecuredItemImpl implements SecuredModel
 		checkUpdate();
 		try
 		{
-			SecuredModelImpl.readerFactory.getReader(lang).read(holder.getSecuredItem(), in, base);
+			final SecuredGraphSink sink = new SecuredGraphSink(graph,
+					holder.getBaseItem().getGraph());
+			try
+			{
+				SecuredModelImpl.readerFactory.getReader(lang).read(
+						sink.asModel(), in, base);
+				sink.close();
+			}
+			finally
+			{
+				sink.discard();
+			}
 			return holder.getSecuredItem();
 		}
 		catch (final JenaException e)
@@ -2082,7 +2349,18 @@ public class SecuredModelImpl extends SecuredItemImpl implements SecuredModel
 		checkUpdate();
 		try
 		{
-			SecuredModelImpl.readerFactory.getReader().read(holder.getSecuredItem(), reader, base);
+			final SecuredGraphSink sink = new SecuredGraphSink(graph,
+					holder.getBaseItem().getGraph());
+			try
+			{
+				SecuredModelImpl.readerFactory.getReader().read(
+						sink.asModel(), reader, base);
+				sink.close();
+			}
+			finally
+			{
+				sink.discard();
+			}
 			return holder.getSecuredItem();
 		}
 		catch (final JenaException e)
@@ -2103,8 +2381,18 @@ public class SecuredModelImpl extends SecuredItemImpl implements SecuredModel
 		checkUpdate();
 		try
 		{
-			SecuredModelImpl.readerFactory.getReader(lang).read(holder.getSecuredItem(), reader,
-					base);
+			final SecuredGraphSink sink = new SecuredGraphSink(graph,
+					holder.getBaseItem().getGraph());
+			try
+			{
+				SecuredModelImpl.readerFactory.getReader(lang).read(
+						sink.asModel(), reader, base);
+				sink.close();
+			}
+			finally
+			{
+				sink.discard();
+			}
 			return holder.getSecuredItem();
 		}
 		catch (final JenaException e)
@@ -2124,7 +2412,18 @@ public class SecuredModelImpl extends SecuredItemImpl implements SecuredModel
 		checkUpdate();
 		try
 		{
-			SecuredModelImpl.readerFactory.getReader().read(holder.getSecuredItem(), url);
+			final SecuredGraphSink sink = new SecuredGraphSink(graph,
+					holder.getBaseItem().getGraph());
+			try
+			{
+				SecuredModelImpl.readerFactory.getReader().read(
+						sink.asModel(), url);
+				sink.close();
+			}
+			finally
+			{
+				sink.discard();
+			}
 			return holder.getSecuredItem();
 		}
 		catch (final JenaException e)
@@ -2144,7 +2443,18 @@ public class SecuredModelImpl extends SecuredItemImpl implements SecuredModel
 		checkUpdate();
 		try
 		{
-			SecuredModelImpl.readerFactory.getReader(lang).read(holder.getSecuredItem(), url);
+			final SecuredGraphSink sink = new SecuredGraphSink(graph,
+					holder.getBaseItem().getGraph());
+			try
+			{
+				SecuredModelImpl.readerFactory.getReader(lang).read(
+						sink.asModel(), url);
+				sink.close();
+			}
+			finally
+			{
+				sink.discard();
+			}
 			return holder.getSecuredItem();
 		}
 		catch (final JenaException e)
@@ -2188,12 +2498,27 @@ public class SecuredModelImpl extends SecuredItemImpl implements SecuredModel
 	public SecuredModel register( final ModelChangedListener listener )
 	{
 		checkRead();
-		if (!listeners.containsKey(listener))
+		synchronized (dispatchers)
 		{
-			final SecuredModelChangedListener secL = new SecuredModelChangedListener(
-					listener);
-			listeners.put(listener, secL);
-			holder.getBaseItem().register(secL);
+			if (!listeners.containsKey(listener))
+			{
+				final Principal principal = getSecurityEvaluator()
+						.getPrincipal();
+				final AsyncDelivery async = asyncDelivery;
+				final List<Object> key = Arrays.<Object> asList(principal,
+						async);
+				SecuredModelChangedListener secL = dispatchers.get(key);
+				if (secL == null)
+				{
+					secL = new SecuredModelChangedListener(key, principal);
+					secL.registered = async == null ? secL : async.wrap(
+							ModelChangedListener.class, secL);
+					dispatchers.put(key, secL);
+					holder.getBaseItem().register(secL.registered);
+				}
+				secL.add(listener);
+				listeners.put(listener, secL);
+			}
 		}
 		return holder.getSecuredItem();
 	}
@@ -2340,7 +2665,7 @@ public class SecuredModelImpl extends SecuredItemImpl implements SecuredModel
 					lst.add(s.asTriple());
 				}
 				final Model m = ModelFactory
-						.createModelForGraph(new CollectionGraph(lst));
+						.createModelForGraph(new CollectionGraph(lst, true));
 				holder.getBaseItem().remove(m.listStatements());
 			}
 			finally
@@ -2480,6 +2805,18 @@ public class SecuredModelImpl extends SecuredItemImpl implements SecuredModel
 		return holder.getBaseItem().samePrefixMappingAs(other);
 	}
 
+	@Override
+	public void setAsyncDelivery( final AsyncDelivery asyncDelivery )
+	{
+		this.asyncDelivery = asyncDelivery;
+	}
+
+	@Override
+	public void setFlyweightResults( final boolean flyweightResults )
+	{
+		this.flyweightResults = flyweightResults;
+	}
+
 	@Override
 	public SecuredPrefixMapping setNsPrefix( final String prefix,
 			final String uri )
@@ -2555,18 +2892,23 @@ public class SecuredModelImpl extends SecuredItemImpl implements SecuredModel
 		}
 		else
 		{
-			return createCopy().union(model);
+			return ModelFactory.createModelForGraph(new StreamingUnion(createView(),
+					model.getGraph()));
 		}
 	}
 
 	@Override
 	public SecuredModel unregister( final ModelChangedListener listener )
 	{
-		if (listeners.containsKey(listener))
+		synchronized (dispatchers)
 		{
-			final SecuredModelChangedListener secL = listeners.get(listener);
-			holder.getBaseItem().unregister(secL);
-			listeners.remove(listener);
+			final SecuredModelChangedListener secL = listeners.remove(listener);
+			if ((secL != null) && secL.remove(listener))
+			{
+				dispatchers.remove(secL.key);
+				holder.getBaseItem().unregister(secL.registered);
+				AsyncDelivery.shutdown(secL.registered);
+			}
 		}
 		return holder.getSecuredItem();
 	}
@@ -2597,6 +2939,21 @@ public class SecuredModelImpl extends SecuredItemImpl implements SecuredModel
 				.wrapAsResource(n));
 	}
 
+	/**
+	 * Get a writer that streams the readable triples from the base graph.
+	 * 
+	 * @param lang
+	 *            The output language.
+	 * @return the writer or null if the language is not streamed.
+	 */
+	private SecuredStreamWriter getStreamWriter( final String lang )
+	{
+		final SecuredStreamWriter.Format format = SecuredStreamWriter
+				.getFormat(lang);
+		return format == null ? null : new SecuredStreamWriter(this, holder
+				.getBaseItem().getGraph(), format);
+	}
+
 	@Override
 	public SecuredModel write( final OutputStream out )
 	{
@@ -2623,7 +2980,15 @@ public class SecuredModelImpl extends SecuredItemImpl implements SecuredModel
 		}
 		else
 		{
-			getWriter(lang).write(holder.getSecuredItem(), out, "");
+			final SecuredStreamWriter streamWriter = getStreamWriter(lang);
+			if (streamWriter != null)
+			{
+				streamWriter.write(out, "");
+			}
+			else
+			{
+				getWriter(lang).write(holder.getSecuredItem(), out, "");
+			}
 		}
 		return holder.getSecuredItem();
 	}
@@ -2639,7 +3004,15 @@ public class SecuredModelImpl extends SecuredItemImpl implements SecuredModel
 		}
 		else
 		{
-			getWriter(lang).write(holder.getSecuredItem(), out, base);
+			final SecuredStreamWriter streamWriter = getStreamWriter(lang);
+			if (streamWriter != null)
+			{
+				streamWriter.write(out, base);
+			}
+			else
+			{
+				getWriter(lang).write(holder.getSecuredItem(), out, base);
+			}
 		}
 		return holder.getSecuredItem();
 
@@ -2670,7 +3043,15 @@ public class SecuredModelImpl extends SecuredItemImpl implements SecuredModel
 		}
 		else
 		{
-			getWriter(lang).write(holder.getSecuredItem(), writer, "");
+			final SecuredStreamWriter streamWriter = getStreamWriter(lang);
+			if (streamWriter != null)
+			{
+				streamWriter.write(writer, "");
+			}
+			else
+			{
+				getWriter(lang).write(holder.getSecuredItem(), writer, "");
+			}
 		}
 		return holder.getSecuredItem();
 	}
@@ -2686,7 +3067,15 @@ public class SecuredModelImpl extends SecuredItemImpl implements SecuredModel
 		}
 		else
 		{
-			getWriter(lang).write(holder.getSecuredItem(), writer, base);
+			final SecuredStreamWriter streamWriter = getStreamWriter(lang);
+			if (streamWriter != null)
+			{
+				streamWriter.write(writer, base);
+			}
+			else
+			{
+				getWriter(lang).write(holder.getSecuredItem(), writer, base);
+			}
 		}
 		return holder.getSecuredItem();
 
@@ -39,16 +39,19 @@ public class SecuredNodeIterator<T extends RDFNode> implements NodeIterator
 	private class PermNodeMap<T extends RDFNode> implements Map1<T, RDFNode>
 	{
 		private final SecuredModel securedModel;
+		private final boolean flyweight;
 
 		public PermNodeMap( final SecuredModel securedModel )
 		{
 			this.securedModel = securedModel;
+			this.flyweight = securedModel.isFlyweightResults();
 		}
 
 		@Override
 		public SecuredRDFNode map1( final RDFNode o )
 		{
-			return SecuredRDFNodeImpl.getInstance(securedModel, o);
+			return flyweight ? SecuredRDFNodeImpl.getFlyweight(securedModel, o)
+					: SecuredRDFNodeImpl.getInstance(securedModel, o);
 		}
 	}
 
@@ -1,11 +1,14 @@
 package org.xenei.jena.security.model.impl;
 
+import com.hp.hpl.jena.graph.Graph;
 import com.hp.hpl.jena.graph.Node;
 import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.rdf.listeners.StatementListener;
 import com.hp.hpl.jena.rdf.model.EmptyListException;
 import com.hp.hpl.jena.rdf.model.EmptyListUpdateException;
 import com.hp.hpl.jena.rdf.model.InvalidListException;
 import com.hp.hpl.jena.rdf.model.ListIndexException;
+import com.hp.hpl.jena.rdf.model.Model;
 import com.hp.hpl.jena.rdf.model.ModelFactory;
 import com.hp.hpl.jena.rdf.model.Property;
 import com.hp.hpl.jena.rdf.model.RDFList;
@@ -14,10 +17,10 @@ import com.hp.hpl.jena.rdf.model.Resource;
 import com.hp.hpl.jena.rdf.model.Statement;
 import com.hp.hpl.jena.util.iterator.ExtendedIterator;
 import com.hp.hpl.jena.util.iterator.Map1;
-import com.hp.hpl.jena.util.iterator.WrappedIterator;
 import com.hp.hpl.jena.vocabulary.RDF;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -32,23 +35,87 @@ import org.xenei.jena.security.SecurityEvaluator.Action;
 import org.xenei.jena.security.model.SecuredModel;
 import org.xenei.jena.security.model.SecuredRDFList;
 import org.xenei.jena.security.model.SecuredRDFNode;
+import org.xenei.jena.security.utils.PermTripleBatch;
+import org.xenei.jena.security.utils.RDFListBlockIterator;
+import org.xenei.jena.security.utils.RDFListIndex;
 import org.xenei.jena.security.utils.RDFListIterator;
-import org.xenei.jena.security.utils.RDFListSecFilter;
 
 public class SecuredRDFListImpl extends SecuredResourceImpl implements
 		SecuredRDFList
 {
+	// maps the rdf:first statement to the list cell
+	private static class CellMap implements Map1<Statement, RDFList>
+	{
+
+		@Override
+		public RDFList map1( final Statement o )
+		{
+			return o.getSubject().as(RDFList.class);
+		}
+
+	}
+
 	// called plain node but still returns a secured node
-	private class PlainNodeMap implements Map1<RDFList, RDFNode>
+	private class PlainNodeMap implements Map1<Statement, RDFNode>
 	{
 
 		@Override
-		public RDFNode map1( final RDFList o )
+		public RDFNode map1( final Statement o )
 		{
-			return SecuredRDFNodeImpl.getInstance(getModel(), o
-					.getRequiredProperty(listFirst()).getObject());
+			return SecuredRDFNodeImpl.getInstance(getModel(), o.getObject());
+		}
+
+	}
+
+	/**
+	 * Watches a model for changes to rdf:rest statements so that a remembered
+	 * tail cell can be trusted as long as no links have changed. A watcher is
+	 * registered when a tail is remembered and is kept while the list links
+	 * new cells to that tail. It unregisters itself on the first change made
+	 * by anything else, it does not refer to the list so it does not keep the
+	 * list in memory.
+	 */
+	private static class TailWatcher extends StatementListener
+	{
+		private final Model model;
+		private volatile boolean changed;
+		// the thread linking cells to the tail, its changes are expected.
+		private volatile Thread linking;
+
+		private TailWatcher( final Model model )
+		{
+			this.model = model;
+			model.register(this);
+		}
+
+		@Override
+		public void addedStatement( final Statement s )
+		{
+			if (s.getPredicate().equals(RDF.rest)
+					&& (linking != Thread.currentThread()))
+			{
+				close();
+			}
+		}
+
+		private void close()
+		{
+			changed = true;
+			model.unregister(this);
+		}
+
+		@Override
+		public void notifyEvent( final Model m, final Object event )
+		{
+			// bulk operations such as removeAll() are reported as events.
+			close();
 		}
 
+		@Override
+		public void removedStatement( final Statement s )
+		{
+			addedStatement(s);
+		}
 	}
 
 	private class SecuredListMap implements Map1<RDFList, SecuredRDFList>
@@ -218,6 +285,9 @@ public class SecuredRDFListImpl extends SecuredResourceImpl implements
 	/** Pointer to the node that is the tail of the list */
 	protected RDFList m_tail = null;
 
+	/** The watcher that reports changes that invalidate m_tail */
+	private TailWatcher m_tailWatcher;
+
 	/** The URI for the 'first' property in this list */
 	protected Property m_listFirst = RDF.first;
 
@@ -232,6 +302,9 @@ public class SecuredRDFListImpl extends SecuredResourceImpl implements
 
 	private final ItemHolder<RDFList, SecuredRDFList> holder;
 
+	// the index of readable cells, null if not indexed.
+	private volatile RDFListIndex index;
+
 	protected SecuredRDFListImpl( final SecuredModel securedModel,
 			final ItemHolder<RDFList, SecuredRDFList> holder )
 	{
@@ -244,7 +317,15 @@ public class SecuredRDFListImpl extends SecuredResourceImpl implements
 	{
 		checkUpdate();
 		checkCreateNewList(value, listNil());
-		holder.getBaseItem().add(value);
+		if (holder.getBaseItem().isEmpty())
+		{
+			// the base list reports the error
+			holder.getBaseItem().add(value);
+		}
+		else
+		{
+			linkNew(Collections.singletonList(value).iterator());
+		}
 	}
 
 	@Override
@@ -253,8 +334,7 @@ public class SecuredRDFListImpl extends SecuredResourceImpl implements
 		SecuredRDFList copy = copy();
 		if (nodes.hasNext())
 		{
-			if (((RDFList)copy.getBaseItem()).size()>0)
-//			if (copy.size() > 0)
+			if (!((RDFList) copy.getBaseItem()).isEmpty())
 			{
 				copy.concatenate(copy.getModel().createList(nodes));
 			}
@@ -381,19 +461,40 @@ public class SecuredRDFListImpl extends SecuredResourceImpl implements
 				SecuredItemImpl.convert(tail.asNode())));
 	}
 
-	private Set<Statement> collectStatements( final Set<Action> actions )
+	/**
+	 * Remove the deletable statements of the cells that have the permissions.
+	 * The cells are processed in blocks so that the statements of the whole
+	 * list are not held at once. The block iterator has already read the
+	 * rdf:rest of a cell before it is returned so removing the cell does not
+	 * break the walk.
+	 */
+	private void deleteStatements( final Set<Action> actions )
 	{
-		final Set<Statement> stmts = new HashSet<Statement>();
-		final ExtendedIterator<RDFList> iter = WrappedIterator.create(
-				new RDFListIterator(holder.getBaseItem())).filterKeep(
-				new RDFListSecFilter<RDFList>(this, actions));
+		final Graph graph = holder.getBaseItem().getModel().getGraph();
+		final PermTripleBatch batch = new PermTripleBatch(Action.Delete, this);
+		final List<Triple> triples = new ArrayList<Triple>();
+		final ExtendedIterator<RDFList> iter = getSecuredRDFListIterator(actions);
 		try
 		{
+			int cells = 0;
 			while (iter.hasNext())
 			{
-				stmts.addAll(iter.next().listProperties().toSet());
+				triples.addAll(graph.find(iter.next().asNode(), Node.ANY,
+						Node.ANY).toList());
+				if (++cells >= RDFListBlockIterator.DEFAULT_BLOCK_SIZE)
+				{
+					for (final Triple t : batch.filter(triples))
+					{
+						graph.delete(t);
+					}
+					triples.clear();
+					cells = 0;
+				}
+			}
+			for (final Triple t : batch.filter(triples))
+			{
+				graph.delete(t);
 			}
-			return stmts;
 		}
 		finally
 		{
@@ -401,6 +502,106 @@ public class SecuredRDFListImpl extends SecuredResourceImpl implements
 		}
 	}
 
+	/**
+	 * Find the last cell of the base list. The remembered tail is used if no
+	 * rdf:rest statement in the model has changed since it was found and it
+	 * still ends the list, otherwise the list is walked.
+	 */
+	private RDFList findTail()
+	{
+		final RDFList base = holder.getBaseItem();
+		if ((m_tail != null) && (m_tailWatcher != null)
+				&& !m_tailWatcher.changed
+				&& base.getModel().contains(m_tail, listRest(), listNil()))
+		{
+			return m_tail;
+		}
+		RDFList retval = null;
+		final RDFListIterator iter = new RDFListIterator(base);
+		while (iter.hasNext())
+		{
+			retval = iter.next();
+		}
+		return retval;
+	}
+
+	/**
+	 * Forget the remembered tail and stop watching the model for changes.
+	 */
+	private void forgetTail()
+	{
+		m_tail = null;
+		if (m_tailWatcher != null)
+		{
+			m_tailWatcher.close();
+			m_tailWatcher = null;
+		}
+	}
+
+	/**
+	 * Link an existing base list to the end of this list. The list is linked
+	 * in place so the new tail is not known.
+	 */
+	private void linkList( final RDFList list )
+	{
+		if (!list.isEmpty())
+		{
+			findTail().getRequiredProperty(listRest()).changeObject(list);
+		}
+		forgetTail();
+	}
+
+	/**
+	 * Create new cells for the nodes and link them to the end of this list.
+	 * The cells are created in order so that the last one can be remembered
+	 * as the tail without walking the list. The watcher of the remembered
+	 * tail is kept if it is still valid.
+	 */
+	private void linkNew( final Iterator<? extends RDFNode> nodes )
+	{
+		if (!nodes.hasNext())
+		{
+			return;
+		}
+		final RDFList tail = findTail();
+		final Model model = tail.getModel();
+		TailWatcher watcher = m_tailWatcher;
+		if ((tail != m_tail) || (watcher == null) || watcher.changed)
+		{
+			forgetTail();
+			watcher = new TailWatcher(model);
+			m_tailWatcher = watcher;
+		}
+		m_tail = null;
+		Resource first = null;
+		Resource last = null;
+		watcher.linking = Thread.currentThread();
+		try
+		{
+			while (nodes.hasNext())
+			{
+				final Resource cell = model.createResource();
+				cell.addProperty(listFirst(), nodes.next());
+				if (last == null)
+				{
+					first = cell;
+				}
+				else
+				{
+					last.addProperty(listRest(), cell);
+				}
+				last = cell;
+			}
+			last.addProperty(listRest(), listNil());
+			tail.getRequiredProperty(listRest()).changeObject(first);
+		}
+		finally
+		{
+			watcher.linking = null;
+		}
+		m_tail = last.as(RDFList.class);
+	}
+
 	@Override
 	public void concatenate( final Iterator<? extends RDFNode> nodes )
 	{
@@ -413,29 +614,29 @@ public class SecuredRDFListImpl extends SecuredResourceImpl implements
 		}
 		else
 		{
-			final org.xenei.jena.security.SecurityEvaluator.SecNode p = SecuredItemImpl
-					.convert(listFirst().asNode());
-			org.xenei.jena.security.SecurityEvaluator.SecTriple t = new org.xenei.jena.security.SecurityEvaluator.SecTriple(
+			final org.xenei.jena.security.SecurityEvaluator.SecTriple t = new org.xenei.jena.security.SecurityEvaluator.SecTriple(
 					org.xenei.jena.security.SecurityEvaluator.SecNode.FUTURE,
-					p, org.xenei.jena.security.SecurityEvaluator.SecNode.ANY);
+					SecuredItemImpl.convert(listFirst().asNode()),
+					org.xenei.jena.security.SecurityEvaluator.SecNode.ANY);
 			if (!canCreate(t))
 			{
+				// the nodes are held so that nothing is written if any
+				// value is denied, they are checked as one batch.
 				final List<RDFNode> list = new ArrayList<RDFNode>();
+				final List<Triple> triples = new ArrayList<Triple>();
 				while (nodes.hasNext())
 				{
 					final RDFNode n = nodes.next();
-					t = new org.xenei.jena.security.SecurityEvaluator.SecTriple(
-							org.xenei.jena.security.SecurityEvaluator.SecNode.FUTURE,
-							p, SecuredItemImpl.convert(n.asNode()));
-					checkCreate(t);
 					list.add(n);
+					triples.add(new Triple(SecuredItemImpl.FUTURE, listFirst()
+							.asNode(), n.asNode()));
 				}
-				holder.getBaseItem().concatenate(list.iterator());
-
+				checkCreateTriples(triples);
+				linkNew(list.iterator());
 			}
 			else
 			{
-				holder.getBaseItem().concatenate(nodes);
+				linkNew(nodes);
 			}
 		}
 	}
@@ -476,7 +677,7 @@ public class SecuredRDFListImpl extends SecuredResourceImpl implements
 					iter.close();
 				}
 			}
-			holder.getBaseItem().concatenate(list);
+			linkList(list);
 		}
 	}
 
@@ -511,26 +712,69 @@ public class SecuredRDFListImpl extends SecuredResourceImpl implements
 		}
 	}
 
+	/**
+	 * Create a list from the readable values of this list.
+	 * 
+	 * Performs the same checks as SecuredModel.createList() but when the
+	 * values have to be checked one at a time they are checked in a first
+	 * pass over this list, rather than collected, so that the copy is written
+	 * from the second pass without holding the values.
+	 */
+	private SecuredRDFList createCopy( final Iterator<RDFNode> values )
+	{
+		checkUpdate();
+		checkCreate(new SecurityEvaluator.SecTriple(
+				SecurityEvaluator.SecNode.FUTURE,
+				SecuredItemImpl.convert(listRest().asNode()),
+				SecurityEvaluator.SecNode.FUTURE));
+		final SecurityEvaluator.SecNode p = SecuredItemImpl
+				.convert(listFirst().asNode());
+		if (!canCreate(new SecurityEvaluator.SecTriple(
+				SecurityEvaluator.SecNode.FUTURE, p,
+				SecurityEvaluator.SecNode.ANY)))
+		{
+			final ExtendedIterator<Statement> iter = getSecuredFirsts(SecurityEvaluator.Util
+					.asSet(new Action[] { Action.Read }));
+			try
+			{
+				while (iter.hasNext())
+				{
+					checkCreate(new SecurityEvaluator.SecTriple(
+							SecurityEvaluator.SecNode.FUTURE, p,
+							SecuredItemImpl.convert(iter.next().getObject()
+									.asNode())));
+				}
+			}
+			finally
+			{
+				iter.close();
+			}
+		}
+		return SecuredRDFListImpl.getInstance(getModel(),
+				((Model) getModel().getBaseItem()).createList(values));
+	}
+
 	@Override
 	public SecuredRDFList copy()
 	{
 		SecuredRDFList retval = null;
 		if (canRead())
 		{
-			final ExtendedIterator<RDFNode> iter = getSecuredRDFListIterator(Action.Read)
-					.mapWith( new Map1<RDFList, RDFNode>()
+			final ExtendedIterator<RDFNode> iter = getSecuredFirsts(
+					SecurityEvaluator.Util.asSet(new Action[] { Action.Read }))
+					.mapWith(new Map1<Statement, RDFNode>()
 					{
 
 						@Override
-						public RDFNode map1( final RDFList o )
+						public RDFNode map1( final Statement o )
 						{
-							return  o.getRequiredProperty(listFirst()).getObject();
+							return o.getObject();
 						}
 
 					});
 			if (iter.hasNext())
 			{
-				retval = getModel().createList(iter);
+				retval = createCopy(iter);
 			}
 			else
 			{
@@ -548,8 +792,12 @@ public class SecuredRDFListImpl extends SecuredResourceImpl implements
 	public SecuredRDFNode get( final int i )
 	{
 		checkRead();
-		final ExtendedIterator<SecuredRDFNode> iter = getSecuredRDFListIterator(
-				Action.Read).mapWith(new SecuredNodeMap(listFirst()));
+		final RDFListIndex cells = index;
+		if (cells != null)
+		{
+			return SecuredRDFNodeImpl.getInstance(getModel(), cells.get(i));
+		}
+		final ExtendedIterator<RDFNode> iter = iterator();
 		int idx = 0;
 		try
 		{
@@ -557,7 +805,7 @@ public class SecuredRDFListImpl extends SecuredResourceImpl implements
 			{
 				if (i == idx)
 				{
-					return iter.next();
+					return (SecuredRDFNode) iter.next();
 				}
 				else
 				{
@@ -583,20 +831,26 @@ public class SecuredRDFListImpl extends SecuredResourceImpl implements
 		return SecuredRDFNodeImpl.getInstance(getModel(), s.getObject());
 	}
 
+	/**
+	 * Get the rdf:first statements of the cells that have the permissions.
+	 * Cells are read and evaluated in blocks.
+	 */
+	private ExtendedIterator<Statement> getSecuredFirsts( final Set<Action> perm )
+	{
+		return new RDFListBlockIterator(holder.getBaseItem(), this, perm);
+	}
+
 	private ExtendedIterator<RDFList> getSecuredRDFListIterator(
 			final Action perm )
 	{
-		return WrappedIterator
-				.create(new RDFListIterator(holder.getBaseItem())).filterKeep(
-						new RDFListSecFilter<RDFList>(this, perm));
+		return getSecuredRDFListIterator(SecurityEvaluator.Util
+				.asSet(new Action[] { perm }));
 	}
 
 	private ExtendedIterator<RDFList> getSecuredRDFListIterator(
 			final Set<Action> perm )
 	{
-		return WrappedIterator
-				.create(new RDFListIterator(holder.getBaseItem())).filterKeep(
-						new RDFListSecFilter<RDFList>(this, perm));
+		return getSecuredFirsts(perm).mapWith(new CellMap());
 	}
 
 	@Override
@@ -625,8 +879,12 @@ public class SecuredRDFListImpl extends SecuredResourceImpl implements
 	public int indexOf( final RDFNode value )
 	{
 		checkRead();
-		final ExtendedIterator<SecuredRDFNode> iter = getSecuredRDFListIterator(
-				Action.Read).mapWith(new SecuredNodeMap(listFirst()));
+		final RDFListIndex cells = index;
+		if (cells != null)
+		{
+			return cells.indexOf(value, 0);
+		}
+		final ExtendedIterator<RDFNode> iter = iterator();
 		try
 		{
 			int retval = 0;
@@ -653,8 +911,12 @@ public class SecuredRDFListImpl extends SecuredResourceImpl implements
 	public int indexOf( final RDFNode value, final int start )
 	{
 		checkRead();
-		final ExtendedIterator<SecuredRDFNode> iter = getSecuredRDFListIterator(
-				Action.Read).mapWith(new SecuredNodeMap(listFirst()));
+		final RDFListIndex cells = index;
+		if (cells != null)
+		{
+			return cells.indexOf(value, start);
+		}
+		final ExtendedIterator<RDFNode> iter = iterator();
 		try
 		{
 			int retval = 0;
@@ -682,6 +944,16 @@ public class SecuredRDFListImpl extends SecuredResourceImpl implements
 		}
 	}
 
+	@Override
+	public void invalidateIndex()
+	{
+		final RDFListIndex cells = index;
+		if (cells != null)
+		{
+			cells.invalidate();
+		}
+	}
+
 	@Override
 	public boolean isEmpty()
 	{
@@ -697,6 +969,12 @@ public class SecuredRDFListImpl extends SecuredResourceImpl implements
 		}
 	}
 
+	@Override
+	public boolean isIndexed()
+	{
+		return index != null;
+	}
+
 	@Override
 	public boolean isValid()
 	{
@@ -708,8 +986,9 @@ public class SecuredRDFListImpl extends SecuredResourceImpl implements
 	public ExtendedIterator<RDFNode> iterator()
 	{
 		checkRead();
-		return getSecuredRDFListIterator(Action.Read).mapWith(
-				new PlainNodeMap());
+		return getSecuredFirsts(
+				SecurityEvaluator.Util.asSet(new Action[] { Action.Read }))
+				.mapWith(new PlainNodeMap());
 
 	}
 
@@ -719,7 +998,7 @@ public class SecuredRDFListImpl extends SecuredResourceImpl implements
 		checkRead();
 		final Set<Action> req = new HashSet<Action>(constraints);
 		req.add(Action.Read);
-		return getSecuredRDFListIterator(req).mapWith(new PlainNodeMap());
+		return getSecuredFirsts(req).mapWith(new PlainNodeMap());
 
 	}
 
@@ -885,13 +1164,7 @@ public class SecuredRDFListImpl extends SecuredResourceImpl implements
 		}
 		else
 		{
-			for (final Statement s : collectStatements(perms))
-			{
-				if (canDelete(s.asTriple()))
-				{
-					s.remove();
-				}
-			}
+			deleteStatements(perms);
 		}
 	}
 
@@ -993,6 +1266,20 @@ public class SecuredRDFListImpl extends SecuredResourceImpl implements
 		}
 	}
 
+	@Override
+	public synchronized void setIndexed( final boolean indexed )
+	{
+		if (indexed && (index == null))
+		{
+			index = new RDFListIndex(this, holder.getBaseItem());
+		}
+		else if (!indexed && (index != null))
+		{
+			index.close();
+			index = null;
+		}
+	}
+
 	@Override
 	public void setStrict( final boolean strict )
 	{
@@ -1004,6 +1291,7 @@ public class SecuredRDFListImpl extends SecuredResourceImpl implements
 	public SecuredRDFList setTail( final RDFList tail )
 	{
 		checkUpdate();
+		forgetTail();
 
 		final Statement rest = holder.getBaseItem().getRequiredProperty(
 				listRest());
@@ -1027,6 +1315,11 @@ public class SecuredRDFListImpl extends SecuredResourceImpl implements
 		{
 			return holder.getBaseItem().size();
 		}
+		final RDFListIndex cells = index;
+		if (cells != null)
+		{
+			return cells.size();
+		}
 		final ExtendedIterator<RDFNode> iter = iterator();
 		int i = 0;
 		while (iter.hasNext())
@@ -55,6 +55,31 @@ public abstract class SecuredRDFNodeImpl extends SecuredItemImpl implements
 		}
 	}
 
+	/**
+	 * Get a SecuredRDFNode that is not a proxy. Used for iterator results
+	 * where the cost of a proxy per item is not wanted.
+	 * 
+	 * @param securedModel
+	 *            the secured item that provides the security context.
+	 * @param rdfNode
+	 *            The node to secure.
+	 * @return the SecuredRDFNode implementation.
+	 */
+	static SecuredRDFNode getFlyweight( final SecuredModel securedModel,
+			final RDFNode rdfNode )
+	{
+		if (rdfNode instanceof Literal)
+		{
+			return SecuredLiteralImpl.getFlyweight(securedModel,
+					(Literal) rdfNode);
+		}
+		else
+		{
+			return SecuredResourceImpl.getFlyweight(securedModel,
+					(Resource) rdfNode);
+		}
+	}
+
 	// the item holder that contains this SecuredRDFNode
 	private final ItemHolder<? extends RDFNode, ? extends SecuredRDFNode> holder;
 
@@ -19,16 +19,19 @@ public class SecuredResIterator implements ResIterator
 	private class PermResourceMap implements Map1<Resource, Resource>
 	{
 		private final SecuredModel securedModel;
+		private final boolean flyweight;
 
 		public PermResourceMap( final SecuredModel securedModel )
 		{
 			this.securedModel = securedModel;
+			this.flyweight = securedModel.isFlyweightResults();
 		}
 
 		@Override
 		public SecuredResource map1( final Resource o )
 		{
-			return SecuredResourceImpl.getInstance(securedModel, o);
+			return flyweight ? SecuredResourceImpl.getFlyweight(securedModel, o)
+					: SecuredResourceImpl.getInstance(securedModel, o);
 		}
 	}
 
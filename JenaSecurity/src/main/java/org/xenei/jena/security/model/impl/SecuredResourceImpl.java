@@ -61,6 +61,28 @@ public class SecuredResourceImpl extends SecuredRDFNodeImpl implements
 	 */
 	public static SecuredResource getInstance( final SecuredModel securedModel,
 			final Resource resource )
+	{
+		return SecuredResourceImpl.getInstance(securedModel, resource, false);
+	}
+
+	/**
+	 * Get a SecuredResource that is not a proxy. Used for iterator results
+	 * where the cost of a proxy per item is not wanted.
+	 * 
+	 * @param securedModel
+	 *            the secured item that provides the security context.
+	 * @param resource
+	 *            The resource to secure.
+	 * @return the SecuredResource implementation.
+	 */
+	static SecuredResource getFlyweight( final SecuredModel securedModel,
+			final Resource resource )
+	{
+		return SecuredResourceImpl.getInstance(securedModel, resource, true);
+	}
+
+	private static SecuredResource getInstance( final SecuredModel securedModel,
+			final Resource resource, final boolean flyweight )
 	{
 		if (securedModel == null)
 		{
@@ -105,6 +127,10 @@ public class SecuredResourceImpl extends SecuredRDFNodeImpl implements
 			}
 		}
 
+		if (flyweight)
+		{
+			return holder.setSecuredItem(checker);
+		}
 		return holder.setSecuredItem(new SecuredItemInvoker(
 				resource.getClass(), checker));
 
@@ -17,6 +17,8 @@
  */
 package org.xenei.jena.security.model.impl;
 
+import com.hp.hpl.jena.graph.BulkUpdateHandler;
+import com.hp.hpl.jena.graph.Graph;
 import com.hp.hpl.jena.graph.Node;
 import com.hp.hpl.jena.graph.Triple;
 import com.hp.hpl.jena.rdf.model.Alt;
@@ -27,13 +29,20 @@ import com.hp.hpl.jena.rdf.model.Resource;
 import com.hp.hpl.jena.rdf.model.ResourceF;
 import com.hp.hpl.jena.rdf.model.ResourceFactory;
 import com.hp.hpl.jena.rdf.model.Seq;
+import com.hp.hpl.jena.rdf.model.SeqIndexBoundsException;
 import com.hp.hpl.jena.rdf.model.Statement;
+import com.hp.hpl.jena.shared.PropertyNotFoundException;
 import com.hp.hpl.jena.util.iterator.ExtendedIterator;
 import com.hp.hpl.jena.util.iterator.Filter;
 import com.hp.hpl.jena.vocabulary.RDF;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.xenei.jena.security.ItemHolder;
 import org.xenei.jena.security.SecuredItemInvoker;
+import org.xenei.jena.security.SecurityEvaluator;
+import org.xenei.jena.security.SecurityEvaluator.Action;
 import org.xenei.jena.security.model.SecuredAlt;
 import org.xenei.jena.security.model.SecuredBag;
 import org.xenei.jena.security.model.SecuredLiteral;
@@ -41,6 +50,7 @@ import org.xenei.jena.security.model.SecuredModel;
 import org.xenei.jena.security.model.SecuredRDFNode;
 import org.xenei.jena.security.model.SecuredResource;
 import org.xenei.jena.security.model.SecuredSeq;
+import org.xenei.jena.security.utils.ContainerIndex;
 
 /**
  * Implementation of SecuredSeq to be used by a SecuredItemInvoker proxy.
@@ -64,7 +74,7 @@ public class SecuredSeqImpl extends SecuredContainerImpl implements SecuredSeq
 		public boolean accept( final Statement o )
 		{
 			return (o.getPredicate().getOrdinal() != 0)
-					&& n.equals(o.getObject());
+					&& n.asNode().equals(o.getObject().asNode());
 		}
 
 	}
@@ -162,13 +172,34 @@ public class SecuredSeqImpl extends SecuredContainerImpl implements SecuredSeq
 		return add( index, asObject( o ));
 	}
 
+	// the deprecated BulkUpdateHandler delete(List) and add(List) shift the
+	// members as two updates, Graph has no replacement in this Jena version.
+	@SuppressWarnings( "deprecation" )
 	@Override
 	public SecuredSeq add( final int index, final RDFNode o )
 	{
 		checkUpdate();
-		final Literal l = holder.getBaseItem().getModel().createTypedLiteral(o);
-		checkCreate(index, l);
-		holder.getBaseItem().add(index, o);
+		final int size = seqSize();
+		if ((index < 1) || (index > (size + 1)))
+		{
+			throw new SeqIndexBoundsException(size + 1, index);
+		}
+		final Node seq = holder.getBaseItem().asNode();
+		// shift index..size up by one and insert o at index.
+		final List<Triple> from = getMembers(index, size);
+		final List<Triple> to = new ArrayList<Triple>(from.size() + 1);
+		to.add(new Triple(seq, RDF.li(index).asNode(), o.asNode()));
+		for (final Triple t : from)
+		{
+			to.add(new Triple(seq, RDF.li(getOrdinal(t) + 1).asNode(), t
+					.getObject()));
+		}
+		checkDeleteTriples(from);
+		checkCreateTriples(to);
+		final BulkUpdateHandler handler = holder.getBaseItem().getModel()
+				.getGraph().getBulkUpdateHandler();
+		handler.delete(from);
+		handler.add(to);
 		return holder.getSecuredItem();
 	}
 
@@ -184,16 +215,65 @@ public class SecuredSeqImpl extends SecuredContainerImpl implements SecuredSeq
 		return add( index, holder.getBaseItem().getModel().createLiteral(o, l));
 	}
 
-	private void checkCreate( final int index, final Literal l )
+	/**
+	 * Get the member triples for a range of ordinals.
+	 * 
+	 * @param from
+	 *            the first ordinal.
+	 * @param to
+	 *            the last ordinal (inclusive).
+	 * @return the triples in ordinal order.
+	 */
+	private List<Triple> getMembers( final int from, final int to )
 	{
-		checkCreate(new Triple(holder.getBaseItem().asNode(), RDF.li(index)
-				.asNode(), l.asNode()));
+		final Graph graph = holder.getBaseItem().getModel().getGraph();
+		final Node seq = holder.getBaseItem().asNode();
+		final List<Triple> retval = new ArrayList<Triple>(Math.max(0, (to
+				- from) + 1));
+		for (int i = from; i <= to; i++)
+		{
+			final ExtendedIterator<Triple> iter = graph.find(seq, RDF.li(i)
+					.asNode(), Node.ANY);
+			try
+			{
+				retval.addAll(iter.toList());
+			}
+			finally
+			{
+				iter.close();
+			}
+		}
+		return retval;
+	}
+
+	private int getOrdinal( final Triple t )
+	{
+		return getIndex(ResourceFactory.createProperty(t.getPredicate()
+				.getURI()));
 	}
 
 	private Statement containerIndexOf( final RDFNode n )
 	{
-		final ExtendedIterator<Statement> iter = listProperties().filterKeep(
-				new RDFNodeFilter(n));
+		final ContainerIndex idx = getContainerIndex();
+		if (idx != null)
+		{
+			// return the lowest readable ordinal, as the ordinal iterator does.
+			for (final int ordinal : idx.getOrdinals(n.asNode()))
+			{
+				if (canRead(new Triple(holder.getBaseItem().asNode(), RDF.li(
+						ordinal).asNode(), n.asNode())))
+				{
+					return holder.getBaseItem().getModel()
+							.createStatement(holder.getBaseItem(),
+									RDF.li(ordinal), n);
+				}
+			}
+			return null;
+		}
+		// the ordinal iterator returns the lowest readable ordinal first.
+		final ExtendedIterator<Statement> iter = getOrdinalIterator(
+				SecurityEvaluator.Util.asSet(new Action[] { Action.Read }))
+				.filterKeep(new RDFNodeFilter(n));
 		try
 		{
 			if (iter.hasNext())
@@ -444,20 +524,45 @@ public class SecuredSeqImpl extends SecuredContainerImpl implements SecuredSeq
 		return indexOf( asLiteral( o, l));
 	}
 
+	// as add(int, RDFNode) the shift uses the deprecated bulk list methods.
+	@SuppressWarnings( "deprecation" )
 	@Override
 	public SecuredSeq remove( final int index )
 	{
 		checkUpdate();
-		final RDFNode rdfNode = holder.getBaseItem().getObject(index);
-		if (rdfNode != null)
+		final int size = seqSize();
+		final List<Triple> from = getMembers(index, index);
+		if (from.isEmpty())
 		{
-			checkDelete(new Triple(holder.getBaseItem().asNode(), RDF.li(index)
-					.asNode(), rdfNode.asNode()));
-			holder.getBaseItem().remove(index);
+			throw new PropertyNotFoundException(RDF.li(index));
 		}
+		// remove index and shift index+1..size down by one.
+		final Node seq = holder.getBaseItem().asNode();
+		final List<Triple> to = new ArrayList<Triple>();
+		for (final Triple t : getMembers(index + 1, size))
+		{
+			from.add(t);
+			to.add(new Triple(seq, RDF.li(getOrdinal(t) - 1).asNode(), t
+					.getObject()));
+		}
+		checkDeleteTriples(from);
+		checkCreateTriples(to);
+		final BulkUpdateHandler handler = holder.getBaseItem().getModel()
+				.getGraph().getBulkUpdateHandler();
+		handler.delete(from);
+		handler.add(to);
 		return holder.getSecuredItem();
 	}
 
+	/**
+	 * @return the number of members, from the index if there is one.
+	 */
+	private int seqSize()
+	{
+		final ContainerIndex idx = getContainerIndex();
+		return idx == null ? holder.getBaseItem().size() : idx.size();
+	}
+
 	@Override
 	public SecuredSeq set( final int index, final boolean o )
 	{
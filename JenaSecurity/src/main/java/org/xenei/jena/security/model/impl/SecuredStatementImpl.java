@@ -59,6 +59,29 @@ public class SecuredStatementImpl extends SecuredItemImpl implements
 	 */
 	public static SecuredStatement getInstance(
 			final SecuredModel securedModel, final Statement stmt )
+	{
+		return SecuredStatementImpl.getInstance(securedModel, stmt, false);
+	}
+
+	/**
+	 * Get a SecuredStatement that is not a proxy. Used for iterator results
+	 * where the cost of a proxy per item is not wanted.
+	 * 
+	 * @param securedModel
+	 *            the secured item that provides the security context.
+	 * @param stmt
+	 *            The statement to secure.
+	 * @return the SecuredStatement implementation.
+	 */
+	static SecuredStatement getFlyweight( final SecuredModel securedModel,
+			final Statement stmt )
+	{
+		return SecuredStatementImpl.getInstance(securedModel, stmt, true);
+	}
+
+	private static SecuredStatement getInstance(
+			final SecuredModel securedModel, final Statement stmt,
+			final boolean flyweight )
 	{
 		if (securedModel == null)
 		{
@@ -84,6 +107,10 @@ public class SecuredStatementImpl extends SecuredItemImpl implements
 				return (SecuredStatement) stmt;
 			}
 		}
+		if (flyweight)
+		{
+			return holder.setSecuredItem(checker);
+		}
 		return holder.setSecuredItem(new SecuredItemInvoker(holder
 				.getBaseItem().getClass(), checker));
 	}
@@ -28,6 +28,7 @@ import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Set;
 
+import org.xenei.jena.security.SecurityEvaluator;
 import org.xenei.jena.security.SecurityEvaluator.Action;
 import org.xenei.jena.security.model.SecuredModel;
 import org.xenei.jena.security.model.SecuredStatement;
@@ -42,16 +43,19 @@ public class SecuredStatementIterator implements StmtIterator
 	private class PermStatementMap implements Map1<Statement, Statement>
 	{
 		private final SecuredModel securedModel;
+		private final boolean flyweight;
 
 		public PermStatementMap( final SecuredModel securedModel )
 		{
 			this.securedModel = securedModel;
+			this.flyweight = securedModel.isFlyweightResults();
 		}
 
 		@Override
 		public SecuredStatement map1( final Statement o )
 		{
-			return SecuredStatementImpl.getInstance(securedModel, o);
+			return flyweight ? SecuredStatementImpl.getFlyweight(securedModel,
+					o) : SecuredStatementImpl.getInstance(securedModel, o);
 		}
 	}
 
@@ -74,6 +78,26 @@ public class SecuredStatementIterator implements StmtIterator
 		iter = wrapped.filterKeep(filter).mapWith(map1);
 	}
 
+	/**
+	 * Constructor.
+	 * 
+	 * @param securedModel
+	 *            The item providing the security context.
+	 * @param wrapped
+	 *            The iterator to wrap.
+	 * @param evaluator
+	 *            The security evaluator to filter the statements with.
+	 */
+	public SecuredStatementIterator( final SecuredModel securedModel,
+			final ExtendedIterator<Statement> wrapped,
+			final SecurityEvaluator evaluator )
+	{
+		final PermStatementFilter filter = new PermStatementFilter(
+				new Action[] { Action.Read }, securedModel, evaluator);
+		final PermStatementMap map1 = new PermStatementMap(securedModel);
+		iter = wrapped.filterKeep(filter).mapWith(map1);
+	}
+
 	@Override
 	public <X extends Statement> ExtendedIterator<Statement> andThen(
 			final Iterator<X> other )
@@ -0,0 +1,344 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.jena.security.utils;
+
+import com.hp.hpl.jena.rdf.model.StmtIterator;
+import com.hp.hpl.jena.rdf.model.impl.StmtIteratorImpl;
+import com.hp.hpl.jena.util.iterator.WrappedIterator;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Delivers listener notifications on a worker thread rather than on the
+ * thread that changed the graph.
+ * <p>
+ * Each wrapped listener has its own bounded queue and a single worker thread
+ * so notifications reach each listener in the order they were published. The
+ * worker performs the whole notification, including any permission
+ * filtering done by the wrapped listener. Iterator, list and array
+ * arguments are copied before they are queued as the caller may consume or
+ * reuse them once the notifying method returns; graph and model arguments
+ * are delivered by reference.
+ * </p>
+ * <p>
+ * When a queue is full the back pressure policy decides what happens to the
+ * new notification. Discarded notifications are logged as warnings.
+ * </p>
+ */
+public class AsyncDelivery
+{
+	/**
+	 * What to do when a listener queue is full.
+	 */
+	public static enum BackPressure
+	{
+		/**
+		 * The notifying thread waits for space in the queue. No
+		 * notifications are lost.
+		 */
+		BLOCK,
+		/**
+		 * The new notification is dropped.
+		 */
+		DISCARD,
+		/**
+		 * The oldest queued notification is dropped to make room.
+		 */
+		DISCARD_OLDEST
+	}
+
+	/**
+	 * The invocation handler that queues notifications for one listener.
+	 */
+	private static class Handler implements InvocationHandler
+	{
+		private final Object listener;
+		private final ThreadPoolExecutor executor;
+
+		Handler( final Object listener, final ThreadPoolExecutor executor )
+		{
+			this.listener = listener;
+			this.executor = executor;
+		}
+
+		@Override
+		public Object invoke( final Object proxy, final Method method,
+				final Object[] args ) throws Throwable
+		{
+			if (method.getDeclaringClass().equals(Object.class))
+			{
+				if ("equals".equals(method.getName()))
+				{
+					return proxy == args[0];
+				}
+				if ("hashCode".equals(method.getName()))
+				{
+					return System.identityHashCode(proxy);
+				}
+				return method.invoke(listener, args);
+			}
+			final Object[] copy = args == null ? null : args.clone();
+			if (copy != null)
+			{
+				for (int i = 0; i < copy.length; i++)
+				{
+					copy[i] = snapshot(copy[i]);
+				}
+			}
+			try
+			{
+				executor.execute(new Runnable() {
+					@Override
+					public void run()
+					{
+						try
+						{
+							method.invoke(listener, copy);
+						}
+						catch (final InvocationTargetException e)
+						{
+							AsyncDelivery.LOG.error(String.format(
+									"Error delivering %s to %s",
+									method.getName(), listener), e.getCause());
+						}
+						catch (final IllegalAccessException e)
+						{
+							AsyncDelivery.LOG.error(String.format(
+									"Error delivering %s to %s",
+									method.getName(), listener), e);
+						}
+					}
+				});
+			}
+			catch (final RejectedExecutionException e)
+			{
+				// the listener has been unregistered.
+			}
+			return null;
+		}
+
+		private Object snapshot( final Object arg )
+		{
+			if (arg instanceof StmtIterator)
+			{
+				return new StmtIteratorImpl(((StmtIterator) arg).toList()
+						.iterator());
+			}
+			if (arg instanceof Iterator)
+			{
+				return WrappedIterator.create((Iterator<?>) arg).toList()
+						.iterator();
+			}
+			if (arg instanceof List)
+			{
+				return new ArrayList<Object>((List<?>) arg);
+			}
+			if (arg instanceof Object[])
+			{
+				return ((Object[]) arg).clone();
+			}
+			return arg;
+		}
+	}
+
+	/**
+	 * Rejection handler that waits for space in the queue.
+	 */
+	private static class BlockPolicy implements RejectedExecutionHandler
+	{
+		@Override
+		public void rejectedExecution( final Runnable r,
+				final ThreadPoolExecutor executor )
+		{
+			if (executor.isShutdown())
+			{
+				throw new RejectedExecutionException("Listener shut down");
+			}
+			try
+			{
+				executor.getQueue().put(r);
+			}
+			catch (final InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new RejectedExecutionException(e);
+			}
+		}
+	}
+
+	/**
+	 * Rejection handler that logs the notification that is dropped.
+	 */
+	private static class DiscardLogPolicy implements RejectedExecutionHandler
+	{
+		private final RejectedExecutionHandler policy;
+		private final String message;
+
+		DiscardLogPolicy( final RejectedExecutionHandler policy,
+				final String message )
+		{
+			this.policy = policy;
+			this.message = message;
+		}
+
+		@Override
+		public void rejectedExecution( final Runnable r,
+				final ThreadPoolExecutor executor )
+		{
+			if (!executor.isShutdown())
+			{
+				AsyncDelivery.LOG.warn(message);
+			}
+			policy.rejectedExecution(r, executor);
+		}
+	}
+
+	private static Logger LOG = LoggerFactory.getLogger(AsyncDelivery.class);
+
+	private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+	/**
+	 * Stop the worker for a listener returned by <code>wrap()</code>.
+	 * Notifications already queued are still delivered. Does nothing if the
+	 * listener was not returned by <code>wrap()</code>.
+	 * 
+	 * @param listener
+	 *            The wrapped listener.
+	 */
+	public static void shutdown( final Object listener )
+	{
+		if ((listener != null) && Proxy.isProxyClass(listener.getClass()))
+		{
+			final InvocationHandler handler = Proxy
+					.getInvocationHandler(listener);
+			if (handler instanceof Handler)
+			{
+				((Handler) handler).executor.shutdown();
+			}
+		}
+	}
+
+	private final int capacity;
+
+	private final BackPressure backPressure;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param capacity
+	 *            The number of notifications that may be queued for each
+	 *            listener.
+	 * @param backPressure
+	 *            What to do when a listener queue is full.
+	 */
+	public AsyncDelivery( final int capacity, final BackPressure backPressure )
+	{
+		if (capacity < 1)
+		{
+			throw new IllegalArgumentException("Capacity must be at least 1");
+		}
+		if (backPressure == null)
+		{
+			throw new IllegalArgumentException("BackPressure may not be null");
+		}
+		this.capacity = capacity;
+		this.backPressure = backPressure;
+	}
+
+	/**
+	 * @return the back pressure policy.
+	 */
+	public BackPressure getBackPressure()
+	{
+		return backPressure;
+	}
+
+	/**
+	 * @return The number of notifications that may be queued for each
+	 *         listener.
+	 */
+	public int getCapacity()
+	{
+		return capacity;
+	}
+
+	/**
+	 * Wrap a listener so that its notifications are delivered by its own
+	 * worker thread. Call <code>shutdown()</code> with the result when the
+	 * listener is no longer needed.
+	 * 
+	 * @param type
+	 *            The listener interface.
+	 * @param listener
+	 *            The listener to wrap.
+	 * @return The wrapped listener.
+	 */
+	public <T> T wrap( final Class<T> type, final T listener )
+	{
+		RejectedExecutionHandler policy;
+		switch (backPressure)
+		{
+			case DISCARD:
+				policy = new DiscardLogPolicy(
+						new ThreadPoolExecutor.DiscardPolicy(), String.format(
+								"Queue full, discarding new notification for %s",
+								listener));
+				break;
+			case DISCARD_OLDEST:
+				policy = new DiscardLogPolicy(
+						new ThreadPoolExecutor.DiscardOldestPolicy(),
+						String.format(
+								"Queue full, discarding oldest notification for %s",
+								listener));
+				break;
+			default:
+				policy = new BlockPolicy();
+				break;
+		}
+		final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0L,
+				TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(
+						capacity), new ThreadFactory() {
+					@Override
+					public Thread newThread( final Runnable r )
+					{
+						final Thread t = new Thread(r, "SecuredListener-"
+								+ AsyncDelivery.THREAD_COUNT.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				}, policy);
+		return type.cast(Proxy.newProxyInstance(type.getClassLoader(),
+				new Class<?>[] { type }, new Handler(listener, executor)));
+	}
+}
@@ -24,10 +24,15 @@ import com.hp.hpl.jena.graph.impl.GraphBase;
 import com.hp.hpl.jena.shared.ReificationStyle;
 import com.hp.hpl.jena.util.iterator.ExtendedIterator;
 import com.hp.hpl.jena.util.iterator.Filter;
+import com.hp.hpl.jena.util.iterator.NiceIterator;
 import com.hp.hpl.jena.util.iterator.WrappedIterator;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 
 /**
  * A simple graph implementaiton that wraps a colleciton of triples.
@@ -37,6 +42,14 @@ import java.util.HashSet;
  * but many are not efficient and will be slow on large collections. In these
  * cases
  * a memory based graph may be more efficient.
+ * <p>
+ * If indexing is enabled, the first contains or find with a concrete subject,
+ * predicate or object builds an index of the triples by subject, predicate
+ * and object which is used by later calls. Once the index is built the collection must
+ * only be modified through the graph, and the iterators returned by find do
+ * not support remove. Without indexing the graph reads the collection on
+ * every find. Size is the size of the collection.
+ * </p>
  */
 public class CollectionGraph extends GraphBase
 {
@@ -83,6 +96,12 @@ public class CollectionGraph extends GraphBase
 
 	// the collection
 	Collection<Triple> triples;
+	// true if finds may build and use the index
+	private final boolean indexing;
+	// the indexes, null until built.
+	private Map<Node, List<Triple>> bySubject;
+	private Map<Node, List<Triple>> byPredicate;
+	private Map<Node, List<Triple>> byObject;
 
 	/**
 	 * Construct an empty graph.
@@ -93,15 +112,31 @@ public class CollectionGraph extends GraphBase
 	}
 
 	/**
-	 * Construct a graph from a collection.
+	 * Construct a graph from a collection without indexing.
 	 * 
 	 * @param triples
 	 *            The collection of triples.
 	 */
 	public CollectionGraph( final Collection<Triple> triples )
+	{
+		this(triples, false);
+	}
+
+	/**
+	 * Construct a graph from a collection.
+	 * 
+	 * @param triples
+	 *            The collection of triples.
+	 * @param indexing
+	 *            if true finds with a concrete node use an index, if false
+	 *            finds always scan the collection.
+	 */
+	public CollectionGraph( final Collection<Triple> triples,
+			final boolean indexing )
 	{
 		super();
 		this.triples = triples;
+		this.indexing = indexing;
 	}
 
 	/**
@@ -118,24 +153,154 @@ public class CollectionGraph extends GraphBase
 	{
 		super(style);
 		this.triples = triples;
+		this.indexing = false;
+	}
+
+	private static void add( final Map<Node, List<Triple>> index,
+			final Node key, final Triple t )
+	{
+		List<Triple> lst = index.get(key);
+		if (lst == null)
+		{
+			lst = new ArrayList<Triple>(1);
+			index.put(key, lst);
+		}
+		lst.add(t);
+	}
+
+	private static void remove( final Map<Node, List<Triple>> index,
+			final Node key, final Triple t )
+	{
+		final List<Triple> lst = index.get(key);
+		if ((lst != null) && lst.remove(t) && lst.isEmpty())
+		{
+			index.remove(key);
+		}
+	}
+
+	private static boolean isConcrete( final Node n )
+	{
+		return (n != null) && n.isConcrete();
+	}
+
+	@Override
+	protected boolean graphBaseContains( final Triple t )
+	{
+		if (!t.isConcrete())
+		{
+			return containsByFind(t);
+		}
+		if (!indexing)
+		{
+			return triples.contains(t);
+		}
+		synchronized (this)
+		{
+			if (bySubject == null)
+			{
+				index();
+			}
+			final List<Triple> lst = bySubject.get(t.getSubject());
+			return (lst != null) && lst.contains(t);
+		}
 	}
 
 	@Override
 	protected ExtendedIterator<Triple> graphBaseFind( final TripleMatch m )
 	{
+		final Node s = m.getMatchSubject();
+		final Node p = m.getMatchPredicate();
+		final Node o = m.getMatchObject();
+		if (indexing
+				&& (CollectionGraph.isConcrete(s)
+						|| CollectionGraph.isConcrete(p) || CollectionGraph
+							.isConcrete(o)))
+		{
+			final List<Triple> lst;
+			synchronized (this)
+			{
+				if (bySubject == null)
+				{
+					index();
+				}
+				// the subject and object are usually more selective.
+				if (CollectionGraph.isConcrete(s))
+				{
+					lst = bySubject.get(s);
+				}
+				else if (CollectionGraph.isConcrete(o))
+				{
+					lst = byObject.get(o);
+				}
+				else
+				{
+					lst = byPredicate.get(p);
+				}
+			}
+			if (lst == null)
+			{
+				return NiceIterator.emptyIterator();
+			}
+			// copy so that changes to the graph do not break the iterator.
+			return WrappedIterator.createNoRemove(
+					new ArrayList<Triple>(lst).iterator()).filterKeep(
+					new MatchFilter(m));
+		}
+		if (indexing)
+		{
+			// removing through the iterator would not update the index.
+			return WrappedIterator.createNoRemove(triples.iterator())
+					.filterKeep(new MatchFilter(m));
+		}
 		return WrappedIterator.create(triples.iterator()).filterKeep(
 				new MatchFilter(m));
 	}
 
 	@Override
-	public void performAdd( final Triple t )
+	protected int graphBaseSize()
+	{
+		return triples.size();
+	}
+
+	/**
+	 * Build the indexes. Must be called while holding the lock on this.
+	 */
+	private void index()
+	{
+		final Map<Node, List<Triple>> subj = new HashMap<Node, List<Triple>>();
+		final Map<Node, List<Triple>> pred = new HashMap<Node, List<Triple>>();
+		final Map<Node, List<Triple>> obj = new HashMap<Node, List<Triple>>();
+		for (final Triple t : triples)
+		{
+			CollectionGraph.add(subj, t.getSubject(), t);
+			CollectionGraph.add(pred, t.getPredicate(), t);
+			CollectionGraph.add(obj, t.getObject(), t);
+		}
+		bySubject = subj;
+		byPredicate = pred;
+		byObject = obj;
+	}
+
+	@Override
+	public synchronized void performAdd( final Triple t )
 	{
 		triples.add(t);
+		if (bySubject != null)
+		{
+			CollectionGraph.add(bySubject, t.getSubject(), t);
+			CollectionGraph.add(byPredicate, t.getPredicate(), t);
+			CollectionGraph.add(byObject, t.getObject(), t);
+		}
 	}
 
 	@Override
-	public void performDelete( final Triple t )
+	public synchronized void performDelete( final Triple t )
 	{
-		triples.remove(t);
+		if (triples.remove(t) && (bySubject != null))
+		{
+			CollectionGraph.remove(bySubject, t.getSubject(), t);
+			CollectionGraph.remove(byPredicate, t.getPredicate(), t);
+			CollectionGraph.remove(byObject, t.getObject(), t);
+		}
 	}
 }
@@ -0,0 +1,246 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.jena.security.utils;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.rdf.listeners.StatementListener;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.rdf.model.Statement;
+import com.hp.hpl.jena.rdf.model.StmtIterator;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An index of the ordinal (<code>rdf:_n</code>) members of a container.
+ * <p>
+ * The index records the number of members, the highest ordinal and, for
+ * each value, the ordinals it is held at as a sorted int array. It registers
+ * itself with the model that holds the container and is kept up to date as
+ * member statements are added and removed, so that adding a member or
+ * looking up a value does not scan the properties of the container. A bulk
+ * event from the model causes the index to be rebuilt on the next access.
+ * </p>
+ * <p>
+ * The index holds the base statements only, security checks are the
+ * responsibility of the caller. <code>close()</code> must be called when the
+ * index is no longer needed.
+ * </p>
+ */
+public class ContainerIndex extends StatementListener
+{
+	private static final int[] EMPTY = new int[0];
+
+	private final Resource container;
+	private final Model model;
+	// the ascending ordinals of each value, null if the index must be built.
+	private Map<Node, int[]> ordinals;
+	private int size;
+	private int max;
+	// false if the max member was removed.
+	private boolean maxValid;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param container
+	 *            The base (unsecured) container.
+	 */
+	public ContainerIndex( final Resource container )
+	{
+		this.container = container;
+		this.model = container.getModel();
+		model.register(this);
+	}
+
+	@Override
+	public void addedStatement( final Statement s )
+	{
+		final int ordinal = getOrdinal(s);
+		if (ordinal > 0)
+		{
+			added(s.getObject().asNode(), ordinal);
+		}
+	}
+
+	private synchronized void added( final Node value, final int ordinal )
+	{
+		if (ordinals == null)
+		{
+			return;
+		}
+		final int[] pos = ordinals.get(value);
+		if (pos == null)
+		{
+			ordinals.put(value, new int[] { ordinal });
+		}
+		else
+		{
+			final int idx = Arrays.binarySearch(pos, ordinal);
+			if (idx >= 0)
+			{
+				// the statement was already in the model.
+				return;
+			}
+			final int insert = -(idx + 1);
+			final int[] newPos = new int[pos.length + 1];
+			System.arraycopy(pos, 0, newPos, 0, insert);
+			newPos[insert] = ordinal;
+			System.arraycopy(pos, insert, newPos, insert + 1, pos.length
+					- insert);
+			ordinals.put(value, newPos);
+		}
+		size++;
+		max = Math.max(max, ordinal);
+	}
+
+	private void build()
+	{
+		if (ordinals != null)
+		{
+			return;
+		}
+		ordinals = new HashMap<Node, int[]>();
+		size = 0;
+		max = 0;
+		maxValid = true;
+		final StmtIterator iter = container.listProperties();
+		try
+		{
+			while (iter.hasNext())
+			{
+				final Statement s = iter.next();
+				final int ordinal = getOrdinal(s);
+				if (ordinal > 0)
+				{
+					added(s.getObject().asNode(), ordinal);
+				}
+			}
+		}
+		finally
+		{
+			iter.close();
+		}
+	}
+
+	/**
+	 * Stop listening to the model and discard the index.
+	 */
+	public synchronized void close()
+	{
+		model.unregister(this);
+		ordinals = null;
+	}
+
+	/**
+	 * @return the highest ordinal, 0 if the container is empty.
+	 */
+	public synchronized int getMaxOrdinal()
+	{
+		build();
+		if (!maxValid)
+		{
+			max = 0;
+			for (final int[] pos : ordinals.values())
+			{
+				max = Math.max(max, pos[pos.length - 1]);
+			}
+			maxValid = true;
+		}
+		return max;
+	}
+
+	private int getOrdinal( final Statement s )
+	{
+		return s.getSubject().equals(container) ? s.getPredicate()
+				.getOrdinal() : 0;
+	}
+
+	/**
+	 * Get the ordinals a value is held at.
+	 *
+	 * @param value
+	 *            The value to find.
+	 * @return the ordinals in ascending order, empty if not a member.
+	 */
+	public synchronized int[] getOrdinals( final Node value )
+	{
+		build();
+		final int[] pos = ordinals.get(value);
+		return pos == null ? ContainerIndex.EMPTY : pos.clone();
+	}
+
+	@Override
+	public synchronized void notifyEvent( final Model m, final Object event )
+	{
+		// bulk operations such as removeAll() are reported as events.
+		ordinals = null;
+	}
+
+	private synchronized void removed( final Node value, final int ordinal )
+	{
+		if (ordinals == null)
+		{
+			return;
+		}
+		final int[] pos = ordinals.get(value);
+		final int idx = pos == null ? -1 : Arrays.binarySearch(pos, ordinal);
+		if (idx < 0)
+		{
+			// the statement was not in the model.
+			return;
+		}
+		if (pos.length == 1)
+		{
+			ordinals.remove(value);
+		}
+		else
+		{
+			final int[] newPos = new int[pos.length - 1];
+			System.arraycopy(pos, 0, newPos, 0, idx);
+			System.arraycopy(pos, idx + 1, newPos, idx, pos.length - idx - 1);
+			ordinals.put(value, newPos);
+		}
+		size--;
+		if (ordinal == max)
+		{
+			maxValid = false;
+		}
+	}
+
+	@Override
+	public void removedStatement( final Statement s )
+	{
+		final int ordinal = getOrdinal(s);
+		if (ordinal > 0)
+		{
+			removed(s.getObject().asNode(), ordinal);
+		}
+	}
+
+	/**
+	 * @return the number of ordinal members.
+	 */
+	public synchronized int size()
+	{
+		build();
+		return size;
+	}
+}
@@ -0,0 +1,232 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.jena.security.utils;
+
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.rdf.model.Statement;
+import com.hp.hpl.jena.rdf.model.StmtIterator;
+import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+import com.hp.hpl.jena.util.iterator.NiceIterator;
+import com.hp.hpl.jena.vocabulary.RDF;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.xenei.jena.security.SecuredItem;
+import org.xenei.jena.security.SecurityEvaluator.Action;
+
+/**
+ * Iterates over the ordinal (<code>rdf:_n</code>) member statements of a
+ * container in ordinal order, returning only the statements the user has the
+ * permissions for.
+ * <p>
+ * The members are read ahead in blocks of ordinals with one find on the graph
+ * per ordinal, and the triples of a block are evaluated together with a
+ * PermTripleBatch so that the ANY checks can accept the whole block at once.
+ * Nothing beyond the current block is read or evaluated, so a caller that
+ * stops after the first few members does not pay for the rest of the
+ * container.
+ * </p>
+ * <p>
+ * The highest ordinal is only needed when a block contains no members at all,
+ * which for a container without gaps is the end of the container. It is then
+ * taken from the ContainerIndex if one is provided, otherwise from a single
+ * scan of the properties of the container.
+ * </p>
+ */
+public class ContainerOrdinalIterator extends NiceIterator<Statement>
+{
+	/**
+	 * The default number of ordinals to read ahead.
+	 */
+	public static final int DEFAULT_BLOCK_SIZE = 64;
+
+	private final Resource container;
+	private final Model model;
+	private final Graph graph;
+	private final SecuredItem securedItem;
+	private final Set<Action> perms;
+	private final int blockSize;
+	private final ContainerIndex index;
+	// the accepted statements of the current block.
+	private final LinkedList<Statement> accepted = new LinkedList<Statement>();
+	// the next ordinal to read.
+	private int ordinal = 1;
+	// the highest ordinal, -1 if not yet known.
+	private int max = -1;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param container
+	 *            The base (unsecured) container.
+	 * @param securedItem
+	 *            The secured item that provides the security context.
+	 * @param perms
+	 *            The permissions the user must have on the member triple.
+	 * @param index
+	 *            The index of the container, may be null.
+	 */
+	public ContainerOrdinalIterator( final Resource container,
+			final SecuredItem securedItem, final Set<Action> perms,
+			final ContainerIndex index )
+	{
+		this(container, securedItem, perms, index,
+				ContainerOrdinalIterator.DEFAULT_BLOCK_SIZE);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param container
+	 *            The base (unsecured) container.
+	 * @param securedItem
+	 *            The secured item that provides the security context.
+	 * @param perms
+	 *            The permissions the user must have on the member triple.
+	 * @param index
+	 *            The index of the container, may be null.
+	 * @param blockSize
+	 *            The number of ordinals to read ahead.
+	 */
+	public ContainerOrdinalIterator( final Resource container,
+			final SecuredItem securedItem, final Set<Action> perms,
+			final ContainerIndex index, final int blockSize )
+	{
+		if (blockSize < 1)
+		{
+			throw new IllegalArgumentException(
+					"Block size must be at least 1");
+		}
+		this.container = container;
+		this.model = container.getModel();
+		this.graph = model.getGraph();
+		this.securedItem = securedItem;
+		this.perms = new HashSet<Action>(perms);
+		this.index = index;
+		this.blockSize = blockSize;
+	}
+
+	private int getMaxOrdinal()
+	{
+		if (max < 0)
+		{
+			if (index != null)
+			{
+				max = index.getMaxOrdinal();
+			}
+			else
+			{
+				max = 0;
+				final StmtIterator iter = container.listProperties();
+				try
+				{
+					while (iter.hasNext())
+					{
+						max = Math.max(max, iter.next().getPredicate()
+								.getOrdinal());
+					}
+				}
+				finally
+				{
+					iter.close();
+				}
+			}
+		}
+		return max;
+	}
+
+	@Override
+	public boolean hasNext()
+	{
+		while (accepted.isEmpty() && (ordinal > 0))
+		{
+			readBlock();
+		}
+		return !accepted.isEmpty();
+	}
+
+	@Override
+	public Statement next()
+	{
+		if (hasNext())
+		{
+			return accepted.removeFirst();
+		}
+		throw new NoSuchElementException();
+	}
+
+	/**
+	 * Read the next block of ordinals and keep the members with the
+	 * permissions. Sets ordinal to 0 when there are no more members.
+	 */
+	private void readBlock()
+	{
+		final Node s = container.asNode();
+		final List<Triple> members = new ArrayList<Triple>(blockSize);
+		final int end = ordinal + blockSize;
+		for (; ordinal < end; ordinal++)
+		{
+			final ExtendedIterator<Triple> iter = graph.find(s,
+					RDF.li(ordinal).asNode(), Node.ANY);
+			try
+			{
+				while (iter.hasNext())
+				{
+					members.add(iter.next());
+				}
+			}
+			finally
+			{
+				iter.close();
+			}
+		}
+		if (members.isEmpty())
+		{
+			// a gap or the end of the container.
+			if (ordinal > getMaxOrdinal())
+			{
+				ordinal = 0;
+			}
+			return;
+		}
+
+		// every permission must be granted so filter by each in turn.
+		List<Triple> allowed = members;
+		for (final Action action : perms)
+		{
+			if (allowed.isEmpty())
+			{
+				break;
+			}
+			allowed = new PermTripleBatch(action, securedItem).filter(allowed);
+		}
+		for (final Triple t : allowed)
+		{
+			accepted.add(model.asStatement(t));
+		}
+	}
+}
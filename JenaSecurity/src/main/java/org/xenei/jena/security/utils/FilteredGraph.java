@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.jena.security.utils;
+
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.graph.TripleMatch;
+import com.hp.hpl.jena.graph.impl.GraphBase;
+import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+import com.hp.hpl.jena.util.iterator.Filter;
+
+/**
+ * A read only graph that presents the triples of another graph that are
+ * accepted by a filter.
+ * 
+ * No triples are copied, the filter is applied to the triples of the wrapped
+ * graph as they are found. Size is computed by iterating over the accepted
+ * triples so it should be avoided on large graphs.
+ */
+public class FilteredGraph extends GraphBase
+{
+	// the graph we are filtering
+	private final Graph graph;
+	// the filter that accepts the visible triples
+	private final Filter<Triple> filter;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param graph
+	 *            The graph to filter.
+	 * @param filter
+	 *            The filter that accepts the triples to present.
+	 */
+	public FilteredGraph( final Graph graph, final Filter<Triple> filter )
+	{
+		super();
+		if (graph == null)
+		{
+			throw new IllegalArgumentException("Graph may not be null");
+		}
+		if (filter == null)
+		{
+			throw new IllegalArgumentException("Filter may not be null");
+		}
+		this.graph = graph;
+		this.filter = filter;
+	}
+
+	@Override
+	protected boolean graphBaseContains( final Triple t )
+	{
+		if (t.isConcrete())
+		{
+			return graph.contains(t) && filter.accept(t);
+		}
+		return containsByFind(t);
+	}
+
+	@Override
+	protected ExtendedIterator<Triple> graphBaseFind( final TripleMatch m )
+	{
+		return graph.find(m).filterKeep(filter);
+	}
+
+	@Override
+	public boolean isEmpty()
+	{
+		final ExtendedIterator<Triple> iter = find(Triple.ANY);
+		try
+		{
+			return !iter.hasNext();
+		}
+		finally
+		{
+			iter.close();
+		}
+	}
+}
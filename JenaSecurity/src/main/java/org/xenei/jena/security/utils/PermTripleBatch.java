@@ -0,0 +1,241 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.jena.security.utils;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.xenei.jena.security.SecuredItem;
+import org.xenei.jena.security.SecuredItemImpl;
+import org.xenei.jena.security.SecurityEvaluator;
+import org.xenei.jena.security.SecurityEvaluator.Action;
+import org.xenei.jena.security.SecurityEvaluator.SecNode;
+import org.xenei.jena.security.SecurityEvaluator.SecTriple;
+
+/**
+ * Evaluates the permissions for a collection of triples with as few calls to
+ * the security evaluator as the SecurityEvaluator ANY semantics allow.
+ * <p>
+ * The triples are checked against (ANY, ANY, ANY) first, then triples that
+ * share a predicate are checked against (ANY, P, ANY), then triples that share
+ * a subject and predicate are checked against (S, P, ANY). Only the triples
+ * that are not covered by one of those checks are evaluated one at a time,
+ * and each distinct triple is evaluated at most once.
+ * </p>
+ * <p>
+ * A triple is accepted if the user may perform any of the actions, as with
+ * the PermTripleFilter.
+ * </p>
+ */
+public class PermTripleBatch
+{
+	private final SecurityEvaluator evaluator;
+	private final SecNode modelNode;
+	private final Set<Action> actions;
+
+	/**
+	 * Creates a batch that evaluates the action for the secured item.
+	 *
+	 * @param action
+	 *            The action the user must be permitted to perform.
+	 * @param securedItem
+	 *            The secured item that provides the security context.
+	 */
+	public PermTripleBatch( final Action action, final SecuredItem securedItem )
+	{
+		this(SecurityEvaluator.Util.asSet(new Action[] { action }),
+				securedItem, securedItem.getSecurityEvaluator());
+	}
+
+	/**
+	 * Creates a batch that evaluates the action for the secured item.
+	 *
+	 * @param action
+	 *            The action the user must be permitted to perform.
+	 * @param securedItem
+	 *            The secured item that provides the security context.
+	 * @param evaluator
+	 *            The security evaluator to evaluate the security queries.
+	 */
+	public PermTripleBatch( final Action action,
+			final SecuredItem securedItem, final SecurityEvaluator evaluator )
+	{
+		this(SecurityEvaluator.Util.asSet(new Action[] { action }),
+				securedItem, evaluator);
+	}
+
+	/**
+	 * Creates a batch that evaluates the actions for the secured item.
+	 *
+	 * @param actions
+	 *            The actions the user must be permitted to perform.
+	 * @param securedItem
+	 *            The secured item that provides the security context.
+	 */
+	public PermTripleBatch( final Collection<Action> actions,
+			final SecuredItem securedItem )
+	{
+		this(actions, securedItem, securedItem.getSecurityEvaluator());
+	}
+
+	/**
+	 * Creates a batch that evaluates the actions for the secured item.
+	 *
+	 * @param actions
+	 *            The actions the user must be permitted to perform.
+	 * @param securedItem
+	 *            The secured item that provides the security context.
+	 * @param evaluator
+	 *            The security evaluator to evaluate the security queries.
+	 */
+	public PermTripleBatch( final Collection<Action> actions,
+			final SecuredItem securedItem, final SecurityEvaluator evaluator )
+	{
+		this.modelNode = securedItem.getModelNode();
+		this.actions = SecurityEvaluator.Util.asSet(actions);
+		this.evaluator = evaluator;
+	}
+
+	private boolean accept( final SecTriple t )
+	{
+		return evaluator.evaluateAny(actions, modelNode, t);
+	}
+
+	/**
+	 * Evaluate the triples.
+	 *
+	 * @param triples
+	 *            The triples to evaluate.
+	 * @param firstOnly
+	 *            if true stop at the first denied triple.
+	 * @return The set of denied triples.
+	 */
+	private Set<Triple> denied( final Collection<Triple> triples,
+			final boolean firstOnly )
+	{
+		final Set<Triple> distinct = new LinkedHashSet<Triple>(triples);
+		if (distinct.isEmpty()
+				|| ((distinct.size() > 1) && accept(SecTriple.ANY)))
+		{
+			return Collections.emptySet();
+		}
+		final Set<Triple> retval = new HashSet<Triple>();
+		for (final List<Triple> byPredicate : group(distinct, false).values())
+		{
+			if ((byPredicate.size() > 1)
+					&& accept(new SecTriple(SecNode.ANY,
+							SecuredItemImpl.convert(byPredicate.get(0)
+									.getPredicate()), SecNode.ANY)))
+			{
+				continue;
+			}
+			for (final List<Triple> bySubject : group(byPredicate, true)
+					.values())
+			{
+				if ((bySubject.size() > 1)
+						&& accept(new SecTriple(
+								SecuredItemImpl.convert(bySubject.get(0)
+										.getSubject()),
+								SecuredItemImpl.convert(bySubject.get(0)
+										.getPredicate()), SecNode.ANY)))
+				{
+					continue;
+				}
+				for (final Triple t : bySubject)
+				{
+					if (!accept(SecuredItemImpl.convert(t)))
+					{
+						retval.add(t);
+						if (firstOnly)
+						{
+							return retval;
+						}
+					}
+				}
+			}
+		}
+		return retval;
+	}
+
+	/**
+	 * Filter the triples.
+	 *
+	 * @param triples
+	 *            The triples to filter.
+	 * @return The triples the user may perform the actions on, in the order
+	 *         they were provided.
+	 */
+	public List<Triple> filter( final Collection<Triple> triples )
+	{
+		final Set<Triple> denied = denied(triples, false);
+		if (denied.isEmpty())
+		{
+			return new ArrayList<Triple>(triples);
+		}
+		final List<Triple> retval = new ArrayList<Triple>(triples.size());
+		for (final Triple t : triples)
+		{
+			if (!denied.contains(t))
+			{
+				retval.add(t);
+			}
+		}
+		return retval;
+	}
+
+	/**
+	 * Find a triple that the user may not perform the actions on.
+	 *
+	 * @param triples
+	 *            The triples to check.
+	 * @return A denied triple or null if all the triples are accepted.
+	 */
+	public Triple findDenied( final Collection<Triple> triples )
+	{
+		final Set<Triple> denied = denied(triples, true);
+		return denied.isEmpty() ? null : denied.iterator().next();
+	}
+
+	private Map<Node, List<Triple>> group( final Collection<Triple> triples,
+			final boolean bySubject )
+	{
+		final Map<Node, List<Triple>> retval = new LinkedHashMap<Node, List<Triple>>();
+		for (final Triple t : triples)
+		{
+			final Node key = bySubject ? t.getSubject() : t.getPredicate();
+			List<Triple> lst = retval.get(key);
+			if (lst == null)
+			{
+				lst = new ArrayList<Triple>();
+				retval.put(key, lst);
+			}
+			lst.add(t);
+		}
+		return retval;
+	}
+}
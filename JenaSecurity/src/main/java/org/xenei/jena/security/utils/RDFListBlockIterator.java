@@ -0,0 +1,200 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.jena.security.utils;
+
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.RDFList;
+import com.hp.hpl.jena.rdf.model.Statement;
+import com.hp.hpl.jena.shared.PropertyNotFoundException;
+import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+import com.hp.hpl.jena.util.iterator.NiceIterator;
+import com.hp.hpl.jena.vocabulary.RDF;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.xenei.jena.security.SecuredItem;
+import org.xenei.jena.security.SecurityEvaluator.Action;
+
+/**
+ * Iterates over the <code>rdf:first</code> statements of the cells of an RDF
+ * list that the user has the permissions for.
+ * <p>
+ * Cells are read ahead in blocks. The <code>rdf:first</code> and
+ * <code>rdf:rest</code> triples of a cell are resolved with a single find on
+ * the graph, and the <code>rdf:first</code> triples of a block are evaluated
+ * together with a PermTripleBatch so that the ANY checks can accept the whole
+ * block at once. A cell is returned only if the user has all of the
+ * permissions, as with the RDFListSecFilter.
+ * </p>
+ * <p>
+ * The subject of each statement is the list cell and the object is the value.
+ * </p>
+ */
+public class RDFListBlockIterator extends NiceIterator<Statement>
+{
+	/**
+	 * The default number of cells to read ahead.
+	 */
+	public static final int DEFAULT_BLOCK_SIZE = 64;
+
+	private final Model model;
+	private final Graph graph;
+	private final SecuredItem securedItem;
+	private final Set<Action> perms;
+	private final int blockSize;
+	// the accepted statements of the current block.
+	private final LinkedList<Statement> accepted = new LinkedList<Statement>();
+	// the next cell to read, rdf:nil at the end of the list.
+	private Node current;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param head
+	 *            The first cell of the base (unsecured) list.
+	 * @param securedItem
+	 *            The secured item that provides the security context.
+	 * @param perms
+	 *            The permissions the user must have on the rdf:first triple.
+	 */
+	public RDFListBlockIterator( final RDFList head,
+			final SecuredItem securedItem, final Set<Action> perms )
+	{
+		this(head, securedItem, perms, RDFListBlockIterator.DEFAULT_BLOCK_SIZE);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param head
+	 *            The first cell of the base (unsecured) list.
+	 * @param securedItem
+	 *            The secured item that provides the security context.
+	 * @param perms
+	 *            The permissions the user must have on the rdf:first triple.
+	 * @param blockSize
+	 *            The number of cells to read ahead.
+	 */
+	public RDFListBlockIterator( final RDFList head,
+			final SecuredItem securedItem, final Set<Action> perms,
+			final int blockSize )
+	{
+		if (blockSize < 1)
+		{
+			throw new IllegalArgumentException(
+					"Block size must be at least 1");
+		}
+		this.model = head.getModel();
+		this.graph = model.getGraph();
+		this.securedItem = securedItem;
+		this.perms = new HashSet<Action>(perms);
+		this.blockSize = blockSize;
+		this.current = head.asNode();
+	}
+
+	@Override
+	public boolean hasNext()
+	{
+		while (accepted.isEmpty() && !RDF.nil.asNode().equals(current))
+		{
+			readBlock();
+		}
+		return !accepted.isEmpty();
+	}
+
+	@Override
+	public Statement next()
+	{
+		if (hasNext())
+		{
+			return accepted.removeFirst();
+		}
+		throw new NoSuchElementException();
+	}
+
+	/**
+	 * Read the next block of cells and keep the ones with the permissions.
+	 */
+	private void readBlock()
+	{
+		final List<Triple> firsts = new ArrayList<Triple>(blockSize);
+		while ((firsts.size() < blockSize)
+				&& !RDF.nil.asNode().equals(current))
+		{
+			Triple first = null;
+			Triple rest = null;
+			final ExtendedIterator<Triple> iter = graph.find(current,
+					Node.ANY, Node.ANY);
+			try
+			{
+				while (iter.hasNext() && ((first == null) || (rest == null)))
+				{
+					final Triple t = iter.next();
+					if ((first == null)
+							&& RDF.first.asNode().equals(t.getPredicate()))
+					{
+						first = t;
+					}
+					else if ((rest == null)
+							&& RDF.rest.asNode().equals(t.getPredicate()))
+					{
+						rest = t;
+					}
+				}
+			}
+			finally
+			{
+				iter.close();
+			}
+			if (first == null)
+			{
+				throw new PropertyNotFoundException(RDF.first);
+			}
+			if (rest == null)
+			{
+				throw new PropertyNotFoundException(RDF.rest);
+			}
+			firsts.add(first);
+			current = rest.getObject();
+		}
+
+		// every permission must be granted so filter by each in turn.
+		List<Triple> allowed = firsts;
+		for (final Action action : perms)
+		{
+			if (allowed.isEmpty())
+			{
+				break;
+			}
+			allowed = new PermTripleBatch(action, securedItem)
+					.filter(allowed);
+		}
+		for (final Triple t : allowed)
+		{
+			accepted.add(model.asStatement(t));
+		}
+	}
+}
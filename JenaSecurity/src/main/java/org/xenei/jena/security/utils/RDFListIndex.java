@@ -0,0 +1,329 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.jena.security.utils;
+
+import com.hp.hpl.jena.rdf.listeners.StatementListener;
+import com.hp.hpl.jena.rdf.model.ListIndexException;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.RDFList;
+import com.hp.hpl.jena.rdf.model.RDFNode;
+import com.hp.hpl.jena.rdf.model.Statement;
+import com.hp.hpl.jena.vocabulary.RDF;
+
+import java.lang.ref.WeakReference;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.xenei.jena.security.SecuredItem;
+import org.xenei.jena.security.SecurityEvaluator;
+import org.xenei.jena.security.SecurityEvaluator.Action;
+
+/**
+ * A random access index of the readable cells of an RDF list.
+ * <p>
+ * The list is walked once with an RDFListBlockIterator and the cells whose
+ * <code>rdf:first</code> triple may be read are recorded in order, so that
+ * positional access, the size and searches do not walk the list or call the
+ * security evaluator again.
+ * </p>
+ * <p>
+ * The index listens to the model that holds the list and is discarded when an
+ * <code>rdf:first</code> or <code>rdf:rest</code> statement is added or
+ * removed, or when the model reports a bulk event. It is rebuilt on the next
+ * access. The index is also rebuilt if the principal of the security evaluator
+ * changes. If the permissions of the principal change <code>invalidate()</code>
+ * must be called.
+ * </p>
+ * <p>
+ * <code>close()</code> stops listening to the model. The listener only holds a
+ * weak reference to the index, so an index that is not closed does not keep
+ * the list in memory; its listener unregisters itself on the first model
+ * change after the index has been collected.
+ * </p>
+ */
+public class RDFListIndex
+{
+	/**
+	 * An immutable view of the readable cells.
+	 */
+	private static class Cells
+	{
+		private final Principal principal;
+		private final RDFList[] cells;
+		private final RDFNode[] values;
+		// the ascending positions of each value.
+		private final Map<RDFNode, int[]> positions;
+
+		private Cells( final Principal principal, final List<RDFList> cells,
+				final List<RDFNode> values )
+		{
+			this.principal = principal;
+			this.cells = cells.toArray(new RDFList[cells.size()]);
+			this.values = values.toArray(new RDFNode[values.size()]);
+			final Map<RDFNode, List<Integer>> found = new HashMap<RDFNode, List<Integer>>();
+			for (int i = 0; i < this.values.length; i++)
+			{
+				List<Integer> lst = found.get(this.values[i]);
+				if (lst == null)
+				{
+					lst = new ArrayList<Integer>(1);
+					found.put(this.values[i], lst);
+				}
+				lst.add(i);
+			}
+			positions = new HashMap<RDFNode, int[]>(found.size());
+			for (final Map.Entry<RDFNode, List<Integer>> e : found.entrySet())
+			{
+				final int[] pos = new int[e.getValue().size()];
+				for (int i = 0; i < pos.length; i++)
+				{
+					pos[i] = e.getValue().get(i);
+				}
+				positions.put(e.getKey(), pos);
+			}
+		}
+	}
+
+	/**
+	 * The listener registered with the model.
+	 */
+	private static class Watcher extends StatementListener
+	{
+		private final WeakReference<RDFListIndex> index;
+		private final Model model;
+
+		private Watcher( final RDFListIndex index, final Model model )
+		{
+			this.index = new WeakReference<RDFListIndex>(index);
+			this.model = model;
+		}
+
+		@Override
+		public void addedStatement( final Statement s )
+		{
+			final RDFListIndex idx = getIndex();
+			if (idx != null)
+			{
+				idx.changed(s);
+			}
+		}
+
+		private RDFListIndex getIndex()
+		{
+			final RDFListIndex retval = index.get();
+			if (retval == null)
+			{
+				model.unregister(this);
+			}
+			return retval;
+		}
+
+		@Override
+		public void notifyEvent( final Model m, final Object event )
+		{
+			// bulk operations such as removeAll() are reported as events.
+			final RDFListIndex idx = getIndex();
+			if (idx != null)
+			{
+				idx.invalidate();
+			}
+		}
+
+		@Override
+		public void removedStatement( final Statement s )
+		{
+			addedStatement(s);
+		}
+	}
+
+	private final SecuredItem securedItem;
+	private final RDFList head;
+	private final Model model;
+	private final Watcher watcher;
+	private volatile Cells current;
+	// incremented on each invalidation so that a build that overlaps a change
+	// is not kept.
+	private volatile int generation;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param securedItem
+	 *            The secured item that provides the security context.
+	 * @param head
+	 *            The first cell of the base (unsecured) list.
+	 */
+	public RDFListIndex( final SecuredItem securedItem, final RDFList head )
+	{
+		this.securedItem = securedItem;
+		this.head = head;
+		this.model = head.getModel();
+		this.watcher = new Watcher(this, model);
+		model.register(watcher);
+	}
+
+	private synchronized Cells build( final Principal principal )
+	{
+		Cells retval = current;
+		if ((retval != null) && equals(principal, retval.principal))
+		{
+			return retval;
+		}
+		final int gen = generation;
+		final List<RDFList> cells = new ArrayList<RDFList>();
+		final List<RDFNode> values = new ArrayList<RDFNode>();
+		final RDFListBlockIterator iter = new RDFListBlockIterator(head,
+				securedItem, SecurityEvaluator.Util
+						.asSet(new Action[] { Action.Read }));
+		while (iter.hasNext())
+		{
+			final Statement s = iter.next();
+			cells.add(s.getSubject().as(RDFList.class));
+			values.add(s.getObject());
+		}
+		retval = new Cells(principal, cells, values);
+		if (gen == generation)
+		{
+			current = retval;
+		}
+		return retval;
+	}
+
+	private void changed( final Statement s )
+	{
+		if (s.getPredicate().equals(RDF.first)
+				|| s.getPredicate().equals(RDF.rest))
+		{
+			invalidate();
+		}
+	}
+
+	/**
+	 * Stop listening to the model and discard the index.
+	 */
+	public void close()
+	{
+		model.unregister(watcher);
+		invalidate();
+	}
+
+	private boolean equals( final Principal a, final Principal b )
+	{
+		return a == null ? b == null : a.equals(b);
+	}
+
+	/**
+	 * Get the value of a readable cell.
+	 *
+	 * @param i
+	 *            The position in the list of readable cells.
+	 * @return The <code>rdf:first</code> value of the cell.
+	 * @throws ListIndexException
+	 *             if i is out of range.
+	 */
+	public RDFNode get( final int i ) throws ListIndexException
+	{
+		final Cells cells = getCells();
+		if ((i < 0) || (i >= cells.values.length))
+		{
+			throw new ListIndexException();
+		}
+		return cells.values[i];
+	}
+
+	/**
+	 * Get a readable cell.
+	 *
+	 * @param i
+	 *            The position in the list of readable cells.
+	 * @return The cell of the base list.
+	 * @throws ListIndexException
+	 *             if i is out of range.
+	 */
+	public RDFList getCell( final int i ) throws ListIndexException
+	{
+		final Cells cells = getCells();
+		if ((i < 0) || (i >= cells.cells.length))
+		{
+			throw new ListIndexException();
+		}
+		return cells.cells[i];
+	}
+
+	private Cells getCells()
+	{
+		final Principal principal = securedItem.getSecurityEvaluator()
+				.getPrincipal();
+		final Cells retval = current;
+		if ((retval != null) && equals(principal, retval.principal))
+		{
+			return retval;
+		}
+		return build(principal);
+	}
+
+	/**
+	 * Find the position of a value among the readable cells.
+	 *
+	 * @param value
+	 *            The value to find.
+	 * @param start
+	 *            The position to start searching from.
+	 * @return the position of the first occurrence at or after start or -1 if
+	 *         not found.
+	 */
+	public int indexOf( final RDFNode value, final int start )
+	{
+		// the index holds the base values.
+		final Object key = value instanceof SecuredItem ? ((SecuredItem) value)
+				.getBaseItem() : value;
+		final int[] pos = getCells().positions.get(key);
+		if (pos == null)
+		{
+			return -1;
+		}
+		int idx = Arrays.binarySearch(pos, start);
+		if (idx < 0)
+		{
+			// the insertion point is the first position after start
+			idx = -(idx + 1);
+		}
+		return idx < pos.length ? pos[idx] : -1;
+	}
+
+	/**
+	 * Discard the index so that it is rebuilt on the next access.
+	 */
+	public void invalidate()
+	{
+		generation++;
+		current = null;
+	}
+
+	/**
+	 * @return the number of readable cells.
+	 */
+	public int size()
+	{
+		return getCells().values.length;
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.jena.security.utils;
+
+import com.hp.hpl.jena.util.iterator.NiceIterator;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Shares a single pass iterator among several consumers that read it one
+ * after the other.
+ * <p>
+ * Items are only read from the source when a consumer asks for them. Items
+ * are buffered so that later consumers can replay them, except for the last
+ * consumer which reads the remainder of the source without buffering. With a
+ * single consumer nothing is buffered.
+ * </p>
+ * <p>
+ * Not thread safe, the consumers must read in turn on the same thread.
+ * </p>
+ *
+ * @param <T>
+ *            The type of item.
+ */
+public class ReplayBuffer<T>
+{
+	/**
+	 * An iterator over the buffer and then the source.
+	 */
+	private class Replay extends NiceIterator<T>
+	{
+		private final boolean last;
+		private int pos;
+
+		Replay( final boolean last )
+		{
+			this.last = last;
+		}
+
+		@Override
+		public boolean hasNext()
+		{
+			return (pos < buffer.size()) || source.hasNext();
+		}
+
+		@Override
+		public T next()
+		{
+			if (pos < buffer.size())
+			{
+				return buffer.get(pos++);
+			}
+			if (!source.hasNext())
+			{
+				throw new NoSuchElementException();
+			}
+			final T retval = source.next();
+			if (!last)
+			{
+				buffer.add(retval);
+				pos++;
+			}
+			return retval;
+		}
+	}
+
+	private final Iterator<T> source;
+	private final List<T> buffer = new ArrayList<T>();
+	private int remaining;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param source
+	 *            The iterator to share.
+	 * @param consumers
+	 *            The number of iterators that will be requested.
+	 */
+	public ReplayBuffer( final Iterator<T> source, final int consumers )
+	{
+		if (consumers < 1)
+		{
+			throw new IllegalArgumentException(
+					"There must be at least one consumer");
+		}
+		this.source = source;
+		this.remaining = consumers;
+	}
+
+	/**
+	 * Get the iterator for the next consumer. The previous consumer must have
+	 * finished with its iterator.
+	 *
+	 * @return An iterator over all the items of the source.
+	 */
+	public Iterator<T> iterator()
+	{
+		if (remaining < 1)
+		{
+			throw new IllegalStateException("All consumers have been served");
+		}
+		remaining--;
+		if ((remaining == 0) && buffer.isEmpty())
+		{
+			return source;
+		}
+		return new Replay(remaining == 0);
+	}
+}
@@ -0,0 +1,256 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.jena.security.utils;
+
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.graph.TripleMatch;
+import com.hp.hpl.jena.graph.impl.GraphBase;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.shared.PrefixMapping;
+import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openjena.atlas.lib.Sink;
+import org.xenei.jena.security.AccessDeniedException;
+import org.xenei.jena.security.SecuredItem;
+import org.xenei.jena.security.SecuredItemImpl;
+import org.xenei.jena.security.SecurityEvaluator.Action;
+import org.xenei.jena.security.SecurityEvaluator.SecTriple;
+import org.xenei.jena.security.graph.SecuredGraph;
+
+/**
+ * A sink that adds parsed triples to a secured graph in batches.
+ * <p>
+ * Update permission is checked once when the sink is created. The triples
+ * are buffered and each batch is checked for create permission with a
+ * PermTripleBatch before it is added through the bulk update handler of the
+ * base graph, so a batch is added completely or not at all. Triples are only
+ * added when the batch is full, on flush() and on close(); close() must be
+ * called when the parse is complete.
+ * </p>
+ * <p>
+ * The batches are not a transaction. If the parse fails the batches that
+ * were already added stay in the graph, discard() drops the triples that are
+ * still buffered.
+ * </p>
+ * <p>
+ * Parsers that write to a Jena Model or Graph rather than a Sink can use
+ * asModel() or asGraph(). Finds and deletes on that graph flush the sink and
+ * are performed on the secured graph, the prefix mapping is the prefix
+ * mapping of the secured graph.
+ * </p>
+ */
+public class SecuredGraphSink implements Sink<Triple>
+{
+	/**
+	 * The graph that sends added triples to the sink.
+	 */
+	private class SinkGraph extends GraphBase
+	{
+		@Override
+		public PrefixMapping getPrefixMapping()
+		{
+			return securedGraph.getPrefixMapping();
+		}
+
+		@Override
+		protected ExtendedIterator<Triple> graphBaseFind( final TripleMatch m )
+		{
+			flush();
+			return securedGraph.find(m);
+		}
+
+		@Override
+		public void performAdd( final Triple t )
+		{
+			send(t);
+		}
+
+		@Override
+		public void performDelete( final Triple t )
+		{
+			flush();
+			securedGraph.delete(t);
+		}
+	}
+
+	/**
+	 * The default number of triples in a batch.
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 1000;
+
+	private final SecuredGraph securedGraph;
+	// the secured graph as the security context.
+	private final SecuredItem securedItem;
+	private final Graph baseGraph;
+	private final int batchSize;
+	private final List<Triple> batch;
+	// true if any triple may be created.
+	private final boolean createAny;
+	private Graph graph;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param securedGraph
+	 *            The secured graph that provides the security context.
+	 * @param baseGraph
+	 *            The base (unsecured) graph of the secured graph.
+	 * @throws AccessDeniedException
+	 *             if the graph may not be updated.
+	 */
+	public SecuredGraphSink( final SecuredGraph securedGraph,
+			final Graph baseGraph )
+	{
+		this(securedGraph, baseGraph, SecuredGraphSink.DEFAULT_BATCH_SIZE);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param securedGraph
+	 *            The secured graph that provides the security context.
+	 * @param baseGraph
+	 *            The base (unsecured) graph of the secured graph.
+	 * @param batchSize
+	 *            The number of triples to check and add at once.
+	 * @throws AccessDeniedException
+	 *             if the graph may not be updated.
+	 */
+	public SecuredGraphSink( final SecuredGraph securedGraph,
+			final Graph baseGraph, final int batchSize )
+	{
+		if (batchSize < 1)
+		{
+			throw new IllegalArgumentException(
+					"Batch size must be at least 1");
+		}
+		this.securedGraph = securedGraph;
+		this.securedItem = (SecuredItem) securedGraph;
+		if (!securedItem.canUpdate())
+		{
+			throw new AccessDeniedException(securedItem.getModelNode(),
+					Action.Update);
+		}
+		this.baseGraph = baseGraph;
+		this.batchSize = batchSize;
+		this.batch = new ArrayList<Triple>(batchSize);
+		this.createAny = securedItem.canCreate(SecTriple.ANY);
+	}
+
+	/**
+	 * Get a graph that sends the triples added to it to this sink.
+	 *
+	 * @return the graph.
+	 */
+	public synchronized Graph asGraph()
+	{
+		if (graph == null)
+		{
+			graph = new SinkGraph();
+		}
+		return graph;
+	}
+
+	/**
+	 * Get a model that sends the triples added to it to this sink.
+	 *
+	 * @return the model.
+	 */
+	public Model asModel()
+	{
+		return ModelFactory.createModelForGraph(asGraph());
+	}
+
+	/**
+	 * Add the buffered triples.
+	 */
+	@Override
+	public void close()
+	{
+		flush();
+	}
+
+	/**
+	 * Drop the buffered triples without adding them. This does nothing after
+	 * close() or flush().
+	 */
+	public void discard()
+	{
+		batch.clear();
+	}
+
+	/**
+	 * Check and add the buffered triples.
+	 *
+	 * @throws AccessDeniedException
+	 *             if any of the triples may not be created. None of the
+	 *             buffered triples are added.
+	 */
+	// the deprecated BulkUpdateHandler.add(List) adds a batch as one update,
+	// Graph has no replacement in this Jena version.
+	@SuppressWarnings( "deprecation" )
+	@Override
+	public void flush()
+	{
+		if (batch.isEmpty())
+		{
+			return;
+		}
+		try
+		{
+			if (!createAny)
+			{
+				final Triple t = new PermTripleBatch(Action.Create,
+						securedItem).findDenied(batch);
+				if (t != null)
+				{
+					throw new AccessDeniedException(
+							securedItem.getModelNode(), SecuredItemImpl
+									.convert(t).toString(), Action.Create);
+				}
+			}
+			baseGraph.getBulkUpdateHandler().add(batch);
+		}
+		finally
+		{
+			batch.clear();
+		}
+	}
+
+	/**
+	 * Add a triple to the batch, the batch is checked and added when it is
+	 * full.
+	 *
+	 * @param t
+	 *            The triple.
+	 */
+	@Override
+	public void send( final Triple t )
+	{
+		batch.add(t);
+		if (batch.size() >= batchSize)
+		{
+			flush();
+		}
+	}
+}
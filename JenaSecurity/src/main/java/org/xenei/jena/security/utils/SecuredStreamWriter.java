@@ -0,0 +1,422 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.jena.security.utils;
+
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.shared.JenaException;
+import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.lang.StringUtils;
+import org.openjena.riot.out.NodeFormatter;
+import org.openjena.riot.out.NodeFormatterNT;
+import org.openjena.riot.out.NodeFormatterTTL;
+import org.openjena.riot.system.PrefixMap;
+import org.xenei.jena.security.SecuredItem;
+import org.xenei.jena.security.SecurityEvaluator.Action;
+
+/**
+ * Writes the readable triples of a graph as N-Triples, N-Quads or Turtle
+ * without creating secured statements.
+ * <p>
+ * The triples are read from the base graph in blocks, each block is filtered
+ * with a PermTripleBatch so that the ANY checks can accept the whole block at
+ * once, and the accepted triples are formatted straight to the output.
+ * Output streams are written through a buffered channel in UTF-8.
+ * </p>
+ * <p>
+ * N-Quads use the model IRI of the secured item as the graph name. The Turtle
+ * is written as it is read: the prefixes of the graph first, then each triple
+ * with the subject (and predicate) abbreviated when it repeats the previous
+ * one.
+ * </p>
+ */
+public class SecuredStreamWriter
+{
+	/**
+	 * The output formats.
+	 */
+	public static enum Format
+	{
+		NTRIPLES, NQUADS, TURTLE
+	}
+
+	/**
+	 * A Writer that encodes into a buffer and drains it to a channel when it
+	 * is full. Flush writes the buffer but does not flush or close the
+	 * channel.
+	 */
+	private static class ChannelWriter extends Writer
+	{
+		private final WritableByteChannel channel;
+		private final CharsetEncoder encoder;
+		private final CharBuffer chars;
+		private final ByteBuffer bytes;
+
+		ChannelWriter( final WritableByteChannel channel, final int bufferSize )
+		{
+			this.channel = channel;
+			this.encoder = SecuredStreamWriter.UTF8.newEncoder()
+					.onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE);
+			this.chars = CharBuffer.allocate(bufferSize);
+			this.bytes = ByteBuffer.allocate((int) Math.ceil(bufferSize
+					* encoder.maxBytesPerChar()));
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			flush();
+		}
+
+		private void drain() throws IOException
+		{
+			chars.flip();
+			CoderResult result;
+			do
+			{
+				result = encoder.encode(chars, bytes, false);
+				bytes.flip();
+				while (bytes.hasRemaining())
+				{
+					channel.write(bytes);
+				}
+				bytes.clear();
+			} while (result.isOverflow());
+			// keep an incomplete surrogate pair for the next drain.
+			chars.compact();
+		}
+
+		@Override
+		public void flush() throws IOException
+		{
+			drain();
+		}
+
+		@Override
+		public void write( final char[] cbuf, final int off, final int len )
+				throws IOException
+		{
+			int pos = off;
+			final int end = off + len;
+			while (pos < end)
+			{
+				if (!chars.hasRemaining())
+				{
+					drain();
+				}
+				final int n = Math.min(chars.remaining(), end - pos);
+				chars.put(cbuf, pos, n);
+				pos += n;
+			}
+		}
+
+		@Override
+		public void write( final String str, final int off, final int len )
+				throws IOException
+		{
+			int pos = off;
+			final int end = off + len;
+			while (pos < end)
+			{
+				if (!chars.hasRemaining())
+				{
+					drain();
+				}
+				final int n = Math.min(chars.remaining(), end - pos);
+				chars.put(str, pos, pos + n);
+				pos += n;
+			}
+		}
+	}
+
+	/**
+	 * The default number of triples to read and evaluate at once.
+	 */
+	public static final int DEFAULT_BLOCK_SIZE = 1000;
+
+	/**
+	 * The default size, in characters, of the output buffer.
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Get the format for a Jena writer language name.
+	 *
+	 * @param lang
+	 *            The language name, e.g. "N-TRIPLE", "N-QUADS" or "TURTLE".
+	 * @return the format or null if the language is not supported.
+	 */
+	public static Format getFormat( final String lang )
+	{
+		if (lang == null)
+		{
+			return null;
+		}
+		final String l = lang.toUpperCase();
+		if (l.equals("N-TRIPLE") || l.equals("N-TRIPLES")
+				|| l.equals("NTRIPLES") || l.equals("NT"))
+		{
+			return Format.NTRIPLES;
+		}
+		if (l.equals("N-QUADS") || l.equals("NQUADS") || l.equals("NQ"))
+		{
+			return Format.NQUADS;
+		}
+		if (l.equals("TURTLE") || l.equals("TTL"))
+		{
+			return Format.TURTLE;
+		}
+		return null;
+	}
+
+	private final SecuredItem securedItem;
+	private final Graph graph;
+	private final Format format;
+	private final int blockSize;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param securedItem
+	 *            The secured item that provides the security context.
+	 * @param graph
+	 *            The base (unsecured) graph to write.
+	 * @param format
+	 *            The output format.
+	 */
+	public SecuredStreamWriter( final SecuredItem securedItem,
+			final Graph graph, final Format format )
+	{
+		this(securedItem, graph, format, SecuredStreamWriter.DEFAULT_BLOCK_SIZE);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param securedItem
+	 *            The secured item that provides the security context.
+	 * @param graph
+	 *            The base (unsecured) graph to write.
+	 * @param format
+	 *            The output format.
+	 * @param blockSize
+	 *            The number of triples to read and evaluate at once.
+	 */
+	public SecuredStreamWriter( final SecuredItem securedItem,
+			final Graph graph, final Format format, final int blockSize )
+	{
+		if (format == null)
+		{
+			throw new IllegalArgumentException("Format may not be null");
+		}
+		if (blockSize < 1)
+		{
+			throw new IllegalArgumentException(
+					"Block size must be at least 1");
+		}
+		this.securedItem = securedItem;
+		this.graph = graph;
+		this.format = format;
+		this.blockSize = blockSize;
+	}
+
+	/**
+	 * Write the readable triples to an output stream in UTF-8. The stream is
+	 * not closed.
+	 *
+	 * @param out
+	 *            The stream to write to.
+	 * @param base
+	 *            The base IRI for Turtle, may be null or empty.
+	 */
+	public void write( final OutputStream out, final String base )
+	{
+		final ChannelWriter writer = new ChannelWriter(
+				Channels.newChannel(out),
+				SecuredStreamWriter.DEFAULT_BUFFER_SIZE);
+		write(writer, base);
+	}
+
+	/**
+	 * Write the readable triples to a writer. The writer is flushed but not
+	 * closed.
+	 *
+	 * @param writer
+	 *            The writer to write to.
+	 * @param base
+	 *            The base IRI for Turtle, may be null or empty.
+	 */
+	public void write( final Writer writer, final String base )
+	{
+		try
+		{
+			final NodeFormatter fmt;
+			if (format == Format.TURTLE)
+			{
+				fmt = writePrologue(writer, base);
+			}
+			else
+			{
+				fmt = new NodeFormatterNT();
+			}
+			final Node graphName = Node.createURI(securedItem.getModelIRI());
+			final List<Triple> block = new ArrayList<Triple>(blockSize);
+			Triple last = null;
+			final ExtendedIterator<Triple> iter = graph.find(Triple.ANY);
+			try
+			{
+				while (iter.hasNext())
+				{
+					block.add(iter.next());
+					if ((block.size() == blockSize) || !iter.hasNext())
+					{
+						for (final Triple t : new PermTripleBatch(Action.Read,
+								securedItem).filter(block))
+						{
+							if (format == Format.TURTLE)
+							{
+								writeTurtle(writer, fmt, last, t);
+								last = t;
+							}
+							else
+							{
+								writeTuple(writer, fmt, t, graphName);
+							}
+						}
+						block.clear();
+					}
+				}
+			}
+			finally
+			{
+				iter.close();
+			}
+			if (last != null)
+			{
+				writer.write(" .\n");
+			}
+			writer.flush();
+		}
+		catch (final IOException e)
+		{
+			throw new JenaException(e);
+		}
+	}
+
+	/**
+	 * Write the base and the prefixes.
+	 *
+	 * @return the formatter that abbreviates with them.
+	 */
+	private NodeFormatter writePrologue( final Writer writer,
+			final String base ) throws IOException
+	{
+		final PrefixMap prefixes = new PrefixMap();
+		final NodeFormatter nt = new NodeFormatterNT();
+		if (StringUtils.isNotEmpty(base))
+		{
+			writer.write("@base ");
+			nt.formatURI(writer, base);
+			writer.write(" .\n");
+		}
+		final Map<String, String> map = new TreeMap<String, String>(graph
+				.getPrefixMapping().getNsPrefixMap());
+		for (final Map.Entry<String, String> e : map.entrySet())
+		{
+			prefixes.add(e.getKey(), e.getValue());
+			writer.write("@prefix ");
+			writer.write(e.getKey());
+			writer.write(": ");
+			nt.formatURI(writer, e.getValue());
+			writer.write(" .\n");
+		}
+		if (StringUtils.isNotEmpty(base) || !map.isEmpty())
+		{
+			writer.write("\n");
+		}
+		return new NodeFormatterTTL(StringUtils.isEmpty(base) ? null : base,
+				prefixes);
+	}
+
+	private void writeTuple( final Writer writer, final NodeFormatter fmt,
+			final Triple t, final Node graphName ) throws IOException
+	{
+		fmt.format(writer, t.getSubject());
+		writer.write(" ");
+		fmt.format(writer, t.getPredicate());
+		writer.write(" ");
+		fmt.format(writer, t.getObject());
+		if (format == Format.NQUADS)
+		{
+			writer.write(" ");
+			fmt.format(writer, graphName);
+		}
+		writer.write(" .\n");
+	}
+
+	private void writeTurtle( final Writer writer, final NodeFormatter fmt,
+			final Triple last, final Triple t ) throws IOException
+	{
+		if ((last != null) && last.getSubject().equals(t.getSubject()))
+		{
+			if (last.getPredicate().equals(t.getPredicate()))
+			{
+				writer.write(" ,\n        ");
+			}
+			else
+			{
+				writer.write(" ;\n    ");
+				fmt.format(writer, t.getPredicate());
+				writer.write(" ");
+			}
+		}
+		else
+		{
+			if (last != null)
+			{
+				writer.write(" .\n");
+			}
+			fmt.format(writer, t.getSubject());
+			writer.write(" ");
+			fmt.format(writer, t.getPredicate());
+			writer.write(" ");
+		}
+		fmt.format(writer, t.getObject());
+	}
+}
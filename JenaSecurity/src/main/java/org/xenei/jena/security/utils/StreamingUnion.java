@@ -0,0 +1,58 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.jena.security.utils;
+
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.graph.TripleMatch;
+import com.hp.hpl.jena.graph.compose.CompositionBase;
+import com.hp.hpl.jena.graph.compose.Union;
+import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+
+/**
+ * A union graph that does not record the triples of the left graph while
+ * iterating.
+ * 
+ * The standard Union keeps every triple returned from the left graph in a
+ * set so that duplicates in the right graph can be removed. This
+ * implementation asks the left graph whether it contains each triple from
+ * the right graph instead, so memory use does not grow with the size of the
+ * graphs.
+ */
+public class StreamingUnion extends Union
+{
+	/**
+	 * Constructor.
+	 * 
+	 * @param L
+	 *            The left graph.
+	 * @param R
+	 *            The right graph.
+	 */
+	public StreamingUnion( final Graph L, final Graph R )
+	{
+		super(L, R);
+	}
+
+	@Override
+	public ExtendedIterator<Triple> graphBaseFind( final TripleMatch t )
+	{
+		return L.find(t).andThen(
+				R.find(t).filterDrop(CompositionBase.ifIn(L)));
+	}
+}
@@ -32,6 +32,15 @@ public class MockSecurityEvaluator implements SecurityEvaluator
 	private final boolean update;
 	private final boolean delete;
 	private final boolean forceTripleChecks;
+	// the same principal is reported for every call.
+	private final Principal principal = new Principal() {
+
+		@Override
+		public String getName()
+		{
+			return "TestingPrincipal";
+		}
+	};
 	
 	public static MockSecurityEvaluator getInstance()
 	{
@@ -198,18 +207,7 @@ public class MockSecurityEvaluator implements SecurityEvaluator
 	@Override
 	public Principal getPrincipal()
 	{
-		if (loggedIn)
-		{
-			return new Principal() {
-
-				@Override
-				public String getName()
-				{
-					return "TestingPrincipal";
-				}
-			};
-		}
-		return null;
+		return loggedIn ? principal : null;
 	}
 
 	public boolean isLoggedIn()
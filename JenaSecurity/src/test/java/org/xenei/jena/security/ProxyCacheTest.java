@@ -0,0 +1,136 @@
+package org.xenei.jena.security;
+
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.ResourceFactory;
+import com.hp.hpl.jena.rdf.model.Statement;
+
+import java.lang.reflect.Proxy;
+import java.security.Principal;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xenei.jena.security.SecurityEvaluator.Action;
+import org.xenei.jena.security.SecurityEvaluator.SecNode;
+import org.xenei.jena.security.SecurityEvaluator.SecTriple;
+import org.xenei.jena.security.model.SecuredModel;
+import org.xenei.jena.security.model.SecuredStatement;
+import org.xenei.jena.security.model.impl.SecuredStatementImpl;
+
+public class ProxyCacheTest
+{
+	@Test
+	public void testConstructor()
+	{
+		final Model model = ModelFactory.createDefaultModel();
+		final Statement stmt = model.createStatement(
+				ResourceFactory.createResource("http://example.com/s"),
+				ResourceFactory.createProperty("http://example.com/p"),
+				ResourceFactory.createResource("http://example.com/o"));
+		Assert.assertSame(ProxyCache.getConstructor(stmt.getClass(),
+				SecuredStatementImpl.class), ProxyCache.getConstructor(
+				stmt.getClass(), SecuredStatementImpl.class));
+
+		final SecuredModel securedModel = Factory.getInstance(
+				new MockSecurityEvaluator(true, true, true, true, true, true),
+				"http://example.com/securedGraph", model);
+		final SecuredStatement secured = SecuredStatementImpl.getInstance(
+				securedModel, stmt);
+		Assert.assertTrue(Proxy.isProxyClass(secured.getClass()));
+		Assert.assertSame(ProxyCache.getConstructor(stmt.getClass(),
+				SecuredStatementImpl.class).getDeclaringClass(),
+				secured.getClass());
+		Assert.assertEquals(stmt.asTriple(), secured.asTriple());
+	}
+
+	@Test
+	public void testPrewarm()
+	{
+		ProxyCache.clear();
+		Assert.assertEquals(0, ProxyCache.size());
+		Factory.prewarm();
+		final int size = ProxyCache.size();
+		Assert.assertTrue(size > 0);
+
+		// securing the standard implementations needs no new constructors.
+		final Model model = ModelFactory.createDefaultModel();
+		final SecuredModel securedModel = Factory.getInstance(
+				new MockSecurityEvaluator(true, true, true, true, true, true),
+				"http://example.com/securedGraph", model);
+		securedModel.add(
+				ResourceFactory.createResource("http://example.com/s"),
+				ResourceFactory.createProperty("http://example.com/p"), "o");
+		securedModel.listStatements().toList();
+		securedModel.listSubjects().toList();
+		securedModel.listObjects().toList();
+		Assert.assertEquals(size, ProxyCache.size());
+	}
+
+	@Test
+	public void testAnonymousInterface()
+	{
+		final SecurityEvaluator evaluator = new SecurityEvaluator() {
+
+			@Override
+			public boolean evaluate( final Action action,
+					final SecNode graphIRI )
+			{
+				return true;
+			}
+
+			@Override
+			public boolean evaluate( final Action action,
+					final SecNode graphIRI, final SecTriple triple )
+			{
+				return true;
+			}
+
+			@Override
+			public boolean evaluate( final Set<Action> action,
+					final SecNode graphIRI )
+			{
+				return true;
+			}
+
+			@Override
+			public boolean evaluate( final Set<Action> action,
+					final SecNode graphIRI, final SecTriple triple )
+			{
+				return true;
+			}
+
+			@Override
+			public boolean evaluateAny( final Set<Action> action,
+					final SecNode graphIRI )
+			{
+				return true;
+			}
+
+			@Override
+			public boolean evaluateAny( final Set<Action> action,
+					final SecNode graphIRI, final SecTriple triple )
+			{
+				return true;
+			}
+
+			@Override
+			public boolean evaluateUpdate( final SecNode graphIRI,
+					final SecTriple from, final SecTriple to )
+			{
+				return true;
+			}
+
+			@Override
+			public Principal getPrincipal()
+			{
+				return null;
+			}
+		};
+		final SecurityEvaluator cached = CachedSecurityEvaluator.getInstance(
+				evaluator, null);
+		Assert.assertTrue(cached.evaluate(Action.Read, SecNode.ANY));
+		Assert.assertNotSame(ProxyCache.getConstructor(Object.class, null),
+				ProxyCache.getConstructor(evaluator.getClass(), null));
+	}
+}
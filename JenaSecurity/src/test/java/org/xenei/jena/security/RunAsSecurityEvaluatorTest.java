@@ -0,0 +1,80 @@
+package org.xenei.jena.security;
+
+import java.security.Principal;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.xenei.jena.security.SecurityEvaluator.Action;
+import org.xenei.jena.security.SecurityEvaluator.SecNode;
+import org.xenei.jena.security.SecurityEvaluator.SecTriple;
+
+@RunWith( value = SecurityEvaluatorParameters.class )
+public class RunAsSecurityEvaluatorTest
+{
+	private static class CountingEvaluator extends MockSecurityEvaluator
+	{
+		private int count;
+
+		CountingEvaluator( final MockSecurityEvaluator other )
+		{
+			super(true, other.evaluate(Action.Create), other
+					.evaluate(Action.Read), other.evaluate(Action.Update),
+					other.evaluate(Action.Delete), false);
+		}
+
+		@Override
+		public boolean evaluate( final Action action, final SecNode graphIRI,
+				final SecTriple triple )
+		{
+			count++;
+			return super.evaluate(action, graphIRI, triple);
+		}
+	}
+
+	private final MockSecurityEvaluator securityEvaluator;
+
+	public RunAsSecurityEvaluatorTest(
+			final MockSecurityEvaluator securityEvaluator )
+	{
+		this.securityEvaluator = securityEvaluator;
+	}
+
+	@Test
+	public void testCache()
+	{
+		final CountingEvaluator counter = new CountingEvaluator(
+				securityEvaluator);
+		final RunAsSecurityEvaluator evaluator = new RunAsSecurityEvaluator(
+				counter, null);
+		final SecNode graph = new SecNode(SecNode.Type.URI,
+				"http://example.com/graph");
+		final SecTriple t = new SecTriple(new SecNode(SecNode.Type.URI,
+				"http://example.com/s"), new SecNode(SecNode.Type.URI,
+				"http://example.com/p"), new SecNode(SecNode.Type.URI,
+				"http://example.com/o"));
+		final boolean expected = securityEvaluator.evaluate(Action.Read);
+		Assert.assertEquals(expected,
+				evaluator.evaluate(Action.Read, graph, t));
+		Assert.assertEquals(expected,
+				evaluator.evaluate(Action.Read, graph, t));
+		Assert.assertEquals(1, counter.count);
+		evaluator.clearCache();
+		Assert.assertEquals(expected,
+				evaluator.evaluate(Action.Read, graph, t));
+		Assert.assertEquals(2, counter.count);
+	}
+
+	@Test
+	public void testPrincipal()
+	{
+		final Principal runAs = securityEvaluator.getPrincipal();
+		final RunAsSecurityEvaluator evaluator = new RunAsSecurityEvaluator(
+				securityEvaluator, runAs);
+		Assert.assertSame(runAs, evaluator.getPrincipal());
+		Assert.assertSame(securityEvaluator, evaluator.getWrapped());
+		// wrapping again does not stack the caches.
+		Assert.assertSame(securityEvaluator, new RunAsSecurityEvaluator(
+				evaluator, runAs).getWrapped());
+	}
+}
@@ -0,0 +1,285 @@
+package org.xenei.jena.security.graph;
+
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.GraphListener;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.rdf.listeners.StatementListener;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.ResourceFactory;
+import com.hp.hpl.jena.rdf.model.Statement;
+import com.hp.hpl.jena.sparql.graph.GraphFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.xenei.jena.security.AccessDeniedException;
+import org.xenei.jena.security.Factory;
+import org.xenei.jena.security.MockSecurityEvaluator;
+import org.xenei.jena.security.SecurityEvaluator;
+import org.xenei.jena.security.SecurityEvaluator.Action;
+import org.xenei.jena.security.SecurityEvaluatorParameters;
+import org.xenei.jena.security.model.SecuredModel;
+import org.xenei.jena.security.utils.AsyncDelivery;
+import org.xenei.jena.security.utils.AsyncDelivery.BackPressure;
+
+@RunWith( value = SecurityEvaluatorParameters.class )
+public class AsyncDeliveryTest
+{
+	private static final Object MARKER = "marker";
+
+	private class RecordingGraphListener implements GraphListener
+	{
+		private final List<Triple> added = Collections
+				.synchronizedList(new ArrayList<Triple>());
+		private final List<Thread> threads = Collections
+				.synchronizedList(new ArrayList<Thread>());
+		private final CountDownLatch latch = new CountDownLatch(1);
+
+		@Override
+		public void notifyAddArray( final Graph g, final Triple[] triples )
+		{
+		}
+
+		@Override
+		public void notifyAddGraph( final Graph g, final Graph added )
+		{
+		}
+
+		@Override
+		public void notifyAddIterator( final Graph g, final Iterator<Triple> it )
+		{
+		}
+
+		@Override
+		public void notifyAddList( final Graph g, final List<Triple> triples )
+		{
+		}
+
+		@Override
+		public void notifyAddTriple( final Graph g, final Triple t )
+		{
+			threads.add(Thread.currentThread());
+			added.add(t);
+		}
+
+		@Override
+		public void notifyDeleteArray( final Graph g, final Triple[] triples )
+		{
+		}
+
+		@Override
+		public void notifyDeleteGraph( final Graph g, final Graph removed )
+		{
+		}
+
+		@Override
+		public void notifyDeleteIterator( final Graph g,
+				final Iterator<Triple> it )
+		{
+		}
+
+		@Override
+		public void notifyDeleteList( final Graph g, final List<Triple> L )
+		{
+		}
+
+		@Override
+		public void notifyDeleteTriple( final Graph g, final Triple t )
+		{
+		}
+
+		@Override
+		public void notifyEvent( final Graph source, final Object value )
+		{
+			if (AsyncDeliveryTest.MARKER.equals(value))
+			{
+				latch.countDown();
+			}
+		}
+	}
+
+	private class RecordingModelListener extends StatementListener
+	{
+		private final List<Statement> added = Collections
+				.synchronizedList(new ArrayList<Statement>());
+		private final CountDownLatch latch = new CountDownLatch(1);
+
+		@Override
+		public void addedStatement( final Statement s )
+		{
+			added.add(s);
+		}
+
+		@Override
+		public void notifyEvent( final Model m, final Object event )
+		{
+			if (AsyncDeliveryTest.MARKER.equals(event))
+			{
+				latch.countDown();
+			}
+		}
+	}
+
+	private final MockSecurityEvaluator securityEvaluator;
+
+	public AsyncDeliveryTest( final MockSecurityEvaluator securityEvaluator )
+	{
+		this.securityEvaluator = securityEvaluator;
+	}
+
+	@Test
+	public void testArgumentsCopied() throws Exception
+	{
+		final CountDownLatch release = new CountDownLatch(1);
+		final List<List<Triple>> lists = Collections
+				.synchronizedList(new ArrayList<List<Triple>>());
+		final RecordingGraphListener listener = new RecordingGraphListener() {
+			@Override
+			public void notifyAddArray( final Graph g, final Triple[] triples )
+			{
+				lists.add(Arrays.asList(triples));
+			}
+
+			@Override
+			public void notifyAddList( final Graph g, final List<Triple> triples )
+			{
+				lists.add(new ArrayList<Triple>(triples));
+			}
+
+			@Override
+			public void notifyEvent( final Graph source, final Object value )
+			{
+				try
+				{
+					release.await(10, TimeUnit.SECONDS);
+				}
+				catch (final InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+				}
+				super.notifyEvent(source, value);
+			}
+		};
+		final GraphListener wrapped = new AsyncDelivery(4, BackPressure.BLOCK)
+				.wrap(GraphListener.class, listener);
+		final Graph g = GraphFactory.createDefaultGraph();
+		final Triple t = new Triple(Node.createURI("http://example.com/s"),
+				Node.createURI("http://example.com/p"),
+				Node.createURI("http://example.com/o"));
+		final List<Triple> list = new ArrayList<Triple>();
+		list.add(t);
+		final Triple[] array = new Triple[] { t };
+
+		// hold the worker so the arguments are still queued when reused.
+		wrapped.notifyEvent(g, "hold");
+		wrapped.notifyAddList(g, list);
+		wrapped.notifyAddArray(g, array);
+		wrapped.notifyEvent(g, AsyncDeliveryTest.MARKER);
+		list.clear();
+		array[0] = null;
+		release.countDown();
+		try
+		{
+			Assert.assertTrue("Marker was not delivered",
+					listener.latch.await(10, TimeUnit.SECONDS));
+		}
+		finally
+		{
+			AsyncDelivery.shutdown(wrapped);
+		}
+		final List<Triple> expected = Collections.singletonList(t);
+		Assert.assertEquals(Arrays.asList(expected, expected), lists);
+	}
+
+	@Test
+	public void testGraphDelivery() throws Exception
+	{
+		final Set<Action> ADD = SecurityEvaluator.Util.asSet(new Action[] {
+				Action.Create, Action.Read });
+		final Graph g = GraphFactory.createDefaultGraph();
+		final SecuredGraph sg = Factory.getInstance(securityEvaluator,
+				"http://example.com/testGraph", g);
+		final AsyncDelivery delivery = new AsyncDelivery(4, BackPressure.BLOCK);
+		sg.getEventManager().setAsyncDelivery(delivery);
+		Assert.assertSame(delivery, sg.getEventManager().getAsyncDelivery());
+
+		final RecordingGraphListener listener = new RecordingGraphListener();
+		sg.getEventManager().register(listener);
+		final List<Triple> expected = new ArrayList<Triple>();
+		for (int i = 0; i < 20; i++)
+		{
+			final Triple t = new Triple(
+					Node.createURI("http://example.com/s"),
+					Node.createURI("http://example.com/p"),
+					Node.createLiteral("" + i));
+			expected.add(t);
+			g.add(t);
+		}
+		g.getEventManager().notifyEvent(g, AsyncDeliveryTest.MARKER);
+		Assert.assertTrue("Marker was not delivered",
+				listener.latch.await(10, TimeUnit.SECONDS));
+		sg.getEventManager().unregister(listener);
+
+		if (securityEvaluator.evaluateAny(ADD, sg.getModelNode()))
+		{
+			// the queue holds 4 so blocking must deliver every add in order.
+			Assert.assertEquals(expected, listener.added);
+			Assert.assertFalse("Should not deliver on the adding thread",
+					listener.threads.contains(Thread.currentThread()));
+		}
+		else
+		{
+			Assert.assertTrue("Should not have recorded add",
+					listener.added.isEmpty());
+		}
+	}
+
+	@Test
+	public void testModelDelivery() throws Exception
+	{
+		final Model m = ModelFactory.createDefaultModel();
+		final SecuredModel sm = Factory.getInstance(securityEvaluator,
+				"http://example.com/testModel", m);
+		sm.setAsyncDelivery(new AsyncDelivery(10, BackPressure.BLOCK));
+
+		final RecordingModelListener listener = new RecordingModelListener();
+		try
+		{
+			sm.register(listener);
+			if (!securityEvaluator.evaluate(Action.Read))
+			{
+				Assert.fail("Should have thrown AccessDenied Exception");
+			}
+		}
+		catch (final AccessDeniedException e)
+		{
+			if (securityEvaluator.evaluate(Action.Read))
+			{
+				Assert.fail(String
+						.format("Should not have thrown AccessDenied Exception: %s - %s",
+								e, e.getTriple()));
+			}
+			return;
+		}
+		final Statement s = m.createStatement(
+				ResourceFactory.createResource("http://example.com/s"),
+				ResourceFactory.createProperty("http://example.com/p"), "o");
+		m.add(s);
+		m.notifyEvent(AsyncDeliveryTest.MARKER);
+		Assert.assertTrue("Marker was not delivered",
+				listener.latch.await(10, TimeUnit.SECONDS));
+		sm.unregister(listener);
+		Assert.assertEquals(Collections.singletonList(s), listener.added);
+	}
+}
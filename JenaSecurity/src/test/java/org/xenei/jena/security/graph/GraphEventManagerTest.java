@@ -7,10 +7,14 @@ import com.hp.hpl.jena.graph.Node;
 import com.hp.hpl.jena.graph.Triple;
 import com.hp.hpl.jena.sparql.graph.GraphFactory;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Assert;
 import org.junit.Before;
@@ -20,6 +24,8 @@ import org.xenei.jena.security.Factory;
 import org.xenei.jena.security.MockSecurityEvaluator;
 import org.xenei.jena.security.SecurityEvaluator;
 import org.xenei.jena.security.SecurityEvaluator.Action;
+import org.xenei.jena.security.SecurityEvaluator.SecNode;
+import org.xenei.jena.security.SecurityEvaluator.SecTriple;
 import org.xenei.jena.security.SecurityEvaluatorParameters;
 import org.xenei.jena.security.utils.CollectionGraph;
 
@@ -29,9 +35,15 @@ public class GraphEventManagerTest
 	private class RecordingGraphListener implements GraphListener
 	{
 
-		private boolean add;
-		private boolean delete;
-		private boolean event;
+		private volatile boolean add;
+		private volatile boolean delete;
+		private volatile boolean event;
+		private volatile int listSize;
+
+		public int getListSize()
+		{
+			return listSize;
+		}
 
 		public boolean isAdd()
 		{
@@ -58,18 +70,25 @@ public class GraphEventManagerTest
 		public void notifyAddGraph( final Graph g, final Graph added )
 		{
 			add = true;
+			listSize = added.size();
 		}
 
 		@Override
 		public void notifyAddIterator( final Graph g, final Iterator<Triple> it )
 		{
 			add = true;
+			while (it.hasNext())
+			{
+				it.next();
+				listSize++;
+			}
 		}
 
 		@Override
 		public void notifyAddList( final Graph g, final List<Triple> triples )
 		{
 			add = true;
+			listSize = triples.size();
 		}
 
 		@Override
@@ -101,6 +120,7 @@ public class GraphEventManagerTest
 		public void notifyDeleteList( final Graph g, final List<Triple> L )
 		{
 			delete = true;
+			listSize = L.size();
 		}
 
 		@Override
@@ -120,6 +140,7 @@ public class GraphEventManagerTest
 			add = false;
 			delete = false;
 			event = false;
+			listSize = 0;
 		}
 
 	}
@@ -212,6 +233,327 @@ public class GraphEventManagerTest
 		listener.reset();
 	}
 
+	@Test
+	public void notifyBatchTest()
+	{
+		final Set<Action> ADD = SecurityEvaluator.Util.asSet(new Action[] {
+				Action.Create, Action.Read });
+		final Set<Action> DELETE = SecurityEvaluator.Util.asSet(new Action[] {
+				Action.Delete, Action.Read });
+		sg.getEventManager().setFlushDelay(60000);
+		sg.getEventManager().setBatchSize(3);
+		g.add(tripleArray[0]);
+		g.add(tripleArray[1]);
+		Assert.assertFalse("Should not have delivered the batch",
+				listener.isAdd());
+		g.add(tripleArray[2]);
+		if (securityEvaluator.evaluateAny(ADD, sg.getModelNode()))
+		{
+			Assert.assertTrue("Should recorded add", listener.isAdd());
+			Assert.assertEquals(3, listener.getListSize());
+		}
+		else
+		{
+			Assert.assertFalse("Should not have recorded add", listener.isAdd());
+		}
+		listener.reset();
+
+		// deletions are buffered until the batch is flushed.
+		g.delete(tripleArray[0]);
+		g.delete(tripleArray[1]);
+		Assert.assertFalse("Should not have delivered the batch",
+				listener.isDelete());
+		sg.getEventManager().flush();
+		if (securityEvaluator.evaluateAny(DELETE, sg.getModelNode()))
+		{
+			Assert.assertTrue("Should recorded delete", listener.isDelete());
+			Assert.assertEquals(2, listener.getListSize());
+		}
+		else
+		{
+			Assert.assertFalse("Should not have recorded delete",
+					listener.isDelete());
+		}
+		listener.reset();
+		sg.getEventManager().setBatchSize(0);
+		g.delete(Triple.ANY);
+		listener.reset();
+	}
+
+	@Test
+	public void notifyBatchDelayTest() throws Exception
+	{
+		final Set<Action> ADD = SecurityEvaluator.Util.asSet(new Action[] {
+				Action.Create, Action.Read });
+		sg.getEventManager().setFlushDelay(20);
+		sg.getEventManager().setBatchSize(10);
+		g.add(tripleArray[0]);
+		// the partial batch is delivered without another notification.
+		final boolean permitted = securityEvaluator.evaluateAny(ADD,
+				sg.getModelNode());
+		final long end = System.currentTimeMillis()
+				+ (permitted ? 5000 : 200);
+		while (!listener.isAdd() && (System.currentTimeMillis() < end))
+		{
+			Thread.sleep(10);
+		}
+		if (permitted)
+		{
+			Assert.assertTrue("Should recorded add", listener.isAdd());
+			Assert.assertEquals(1, listener.getListSize());
+		}
+		else
+		{
+			Assert.assertFalse("Should not have recorded add", listener.isAdd());
+		}
+		sg.getEventManager().setBatchSize(0);
+		g.delete(Triple.ANY);
+		listener.reset();
+	}
+
+	@Test
+	public void notifyBatchOrderTest() throws Exception
+	{
+		final Set<Action> ADD = SecurityEvaluator.Util.asSet(new Action[] {
+				Action.Create, Action.Read });
+		final Set<Action> DELETE = SecurityEvaluator.Util.asSet(new Action[] {
+				Action.Delete, Action.Read });
+		if (!securityEvaluator.evaluateAny(ADD, sg.getModelNode())
+				|| !securityEvaluator.evaluateAny(DELETE, sg.getModelNode()))
+		{
+			return;
+		}
+		final List<String> events = Collections
+				.synchronizedList(new ArrayList<String>());
+		final CountDownLatch inTimer = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final GraphListener ordered = new RecordingGraphListener() {
+			@Override
+			public void notifyAddList( final Graph g, final List<Triple> triples )
+			{
+				if ("SecuredGraphEventFlush".equals(Thread.currentThread()
+						.getName()))
+				{
+					inTimer.countDown();
+					try
+					{
+						// hold the timer delivery while the writer flushes.
+						release.await(500, TimeUnit.MILLISECONDS);
+					}
+					catch (final InterruptedException e)
+					{
+						Thread.currentThread().interrupt();
+					}
+				}
+				events.add("add");
+			}
+
+			@Override
+			public void notifyDeleteList( final Graph g, final List<Triple> L )
+			{
+				events.add("delete");
+			}
+		};
+		manager.register(ordered);
+		sg.getEventManager().setFlushDelay(20);
+		sg.getEventManager().setBatchSize(10);
+		try
+		{
+			g.add(tripleArray[0]);
+			Assert.assertTrue("Timer should have delivered the batch",
+					inTimer.await(5, TimeUnit.SECONDS));
+			// the writer's later delete must not overtake the timer's add.
+			g.delete(tripleArray[0]);
+			sg.getEventManager().flush();
+			release.countDown();
+			Assert.assertEquals(Arrays.asList("add", "delete"), events);
+		}
+		finally
+		{
+			release.countDown();
+			manager.unregister(ordered);
+			sg.getEventManager().setBatchSize(0);
+			g.delete(Triple.ANY);
+			listener.reset();
+		}
+	}
+
+	@Test
+	public void notifyBatchUnlockedTest() throws Exception
+	{
+		final Set<Action> ADD = SecurityEvaluator.Util.asSet(new Action[] {
+				Action.Create, Action.Read });
+		if (!securityEvaluator.evaluateAny(ADD, sg.getModelNode()))
+		{
+			return;
+		}
+		final CountDownLatch inListener = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final GraphListener blocking = new RecordingGraphListener() {
+			@Override
+			public void notifyAddList( final Graph g, final List<Triple> triples )
+			{
+				inListener.countDown();
+				try
+				{
+					release.await();
+				}
+				catch (final InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+				}
+			}
+		};
+		manager.register(blocking);
+		sg.getEventManager().setFlushDelay(60000);
+		sg.getEventManager().setBatchSize(2);
+		final Thread first = new Thread() {
+			@Override
+			public void run()
+			{
+				g.add(tripleArray[0]);
+				g.add(tripleArray[1]);
+			}
+		};
+		final Thread second = new Thread() {
+			@Override
+			public void run()
+			{
+				g.add(tripleArray[2]);
+			}
+		};
+		try
+		{
+			first.start();
+			Assert.assertTrue("Should have delivered the batch",
+					inListener.await(5, TimeUnit.SECONDS));
+			// a slow listener does not block other writers.
+			second.start();
+			second.join(5000);
+			Assert.assertFalse("Writer should not be blocked",
+					second.isAlive());
+		}
+		finally
+		{
+			release.countDown();
+			first.join(5000);
+			second.join(5000);
+			manager.unregister(blocking);
+		}
+		sg.getEventManager().setBatchSize(0);
+		g.delete(Triple.ANY);
+		listener.reset();
+	}
+
+	@Test
+	public void notifyIteratorTest()
+	{
+		final Set<Action> ADD = SecurityEvaluator.Util.asSet(new Action[] {
+				Action.Create, Action.Read });
+		final RecordingGraphListener listener2 = new RecordingGraphListener();
+		manager.register(listener2);
+		try
+		{
+			// each listener sees every triple of the single pass iterator.
+			g.getBulkUpdateHandler().add(Arrays.asList(tripleArray).iterator());
+			if (securityEvaluator.evaluateAny(ADD, sg.getModelNode()))
+			{
+				Assert.assertEquals(3, listener.getListSize());
+				Assert.assertEquals(3, listener2.getListSize());
+			}
+			else
+			{
+				Assert.assertFalse("Should not have recorded add",
+						listener.isAdd());
+				Assert.assertFalse("Should not have recorded add",
+						listener2.isAdd());
+			}
+		}
+		finally
+		{
+			manager.unregister(listener2);
+		}
+		g.delete(Triple.ANY);
+		listener.reset();
+	}
+
+	@Test
+	public void notifyPatternTest()
+	{
+		final Set<Action> ADD = SecurityEvaluator.Util.asSet(new Action[] {
+				Action.Create, Action.Read });
+		final boolean canAdd = securityEvaluator.evaluateAny(ADD,
+				sg.getModelNode());
+		final RecordingGraphListener byPredicate = new RecordingGraphListener();
+		final RecordingGraphListener bySubject = new RecordingGraphListener();
+		final RecordingGraphListener byObject = new RecordingGraphListener();
+		sg.getEventManager().register(byPredicate,
+				Node.createURI("http://example.com/v"));
+		sg.getEventManager().register(
+				bySubject,
+				new Triple(Node.createURI("http://example.com/1"), Node.ANY,
+						Node.ANY));
+		sg.getEventManager().register(byObject,
+				new Triple(Node.ANY, Node.ANY, tripleArray[2].getObject()));
+		try
+		{
+			g.add(tripleArray[1]);
+			Assert.assertEquals(canAdd, byPredicate.isAdd());
+			Assert.assertFalse("Should not have recorded add",
+					bySubject.isAdd());
+			g.add(tripleArray[0]);
+			Assert.assertEquals(canAdd, bySubject.isAdd());
+
+			byPredicate.reset();
+			bySubject.reset();
+			g.getBulkUpdateHandler().add(Arrays.asList(tripleArray));
+			if (canAdd)
+			{
+				Assert.assertEquals(3, byPredicate.getListSize());
+				Assert.assertEquals(1, bySubject.getListSize());
+			}
+			else
+			{
+				Assert.assertFalse("Should not have recorded add",
+						byPredicate.isAdd());
+				Assert.assertFalse("Should not have recorded add",
+						bySubject.isAdd());
+			}
+
+			// the iterator and graph paths deliver only the matches.
+			g.delete(Triple.ANY);
+			for (final Graph added : new Graph[] { null,
+					new CollectionGraph(Arrays.asList(tripleArray)) })
+			{
+				byPredicate.reset();
+				bySubject.reset();
+				byObject.reset();
+				if (added == null)
+				{
+					g.getBulkUpdateHandler().add(
+							Arrays.asList(tripleArray).iterator());
+				}
+				else
+				{
+					g.getBulkUpdateHandler().add(added);
+				}
+				Assert.assertEquals(canAdd ? 3 : 0, byPredicate.getListSize());
+				Assert.assertEquals(canAdd ? 1 : 0, bySubject.getListSize());
+				Assert.assertEquals(canAdd ? 1 : 0, byObject.getListSize());
+				g.delete(Triple.ANY);
+			}
+		}
+		finally
+		{
+			manager.unregister(byPredicate);
+			manager.unregister(bySubject);
+			manager.unregister(byObject);
+		}
+		Assert.assertTrue(manager.listening());
+		g.delete(Triple.ANY);
+		listener.reset();
+	}
+
 	@Test
 	public void notifyDeleteTest()
 	{
@@ -281,6 +623,69 @@ public class GraphEventManagerTest
 		listener.reset();
 	}
 
+	@Test
+	public void notifyRevokedTest()
+	{
+		final boolean[] revoked = { false };
+		final MockSecurityEvaluator evaluator = new MockSecurityEvaluator(
+				true, true, true, true, true, false) {
+			@Override
+			public boolean evaluate( final Action action )
+			{
+				return !revoked[0] && super.evaluate(action);
+			}
+		};
+		final Graph base = GraphFactory.createDefaultGraph();
+		final SecuredGraph secured = Factory.getInstance(evaluator,
+				"http://example.com/revokedGraph", base);
+		final RecordingGraphListener recorder = new RecordingGraphListener();
+		secured.getEventManager().register(recorder);
+		base.add(tripleArray[0]);
+		Assert.assertTrue("Should recorded add", recorder.isAdd());
+		base.delete(tripleArray[0]);
+		recorder.reset();
+
+		// the decisions of earlier notifications are not reused.
+		revoked[0] = true;
+		base.add(tripleArray[0]);
+		Assert.assertFalse("Should not have recorded add", recorder.isAdd());
+	}
+
+	@Test
+	public void notifyDecisionsKeptTest()
+	{
+		final int[] anyChecks = { 0 };
+		final MockSecurityEvaluator evaluator = new MockSecurityEvaluator(
+				true, true, true, true, true, false) {
+			@Override
+			public boolean evaluateAny( final Set<Action> action,
+					final SecNode graphIRI, final SecTriple triple )
+			{
+				if (SecTriple.ANY.equals(triple))
+				{
+					anyChecks[0]++;
+					return false;
+				}
+				return super.evaluateAny(action, graphIRI, triple);
+			}
+		};
+		final Graph base = GraphFactory.createDefaultGraph();
+		final SecuredGraph secured = Factory.getInstance(evaluator,
+				"http://example.com/decisionGraph", base);
+		final RecordingGraphListener recorder = new RecordingGraphListener();
+		secured.getEventManager().register(recorder);
+
+		// one notification evaluates the wildcard once.
+		base.getBulkUpdateHandler().add(tripleArray);
+		Assert.assertTrue("Should recorded add", recorder.isAdd());
+		Assert.assertEquals(1, anyChecks[0]);
+		// and the next notification evaluates it again.
+		base.getBulkUpdateHandler().delete(tripleArray);
+		anyChecks[0] = 0;
+		base.getBulkUpdateHandler().add(tripleArray);
+		Assert.assertEquals(1, anyChecks[0]);
+	}
+
 	@Test
 	public void notifyEventTest()
 	{
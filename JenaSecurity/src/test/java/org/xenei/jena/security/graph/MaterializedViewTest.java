@@ -0,0 +1,147 @@
+package org.xenei.jena.security.graph;
+
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.sparql.graph.GraphFactory;
+
+import java.security.Principal;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.xenei.jena.security.AccessDeniedException;
+import org.xenei.jena.security.MockSecurityEvaluator;
+import org.xenei.jena.security.SecurityEvaluator.Action;
+import org.xenei.jena.security.SecurityEvaluator.SecNode;
+import org.xenei.jena.security.SecurityEvaluator.SecTriple;
+import org.xenei.jena.security.SecurityEvaluatorParameters;
+
+@RunWith( value = SecurityEvaluatorParameters.class )
+public class MaterializedViewTest
+{
+	private SecuredGraph securedGraph;
+	private final MockSecurityEvaluator securityEvaluator;
+	private Graph baseGraph;
+	private Graph viewGraph;
+	private Triple t;
+	private Triple t2;
+
+	public MaterializedViewTest( final MockSecurityEvaluator securityEvaluator )
+	{
+		this.securityEvaluator = securityEvaluator;
+	}
+
+	@Before
+	public void setUp() throws Exception
+	{
+		baseGraph = GraphFactory.createDefaultGraph();
+		final Node s = Node.createURI("http://example.com/securedGraph/s");
+		final Node p = Node.createURI("http://example.com/securedGraph/p");
+		t = new Triple(s, p,
+				Node.createURI("http://example.com/securedGraph/o"));
+		t2 = new Triple(s, p,
+				Node.createURI("http://example.com/securedGraph/o2"));
+		baseGraph.add(t);
+		viewGraph = GraphFactory.createDefaultGraph();
+		securedGraph = org.xenei.jena.security.Factory.getInstance(
+				securityEvaluator, "http://example.com/securedGraph",
+				baseGraph, viewGraph);
+	}
+
+	@Test
+	public void testViewContents()
+	{
+		Assert.assertEquals(securityEvaluator.evaluate(Action.Read),
+				viewGraph.contains(t));
+		Assert.assertEquals(securityEvaluator.evaluate(Action.Read) ? 1 : 0,
+				viewGraph.size());
+	}
+
+	@Test
+	public void testViewTracksChanges()
+	{
+		baseGraph.add(t2);
+		Assert.assertEquals(securityEvaluator.evaluate(Action.Read),
+				viewGraph.contains(t2));
+		baseGraph.delete(t);
+		Assert.assertFalse(viewGraph.contains(t));
+		baseGraph.getBulkUpdateHandler().removeAll();
+		Assert.assertTrue(viewGraph.isEmpty());
+	}
+
+	@Test
+	public void testFind()
+	{
+		baseGraph.add(t2);
+		try
+		{
+			Assert.assertEquals(2,
+					securedGraph.find(Node.ANY, Node.ANY, Node.ANY).toList()
+							.size());
+			Assert.assertTrue(securedGraph.contains(t2));
+			if (!securityEvaluator.evaluate(Action.Read))
+			{
+				Assert.fail("Should have thrown AccessDenied Exception");
+			}
+		}
+		catch (final AccessDeniedException e)
+		{
+			if (securityEvaluator.evaluate(Action.Read))
+			{
+				Assert.fail(String
+						.format("Should not have thrown AccessDenied Exception: %s - %s",
+								e, e.getTriple()));
+			}
+		}
+	}
+
+	private static class NamedPrincipal implements Principal
+	{
+		@Override
+		public String getName()
+		{
+			return "SameName";
+		}
+	}
+
+	@Test
+	public void testPrincipalWithSameName()
+	{
+		final Principal[] current = { new NamedPrincipal() };
+		final Principal denied = new NamedPrincipal();
+		final MockSecurityEvaluator evaluator = new MockSecurityEvaluator(
+				true, true, true, true, true, false) {
+			@Override
+			public boolean evaluate( final Action action, final SecNode graphIRI,
+					final SecTriple triple )
+			{
+				return (current[0] != denied)
+						&& super.evaluate(action, graphIRI, triple);
+			}
+
+			@Override
+			public boolean evaluateAny( final Set<Action> actions,
+					final SecNode graphIRI, final SecTriple triple )
+			{
+				return (current[0] != denied)
+						&& super.evaluateAny(actions, graphIRI, triple);
+			}
+
+			@Override
+			public Principal getPrincipal()
+			{
+				return current[0];
+			}
+		};
+		final SecuredGraph graph = org.xenei.jena.security.Factory
+				.getInstance(evaluator, "http://example.com/securedGraph",
+						baseGraph, GraphFactory.createDefaultGraph());
+		Assert.assertTrue(graph.contains(t));
+		// the view was built for a different principal with the same name.
+		current[0] = denied;
+		Assert.assertFalse(graph.contains(t));
+	}
+}
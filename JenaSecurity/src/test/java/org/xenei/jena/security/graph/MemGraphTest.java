@@ -21,6 +21,8 @@ import org.xenei.jena.security.EqualityTester;
 import org.xenei.jena.security.MockSecurityEvaluator;
 import org.xenei.jena.security.SecurityEvaluator;
 import org.xenei.jena.security.SecurityEvaluator.Action;
+import org.xenei.jena.security.SecurityEvaluator.SecNode;
+import org.xenei.jena.security.SecurityEvaluator.SecTriple;
 import org.xenei.jena.security.SecurityEvaluatorParameters;
 
 @RunWith( value = SecurityEvaluatorParameters.class )
@@ -331,6 +333,51 @@ public class MemGraphTest
 		}
 	}
 
+	@Test
+	public void testIsIsomorphicWithRestricted() throws Exception
+	{
+		final Node denied = Node
+				.createURI("http://example.com/securedGraph/denied");
+		final int[] checks = { 0 };
+		final MockSecurityEvaluator evaluator = new MockSecurityEvaluator(
+				true, true, true, true, true, true) {
+			@Override
+			public boolean evaluate( final Action action,
+					final SecNode graphIRI, final SecTriple triple )
+			{
+				checks[0]++;
+				return !triple.getObject().getValue().equals(denied.getURI())
+						&& super.evaluate(action, graphIRI, triple);
+			}
+
+			@Override
+			public boolean evaluateAny( final Set<Action> action,
+					final SecNode graphIRI, final SecTriple triple )
+			{
+				checks[0]++;
+				return !triple.getObject().getValue().equals(denied.getURI())
+						&& super.evaluateAny(action, graphIRI, triple);
+			}
+		};
+		final SecuredGraph graph = org.xenei.jena.security.Factory
+				.getInstance(evaluator, "http://example.com/securedGraph",
+						baseGraph);
+		baseGraph.add(new Triple(s, p, denied));
+		baseGraph.add(new Triple(s, p, Node.createAnon()));
+
+		final Graph other = GraphFactory.createDefaultGraph();
+		other.add(t);
+		Assert.assertFalse(graph.isIsomorphicWith(other));
+		other.add(new Triple(s, p, Node.createAnon()));
+		checks[0] = 0;
+		Assert.assertTrue(graph.isIsomorphicWith(other));
+		// each base triple is evaluated once, blank nodes are matched over
+		// the readable copy.
+		Assert.assertEquals(baseGraph.size() + 1, checks[0]);
+		other.add(new Triple(s, p, denied));
+		Assert.assertFalse(graph.isIsomorphicWith(other));
+	}
+
 	@Test
 	public void testQueryHandler() throws Exception
 	{
@@ -0,0 +1,387 @@
+package org.xenei.jena.security.graph;
+
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.TransactionHandler;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.graph.impl.TransactionHandlerBase;
+import com.hp.hpl.jena.mem.GraphMem;
+import com.hp.hpl.jena.rdf.listeners.StatementListener;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.Statement;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.xenei.jena.security.AccessDeniedException;
+import org.xenei.jena.security.MockSecurityEvaluator;
+import org.xenei.jena.security.SecurityEvaluator;
+import org.xenei.jena.security.SecurityEvaluator.Action;
+import org.xenei.jena.security.SecurityEvaluator.SecNode;
+import org.xenei.jena.security.SecurityEvaluator.SecTriple;
+import org.xenei.jena.security.SecurityEvaluatorParameters;
+import org.xenei.jena.security.model.SecuredModel;
+
+@RunWith( value = SecurityEvaluatorParameters.class )
+public class SecuredTransactionHandlerTest
+{
+	/**
+	 * A transaction handler that restores the graph contents on abort.
+	 */
+	private class SnapshotHandler extends TransactionHandlerBase
+	{
+		GraphMem graph;
+		List<Triple> snapshot;
+		int commit;
+		int abort;
+
+		@Override
+		public void abort()
+		{
+			abort++;
+			for (final Triple t : graph.find(Triple.ANY).toList())
+			{
+				graph.performDelete(t);
+			}
+			for (final Triple t : snapshot)
+			{
+				graph.performAdd(t);
+			}
+			snapshot = null;
+		}
+
+		@Override
+		public void begin()
+		{
+			if (snapshot != null)
+			{
+				throw new UnsupportedOperationException("Nested transaction");
+			}
+			snapshot = graph.find(Triple.ANY).toList();
+		}
+
+		@Override
+		public void commit()
+		{
+			commit++;
+			snapshot = null;
+		}
+
+		@Override
+		public boolean transactionsSupported()
+		{
+			return true;
+		}
+	}
+
+	private class CountingListener extends StatementListener
+	{
+		int added;
+		int removed;
+
+		@Override
+		public void addedStatement( final Statement s )
+		{
+			added++;
+		}
+
+		@Override
+		public void removedStatement( final Statement s )
+		{
+			removed++;
+		}
+	}
+
+	private final MockSecurityEvaluator securityEvaluator;
+	private SnapshotHandler handler;
+	private Graph baseGraph;
+	private CountingListener listener;
+	private SecuredGraph securedGraph;
+	private Triple t;
+
+	public SecuredTransactionHandlerTest(
+			final MockSecurityEvaluator securityEvaluator )
+	{
+		this.securityEvaluator = securityEvaluator;
+	}
+
+	@Before
+	public void setUp()
+	{
+		handler = new SnapshotHandler();
+		handler.graph = new GraphMem() {
+			@Override
+			public TransactionHandler getTransactionHandler()
+			{
+				return handler;
+			}
+		};
+		baseGraph = handler.graph;
+		listener = new CountingListener();
+		ModelFactory.createModelForGraph(baseGraph).register(listener);
+		securedGraph = org.xenei.jena.security.Factory.getInstance(
+				securityEvaluator, "http://example.com/securedGraph",
+				baseGraph);
+		t = new Triple(Node.createURI("http://example.com/securedGraph/s"),
+				Node.createURI("http://example.com/securedGraph/p"),
+				Node.createURI("http://example.com/securedGraph/o"));
+	}
+
+	@Test
+	public void testDeferredAdd()
+	{
+		final Set<Action> UC = SecurityEvaluator.Util.asSet(new Action[] {
+				Action.Update, Action.Create });
+		final SecuredTransactionHandler tx = securedGraph
+				.getTransactionHandler();
+		tx.setDeferred(true);
+		Assert.assertTrue(tx.isDeferred());
+		tx.begin();
+		// the check is deferred so the add always succeeds.
+		securedGraph.add(t);
+		// nothing is written before commit.
+		Assert.assertFalse(baseGraph.contains(t));
+		Assert.assertEquals(0, listener.added);
+		try
+		{
+			tx.commit();
+			if (!securityEvaluator.evaluate(UC))
+			{
+				Assert.fail("Should have thrown AccessDenied Exception");
+			}
+			Assert.assertEquals(1, handler.commit);
+			Assert.assertEquals(0, handler.abort);
+			Assert.assertTrue(baseGraph.contains(t));
+			Assert.assertEquals(1, listener.added);
+		}
+		catch (final AccessDeniedException e)
+		{
+			if (securityEvaluator.evaluate(UC))
+			{
+				Assert.fail(String
+						.format("Should not have thrown AccessDenied Exception: %s - %s",
+								e, e.getTriple()));
+			}
+			Assert.assertEquals(0, handler.commit);
+			Assert.assertEquals(1, handler.abort);
+			Assert.assertFalse(baseGraph.contains(t));
+			Assert.assertEquals(0, listener.added);
+		}
+	}
+
+	@Test
+	public void testDeferredCheckFails()
+	{
+		final boolean[] failing = { false };
+		final MockSecurityEvaluator evaluator = new MockSecurityEvaluator(
+				true, true, true, true, true, false) {
+
+			@Override
+			public boolean evaluate( final Action action, final SecNode uri )
+			{
+				if (failing[0])
+				{
+					throw new IllegalStateException("evaluator failed");
+				}
+				return super.evaluate(action, uri);
+			}
+		};
+		securedGraph = org.xenei.jena.security.Factory.getInstance(evaluator,
+				"http://example.com/securedGraph", baseGraph);
+		final SecuredTransactionHandler tx = securedGraph
+				.getTransactionHandler();
+		tx.setDeferred(true);
+		tx.begin();
+		securedGraph.add(t);
+		failing[0] = true;
+		try
+		{
+			tx.commit();
+			Assert.fail("Should have thrown IllegalStateException");
+		}
+		catch (final IllegalStateException e)
+		{
+			Assert.assertEquals(0, handler.commit);
+			Assert.assertEquals(1, handler.abort);
+			Assert.assertFalse(baseGraph.contains(t));
+		}
+	}
+
+	@Test
+	public void testDeferredDelete()
+	{
+		final Set<Action> UD = SecurityEvaluator.Util.asSet(new Action[] {
+				Action.Update, Action.Delete });
+		baseGraph.add(t);
+		final SecuredTransactionHandler tx = securedGraph
+				.getTransactionHandler();
+		tx.setDeferred(true);
+		tx.begin();
+		securedGraph.delete(t);
+		Assert.assertTrue(baseGraph.contains(t));
+		Assert.assertEquals(0, listener.removed);
+		try
+		{
+			tx.commit();
+			if (!securityEvaluator.evaluate(UD))
+			{
+				Assert.fail("Should have thrown AccessDenied Exception");
+			}
+			Assert.assertEquals(1, handler.commit);
+			Assert.assertFalse(baseGraph.contains(t));
+			Assert.assertEquals(1, listener.removed);
+		}
+		catch (final AccessDeniedException e)
+		{
+			if (securityEvaluator.evaluate(UD))
+			{
+				Assert.fail(String
+						.format("Should not have thrown AccessDenied Exception: %s - %s",
+								e, e.getTriple()));
+			}
+			Assert.assertEquals(1, handler.abort);
+			Assert.assertTrue(baseGraph.contains(t));
+		}
+	}
+
+	@Test
+	public void testDeferredReadOwnChanges()
+	{
+		final Triple t2 = new Triple(t.getSubject(), t.getPredicate(),
+				Node.createURI("http://example.com/securedGraph/o2"));
+		baseGraph.add(t2);
+		final SecuredTransactionHandler tx = securedGraph
+				.getTransactionHandler();
+		tx.setDeferred(true);
+		tx.begin();
+		try
+		{
+			securedGraph.add(t);
+			securedGraph.delete(t2);
+			if (securityEvaluator.evaluate(Action.Read)
+					&& securityEvaluator.evaluate(Action.Read,
+							securedGraph.getModelNode(), SecTriple.ANY))
+			{
+				// the transaction sees its own changes.
+				Assert.assertTrue(securedGraph.contains(t));
+				Assert.assertFalse(securedGraph.contains(t2));
+				Assert.assertEquals(Collections.singletonList(t), securedGraph
+						.find(t.getSubject(), Node.ANY, Node.ANY).toList());
+			}
+		}
+		catch (final AccessDeniedException e)
+		{
+			if (securityEvaluator.evaluate(Action.Read))
+			{
+				Assert.fail(String
+						.format("Should not have thrown AccessDenied Exception: %s - %s",
+								e, e.getTriple()));
+			}
+		}
+		finally
+		{
+			tx.abort();
+		}
+		// nothing was written.
+		Assert.assertFalse(baseGraph.contains(t));
+		Assert.assertTrue(baseGraph.contains(t2));
+		Assert.assertEquals(1, listener.added);
+		Assert.assertEquals(0, listener.removed);
+	}
+
+	@Test
+	public void testNestedBegin()
+	{
+		final SecuredTransactionHandler tx = securedGraph
+				.getTransactionHandler();
+		tx.setDeferred(true);
+		tx.begin();
+		try
+		{
+			tx.begin();
+			Assert.fail("Should have thrown IllegalStateException");
+		}
+		catch (final IllegalStateException e)
+		{
+			// expected
+		}
+		finally
+		{
+			tx.abort();
+		}
+		Assert.assertEquals(1, handler.abort);
+		// a new transaction may start once the first has completed.
+		tx.begin();
+		tx.commit();
+		Assert.assertEquals(1, handler.commit);
+	}
+
+	@Test
+	public void testModelTransaction()
+	{
+		final Set<Action> UC = SecurityEvaluator.Util.asSet(new Action[] {
+				Action.Update, Action.Create });
+		final SecuredModel model = org.xenei.jena.security.Factory
+				.getInstance(securityEvaluator,
+						"http://example.com/securedGraph",
+						ModelFactory.createModelForGraph(baseGraph));
+		model.getGraph().getTransactionHandler().setDeferred(true);
+		// the model transaction is the deferred transaction of its graph.
+		model.begin();
+		model.getGraph().add(t);
+		Assert.assertFalse(baseGraph.contains(t));
+		try
+		{
+			model.commit();
+			if (!securityEvaluator.evaluate(UC))
+			{
+				Assert.fail("Should have thrown AccessDenied Exception");
+			}
+			Assert.assertTrue(baseGraph.contains(t));
+		}
+		catch (final AccessDeniedException e)
+		{
+			if (securityEvaluator.evaluate(UC))
+			{
+				Assert.fail(String
+						.format("Should not have thrown AccessDenied Exception: %s - %s",
+								e, e.getTriple()));
+			}
+			Assert.assertFalse(baseGraph.contains(t));
+		}
+	}
+
+	@Test
+	public void testImmediate()
+	{
+		final Set<Action> UC = SecurityEvaluator.Util.asSet(new Action[] {
+				Action.Update, Action.Create });
+		final TransactionHandler tx = securedGraph.getTransactionHandler();
+		tx.begin();
+		try
+		{
+			securedGraph.add(t);
+			if (!securityEvaluator.evaluate(UC))
+			{
+				Assert.fail("Should have thrown AccessDenied Exception");
+			}
+		}
+		catch (final AccessDeniedException e)
+		{
+			if (securityEvaluator.evaluate(UC))
+			{
+				Assert.fail(String
+						.format("Should not have thrown AccessDenied Exception: %s - %s",
+								e, e.getTriple()));
+			}
+			Assert.assertFalse(baseGraph.contains(t));
+		}
+		tx.commit();
+		Assert.assertEquals(1, handler.commit);
+	}
+}
@@ -0,0 +1,190 @@
+package org.xenei.jena.security.graph;
+
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.graph.impl.GraphBase;
+import com.hp.hpl.jena.sparql.graph.GraphFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.xenei.jena.security.AccessDeniedException;
+import org.xenei.jena.security.MockSecurityEvaluator;
+import org.xenei.jena.security.SecurityEvaluator.Action;
+import org.xenei.jena.security.SecurityEvaluator.SecNode;
+import org.xenei.jena.security.SecurityEvaluator.SecTriple;
+import org.xenei.jena.security.SecurityEvaluatorParameters;
+
+@RunWith( value = SecurityEvaluatorParameters.class )
+public class VisibilityIndexTest
+{
+	private SecuredGraph securedGraph;
+	private final MockSecurityEvaluator securityEvaluator;
+	private Graph baseGraph;
+	private Triple t;
+	private Triple t2;
+
+	public VisibilityIndexTest( final MockSecurityEvaluator securityEvaluator )
+	{
+		this.securityEvaluator = securityEvaluator;
+	}
+
+	@Before
+	public void setUp() throws Exception
+	{
+		baseGraph = GraphFactory.createDefaultGraph();
+		final Node s = Node.createURI("http://example.com/securedGraph/s");
+		final Node p = Node.createURI("http://example.com/securedGraph/p");
+		t = new Triple(s, p,
+				Node.createURI("http://example.com/securedGraph/o"));
+		t2 = new Triple(s, p,
+				Node.createURI("http://example.com/securedGraph/o2"));
+		baseGraph.add(t);
+		securedGraph = org.xenei.jena.security.Factory.getInstance(
+				securityEvaluator, "http://example.com/securedGraph",
+				baseGraph, 1024);
+	}
+
+	@Test
+	public void testFind()
+	{
+		baseGraph.add(t2);
+		try
+		{
+			Assert.assertEquals(2,
+					securedGraph.find(Node.ANY, Node.ANY, Node.ANY).toList()
+							.size());
+			Assert.assertTrue(securedGraph.contains(t2));
+			securedGraph.delete(t);
+			Assert.assertFalse(securedGraph.contains(t));
+			if (!securityEvaluator.evaluate(Action.Update)
+					|| !securityEvaluator.evaluate(Action.Delete))
+			{
+				Assert.fail("Should have thrown AccessDenied Exception");
+			}
+			if (!securityEvaluator.evaluate(Action.Read))
+			{
+				Assert.fail("Should have thrown AccessDenied Exception");
+			}
+		}
+		catch (final AccessDeniedException e)
+		{
+			if (securityEvaluator.evaluate(Action.Read)
+					&& securityEvaluator.evaluate(Action.Update)
+					&& securityEvaluator.evaluate(Action.Delete))
+			{
+				Assert.fail(String
+						.format("Should not have thrown AccessDenied Exception: %s - %s",
+								e, e.getTriple()));
+			}
+		}
+	}
+
+	@Test
+	public void testDeniedTriple()
+	{
+		final SecNode denied = new SecNode(SecNode.Type.URI, t2.getObject()
+				.getURI());
+		final MockSecurityEvaluator evaluator = new MockSecurityEvaluator(
+				true, true, true, true, true, true) {
+			@Override
+			public boolean evaluateAny( final Set<Action> action,
+					final SecNode graphIRI, final SecTriple triple )
+			{
+				return !triple.getObject().equals(denied)
+						&& super.evaluateAny(action, graphIRI, triple);
+			}
+		};
+		final SecuredGraph graph = org.xenei.jena.security.Factory
+				.getInstance(evaluator, "http://example.com/securedGraph",
+						baseGraph, 1024);
+		baseGraph.add(t2);
+		final List<Triple> found = graph.find(Node.ANY, Node.ANY, Node.ANY)
+				.toList();
+		Assert.assertEquals(1, found.size());
+		Assert.assertTrue(found.contains(t));
+	}
+
+	@Test
+	public void testDeniedTripleBatch()
+	{
+		final String prefix = "http://example.com/securedGraph/denied";
+		final MockSecurityEvaluator evaluator = new MockSecurityEvaluator(
+				true, true, true, true, true, true) {
+			@Override
+			public boolean evaluateAny( final Set<Action> action,
+					final SecNode graphIRI, final SecTriple triple )
+			{
+				return !triple.getObject().getValue().startsWith(prefix)
+						&& super.evaluateAny(action, graphIRI, triple);
+			}
+		};
+		final SecuredGraph graph = org.xenei.jena.security.Factory
+				.getInstance(evaluator, "http://example.com/securedGraph",
+						baseGraph, 1024);
+		// the index is searched before and after each addition.
+		Assert.assertEquals(1, graph.find(Node.ANY, Node.ANY, Node.ANY)
+				.toList().size());
+		final List<Triple> added = new ArrayList<Triple>();
+		for (int i = 0; i < 10; i++)
+		{
+			added.add(new Triple(t.getSubject(), t.getPredicate(), Node
+					.createURI(prefix + i)));
+			added.add(new Triple(t.getSubject(), t.getPredicate(), Node
+					.createURI("http://example.com/securedGraph/o" + i)));
+		}
+		baseGraph.getBulkUpdateHandler().add(added);
+		Assert.assertEquals(11, graph.find(Node.ANY, Node.ANY, Node.ANY)
+				.toList().size());
+		baseGraph.add(new Triple(t.getSubject(), t.getPredicate(), Node
+				.createURI(prefix + "X")));
+		final List<Triple> found = graph.find(Node.ANY, Node.ANY, Node.ANY)
+				.toList();
+		Assert.assertEquals(11, found.size());
+		for (final Triple f : found)
+		{
+			Assert.assertFalse(f.getObject().getURI().startsWith(prefix));
+		}
+	}
+
+	@Test
+	public void testUnseenTriple()
+	{
+		final SecNode denied = new SecNode(SecNode.Type.URI, t2.getObject()
+				.getURI());
+		final MockSecurityEvaluator evaluator = new MockSecurityEvaluator(
+				true, true, true, true, true, true) {
+			@Override
+			public boolean evaluateAny( final Set<Action> action,
+					final SecNode graphIRI, final SecTriple triple )
+			{
+				return !triple.getObject().equals(denied)
+						&& super.evaluateAny(action, graphIRI, triple);
+			}
+
+			@Override
+			public boolean evaluate( final Action action,
+					final SecNode graphIRI, final SecTriple triple )
+			{
+				return !triple.getObject().equals(denied)
+						&& super.evaluate(action, graphIRI, triple);
+			}
+		};
+		final SecuredGraph graph = org.xenei.jena.security.Factory
+				.getInstance(evaluator, "http://example.com/securedGraph",
+						baseGraph, 1024);
+		// added without notifying the index.
+		((GraphBase) baseGraph).performAdd(t2);
+		final List<Triple> found = graph.find(Node.ANY, Node.ANY, Node.ANY)
+				.toList();
+		Assert.assertEquals(1, found.size());
+		Assert.assertTrue(found.contains(t));
+		Assert.assertFalse(graph.contains(t2));
+	}
+}
@@ -1,9 +1,14 @@
 package org.xenei.jena.security.model;
 
 import com.hp.hpl.jena.rdf.model.Container;
+import com.hp.hpl.jena.rdf.model.RDFNode;
 import com.hp.hpl.jena.rdf.model.ResourceFactory;
 import com.hp.hpl.jena.rdf.model.Statement;
+import com.hp.hpl.jena.vocabulary.RDF;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Set;
 
 import org.junit.Assert;
@@ -11,9 +16,12 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.xenei.jena.security.AccessDeniedException;
+import org.xenei.jena.security.Factory;
 import org.xenei.jena.security.MockSecurityEvaluator;
 import org.xenei.jena.security.SecurityEvaluator;
 import org.xenei.jena.security.SecurityEvaluator.Action;
+import org.xenei.jena.security.SecurityEvaluator.SecNode;
+import org.xenei.jena.security.SecurityEvaluator.SecTriple;
 import org.xenei.jena.security.SecurityEvaluatorParameters;
 import org.xenei.jena.security.model.impl.SecuredContainerImpl;
 
@@ -243,6 +251,46 @@ public abstract class SecuredContainerTest extends SecuredResourceTest
 
 	}
 
+	@Test
+	public void testAddAll()
+	{
+		final Set<Action> perms = SecurityEvaluator.Util.asSet(new Action[] {
+				Action.Update, Action.Create });
+		final Container base = (Container) getBaseRDFNode();
+		final int size = base.size();
+		final List<RDFNode> values = new ArrayList<RDFNode>();
+		for (int i = 0; i < 5; i++)
+		{
+			values.add(ResourceFactory.createResource("http://example.com/tag"
+					+ i));
+		}
+		try
+		{
+			getSecuredContainer().addAll(values);
+			if (!securityEvaluator.evaluate(perms))
+			{
+				Assert.fail("Should have thrown AccessDenied Exception");
+			}
+			Assert.assertEquals(size + values.size(), base.size());
+			for (int i = 0; i < values.size(); i++)
+			{
+				Assert.assertTrue(baseModel.contains(base,
+						RDF.li(size + i + 1), values.get(i)));
+			}
+		}
+		catch (final AccessDeniedException e)
+		{
+			if (securityEvaluator.evaluate(perms))
+			{
+				Assert.fail(String
+						.format("Should not have thrown AccessDenied Exception: %s - %s",
+								e, e.getTriple()));
+			}
+			// nothing is added if any triple is denied.
+			Assert.assertEquals(size, base.size());
+		}
+	}
+
 	@Test
 	public void testContains()
 	{
@@ -412,6 +460,175 @@ public abstract class SecuredContainerTest extends SecuredResourceTest
 		}
 	}
 
+	@Test
+	public void testRemoveAll()
+	{
+		// members that fill the gaps are deleted and created.
+		final Set<Action> perms = SecurityEvaluator.Util.asSet(new Action[] {
+				Action.Update, Action.Delete, Action.Create });
+		final Container base = (Container) getBaseRDFNode();
+		final RDFNode tag1 = ResourceFactory
+				.createResource("http://example.com/tag1");
+		final RDFNode tag2 = ResourceFactory
+				.createResource("http://example.com/tag2");
+		base.add(tag1);
+		base.add(tag2);
+		base.add(tag1);
+		final int size = base.size();
+		try
+		{
+			getSecuredContainer().removeAll(Arrays.asList(tag1));
+			if (!securityEvaluator.evaluate(perms))
+			{
+				Assert.fail("Should have thrown AccessDenied Exception");
+			}
+			Assert.assertEquals(size - 2, base.size());
+			Assert.assertFalse(base.contains(tag1));
+			Assert.assertTrue(base.contains(tag2));
+			// the ordinals are still contiguous.
+			for (int i = 1; i <= base.size(); i++)
+			{
+				Assert.assertTrue(base.hasProperty(RDF.li(i)));
+			}
+		}
+		catch (final AccessDeniedException e)
+		{
+			if (securityEvaluator.evaluate(perms))
+			{
+				Assert.fail(String
+						.format("Should not have thrown AccessDenied Exception: %s - %s",
+								e, e.getTriple()));
+			}
+			Assert.assertEquals(size, base.size());
+		}
+	}
+
+	@Test
+	public void testRemoveAllMoveDenied()
+	{
+		final Container base = (Container) getBaseRDFNode();
+		final RDFNode tag1 = ResourceFactory
+				.createResource("http://example.com/tag1");
+		final RDFNode tag2 = ResourceFactory
+				.createResource("http://example.com/tag2");
+		final String moved = tag2.asNode().getURI();
+		// the last member may not be deleted so it can not fill the gap.
+		final MockSecurityEvaluator evaluator = new MockSecurityEvaluator(
+				true, true, true, true, true, true) {
+			private boolean allowed( final Action action,
+					final SecTriple triple )
+			{
+				return !triple.getSubject().equals(SecNode.ANY)
+						&& !triple.getPredicate().equals(SecNode.ANY)
+						&& !triple.getObject().equals(SecNode.ANY)
+						&& !((action == Action.Delete) && moved.equals(triple
+								.getObject().getValue()));
+			}
+
+			@Override
+			public boolean evaluate( final Action action,
+					final SecNode graphIRI, final SecTriple triple )
+			{
+				return allowed(action, triple);
+			}
+
+			@Override
+			public boolean evaluateAny( final Set<Action> action,
+					final SecNode graphIRI, final SecTriple triple )
+			{
+				for (final Action a : action)
+				{
+					if (allowed(a, triple))
+					{
+						return true;
+					}
+				}
+				return false;
+			}
+		};
+		base.add(tag1);
+		base.add(tag2);
+		final int size = base.size();
+		final SecuredContainer container = SecuredContainerImpl.getInstance(
+				Factory.getInstance(evaluator,
+						"http://example.com/moveGraph", baseModel), base);
+		try
+		{
+			container.removeAll(Arrays.asList(tag1));
+			Assert.fail("Should have thrown AccessDenied Exception");
+		}
+		catch (final AccessDeniedException e)
+		{
+			// nothing is written if any change is denied.
+			Assert.assertEquals(size, base.size());
+			Assert.assertTrue(base.contains(tag1));
+			Assert.assertTrue(base.contains(tag2));
+		}
+	}
+
+	@Test
+	public void testIndexed()
+	{
+		final SecuredContainer container = getSecuredContainer();
+		final Container base = (Container) getBaseRDFNode();
+		final RDFNode value = ResourceFactory
+				.createResource("http://example.com/indexed");
+		container.setIndexed(true);
+		Assert.assertTrue(container.isIndexed());
+		try
+		{
+			// changes to the base container are reflected in the index.
+			base.add(value);
+			Assert.assertEquals(base.size(), container.size());
+			Assert.assertTrue(container.contains(value));
+			if (!securityEvaluator.evaluate(Action.Read))
+			{
+				Assert.fail("Should have thrown AccessDenied Exception");
+			}
+			base.remove(baseModel.createStatement(base,
+					RDF.li(base.size()), value));
+			Assert.assertEquals(base.size(), container.size());
+			Assert.assertFalse(container.contains(value));
+		}
+		catch (final AccessDeniedException e)
+		{
+			if (securityEvaluator.evaluate(Action.Read))
+			{
+				Assert.fail(String
+						.format("Should not have thrown AccessDenied Exception: %s - %s",
+								e, e.getTriple()));
+			}
+		}
+
+		final Set<Action> perms = SecurityEvaluator.Util.asSet(new Action[] {
+				Action.Update, Action.Create });
+		try
+		{
+			final int size = base.size();
+			container.add(value);
+			if (!securityEvaluator.evaluate(perms))
+			{
+				Assert.fail("Should have thrown AccessDenied Exception");
+			}
+			Assert.assertEquals(size + 1, base.size());
+			Assert.assertTrue(baseModel.contains(base, RDF.li(size + 1), value));
+		}
+		catch (final AccessDeniedException e)
+		{
+			if (securityEvaluator.evaluate(perms))
+			{
+				Assert.fail(String
+						.format("Should not have thrown AccessDenied Exception: %s - %s",
+								e, e.getTriple()));
+			}
+		}
+		finally
+		{
+			container.setIndexed(false);
+		}
+		Assert.assertFalse(container.isIndexed());
+	}
+
 	@Test
 	public void testIterator()
 	{
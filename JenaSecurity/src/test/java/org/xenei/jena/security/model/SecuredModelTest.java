@@ -4,7 +4,9 @@ import com.hp.hpl.jena.datatypes.xsd.XSDDatatype;
 import com.hp.hpl.jena.graph.Graph;
 import com.hp.hpl.jena.graph.Node;
 import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.rdf.listeners.StatementListener;
 import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelChangedListener;
 import com.hp.hpl.jena.rdf.model.ModelFactory;
 import com.hp.hpl.jena.rdf.model.Property;
 import com.hp.hpl.jena.rdf.model.RDFNode;
@@ -13,6 +15,7 @@ import com.hp.hpl.jena.rdf.model.ResourceFactory;
 import com.hp.hpl.jena.rdf.model.Selector;
 import com.hp.hpl.jena.rdf.model.SimpleSelector;
 import com.hp.hpl.jena.rdf.model.Statement;
+import com.hp.hpl.jena.shared.AddDeniedException;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
@@ -22,8 +25,10 @@ import java.io.OutputStream;
 import java.io.Reader;
 import java.io.StringReader;
 import java.io.Writer;
+import java.lang.reflect.Proxy;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
 
@@ -39,6 +44,7 @@ import org.xenei.jena.security.MockPrefixMapping;
 import org.xenei.jena.security.MockSecurityEvaluator;
 import org.xenei.jena.security.SecurityEvaluator;
 import org.xenei.jena.security.SecurityEvaluator.Action;
+import org.xenei.jena.security.SecurityEvaluator.SecTriple;
 import org.xenei.jena.security.SecurityEvaluatorParameters;
 import org.xenei.jena.security.graph.SecuredGraph;
 import org.xenei.jena.security.graph.SecuredPrefixMappingTest;
@@ -838,6 +844,59 @@ public class SecuredModelTest
 		}
 	}
 
+	@Test
+	public void testFlyweightResults()
+	{
+		Assert.assertFalse(securedModel.isFlyweightResults());
+		securedModel.setFlyweightResults(true);
+		Assert.assertTrue(securedModel.isFlyweightResults());
+		try
+		{
+			final List<Statement> stmts = securedModel.listStatements()
+					.toList();
+			final List<Resource> subjects = securedModel.listSubjects()
+					.toList();
+			final List<RDFNode> objects = securedModel.listObjects().toList();
+			if (!securityEvaluator.evaluate(Action.Read))
+			{
+				Assert.fail("Should have thrown AccessDenied Exception");
+			}
+			Assert.assertEquals(1, stmts.size());
+			final Statement stmt = stmts.get(0);
+			Assert.assertTrue(stmt instanceof SecuredStatement);
+			Assert.assertFalse(Proxy.isProxyClass(stmt.getClass()));
+			Assert.assertEquals(new Triple(s.asNode(), p.asNode(), o.asNode()),
+					stmt.asTriple());
+			Assert.assertTrue(stmt.getSubject() instanceof SecuredResource);
+
+			Assert.assertEquals(1, subjects.size());
+			Assert.assertTrue(subjects.get(0) instanceof SecuredResource);
+			Assert.assertFalse(Proxy.isProxyClass(subjects.get(0).getClass()));
+			Assert.assertEquals(s.asNode(), subjects.get(0).asNode());
+
+			Assert.assertEquals(1, objects.size());
+			Assert.assertTrue(objects.get(0) instanceof SecuredRDFNode);
+			Assert.assertFalse(Proxy.isProxyClass(objects.get(0).getClass()));
+			Assert.assertEquals(o.asNode(), objects.get(0).asNode());
+
+			// the implementations and the proxies are equal.
+			securedModel.setFlyweightResults(false);
+			final Statement proxy = securedModel.listStatements().next();
+			Assert.assertTrue(Proxy.isProxyClass(proxy.getClass()));
+			Assert.assertEquals(proxy, stmt);
+			Assert.assertEquals(stmt, proxy);
+		}
+		catch (final AccessDeniedException e)
+		{
+			if (securityEvaluator.evaluate(Action.Read))
+			{
+				Assert.fail(String
+						.format("Should not have thrown AccessDenied Exception: %s - %s",
+								e, e.getTriple()));
+			}
+		}
+	}
+
 	@Test
 	public void testGetAlt() throws Exception
 	{
@@ -1629,6 +1688,158 @@ public class SecuredModelTest
 
 	}
 
+	@Test
+	public void testRegister() throws Exception
+	{
+		final List<Statement> added1 = new ArrayList<Statement>();
+		final List<Statement> added2 = new ArrayList<Statement>();
+		final ModelChangedListener l1 = new StatementListener() {
+			@Override
+			public void addedStatement( final Statement s )
+			{
+				added1.add(s);
+			}
+		};
+		final ModelChangedListener l2 = new StatementListener() {
+			@Override
+			public void addedStatement( final Statement s )
+			{
+				added2.add(s);
+			}
+		};
+		try
+		{
+			securedModel.register(l1);
+			securedModel.register(l2);
+			// registering again has no effect.
+			securedModel.register(l1);
+			if (!securityEvaluator.evaluate(Action.Read))
+			{
+				Assert.fail("Should have thrown AccessDenied Exception");
+			}
+		}
+		catch (final AccessDeniedException e)
+		{
+			if (securityEvaluator.evaluate(Action.Read))
+			{
+				Assert.fail(String
+						.format("Should not have thrown AccessDenied Exception: %s - %s",
+								e, e.getTriple()));
+			}
+			return;
+		}
+		final Statement stmt = baseModel.createStatement(s, p, "added");
+		baseModel.add(stmt);
+		baseModel.add(Arrays.asList(new Statement[] { baseModel
+				.createStatement(s, p, "list") }));
+		Assert.assertEquals(2, added1.size());
+		Assert.assertEquals(2, added2.size());
+		Assert.assertEquals(stmt, added1.get(0));
+
+		securedModel.unregister(l1);
+		baseModel.add(s, p, "after");
+		Assert.assertEquals(2, added1.size());
+		Assert.assertEquals(3, added2.size());
+		securedModel.unregister(l2);
+		baseModel.add(s, p, "removed");
+		Assert.assertEquals(3, added2.size());
+	}
+
+	@Test
+	public void testRegisterFailingListener() throws Exception
+	{
+		final SecuredModel model = Factory.getInstance(
+				new MockSecurityEvaluator(true, true, true, true, true, false),
+				"http://example.com/failingModel", baseModel);
+		final List<Statement> added = new ArrayList<Statement>();
+		final ModelChangedListener failing = new StatementListener() {
+			@Override
+			public void addedStatement( final Statement s )
+			{
+				throw new IllegalStateException("listener failed");
+			}
+		};
+		final ModelChangedListener l = new StatementListener() {
+			@Override
+			public void addedStatement( final Statement s )
+			{
+				added.add(s);
+			}
+		};
+		model.register(failing);
+		model.register(l);
+		try
+		{
+			// a failing listener does not stop delivery to the others and
+			// its exception reaches the caller once all are notified.
+			try
+			{
+				baseModel.add(s, p, "single");
+				Assert.fail("Should have thrown IllegalStateException");
+			}
+			catch (final IllegalStateException e)
+			{
+				Assert.assertEquals(1, added.size());
+			}
+			try
+			{
+				baseModel.add(Arrays.asList(new Statement[] {
+						baseModel.createStatement(s, p, "first"),
+						baseModel.createStatement(s, p, "second") }));
+				Assert.fail("Should have thrown IllegalStateException");
+			}
+			catch (final IllegalStateException e)
+			{
+				Assert.assertEquals(3, added.size());
+			}
+			// single and bulk events deliver the same kind of statement.
+			for (final Statement stmt : added)
+			{
+				Assert.assertTrue(stmt instanceof SecuredStatement);
+			}
+		}
+		finally
+		{
+			model.unregister(failing);
+			model.unregister(l);
+		}
+	}
+
+	@Test
+	public void testRegisterRevoked() throws Exception
+	{
+		final boolean[] revoked = { false };
+		final MockSecurityEvaluator evaluator = new MockSecurityEvaluator(
+				true, true, true, true, true, false) {
+			@Override
+			public boolean evaluate( final Action action )
+			{
+				return !revoked[0] && super.evaluate(action);
+			}
+		};
+		final SecuredModel model = Factory.getInstance(evaluator,
+				"http://example.com/revokedModel", baseModel);
+		final List<Statement> added = new ArrayList<Statement>();
+		final ModelChangedListener l = new StatementListener() {
+			@Override
+			public void addedStatement( final Statement s )
+			{
+				added.add(s);
+			}
+		};
+		model.register(l);
+		baseModel.add(s, p, "granted");
+		Assert.assertEquals(1, added.size());
+		baseModel.remove(s, p, baseModel.createLiteral("granted"));
+
+		// the decisions of earlier notifications are not reused.
+		revoked[0] = true;
+		baseModel.add(s, p, "granted");
+		Assert.assertEquals(1, added.size());
+		revoked[0] = false;
+		model.unregister(l);
+	}
+
 	@Test
 	public void testRemove() throws Exception
 	{
@@ -1881,6 +2092,66 @@ public class SecuredModelTest
 		}
 	}
 
+	@Test
+	public void testSetOperationContents() throws Exception
+	{
+		final Model other = ModelFactory.createDefaultModel();
+		final Resource o2 = ResourceFactory
+				.createResource("http://example.com/graph/o2");
+		other.add(s, p, o2);
+		try
+		{
+			final Model union = securedModel.union(other);
+			final Model intersection = securedModel.intersection(baseModel);
+			final Model difference = securedModel.difference(other);
+			if (!securityEvaluator.evaluate(Action.Read))
+			{
+				Assert.fail("Should have thrown AccessDenied Exception");
+			}
+			Assert.assertEquals(2, union.size());
+			Assert.assertTrue(union.contains(s, p, o2));
+			Assert.assertEquals(1, intersection.size());
+			Assert.assertTrue(difference.contains(s, p, o));
+			Assert.assertFalse(difference.contains(s, p, o2));
+
+			// fully readable results are new independent models, filtered
+			// results are read only views.
+			final boolean readAll = securedModel.canRead(SecTriple.ANY);
+			final Resource o3 = ResourceFactory
+					.createResource("http://example.com/graph/o3");
+			for (final Model m : new Model[] { union, intersection, difference })
+			{
+				try
+				{
+					m.add(s, p, o3);
+					if (!readAll)
+					{
+						Assert.fail("Should have thrown AddDeniedException");
+					}
+					Assert.assertTrue(m.contains(s, p, o3));
+				}
+				catch (final AddDeniedException e)
+				{
+					if (readAll)
+					{
+						Assert.fail("Should not have thrown AddDeniedException");
+					}
+				}
+			}
+			Assert.assertFalse(baseModel.contains(s, p, o3));
+			Assert.assertFalse(other.contains(s, p, o3));
+		}
+		catch (final AccessDeniedException e)
+		{
+			if (securityEvaluator.evaluate(Action.Read))
+			{
+				Assert.fail(String
+						.format("Should not have thrown AccessDenied Exception: %s - %s",
+								e, e.getTriple()));
+			}
+		}
+	}
+
 	@Test
 	public void testUnion() throws Exception
 	{
@@ -1,16 +1,27 @@
 package org.xenei.jena.security.model;
 
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.GraphEventManager;
+import com.hp.hpl.jena.graph.GraphListener;
+import com.hp.hpl.jena.graph.impl.SimpleEventManager;
+import com.hp.hpl.jena.mem.GraphMem;
 import com.hp.hpl.jena.rdf.model.EmptyListException;
 import com.hp.hpl.jena.rdf.model.ListIndexException;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
 import com.hp.hpl.jena.rdf.model.RDFList;
 import com.hp.hpl.jena.rdf.model.RDFList.ApplyFn;
 import com.hp.hpl.jena.rdf.model.RDFList.ReduceFn;
 import com.hp.hpl.jena.rdf.model.RDFNode;
 import com.hp.hpl.jena.rdf.model.Resource;
 import com.hp.hpl.jena.rdf.model.ResourceFactory;
+import com.hp.hpl.jena.rdf.model.Statement;
 import com.hp.hpl.jena.util.iterator.WrappedIterator;
+import com.hp.hpl.jena.vocabulary.RDF;
 
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
@@ -20,17 +31,43 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.xenei.jena.security.AccessDeniedException;
+import org.xenei.jena.security.Factory;
 import org.xenei.jena.security.MockSecurityEvaluator;
 import org.xenei.jena.security.SecurityEvaluator;
 import org.xenei.jena.security.SecurityEvaluator.Action;
+import org.xenei.jena.security.SecurityEvaluator.SecNode;
+import org.xenei.jena.security.SecurityEvaluator.SecTriple;
 import org.xenei.jena.security.SecurityEvaluatorParameters;
 import org.xenei.jena.security.model.impl.SecuredRDFListImpl;
+import org.xenei.jena.security.utils.RDFListBlockIterator;
 import org.xenei.jena.security.utils.RDFListIterator;
 import org.xenei.jena.security.utils.RDFListSecFilter;
 
 @RunWith( value = SecurityEvaluatorParameters.class )
 public class SecuredRDFListTest extends SecuredResourceTest
 {
+	private static class ListenerCount extends SimpleEventManager
+	{
+		private int registered;
+
+		ListenerCount( final Graph graph )
+		{
+			super(graph);
+		}
+
+		@Override
+		public GraphEventManager register( final GraphListener listener )
+		{
+			registered++;
+			return super.register(listener);
+		}
+
+		int size()
+		{
+			return listeners.size();
+		}
+	}
+
 	private RDFList baseList;
 	
 	public SecuredRDFListTest( final MockSecurityEvaluator securityEvaluator )
@@ -56,6 +93,11 @@ public class SecuredRDFListTest extends SecuredResourceTest
 				.toList().size();
 	}
 
+	private int listeners( final ListenerCount manager )
+	{
+		return manager == null ? 0 : manager.size();
+	}
+
 	private SecuredRDFList getSecuredRDFList()
 	{
 		return (SecuredRDFList) getSecuredRDFNode();
@@ -228,6 +270,30 @@ public class SecuredRDFListTest extends SecuredResourceTest
 
 	}
 
+	@Test
+	public void testBlockIterator()
+	{
+		final Set<Action> perms = SecurityEvaluator.Util.asSet(new Action[] {
+				Action.Read, Action.Delete });
+		for (int blockSize = 1; blockSize < 6; blockSize++)
+		{
+			final List<RDFNode> values = new ArrayList<RDFNode>();
+			final RDFListBlockIterator iter = new RDFListBlockIterator(
+					baseList, getSecuredRDFList(), perms, blockSize);
+			while (iter.hasNext())
+			{
+				final Statement s = iter.next();
+				Assert.assertEquals(RDF.first, s.getPredicate());
+				values.add(s.getObject());
+			}
+			Assert.assertEquals(count(perms), values.size());
+			if (values.size() == baseList.size())
+			{
+				Assert.assertEquals(baseList.asJavaList(), values);
+			}
+		}
+	}
+
 	@Test
 	public void testConcatenate()
 	{
@@ -274,6 +340,162 @@ public class SecuredRDFListTest extends SecuredResourceTest
 		}
 	}
 
+	@Test
+	public void testConcatenateTail()
+	{
+		final Set<Action> perms = SecurityEvaluator.Util.asSet(new Action[] {
+				Action.Update, Action.Create });
+		final List<RDFNode> expected = new ArrayList<RDFNode>(
+				baseList.asJavaList());
+		final Resource r5 = ResourceFactory
+				.createResource("http://example.com/ListNode5");
+		final Resource r6 = ResourceFactory
+				.createResource("http://example.com/ListNode6");
+		final Resource r7 = ResourceFactory
+				.createResource("http://example.com/ListNode7");
+		final Resource r8 = ResourceFactory
+				.createResource("http://example.com/ListNode8");
+		try
+		{
+			final SecuredRDFList list = getSecuredRDFList();
+			list.concatenate(Arrays.<RDFNode> asList(r5, r6).iterator());
+			// uses the remembered tail.
+			list.add(r7);
+			if (!securityEvaluator.evaluate(perms))
+			{
+				Assert.fail("Should have thrown AccessDenied Exception");
+			}
+			// a change to the links must not use the remembered tail.
+			baseList.add(r8);
+			list.add(r5);
+			expected.add(r5);
+			expected.add(r6);
+			expected.add(r7);
+			expected.add(r8);
+			expected.add(r5);
+			Assert.assertEquals(expected, baseList.asJavaList());
+			Assert.assertTrue(baseList.isValid());
+		}
+		catch (final AccessDeniedException e)
+		{
+			if (securityEvaluator.evaluate(perms))
+			{
+				Assert.fail(String
+						.format("Should not have thrown AccessDenied Exception: %s - %s",
+								e, e.getTriple()));
+			}
+			Assert.assertEquals(expected, baseList.asJavaList());
+		}
+	}
+
+	@Test
+	public void testAddKeepsWatcher()
+	{
+		final Set<Action> perms = SecurityEvaluator.Util.asSet(new Action[] {
+				Action.Update, Action.Create });
+		final ListenerCount[] manager = new ListenerCount[1];
+		final Graph graph = new GraphMem() {
+			@Override
+			public GraphEventManager getEventManager()
+			{
+				if (gem == null)
+				{
+					manager[0] = new ListenerCount(this);
+					gem = manager[0];
+				}
+				return gem;
+			}
+		};
+		final Model model = ModelFactory.createModelForGraph(graph);
+		final RDFList base = model.createList(new RDFNode[] { ResourceFactory
+				.createResource("http://example.com/ListNode1") });
+		final SecuredRDFList list = SecuredRDFListImpl.getInstance(Factory
+				.getInstance(securityEvaluator, "http://example.com/tailGraph",
+						model), base);
+		final int registered = manager[0] == null ? 0 : manager[0].registered;
+		try
+		{
+			for (int i = 2; i < 6; i++)
+			{
+				list.add(ResourceFactory
+						.createResource("http://example.com/ListNode" + i));
+			}
+			if (!securityEvaluator.evaluate(perms))
+			{
+				Assert.fail("Should have thrown AccessDenied Exception");
+			}
+			// the watcher of the remembered tail is registered once.
+			Assert.assertEquals(registered + 1, manager[0].registered);
+			Assert.assertEquals(5, base.size());
+			Assert.assertTrue(base.isValid());
+		}
+		catch (final AccessDeniedException e)
+		{
+			if (securityEvaluator.evaluate(perms))
+			{
+				Assert.fail(String
+						.format("Should not have thrown AccessDenied Exception: %s - %s",
+								e, e.getTriple()));
+			}
+			Assert.assertEquals(1, base.size());
+		}
+	}
+
+	@Test
+	public void testConcatenateTailReleased()
+	{
+		final Set<Action> perms = SecurityEvaluator.Util.asSet(new Action[] {
+				Action.Update, Action.Create });
+		final ListenerCount[] manager = new ListenerCount[1];
+		final Graph graph = new GraphMem() {
+			@Override
+			public GraphEventManager getEventManager()
+			{
+				if (gem == null)
+				{
+					manager[0] = new ListenerCount(this);
+					gem = manager[0];
+				}
+				return gem;
+			}
+		};
+		final Model model = ModelFactory.createModelForGraph(graph);
+		final RDFList base = model.createList(new RDFNode[] { ResourceFactory
+				.createResource("http://example.com/ListNode1") });
+		final SecuredRDFList list = SecuredRDFListImpl.getInstance(Factory
+				.getInstance(securityEvaluator, "http://example.com/tailGraph",
+						model), base);
+		final int listening = listeners(manager[0]);
+		try
+		{
+			list.add(ResourceFactory
+					.createResource("http://example.com/ListNode2"));
+			list.add(ResourceFactory
+					.createResource("http://example.com/ListNode3"));
+			if (!securityEvaluator.evaluate(perms))
+			{
+				Assert.fail("Should have thrown AccessDenied Exception");
+			}
+			// one watcher while the tail is remembered.
+			Assert.assertEquals(listening + 1, listeners(manager[0]));
+			// a change to the links drops the tail and its watcher.
+			base.add(ResourceFactory
+					.createResource("http://example.com/ListNode4"));
+			Assert.assertEquals(listening, listeners(manager[0]));
+			Assert.assertEquals(4, base.size());
+		}
+		catch (final AccessDeniedException e)
+		{
+			if (securityEvaluator.evaluate(perms))
+			{
+				Assert.fail(String
+						.format("Should not have thrown AccessDenied Exception: %s - %s",
+								e, e.getTriple()));
+			}
+			Assert.assertEquals(listening, listeners(manager[0]));
+		}
+	}
+
 	@Test
 	public void testCons()
 	{
@@ -524,6 +746,153 @@ public class SecuredRDFListTest extends SecuredResourceTest
 		}
 	}
 
+	@Test
+	public void testIndexed()
+	{
+		final SecuredRDFList list = getSecuredRDFList();
+		list.setIndexed(true);
+		Assert.assertTrue(list.isIndexed());
+		try
+		{
+			final List<RDFNode> expected = new ArrayList<RDFNode>();
+			for (final RDFNode n : list.iterator().toList())
+			{
+				expected.add(n);
+			}
+			if (!securityEvaluator.evaluate(Action.Read))
+			{
+				Assert.fail("Should have thrown AccessDenied Exception");
+			}
+			Assert.assertEquals(count(Action.Read), list.size());
+			for (int i = 0; i < expected.size(); i++)
+			{
+				Assert.assertEquals(expected.get(i), list.get(i));
+				Assert.assertEquals(i, list.indexOf(expected.get(i)));
+				Assert.assertEquals(-1, list.indexOf(expected.get(i), i + 1));
+			}
+
+			// changes to the base list are reflected in the index.
+			final Resource r = ResourceFactory
+					.createResource("http://example.com/ListNode5");
+			baseList.add(r);
+			Assert.assertEquals(count(Action.Read), list.size());
+			if (count(Action.Read) > expected.size())
+			{
+				Assert.assertEquals(r, list.get(expected.size()));
+				Assert.assertEquals(expected.size(), list.indexOf(r));
+			}
+			else
+			{
+				Assert.assertEquals(-1, list.indexOf(r));
+			}
+		}
+		catch (final AccessDeniedException e)
+		{
+			if (securityEvaluator.evaluate(Action.Read))
+			{
+				Assert.fail(String
+						.format("Should not have thrown AccessDenied Exception: %s - %s",
+								e, e.getTriple()));
+			}
+		}
+		finally
+		{
+			list.setIndexed(false);
+		}
+		Assert.assertFalse(list.isIndexed());
+	}
+
+	@Test
+	public void testIndexReleased()
+	{
+		SecuredRDFList list = SecuredRDFListImpl.getInstance(securedModel,
+				baseList);
+		list.setIndexed(true);
+		final WeakReference<SecuredRDFList> ref = new WeakReference<SecuredRDFList>(
+				list);
+		list = null;
+		for (int i = 0; (i < 20) && (ref.get() != null); i++)
+		{
+			System.gc();
+		}
+		// the model listener does not keep the list and unregisters itself on
+		// the next change.
+		Assert.assertNull("list was not released", ref.get());
+		baseList.add(ResourceFactory
+				.createResource("http://example.com/ListNode5"));
+	}
+
+	@Test
+	public void testInvalidateIndex()
+	{
+		final String hidden = "http://example.com/ListNode2";
+		final boolean[] revoked = { false };
+		// once revoked the cell holding ListNode2 can not be read.
+		final MockSecurityEvaluator evaluator = new MockSecurityEvaluator(
+				true, securityEvaluator.evaluate(Action.Create),
+				securityEvaluator.evaluate(Action.Read),
+				securityEvaluator.evaluate(Action.Update),
+				securityEvaluator.evaluate(Action.Delete), true) {
+
+			private boolean allowed( final SecTriple triple )
+			{
+				return !revoked[0]
+						|| !triple.getObject().getValue().equals(hidden);
+			}
+
+			@Override
+			public boolean evaluate( final Action action,
+					final SecNode graphIRI, final SecTriple triple )
+			{
+				return allowed(triple)
+						&& super.evaluate(action, graphIRI, triple);
+			}
+
+			@Override
+			public boolean evaluateAny( final Set<Action> action,
+					final SecNode graphIRI, final SecTriple triple )
+			{
+				return !triple.getSubject().equals(SecNode.ANY)
+						&& !triple.getPredicate().equals(SecNode.ANY)
+						&& !triple.getObject().equals(SecNode.ANY)
+						&& allowed(triple)
+						&& super.evaluateAny(action, graphIRI, triple);
+			}
+		};
+		final SecuredRDFList list = SecuredRDFListImpl.getInstance(Factory
+				.getInstance(evaluator, "http://example.com/indexGraph",
+						baseModel), baseList);
+		list.setIndexed(true);
+		try
+		{
+			Assert.assertEquals(4, list.size());
+			if (!securityEvaluator.evaluate(Action.Read))
+			{
+				Assert.fail("Should have thrown AccessDenied Exception");
+			}
+			revoked[0] = true;
+			// the index is not refreshed until it is invalidated.
+			Assert.assertEquals(4, list.size());
+			list.invalidateIndex();
+			Assert.assertEquals(3, list.size());
+			Assert.assertEquals(-1, list.indexOf(ResourceFactory
+					.createResource(hidden)));
+		}
+		catch (final AccessDeniedException e)
+		{
+			if (securityEvaluator.evaluate(Action.Read))
+			{
+				Assert.fail(String
+						.format("Should not have thrown AccessDenied Exception: %s - %s",
+								e, e.getTriple()));
+			}
+		}
+		finally
+		{
+			list.setIndexed(false);
+		}
+	}
+
 	@Test
 	public void testIsEmpty()
 	{
@@ -774,6 +1143,47 @@ public class SecuredRDFListTest extends SecuredResourceTest
 		}
 	}
 
+	@Test
+	public void testRemoveLongList()
+	{
+		// longer than a block so that the removal is done in several passes.
+		final List<RDFNode> values = new ArrayList<RDFNode>();
+		for (int i = 0; i < 150; i++)
+		{
+			values.add(ResourceFactory
+					.createResource("http://example.com/LongListNode" + i));
+		}
+		final RDFList longList = baseModel.createList(values.iterator());
+		final List<RDFList> cells = WrappedIterator.create(
+				new RDFListIterator(longList)).toList();
+		final SecuredRDFList list = SecuredRDFListImpl.getInstance(
+				securedModel, longList);
+		try
+		{
+			list.removeList();
+			if (!securityEvaluator.evaluate(Action.Update))
+			{
+				Assert.fail("Should have thrown AccessDenied Exception");
+			}
+		}
+		catch (final AccessDeniedException e)
+		{
+			if (securityEvaluator.evaluate(Action.Update))
+			{
+				Assert.fail(String
+						.format("Should not have thrown AccessDenied Exception: %s - %s",
+								e, e.getTriple()));
+			}
+			return;
+		}
+		final boolean removed = securityEvaluator.evaluate(Action.Read)
+				&& securityEvaluator.evaluate(Action.Delete);
+		for (final RDFList cell : cells)
+		{
+			Assert.assertEquals(!removed, baseModel.contains(cell, RDF.first));
+		}
+	}
+
 	@Test
 	public void testReplace()
 	{
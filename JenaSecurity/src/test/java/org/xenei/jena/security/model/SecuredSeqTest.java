@@ -2,9 +2,13 @@ package org.xenei.jena.security.model;
 
 import com.hp.hpl.jena.rdf.model.Alt;
 import com.hp.hpl.jena.rdf.model.Bag;
+import com.hp.hpl.jena.rdf.model.NodeIterator;
+import com.hp.hpl.jena.rdf.model.RDFNode;
 import com.hp.hpl.jena.rdf.model.ResourceFactory;
 import com.hp.hpl.jena.rdf.model.Seq;
+import com.hp.hpl.jena.vocabulary.RDF;
 
+import java.util.HashSet;
 import java.util.Set;
 
 import org.junit.Assert;
@@ -12,9 +16,12 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.xenei.jena.security.AccessDeniedException;
+import org.xenei.jena.security.Factory;
 import org.xenei.jena.security.MockSecurityEvaluator;
 import org.xenei.jena.security.SecurityEvaluator;
 import org.xenei.jena.security.SecurityEvaluator.Action;
+import org.xenei.jena.security.SecurityEvaluator.SecNode;
+import org.xenei.jena.security.SecurityEvaluator.SecTriple;
 import org.xenei.jena.security.SecurityEvaluatorParameters;
 import org.xenei.jena.security.model.impl.SecuredSeqImpl;
 
@@ -29,6 +36,22 @@ public class SecuredSeqTest extends SecuredContainerTest
 		// TODO Auto-generated constructor stub
 	}
 
+	/**
+	 * Inserting before existing members moves them so Delete and Create are
+	 * needed on the moved members as well.
+	 */
+	private Set<Action> insertPerms( final int index )
+	{
+		final Set<Action> perms = new HashSet<Action>(
+				SecurityEvaluator.Util.asSet(new Action[] { Action.Update,
+						Action.Create }));
+		if (seq.size() >= index)
+		{
+			perms.add(Action.Delete);
+		}
+		return perms;
+	}
+
 	private SecuredSeq getSecuredSeq()
 	{
 		return (SecuredSeq) getSecuredRDFNode();
@@ -47,8 +70,8 @@ public class SecuredSeqTest extends SecuredContainerTest
 	@Test
 	public void testAdd()
 	{
-		final Set<Action> perms = SecurityEvaluator.Util.asSet(new Action[] {
-				Action.Update, Action.Create });
+		Set<Action> perms;
+		perms = insertPerms(2);
 		try
 		{
 			getSecuredSeq().add(2, true);
@@ -67,6 +90,7 @@ public class SecuredSeqTest extends SecuredContainerTest
 			}
 		}
 
+		perms = insertPerms(2);
 		try
 		{
 			getSecuredSeq().add(2, 'c');
@@ -85,6 +109,7 @@ public class SecuredSeqTest extends SecuredContainerTest
 			}
 		}
 
+		perms = insertPerms(2);
 		try
 		{
 			getSecuredSeq().add(2, 3.14d);
@@ -103,6 +128,7 @@ public class SecuredSeqTest extends SecuredContainerTest
 			}
 		}
 
+		perms = insertPerms(2);
 		try
 		{
 			getSecuredSeq().add(2, 3.14F);
@@ -121,6 +147,7 @@ public class SecuredSeqTest extends SecuredContainerTest
 			}
 		}
 
+		perms = insertPerms(2);
 		try
 		{
 			getSecuredSeq().add(2, 3L);
@@ -139,6 +166,7 @@ public class SecuredSeqTest extends SecuredContainerTest
 			}
 		}
 
+		perms = insertPerms(2);
 		try
 		{
 			final Object o = Integer.MAX_VALUE;
@@ -158,6 +186,7 @@ public class SecuredSeqTest extends SecuredContainerTest
 			}
 		}
 
+		perms = insertPerms(2);
 		try
 		{
 			getSecuredSeq().add(2, ResourceFactory.createResource());
@@ -176,6 +205,7 @@ public class SecuredSeqTest extends SecuredContainerTest
 			}
 		}
 
+		perms = insertPerms(2);
 		try
 		{
 			getSecuredSeq().add(2, "Waa hoo");
@@ -194,6 +224,7 @@ public class SecuredSeqTest extends SecuredContainerTest
 			}
 		}
 
+		perms = insertPerms(2);
 		try
 		{
 			getSecuredSeq().add(2, "dos", "es");
@@ -822,6 +853,174 @@ public class SecuredSeqTest extends SecuredContainerTest
 		}
 	}
 
+	@Test
+	public void testShift()
+	{
+		final Set<Action> perms = SecurityEvaluator.Util.asSet(new Action[] {
+				Action.Update, Action.Create, Action.Delete });
+		final RDFNode a = seq.getObject(1);
+		final RDFNode b = ResourceFactory.createResource("http://example.com/b");
+		final RDFNode c = ResourceFactory.createResource("http://example.com/c");
+		final RDFNode x = ResourceFactory.createResource("http://example.com/x");
+		seq.add(b);
+		seq.add(c);
+		try
+		{
+			getSecuredSeq().add(2, x);
+			if (!securityEvaluator.evaluate(perms))
+			{
+				Assert.fail("Should have thrown AccessDenied Exception");
+			}
+			Assert.assertEquals(4, seq.size());
+			Assert.assertEquals(a, seq.getObject(1));
+			Assert.assertEquals(x, seq.getObject(2));
+			Assert.assertEquals(b, seq.getObject(3));
+			Assert.assertEquals(c, seq.getObject(4));
+
+			getSecuredSeq().remove(1);
+			Assert.assertEquals(3, seq.size());
+			Assert.assertEquals(x, seq.getObject(1));
+			Assert.assertEquals(b, seq.getObject(2));
+			Assert.assertEquals(c, seq.getObject(3));
+		}
+		catch (final AccessDeniedException e)
+		{
+			if (securityEvaluator.evaluate(perms))
+			{
+				Assert.fail(String
+						.format("Should not have thrown AccessDenied Exception: %s - %s",
+								e, e.getTriple()));
+			}
+			// nothing is moved if the shift is denied.
+			Assert.assertEquals(3, seq.size());
+			Assert.assertEquals(a, seq.getObject(1));
+			Assert.assertEquals(b, seq.getObject(2));
+			Assert.assertEquals(c, seq.getObject(3));
+		}
+	}
+
+	@Test
+	public void testIndexOfIndexed()
+	{
+		final String hidden = RDF.li(2).getURI();
+		// the member at _2 can not be read.
+		final MockSecurityEvaluator evaluator = new MockSecurityEvaluator(
+				true, securityEvaluator.evaluate(Action.Create),
+				securityEvaluator.evaluate(Action.Read),
+				securityEvaluator.evaluate(Action.Update),
+				securityEvaluator.evaluate(Action.Delete), true) {
+
+			@Override
+			public boolean evaluate( final Action action,
+					final SecNode graphIRI, final SecTriple triple )
+			{
+				return !triple.getPredicate().getValue().equals(hidden)
+						&& super.evaluate(action, graphIRI, triple);
+			}
+
+			@Override
+			public boolean evaluateAny( final Set<Action> action,
+					final SecNode graphIRI, final SecTriple triple )
+			{
+				return !triple.getSubject().equals(SecNode.ANY)
+						&& !triple.getPredicate().equals(SecNode.ANY)
+						&& !triple.getObject().equals(SecNode.ANY)
+						&& !triple.getPredicate().getValue().equals(hidden)
+						&& super.evaluateAny(action, graphIRI, triple);
+			}
+		};
+		final RDFNode value = ResourceFactory
+				.createResource("http://example.com/value");
+		final Seq base = baseModel.getSeq("http://example.com/indexTest");
+		for (int i = 1; i <= 5; i++)
+		{
+			base.add((i == 2) || (i == 5) ? value : ResourceFactory
+					.createResource("http://example.com/m" + i));
+		}
+		final SecuredSeq secured = SecuredSeqImpl.getInstance(
+				Factory.getInstance(evaluator, "http://example.com/indexGraph",
+						baseModel), base);
+		for (final boolean indexed : new boolean[] { false, true })
+		{
+			secured.setIndexed(indexed);
+			try
+			{
+				Assert.assertEquals(5, secured.indexOf(value));
+				if (!securityEvaluator.evaluate(Action.Read))
+				{
+					Assert.fail("Should have thrown AccessDenied Exception");
+				}
+			}
+			catch (final AccessDeniedException e)
+			{
+				if (securityEvaluator.evaluate(Action.Read))
+				{
+					Assert.fail(String
+							.format("Should not have thrown AccessDenied Exception: %s - %s",
+									e, e.getTriple()));
+				}
+			}
+		}
+		secured.setIndexed(false);
+	}
+
+	@Test
+	public void testOrdinalIterator()
+	{
+		// more than one block of members followed by a gap of more than one
+		// block.
+		for (int i = 0; i < 150; i++)
+		{
+			seq.add(ResourceFactory.createResource("http://example.com/m" + i));
+		}
+		final RDFNode last = ResourceFactory
+				.createResource("http://example.com/last");
+		baseModel.add(seq, RDF.li(300), last);
+		final int size = seq.size();
+		try
+		{
+			NodeIterator iter = getSecuredSeq().iterator();
+			if (!securityEvaluator.evaluate(Action.Read))
+			{
+				Assert.fail("Should have thrown AccessDenied Exception");
+			}
+			// the members are returned in ordinal order.
+			int count = 0;
+			while (iter.hasNext())
+			{
+				final RDFNode n = iter.next();
+				count++;
+				if (count < size)
+				{
+					Assert.assertEquals(seq.getObject(count), n);
+				}
+				else
+				{
+					Assert.assertEquals(last, n);
+				}
+			}
+			Assert.assertEquals(size, count);
+
+			// reading a few members does not need the rest.
+			iter = getSecuredSeq().iterator();
+			for (int i = 1; i <= 50; i++)
+			{
+				Assert.assertEquals(seq.getObject(i), iter.next());
+			}
+			iter.close();
+			Assert.assertEquals(300, getSecuredSeq().indexOf(last));
+		}
+		catch (final AccessDeniedException e)
+		{
+			if (securityEvaluator.evaluate(Action.Read))
+			{
+				Assert.fail(String
+						.format("Should not have thrown AccessDenied Exception: %s - %s",
+								e, e.getTriple()));
+			}
+		}
+	}
+
 	@Test
 	public void testSet()
 	{
@@ -0,0 +1,119 @@
+package org.xenei.jena.security.utils;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CollectionGraphTest
+{
+	private List<Triple> triples;
+	private Node s1;
+	private Node s2;
+	private Node p;
+
+	@Before
+	public void setup()
+	{
+		s1 = Node.createURI("http://example.com/s1");
+		s2 = Node.createURI("http://example.com/s2");
+		p = Node.createURI("http://example.com/p");
+		triples = new ArrayList<Triple>();
+		for (int i = 0; i < 10; i++)
+		{
+			triples.add(new Triple((i % 2) == 0 ? s1 : s2, p, Node
+					.createLiteral("" + i)));
+		}
+	}
+
+	private void verify( final CollectionGraph g )
+	{
+		Assert.assertEquals(10, g.size());
+		Assert.assertEquals(5, g.find(s1, Node.ANY, Node.ANY).toList().size());
+		Assert.assertEquals(10, g.find(Node.ANY, p, Node.ANY).toList().size());
+		Assert.assertEquals(1, g.find(Node.ANY, Node.ANY, Node.createLiteral("3"))
+				.toList().size());
+		Assert.assertTrue(g.contains(triples.get(3)));
+		Assert.assertFalse(g.contains(new Triple(s1, p, Node.createLiteral("3"))));
+
+		// changes made through the graph are reflected in the index.
+		final Triple t = new Triple(s1, p, Node.createLiteral("new"));
+		g.add(t);
+		Assert.assertEquals(11, g.size());
+		Assert.assertTrue(g.contains(t));
+		Assert.assertEquals(6, g.find(s1, Node.ANY, Node.ANY).toList().size());
+		// the graph removes from the backing list so keep the triple.
+		final Triple first = triples.get(0);
+		g.delete(first);
+		Assert.assertFalse(g.contains(first));
+		Assert.assertEquals(5, g.find(s1, Node.ANY, Node.ANY).toList().size());
+		Assert.assertTrue(g.find(Node.ANY, Node.ANY, Node.createLiteral("0"))
+				.toList().isEmpty());
+	}
+
+	@Test
+	public void testIndexed()
+	{
+		verify(new CollectionGraph(triples, true));
+	}
+
+	@Test
+	public void testIndexedContains()
+	{
+		final List<Triple> lst = new ArrayList<Triple>(triples) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public boolean contains( final Object o )
+			{
+				Assert.fail("Should have used the index");
+				return false;
+			}
+		};
+		final CollectionGraph g = new CollectionGraph(lst, true);
+		Assert.assertTrue(g.contains(triples.get(3)));
+		Assert.assertFalse(g.contains(new Triple(s1, p, Node.createLiteral("3"))));
+	}
+
+	@Test
+	public void testNotIndexed()
+	{
+		verify(new CollectionGraph(triples));
+	}
+
+	@Test
+	public void testIndexedNoRemove()
+	{
+		final CollectionGraph g = new CollectionGraph(triples, true);
+		Assert.assertEquals(5, g.find(s1, Node.ANY, Node.ANY).toList().size());
+		final Iterator<Triple> iter = g.find(Triple.ANY);
+		iter.next();
+		try
+		{
+			iter.remove();
+			Assert.fail("Should have thrown UnsupportedOperationException");
+		}
+		catch (final UnsupportedOperationException e)
+		{
+			// expected
+		}
+		Assert.assertEquals(10, triples.size());
+		Assert.assertEquals(5, g.find(s1, Node.ANY, Node.ANY).toList().size());
+	}
+
+	@Test
+	public void testNotIndexedLiveCollection()
+	{
+		final CollectionGraph g = new CollectionGraph(triples);
+		Assert.assertEquals(5, g.find(s1, Node.ANY, Node.ANY).toList().size());
+		// changes made to the collection are seen by the graph.
+		triples.add(new Triple(s1, p, Node.createLiteral("new")));
+		Assert.assertEquals(6, g.find(s1, Node.ANY, Node.ANY).toList().size());
+	}
+}
@@ -0,0 +1,210 @@
+package org.xenei.jena.security.utils;
+
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.shared.JenaException;
+
+import java.io.StringReader;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.xenei.jena.security.AccessDeniedException;
+import org.xenei.jena.security.Factory;
+import org.xenei.jena.security.MockSecurityEvaluator;
+import org.xenei.jena.security.SecurityEvaluator.Action;
+import org.xenei.jena.security.SecurityEvaluator.SecNode;
+import org.xenei.jena.security.SecurityEvaluator.SecTriple;
+import org.xenei.jena.security.graph.SecuredGraph;
+import org.xenei.jena.security.model.SecuredModel;
+
+public class SecuredGraphSinkTest
+{
+	/**
+	 * Denies the creation of triples with the secret subject and the ANY
+	 * checks so that every triple is evaluated.
+	 */
+	private static class SecretEvaluator extends MockSecurityEvaluator
+	{
+		SecretEvaluator( final boolean update )
+		{
+			super(true, true, true, update, true, true);
+		}
+
+		private boolean allowed( final SecTriple triple )
+		{
+			return !triple.getSubject().equals(SecNode.ANY)
+					&& !triple.getPredicate().equals(SecNode.ANY)
+					&& !triple.getObject().equals(SecNode.ANY)
+					&& !triple.getSubject().getValue().equals(SECRET);
+		}
+
+		@Override
+		public boolean evaluate( final Action action, final SecNode graphIRI,
+				final SecTriple triple )
+		{
+			return allowed(triple);
+		}
+
+		@Override
+		public boolean evaluateAny( final Set<Action> action,
+				final SecNode graphIRI, final SecTriple triple )
+		{
+			return allowed(triple);
+		}
+	}
+
+	private static final String SECRET = "http://example.com/secret";
+
+	private Graph baseGraph;
+	private SecuredGraph securedGraph;
+
+	private Triple triple( final String subject, final int i )
+	{
+		return new Triple(Node.createURI(subject),
+				Node.createURI("http://example.com/p"),
+				Node.createLiteral("value " + i));
+	}
+
+	@Before
+	public void setup()
+	{
+		baseGraph = ModelFactory.createDefaultModel().getGraph();
+		securedGraph = Factory.getInstance(new SecretEvaluator(true),
+				"http://example.com/securedGraph", baseGraph);
+	}
+
+	@Test
+	public void testBatches()
+	{
+		final SecuredGraphSink sink = new SecuredGraphSink(securedGraph,
+				baseGraph, 10);
+		for (int i = 0; i < 25; i++)
+		{
+			sink.send(triple("http://example.com/s", i));
+		}
+		Assert.assertEquals(20, baseGraph.size());
+		sink.close();
+		Assert.assertEquals(25, baseGraph.size());
+	}
+
+	@Test
+	public void testCreateDenied()
+	{
+		final SecuredGraphSink sink = new SecuredGraphSink(securedGraph,
+				baseGraph, 10);
+		try
+		{
+			for (int i = 0; i < 25; i++)
+			{
+				sink.send(triple(i == 15 ? SECRET : "http://example.com/s", i));
+			}
+			Assert.fail("Should have thrown AccessDenied Exception");
+		}
+		catch (final AccessDeniedException e)
+		{
+			Assert.assertNotNull(e.getTriple());
+		}
+		// the first batch is added, none of the denied batch is.
+		Assert.assertEquals(10, baseGraph.size());
+		Assert.assertFalse(baseGraph.contains(triple("http://example.com/s",
+				10)));
+	}
+
+	@Test
+	public void testDiscard()
+	{
+		final SecuredGraphSink sink = new SecuredGraphSink(securedGraph,
+				baseGraph, 10);
+		for (int i = 0; i < 15; i++)
+		{
+			sink.send(triple("http://example.com/s", i));
+		}
+		sink.discard();
+		sink.close();
+		Assert.assertEquals(10, baseGraph.size());
+	}
+
+	@Test
+	public void testParseFailure()
+	{
+		final Model baseModel = ModelFactory.createModelForGraph(baseGraph);
+		final SecuredModel securedModel = Factory.getInstance(
+				new SecretEvaluator(true), "http://example.com/securedGraph",
+				baseModel);
+		final StringBuilder sb = new StringBuilder(
+				"@prefix ex: <http://example.com/> .\n");
+		for (int i = 0; i < 1500; i++)
+		{
+			sb.append("ex:s ex:p \"value ").append(i).append("\" .\n");
+		}
+		sb.append("ex:s ex:p .\n");
+		try
+		{
+			securedModel.read(new StringReader(sb.toString()),
+					"http://example.com/", "TURTLE");
+			Assert.fail("Should have thrown JenaException");
+		}
+		catch (final JenaException e)
+		{
+			// expected
+		}
+		// the full batch is kept, the buffered triples are dropped.
+		Assert.assertEquals(SecuredGraphSink.DEFAULT_BATCH_SIZE,
+				baseModel.size());
+	}
+
+	@Test
+	public void testRead()
+	{
+		final Model baseModel = ModelFactory.createModelForGraph(baseGraph);
+		final SecuredModel securedModel = Factory.getInstance(
+				new SecretEvaluator(true), "http://example.com/securedGraph",
+				baseModel);
+		final StringBuilder sb = new StringBuilder(
+				"@prefix ex: <http://example.com/> .\n");
+		for (int i = 0; i < 2500; i++)
+		{
+			sb.append("ex:s").append(i % 10).append(" ex:p \"value ")
+					.append(i).append("\" .\n");
+		}
+		securedModel.read(new StringReader(sb.toString()),
+				"http://example.com/", "TURTLE");
+		Assert.assertEquals(2500, baseModel.size());
+		Assert.assertEquals("http://example.com/",
+				baseModel.getNsPrefixURI("ex"));
+
+		try
+		{
+			securedModel.read(new StringReader("<" + SECRET
+					+ "> <http://example.com/p> \"hidden\" .\n"),
+					"http://example.com/", "N-TRIPLE");
+			Assert.fail("Should have thrown AccessDenied Exception");
+		}
+		catch (final AccessDeniedException e)
+		{
+			Assert.assertNotNull(e.getTriple());
+		}
+		Assert.assertEquals(2500, baseModel.size());
+	}
+
+	@Test
+	public void testUpdateDenied()
+	{
+		securedGraph = Factory.getInstance(new SecretEvaluator(false),
+				"http://example.com/securedGraph", baseGraph);
+		try
+		{
+			new SecuredGraphSink(securedGraph, baseGraph);
+			Assert.fail("Should have thrown AccessDenied Exception");
+		}
+		catch (final AccessDeniedException e)
+		{
+			Assert.assertNull(e.getTriple());
+		}
+	}
+}
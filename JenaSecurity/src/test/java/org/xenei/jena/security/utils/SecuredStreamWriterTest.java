@@ -0,0 +1,168 @@
+package org.xenei.jena.security.utils;
+
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.Property;
+import com.hp.hpl.jena.rdf.model.Resource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.xenei.jena.security.Factory;
+import org.xenei.jena.security.MockSecurityEvaluator;
+import org.xenei.jena.security.SecurityEvaluator.Action;
+import org.xenei.jena.security.SecurityEvaluator.SecNode;
+import org.xenei.jena.security.SecurityEvaluator.SecTriple;
+import org.xenei.jena.security.model.SecuredModel;
+
+public class SecuredStreamWriterTest
+{
+	/**
+	 * Denies the triples of the secret subject and the ANY checks so that
+	 * every triple is evaluated.
+	 */
+	private static class SecretEvaluator extends MockSecurityEvaluator
+	{
+		SecretEvaluator()
+		{
+			super(true, true, true, true, true, true);
+		}
+
+		private boolean allowed( final SecTriple triple )
+		{
+			return !triple.getSubject().equals(SecNode.ANY)
+					&& !triple.getPredicate().equals(SecNode.ANY)
+					&& !triple.getObject().equals(SecNode.ANY)
+					&& !triple.getSubject().getValue().equals(SECRET);
+		}
+
+		@Override
+		public boolean evaluate( final Action action, final SecNode graphIRI,
+				final SecTriple triple )
+		{
+			return allowed(triple);
+		}
+
+		@Override
+		public boolean evaluateAny( final Set<Action> action,
+				final SecNode graphIRI, final SecTriple triple )
+		{
+			return allowed(triple);
+		}
+	}
+
+	private static final String SECRET = "http://example.com/secret";
+
+	private Model baseModel;
+	private Model expected;
+	private SecuredModel securedModel;
+
+	@Before
+	public void setup()
+	{
+		baseModel = ModelFactory.createDefaultModel();
+		baseModel.setNsPrefix("ex", "http://example.com/");
+		final Property p = baseModel.createProperty("http://example.com/p");
+		final Property q = baseModel.createProperty("http://example.com/q");
+		final Resource secret = baseModel.createResource(SECRET);
+		final Resource anon = baseModel.createResource();
+		// more than one block and more than one buffer of output.
+		for (int i = 0; i < 3000; i++)
+		{
+			final Resource s = baseModel.createResource("http://example.com/s"
+					+ (i % 100));
+			s.addProperty(p, "value " + i + " caf\u00e9 \u2603 \ud83d\ude00 \"quoted\"\n");
+			s.addProperty(q, baseModel.createTypedLiteral(i));
+		}
+		anon.addProperty(p, "anon", "en");
+		anon.addProperty(q, secret);
+		secret.addProperty(p, "hidden");
+		secret.addProperty(q, anon);
+
+		expected = ModelFactory.createDefaultModel();
+		expected.add(baseModel);
+		expected.removeAll(secret, null, null);
+
+		securedModel = Factory.getInstance(new SecretEvaluator(),
+				"http://example.com/securedGraph", baseModel);
+	}
+
+	private void verify( final String lang, final String text )
+	{
+		final Model result = ModelFactory.createDefaultModel();
+		result.read(new StringReader(text), "http://example.com/", lang);
+		Assert.assertEquals(expected.size(), result.size());
+		Assert.assertTrue(expected.isIsomorphicWith(result));
+	}
+
+	@Test
+	public void testFormats()
+	{
+		Assert.assertEquals(SecuredStreamWriter.Format.NTRIPLES,
+				SecuredStreamWriter.getFormat("N-TRIPLE"));
+		Assert.assertEquals(SecuredStreamWriter.Format.NQUADS,
+				SecuredStreamWriter.getFormat("N-Quads"));
+		Assert.assertEquals(SecuredStreamWriter.Format.TURTLE,
+				SecuredStreamWriter.getFormat("TTL"));
+		Assert.assertNull(SecuredStreamWriter.getFormat("RDF/XML"));
+	}
+
+	@Test
+	public void testNQuads() throws Exception
+	{
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		securedModel.write(out, "N-QUADS");
+		final String text = new String(out.toByteArray(), "UTF-8");
+		final String[] lines = text.split("\n");
+		Assert.assertEquals(expected.size(), lines.length);
+		final StringBuilder triples = new StringBuilder();
+		for (final String line : lines)
+		{
+			Assert.assertTrue(line,
+					line.endsWith(" <http://example.com/securedGraph> ."));
+			Assert.assertFalse(line, line.startsWith("<" + SECRET + ">"));
+			triples.append(
+					line.substring(0, line.length()
+							- " <http://example.com/securedGraph> .".length()))
+					.append(" .\n");
+		}
+		verify("N-TRIPLE", triples.toString());
+	}
+
+	@Test
+	public void testNTriples() throws Exception
+	{
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		securedModel.write(out, "N-TRIPLE");
+		final Model result = ModelFactory.createDefaultModel();
+		result.read(new ByteArrayInputStream(out.toByteArray()), null,
+				"N-TRIPLE");
+		Assert.assertEquals(expected.size(), result.size());
+		Assert.assertTrue(expected.isIsomorphicWith(result));
+
+		final StringWriter writer = new StringWriter();
+		securedModel.write(writer, "N-TRIPLE");
+		verify("N-TRIPLE", writer.toString());
+	}
+
+	@Test
+	public void testTurtle() throws Exception
+	{
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		securedModel.write(out, "TURTLE", "http://example.com/");
+		final String text = new String(out.toByteArray(), "UTF-8");
+		Assert.assertTrue(text.startsWith("@base <http://example.com/> ."));
+		Assert.assertTrue(text.contains("@prefix ex: <http://example.com/> ."));
+		verify("TURTLE", text);
+
+		final StringWriter writer = new StringWriter();
+		securedModel.write(writer, "TURTLE");
+		verify("TURTLE", writer.toString());
+	}
+}